@@ -0,0 +1,23 @@
+package ma.yassine.ecomidempotency;
+
+import ma.yassine.ecomidempotency.entities.IdempotencyRecord;
+import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.boot.autoconfigure.AutoConfigurationPackage;
+import org.springframework.boot.autoconfigure.data.jpa.JpaRepositoriesAutoConfiguration;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernateJpaAutoConfiguration;
+import org.springframework.context.annotation.Import;
+
+/**
+ * Honours {@code Idempotency-Key} headers in every service that depends on this module, with one
+ * {@link IdempotencyFilter} in front of the controllers and one {@link IdempotencyStore} behind it.
+ * <p>
+ * The {@link IdempotencyRecord} entity and its repository are added to the packages scanned by JPA, so the
+ * services keep their responses in their own {@code idempotency_record} table. The store is configured with
+ * the {@code idempotency.cache-size}, {@code idempotency.lock-timeout} and {@code idempotency.retention}
+ * properties.
+ */
+@AutoConfiguration(before = {HibernateJpaAutoConfiguration.class, JpaRepositoriesAutoConfiguration.class})
+@AutoConfigurationPackage(basePackageClasses = IdempotencyAutoConfiguration.class)
+@Import({IdempotencyStore.class, IdempotencyFilter.class})
+public class IdempotencyAutoConfiguration {
+}
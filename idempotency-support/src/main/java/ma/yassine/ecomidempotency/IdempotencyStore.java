@@ -0,0 +1,253 @@
+package ma.yassine.ecomidempotency;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import ma.yassine.ecomidempotency.entities.IdempotencyRecord;
+import ma.yassine.ecomidempotency.repositories.IdempotencyRecordRepository;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The responses to requests sent with an {@code Idempotency-Key} header.
+ * <p>
+ * Completed responses are kept in the {@code idempotency_record} table for {@code retention}, and the most
+ * recent ones in a bounded cache in front of it, so that most retries are answered from memory. A key is
+ * claimed by inserting its record before the first request runs: a duplicate of a request still in
+ * progress on this node waits for it, and a duplicate of a request in progress on another node polls its
+ * record, for at most {@code lock-timeout}. A claim is a lease of {@code lock-timeout}, which the node
+ * renews while the request runs; a claim whose lease ran out was left by a node that stopped, and is taken
+ * over. The response of a request is only stored if its node still holds the claim.
+ */
+public class IdempotencyStore implements SmartInitializingSingleton, DisposableBean {
+
+    /**
+     * A response as it is replayed: its status, its content type and location headers, and its body.
+     */
+    public record StoredResponse(int status, String contentType, String location, byte[] body) {
+    }
+
+    public enum Outcome {
+        // The key is claimed: the request runs, then is completed or abandoned.
+        PROCEED,
+        // The request already ran: its response is replayed.
+        REPLAY,
+        // The key was used for another request.
+        MISMATCH,
+        // The request is still running elsewhere after the lock timeout.
+        IN_PROGRESS
+    }
+
+    public record Claim(Outcome outcome, StoredResponse response) {
+        private static final Claim PROCEED = new Claim(Outcome.PROCEED, null);
+        private static final Claim MISMATCH = new Claim(Outcome.MISMATCH, null);
+        private static final Claim IN_PROGRESS = new Claim(Outcome.IN_PROGRESS, null);
+    }
+
+    private record Entry(String fingerprint, StoredResponse response) {
+    }
+
+    private static final Duration POLL_INTERVAL = Duration.ofMillis(50);
+
+    private final IdempotencyRecordRepository idempotencyRecordRepository;
+    private final Duration lockTimeout;
+    private final Duration retention;
+    private final Cache<String, Entry> completed;
+    // Requests in progress on this node, completed with their entry, or with null if they were abandoned.
+    private final Map<String, CompletableFuture<Entry>> inProgress = new ConcurrentHashMap<>();
+    // Identifies the claims of this node.
+    private final String token = UUID.randomUUID().toString();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("idempotency-store").daemon().factory());
+
+    public IdempotencyStore(IdempotencyRecordRepository idempotencyRecordRepository,
+                            @Value("${idempotency.cache-size:10000}") long cacheSize,
+                            @Value("${idempotency.lock-timeout:30s}") Duration lockTimeout,
+                            @Value("${idempotency.retention:24h}") Duration retention) {
+        this.idempotencyRecordRepository = idempotencyRecordRepository;
+        this.lockTimeout = lockTimeout;
+        this.retention = retention;
+        this.completed = Caffeine.newBuilder().maximumSize(cacheSize).expireAfterWrite(retention).build();
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        long renewalMillis = Math.max(1, lockTimeout.toMillis() / 3);
+        scheduler.scheduleWithFixedDelay(this::renew, renewalMillis, renewalMillis, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::purge, 1, 60, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Claims a key for a request, or finds the response of the request that already used it. Waits while a
+     * request with the same key is in progress.
+     *
+     * @param key the idempotency key
+     * @param fingerprint identifies the request, so that a key reused for another request is refused
+     * @return the claim; only a {@link Outcome#PROCEED} claim must be completed or abandoned
+     */
+    public Claim claim(String key, String fingerprint) throws InterruptedException {
+        long deadline = System.nanoTime() + lockTimeout.toNanos();
+        while (true) {
+            Entry done = completed.getIfPresent(key);
+            if (done != null) {
+                return replay(done, fingerprint);
+            }
+            CompletableFuture<Entry> mine = new CompletableFuture<>();
+            CompletableFuture<Entry> running = inProgress.putIfAbsent(key, mine);
+            if (running != null) {
+                Entry entry = await(running, deadline);
+                if (entry != null) {
+                    return replay(entry, fingerprint);
+                }
+                if (System.nanoTime() - deadline >= 0) {
+                    return Claim.IN_PROGRESS;
+                }
+                // Abandoned: try to claim the key again.
+                continue;
+            }
+
+            Claim claim = claimStored(key, fingerprint);
+            if (claim != null) {
+                if (claim.outcome() != Outcome.PROCEED) {
+                    inProgress.remove(key, mine);
+                    mine.complete(claim.outcome() == Outcome.REPLAY ? completed.getIfPresent(key) : null);
+                }
+                return claim;
+            }
+            // Running on another node.
+            inProgress.remove(key, mine);
+            mine.complete(null);
+            if (System.nanoTime() - deadline >= 0) {
+                return Claim.IN_PROGRESS;
+            }
+            Thread.sleep(POLL_INTERVAL);
+        }
+    }
+
+    /**
+     * Stores the response of a claimed request, and hands it to the duplicates waiting for it. If another
+     * node took the claim over in the meantime, the response is not stored, and the duplicates wait for
+     * that node instead.
+     */
+    public void complete(String key, String fingerprint, StoredResponse response) {
+        Entry entry = new Entry(fingerprint, response);
+        boolean stored = false;
+        try {
+            stored = idempotencyRecordRepository.complete(key, token, response.status(), response.contentType(),
+                    response.location(), response.body()) == 1;
+            if (stored) {
+                completed.put(key, entry);
+            } else {
+                System.err.printf("Error: Idempotency key %s was taken over before its request completed; its response is not stored.%n", key);
+            }
+        } finally {
+            CompletableFuture<Entry> running = inProgress.remove(key);
+            if (running != null) {
+                running.complete(stored ? entry : null);
+            }
+        }
+    }
+
+    /**
+     * Gives up a claimed key, after a request that failed, so that it can be sent again with the same key.
+     */
+    public void abandon(String key) {
+        try {
+            idempotencyRecordRepository.release(key, token);
+        } finally {
+            CompletableFuture<Entry> running = inProgress.remove(key);
+            if (running != null) {
+                running.complete(null);
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * @return the claim of the key in the table, or null if it is held by a request running on another node
+     */
+    private Claim claimStored(String key, String fingerprint) {
+        Instant now = Instant.now();
+        try {
+            if (idempotencyRecordRepository.claim(key, fingerprint, now, token, now.plus(lockTimeout)) == 1) {
+                return Claim.PROCEED;
+            }
+        } catch (DataIntegrityViolationException e) {
+            // Claimed by another node at the same instant.
+        }
+        IdempotencyRecord record = idempotencyRecordRepository.findById(key).orElse(null);
+        if (record == null) {
+            // Released in the meantime; the next attempt claims it.
+            return null;
+        }
+        if (!record.getFingerprint().equals(fingerprint)) {
+            return Claim.MISMATCH;
+        }
+        if (record.getStatus() != null) {
+            Entry entry = new Entry(fingerprint, new StoredResponse(record.getStatus(), record.getContentType(), record.getLocation(), record.getBody()));
+            completed.put(key, entry);
+            return new Claim(Outcome.REPLAY, entry.response());
+        }
+        if (idempotencyRecordRepository.reclaim(key, now, token, now.plus(lockTimeout)) == 1) {
+            System.out.printf("Took over idempotency key %s, whose lease ran out.%n", key);
+            return Claim.PROCEED;
+        }
+        return null;
+    }
+
+    private static Claim replay(Entry entry, String fingerprint) {
+        return entry.fingerprint().equals(fingerprint) ? new Claim(Outcome.REPLAY, entry.response()) : Claim.MISMATCH;
+    }
+
+    private static Entry await(CompletableFuture<Entry> running, long deadline) throws InterruptedException {
+        try {
+            return running.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Extends the leases of the keys claimed by this node, so that no other node takes over a request that
+     * is still running.
+     */
+    void renew() {
+        try {
+            Set<String> keys = Set.copyOf(inProgress.keySet());
+            if (!keys.isEmpty()) {
+                idempotencyRecordRepository.renew(keys, token, Instant.now().plus(lockTimeout));
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Error: Could not renew idempotency claims: " + e.getMessage());
+        }
+    }
+
+    private void purge() {
+        try {
+            int purged = idempotencyRecordRepository.deleteCreatedBefore(Instant.now().minus(retention));
+            if (purged > 0) {
+                System.out.printf("Purged %d idempotency record(s).%n", purged);
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Error: Could not purge idempotency records: " + e.getMessage());
+        }
+    }
+}
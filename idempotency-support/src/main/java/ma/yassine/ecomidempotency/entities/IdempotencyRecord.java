@@ -0,0 +1,45 @@
+package ma.yassine.ecomidempotency.entities;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.Instant;
+
+/**
+ * The response to a request sent with an {@code Idempotency-Key} header, kept so that a retry of the same
+ * request is answered with it instead of being applied again. The record is written when the first request
+ * starts, without a status, and completed with its response once it is done.
+ */
+@Entity
+@AllArgsConstructor @NoArgsConstructor
+@Getter @Setter @Builder
+@Table(name = "idempotency_record", indexes = @Index(name = "idx_idempotency_record_created_at", columnList = "created_at"))
+public class IdempotencyRecord {
+    @Id
+    @Column(length = 255)
+    private String idempotencyKey;
+
+    // SHA-256 of the caller, method, URI and body, so that a key reused for another request is refused.
+    @Column(nullable = false, length = 64)
+    private String fingerprint;
+
+    // Null while the first request is in progress.
+    private Integer status;
+
+    private String contentType;
+
+    private String location;
+
+    @Lob
+    private byte[] body;
+
+    @Column(name = "created_at", nullable = false)
+    private Instant createdAt;
+
+    // The node running the first request, which renews its lease until it completes or abandons it.
+    @Column(length = 36)
+    private String claimToken;
+
+    // Once past, the node running the first request is taken for stopped and the key can be claimed again.
+    private Instant leaseUntil;
+}
@@ -0,0 +1,79 @@
+package ma.yassine.ecomidempotency.repositories;
+
+import ma.yassine.ecomidempotency.entities.IdempotencyRecord;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.Collection;
+
+public interface IdempotencyRecordRepository extends JpaRepository<IdempotencyRecord, String> {
+
+    /**
+     * Claims a key for the first request that uses it, unless it is already claimed, here or on another node.
+     * The row is only inserted if the key has no record, so a duplicate does not fail the statement.
+     *
+     * @return 1 if the key was claimed, 0 if it already has a record
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "INSERT INTO idempotency_record (idempotency_key, fingerprint, created_at, claim_token, lease_until) " +
+            "SELECT :key, :fingerprint, :now, :token, :leaseUntil FROM DUAL " +
+            "WHERE NOT EXISTS (SELECT 1 FROM idempotency_record WHERE idempotency_key = :key)",
+            nativeQuery = true)
+    int claim(@Param("key") String key, @Param("fingerprint") String fingerprint, @Param("now") Instant now,
+              @Param("token") String token, @Param("leaseUntil") Instant leaseUntil);
+
+    /**
+     * Claims again a key whose first request never completed and whose lease ran out, because the node
+     * handling it stopped.
+     *
+     * @return 1 if the key was claimed, 0 if it was completed, renewed or claimed again in the meantime
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE IdempotencyRecord r SET r.createdAt = :now, r.claimToken = :token, r.leaseUntil = :leaseUntil " +
+            "WHERE r.idempotencyKey = :key AND r.status IS NULL AND (r.leaseUntil IS NULL OR r.leaseUntil < :now)")
+    int reclaim(@Param("key") String key, @Param("now") Instant now, @Param("token") String token,
+                @Param("leaseUntil") Instant leaseUntil);
+
+    /**
+     * Extends the leases of the given keys, as long as they are still claimed with the given token.
+     *
+     * @return the number of leases extended
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE IdempotencyRecord r SET r.leaseUntil = :leaseUntil " +
+            "WHERE r.idempotencyKey IN :keys AND r.claimToken = :token AND r.status IS NULL")
+    int renew(@Param("keys") Collection<String> keys, @Param("token") String token, @Param("leaseUntil") Instant leaseUntil);
+
+    /**
+     * Stores the response of a request, as long as its key is still claimed with the given token.
+     *
+     * @return 1 if the response was stored, 0 if the key was claimed again by another node
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE IdempotencyRecord r SET r.status = :status, r.contentType = :contentType, r.location = :location, " +
+            "r.body = :body, r.leaseUntil = NULL WHERE r.idempotencyKey = :key AND r.claimToken = :token AND r.status IS NULL")
+    int complete(@Param("key") String key, @Param("token") String token, @Param("status") int status,
+                 @Param("contentType") String contentType, @Param("location") String location, @Param("body") byte[] body);
+
+    /**
+     * Gives up a claimed key, so that the request can be sent again with it, as long as it is still claimed
+     * with the given token.
+     */
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM IdempotencyRecord r WHERE r.idempotencyKey = :key AND r.claimToken = :token AND r.status IS NULL")
+    int release(@Param("key") String key, @Param("token") String token);
+
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM IdempotencyRecord r WHERE r.createdAt < :before")
+    int deleteCreatedBefore(@Param("before") Instant before);
+}
@@ -0,0 +1,236 @@
+package ma.yassine.ecomidempotency;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletResponse;
+import ma.yassine.ecomidempotency.repositories.IdempotencyRecordRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DataJpaTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class IdempotencyFilterTest {
+    @Autowired
+    private IdempotencyRecordRepository idempotencyRecordRepository;
+
+    private final AtomicInteger decrements = new AtomicInteger();
+    private IdempotencyFilter filter;
+
+    @BeforeEach
+    void setUp() {
+        filter = newNode();
+    }
+
+    @Test
+    void replaysTheStoredResponseWithoutDecrementingAgain() throws Exception {
+        String key = UUID.randomUUID().toString();
+        FilterChain decrement = (request, response) -> {
+            response.setContentType("application/json");
+            response.getWriter().write(String.valueOf(100 - decrements.incrementAndGet()));
+        };
+
+        MockHttpServletResponse first = send(filter, key, "", decrement);
+        MockHttpServletResponse retry = send(filter, key, "", decrement);
+        // Another node, or this one after a restart, finds the response in the table.
+        MockHttpServletResponse elsewhere = send(newNode(), key, "", decrement);
+
+        assertEquals(1, decrements.get());
+        assertEquals("99", first.getContentAsString());
+        assertNull(first.getHeader(IdempotencyFilter.IDEMPOTENT_REPLAYED));
+        for (MockHttpServletResponse replayed : new MockHttpServletResponse[]{retry, elsewhere}) {
+            assertEquals(200, replayed.getStatus());
+            assertEquals("99", replayed.getContentAsString());
+            assertEquals("application/json", replayed.getContentType());
+            assertEquals("true", replayed.getHeader(IdempotencyFilter.IDEMPOTENT_REPLAYED));
+        }
+    }
+
+    @Test
+    void replaysTheLocationOfACreatedOrder() throws Exception {
+        String key = UUID.randomUUID().toString();
+        FilterChain createOrder = (request, response) -> {
+            ((HttpServletResponse) response).setStatus(202);
+            ((HttpServletResponse) response).setHeader("Location", "/api/orders/1/status");
+            response.setContentType("application/json");
+            response.getWriter().write("{\"id\":" + decrements.incrementAndGet() + ",\"orderState\":\"PENDING\"}");
+        };
+
+        MockHttpServletResponse first = send(filter, key, "", createOrder);
+        MockHttpServletResponse retry = send(filter, key, "", createOrder);
+
+        assertEquals(1, decrements.get());
+        assertEquals(202, retry.getStatus());
+        assertEquals("/api/orders/1/status", retry.getHeader("Location"));
+        assertEquals(first.getContentAsString(), retry.getContentAsString());
+        assertEquals("true", retry.getHeader(IdempotencyFilter.IDEMPOTENT_REPLAYED));
+    }
+
+    @Test
+    void refusesAKeyReusedForAnotherRequestAndForgetsServerErrors() throws Exception {
+        String key = UUID.randomUUID().toString();
+        FilterChain failing = (request, response) -> ((HttpServletResponse) response).setStatus(503);
+        FilterChain reserve = (request, response) -> {
+            decrements.incrementAndGet();
+            response.getWriter().write(new String(request.getInputStream().readAllBytes(), StandardCharsets.UTF_8));
+        };
+
+        assertEquals(503, send(filter, key, "[1]", failing).getStatus());
+        MockHttpServletResponse retried = send(filter, key, "[1]", reserve);
+        MockHttpServletResponse reused = send(filter, key, "[2]", reserve);
+
+        assertEquals(200, retried.getStatus());
+        assertEquals("[1]", retried.getContentAsString());
+        assertEquals(422, reused.getStatus());
+        assertEquals(1, decrements.get());
+    }
+
+    @Test
+    void hasTheBodyReadWithoutBlocking() throws Exception {
+        String key = UUID.randomUUID().toString();
+        FilterChain readAsync = (request, response) -> {
+            ServletInputStream in = request.getInputStream();
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            in.setReadListener(new ReadListener() {
+                @Override
+                public void onDataAvailable() throws IOException {
+                    while (in.isReady() && !in.isFinished()) {
+                        body.write(in.read());
+                    }
+                }
+
+                @Override
+                public void onAllDataRead() throws IOException {
+                    response.getWriter().write(body.toString(StandardCharsets.UTF_8));
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    throw new IllegalStateException(t);
+                }
+            });
+        };
+
+        assertEquals("[1]", send(filter, key, "[1]", readAsync).getContentAsString());
+    }
+
+    @Test
+    void aDuplicateWaitsForTheRequestInProgress() throws Exception {
+        String key = UUID.randomUUID().toString();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        FilterChain slowDecrement = slowDecrement(started, finish);
+
+        CompletableFuture<MockHttpServletResponse> first = CompletableFuture.supplyAsync(() -> sendUnchecked(filter, key, slowDecrement));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        CompletableFuture<MockHttpServletResponse> duplicate = CompletableFuture.supplyAsync(() -> sendUnchecked(filter, key, slowDecrement));
+        Thread.sleep(200);
+        assertFalse(duplicate.isDone());
+        finish.countDown();
+
+        assertEquals("99", first.get(5, TimeUnit.SECONDS).getContentAsString());
+        assertEquals("99", duplicate.get(5, TimeUnit.SECONDS).getContentAsString());
+        assertEquals(1, decrements.get());
+    }
+
+    @Test
+    void aSlowRequestKeepsItsClaimPastTheLockTimeout() throws Exception {
+        String key = UUID.randomUUID().toString();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        IdempotencyStore slowNode = new IdempotencyStore(idempotencyRecordRepository, 100, Duration.ofMillis(300), Duration.ofHours(1));
+        slowNode.afterSingletonsInstantiated();
+        try {
+            CompletableFuture<MockHttpServletResponse> first = CompletableFuture.supplyAsync(() ->
+                    sendUnchecked(new IdempotencyFilter(slowNode), key, slowDecrement(started, finish)));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            Thread.sleep(600);
+
+            // The claim was renewed, so another node waits for it rather than decrementing again.
+            IdempotencyFilter otherNode = new IdempotencyFilter(new IdempotencyStore(idempotencyRecordRepository, 100, Duration.ofMillis(300), Duration.ofHours(1)));
+            assertEquals(409, send(otherNode, key, "", (request, response) -> decrements.incrementAndGet()).getStatus());
+            finish.countDown();
+
+            assertEquals("99", first.get(5, TimeUnit.SECONDS).getContentAsString());
+            assertEquals(1, decrements.get());
+        } finally {
+            slowNode.destroy();
+        }
+    }
+
+    @Test
+    void aNodeWhoseClaimWasTakenOverDoesNotStoreItsResponse() throws Exception {
+        String key = UUID.randomUUID().toString();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        // Never renews its claim, like a node stalled for longer than the lock timeout.
+        IdempotencyStore stalledNode = new IdempotencyStore(idempotencyRecordRepository, 100, Duration.ofMillis(200), Duration.ofHours(1));
+        CompletableFuture<MockHttpServletResponse> first = CompletableFuture.supplyAsync(() ->
+                sendUnchecked(new IdempotencyFilter(stalledNode), key, slowDecrement(started, finish)));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Thread.sleep(400);
+
+        MockHttpServletResponse takenOver = send(newNode(), key, "", (request, response) ->
+                response.getWriter().write(String.valueOf(100 - decrements.incrementAndGet())));
+        finish.countDown();
+        first.get(5, TimeUnit.SECONDS);
+
+        assertEquals("99", takenOver.getContentAsString());
+        assertNull(takenOver.getHeader(IdempotencyFilter.IDEMPOTENT_REPLAYED));
+        // Retries get the response of the node that holds the claim.
+        MockHttpServletResponse retry = send(newNode(), key, "", (request, response) -> decrements.incrementAndGet());
+        assertEquals("99", retry.getContentAsString());
+        assertEquals("true", retry.getHeader(IdempotencyFilter.IDEMPOTENT_REPLAYED));
+    }
+
+    private FilterChain slowDecrement(CountDownLatch started, CountDownLatch finish) {
+        return (request, response) -> {
+            started.countDown();
+            try {
+                finish.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            response.getWriter().write(String.valueOf(100 - decrements.incrementAndGet()));
+        };
+    }
+
+    private IdempotencyFilter newNode() {
+        return new IdempotencyFilter(new IdempotencyStore(idempotencyRecordRepository, 100, Duration.ofSeconds(5), Duration.ofHours(1)));
+    }
+
+    private static MockHttpServletResponse sendUnchecked(IdempotencyFilter filter, String key, FilterChain chain) {
+        try {
+            return send(filter, key, "", chain);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MockHttpServletResponse send(IdempotencyFilter filter, String key, String body, FilterChain chain) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/products/" + UUID.nameUUIDFromBytes(key.getBytes()) + "/decrement-quantity/1");
+        request.addHeader(IdempotencyFilter.IDEMPOTENCY_KEY, key);
+        request.setContent(body.getBytes(StandardCharsets.UTF_8));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, chain);
+        return response;
+    }
+}
@@ -0,0 +1,10 @@
+package ma.yassine.ecomidempotency;
+
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+
+/**
+ * The configuration of the tests of this module, which has no application of its own.
+ */
+@SpringBootApplication
+class IdempotencyTestApplication {
+}
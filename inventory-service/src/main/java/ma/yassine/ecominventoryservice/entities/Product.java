@@ -3,7 +3,11 @@ package ma.yassine.ecominventoryservice.entities;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import jakarta.persistence.Version;
 import lombok.*;
+import org.hibernate.annotations.ColumnDefault;
 import org.hibernate.annotations.UuidGenerator;
 
 import java.util.UUID;
@@ -11,6 +15,11 @@ import java.util.UUID;
 @Entity
 @AllArgsConstructor @NoArgsConstructor
 @Getter @Setter @Builder
+// Back the price and quantity range filters of the product search; each index also covers the other column.
+@Table(indexes = {
+        @Index(name = "idx_product_price_quantity", columnList = "price, quantity"),
+        @Index(name = "idx_product_quantity_price", columnList = "quantity, price")
+})
 public class Product {
     @Id @UuidGenerator(style = UuidGenerator.Style.TIME)
     private UUID id;
@@ -23,4 +32,10 @@ public class Product {
 
     private Integer quantity;
 
+    // Existing rows get version 0 when the column is added, so they are not mistaken for new entities.
+    @Version
+    @ColumnDefault("0")
+    @Column(nullable = false)
+    private Long version;
+
 }
@@ -0,0 +1,28 @@
+package ma.yassine.ecominventoryservice.entities;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.util.UUID;
+
+/**
+ * The single row that tells the epoch and the last version of the stock change feed. Nodes lock it to
+ * append changes, one batch at a time.
+ */
+@Entity
+@AllArgsConstructor @NoArgsConstructor
+@Getter @Setter @Builder
+@Table(name = "stock_change_feed")
+public class StockChangeFeedHead {
+    public static final int ID = 1;
+
+    @Id
+    private Integer id;
+
+    // Changes only if the feed is created again, e.g. on a new database.
+    @Column(nullable = false)
+    private UUID epoch;
+
+    @Column(nullable = false)
+    private Long version;
+}
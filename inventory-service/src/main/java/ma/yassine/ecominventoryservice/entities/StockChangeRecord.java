@@ -0,0 +1,38 @@
+package ma.yassine.ecominventoryservice.entities;
+
+import jakarta.persistence.*;
+import lombok.*;
+import ma.yassine.ecominventoryservice.events.ProductChangedEvent;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
+
+import java.util.UUID;
+
+/**
+ * One entry of the stock change feed, shared by all inventory nodes. Versions are handed out by the
+ * {@link StockChangeFeedHead} in the transaction that inserts the entries, so they follow commit order and
+ * have no gaps.
+ */
+@Entity
+@AllArgsConstructor @NoArgsConstructor
+@Getter @Setter @Builder
+@Table(name = "stock_change")
+public class StockChangeRecord {
+    // Assigned from the feed head rather than generated.
+    @Id
+    private Long version;
+
+    @Enumerated(EnumType.STRING)
+    @JdbcTypeCode(SqlTypes.VARCHAR)
+    @Column(nullable = false, length = 16)
+    private ProductChangedEvent.Type type;
+
+    @Column(nullable = false)
+    private UUID productId;
+
+    private Double price;
+
+    private Integer quantity;
+
+    private Long productVersion;
+}
@@ -0,0 +1,38 @@
+package ma.yassine.ecominventoryservice.entities;
+
+import jakarta.persistence.*;
+import lombok.*;
+import ma.yassine.ecominventoryservice.models.StockLine;
+import org.hibernate.annotations.UuidGenerator;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Stock set aside for a checkout in progress. The stock of its lines is taken when the hold is placed,
+ * and given back unless the hold is confirmed before it expires.
+ */
+@Entity
+@AllArgsConstructor @NoArgsConstructor
+@Getter @Setter @Builder
+@Table(indexes = @Index(name = "idx_stock_hold_status", columnList = "status"))
+public class StockHold {
+    public enum Status {
+        HELD, CONFIRMED, RELEASED, EXPIRED
+    }
+
+    @Id @UuidGenerator(style = UuidGenerator.Style.TIME)
+    private UUID id;
+
+    @ElementCollection(fetch = FetchType.EAGER)
+    @CollectionTable(name = "stock_hold_line", joinColumns = @JoinColumn(name = "hold_id"))
+    private List<StockLine> lines;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private Status status;
+
+    @Column(nullable = false)
+    private Instant expiresAt;
+}
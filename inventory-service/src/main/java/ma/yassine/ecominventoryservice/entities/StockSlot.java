@@ -0,0 +1,40 @@
+package ma.yassine.ecominventoryservice.entities;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.IdClass;
+import lombok.*;
+
+import java.io.Serializable;
+import java.util.UUID;
+
+/**
+ * One share of the stock of a sharded product. The stock of a product is its own quantity plus the
+ * quantities of its slots, so that concurrent reservations can each lock a different row.
+ */
+@Entity
+@IdClass(StockSlot.Key.class)
+@AllArgsConstructor @NoArgsConstructor
+@Getter @Setter @Builder
+public class StockSlot {
+    @Id
+    private UUID productId;
+    @Id
+    private Integer slot;
+
+    @Column(nullable = false)
+    private Integer quantity;
+
+    // Incremented by every change to the slot, so that the version of a product plus those of its slots
+    // grows with every change to its stock.
+    @Column(nullable = false)
+    private Long version;
+
+    @AllArgsConstructor @NoArgsConstructor
+    @Getter @Setter @EqualsAndHashCode
+    public static class Key implements Serializable {
+        private UUID productId;
+        private Integer slot;
+    }
+}
@@ -0,0 +1,58 @@
+package ma.yassine.ecominventoryservice.events;
+
+import ma.yassine.ecominventoryservice.entities.Product;
+import ma.yassine.ecominventoryservice.models.StockLevel;
+
+import java.util.UUID;
+
+/**
+ * Published by the product service whenever a product is created, updated or deleted, or its stock
+ * changes, within the transaction that made the change, so that the stock change feed records it in that
+ * transaction. Listeners that keep derived data, such as the search index, should handle it after the
+ * transaction has committed.
+ *
+ * @param type what happened to the product
+ * @param productId the unique identifier of the product
+ * @param name the name of the product after the change, or null if it was deleted or only its quantity changed
+ * @param description the description of the product after the change, or null if it was deleted or only its quantity changed
+ * @param price the price of the product after the change, or null if it was deleted or only its quantity changed
+ * @param quantity the quantity of the product after the change, or null if it was deleted
+ * @param version the version of the product after the change, or null if it was deleted; a change with
+ *                a higher version always happened after one with a lower version
+ */
+public record ProductChangedEvent(Type type, UUID productId, String name, String description, Double price,
+                                  Integer quantity, Long version) {
+
+    public enum Type {
+        CREATED,
+        UPDATED,
+        DELETED,
+        QUANTITY_CHANGED
+    }
+
+    public static ProductChangedEvent created(Product product) {
+        return new ProductChangedEvent(Type.CREATED, product.getId(), product.getName(), product.getDescription(),
+                product.getPrice(), product.getQuantity(), product.getVersion());
+    }
+
+    public static ProductChangedEvent updated(Product product) {
+        return new ProductChangedEvent(Type.UPDATED, product.getId(), product.getName(), product.getDescription(),
+                product.getPrice(), product.getQuantity(), product.getVersion());
+    }
+
+    /**
+     * An update of a product whose stock is not held by its own row, with the stock read separately.
+     */
+    public static ProductChangedEvent updated(Product product, StockLevel stock) {
+        return new ProductChangedEvent(Type.UPDATED, product.getId(), product.getName(), product.getDescription(),
+                product.getPrice(), stock.getQuantity(), stock.getVersion());
+    }
+
+    public static ProductChangedEvent deleted(UUID productId) {
+        return new ProductChangedEvent(Type.DELETED, productId, null, null, null, null, null);
+    }
+
+    public static ProductChangedEvent quantityChanged(UUID productId, Integer quantity, Long version) {
+        return new ProductChangedEvent(Type.QUANTITY_CHANGED, productId, null, null, null, quantity, version);
+    }
+}
@@ -0,0 +1,13 @@
+package ma.yassine.ecominventoryservice.models;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * The expiry of a hold that is still open, read without its lines.
+ */
+public interface OpenHold {
+    UUID getId();
+
+    Instant getExpiresAt();
+}
@@ -0,0 +1,20 @@
+package ma.yassine.ecominventoryservice.models;
+
+import java.util.UUID;
+
+/**
+ * Projection of a product on all its columns, for loading the read model without managing entities.
+ */
+public interface ProductRow {
+    UUID getId();
+
+    String getName();
+
+    String getDescription();
+
+    Double getPrice();
+
+    Integer getQuantity();
+
+    Long getVersion();
+}
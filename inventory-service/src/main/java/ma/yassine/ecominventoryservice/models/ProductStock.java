@@ -0,0 +1,11 @@
+package ma.yassine.ecominventoryservice.models;
+
+import java.util.UUID;
+
+/**
+ * Projection of a product on its stock, with the ID of the product, for reading the stock of several
+ * products at once.
+ */
+public interface ProductStock extends StockLevel {
+    UUID getId();
+}
@@ -0,0 +1,14 @@
+package ma.yassine.ecominventoryservice.models;
+
+import java.util.UUID;
+
+/**
+ * Projection of a product on the fields covered by the search index.
+ */
+public interface ProductText {
+    UUID getId();
+
+    String getName();
+
+    String getDescription();
+}
@@ -0,0 +1,12 @@
+package ma.yassine.ecominventoryservice.models;
+
+import java.util.UUID;
+
+/**
+ * Projection of a product whose stock is spread over stock slots, with the number of slots.
+ */
+public interface ShardedProduct {
+    UUID getProductId();
+
+    Long getSlots();
+}
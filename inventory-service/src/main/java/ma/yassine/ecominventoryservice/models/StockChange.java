@@ -0,0 +1,19 @@
+package ma.yassine.ecominventoryservice.models;
+
+import ma.yassine.ecominventoryservice.events.ProductChangedEvent;
+
+import java.util.UUID;
+
+/**
+ * One entry of the stock change feed.
+ *
+ * @param version the position of the change in the feed, one more than the change before it
+ * @param type what happened to the product
+ * @param productId the unique identifier of the product
+ * @param price the price of the product after the change, or null if it was deleted or only its quantity changed
+ * @param quantity the quantity of the product after the change, or null if it was deleted
+ * @param productVersion the version of the product after the change, or null if it was deleted
+ */
+public record StockChange(long version, ProductChangedEvent.Type type, UUID productId, Double price, Integer quantity,
+                          Long productVersion) {
+}
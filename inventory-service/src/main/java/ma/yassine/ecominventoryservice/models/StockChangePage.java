@@ -0,0 +1,16 @@
+package ma.yassine.ecominventoryservice.models;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The changes of the stock change feed after a given version.
+ *
+ * @param epoch identifies the feed; versions of different epochs cannot be compared
+ * @param version the version to ask for changes after next time
+ * @param reset true if the changes asked for are no longer available, in which case the reader must load
+ *              the whole catalog again, then read the changes after {@code version}
+ * @param changes the changes, oldest first
+ */
+public record StockChangePage(UUID epoch, long version, boolean reset, List<StockChange> changes) {
+}
@@ -0,0 +1,22 @@
+package ma.yassine.ecominventoryservice.models;
+
+import java.util.List;
+
+/**
+ * A change of stock sent in a batch to {@code /api/products/stock-commands}, applied at most once per key.
+ *
+ * @param idempotencyKey identifies the command, so that sending it again does not apply it twice
+ * @param type what to do with the stock of the lines
+ * @param reservationKey for a release, the key of the reservation it gives back, or null to give the lines back
+ *                       unconditionally
+ * @param lines the products and quantities to reserve or give back
+ */
+public record StockCommand(String idempotencyKey, Type type, String reservationKey, List<StockLine> lines) {
+
+    public enum Type {
+        // Takes the stock of every line, or of none.
+        RESERVE,
+        // Gives the stock of the lines back.
+        RELEASE
+    }
+}
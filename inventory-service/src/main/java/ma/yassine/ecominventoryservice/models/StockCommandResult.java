@@ -0,0 +1,19 @@
+package ma.yassine.ecominventoryservice.models;
+
+/**
+ * The outcome of a {@link StockCommand}.
+ *
+ * @param idempotencyKey the key of the command
+ * @param outcome what became of it
+ */
+public record StockCommandResult(String idempotencyKey, Outcome outcome) {
+
+    public enum Outcome {
+        // The command was applied, now or by an earlier attempt.
+        APPLIED,
+        // The command cannot be applied, e.g. for lack of stock; sending it again gives the same answer.
+        REJECTED,
+        // The command could not be applied now, or is still being applied by an earlier attempt; send it again.
+        RETRY
+    }
+}
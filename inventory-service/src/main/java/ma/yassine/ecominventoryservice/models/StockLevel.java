@@ -0,0 +1,10 @@
+package ma.yassine.ecominventoryservice.models;
+
+/**
+ * Projection of a product on its stock: the quantity and the version it was read at.
+ */
+public interface StockLevel {
+    Integer getQuantity();
+
+    Long getVersion();
+}
@@ -0,0 +1,13 @@
+package ma.yassine.ecominventoryservice.models;
+
+import jakarta.persistence.Embeddable;
+import lombok.*;
+
+import java.util.UUID;
+
+@Embeddable
+@AllArgsConstructor @NoArgsConstructor @Getter @Setter @ToString
+public class StockLine {
+    private UUID productId;
+    private Integer quantity;
+}
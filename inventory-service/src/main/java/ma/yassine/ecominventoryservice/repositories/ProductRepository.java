@@ -1,44 +1,160 @@
 package ma.yassine.ecominventoryservice.repositories;
 
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
 import ma.yassine.ecominventoryservice.entities.Product;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.Pageable;
+import ma.yassine.ecominventoryservice.models.ProductRow;
+import ma.yassine.ecominventoryservice.models.ProductStock;
+import ma.yassine.ecominventoryservice.models.ProductText;
+import ma.yassine.ecominventoryservice.models.StockLevel;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.stream.Stream;
 
-public interface ProductRepository extends JpaRepository<Product, UUID> {
-
-    /**
-     * Retrieves a paginated list of products based on the specified search criteria.
-     *
-     * @param id the unique identifier of the product, can be partial. Pass null or empty to ignore this filter.
-     * @param name the name of the product, supports partial matches. Pass null or empty to ignore this filter.
-     * @param description the description of the product, supports partial matches. Pass null or empty to ignore this filter.
-     * @param minPrice the minimum price filter for the product. Pass null to ignore this filter.
-     * @param maxPrice the maximum price filter for the product. Pass null to ignore this filter.
-     * @param minQuantity the minimum quantity filter for the product. Pass null to ignore this filter.
-     * @param maxQuantity the maximum quantity filter for the product. Pass null to ignore this filter.
-     * @param pageable the pagination and sorting information.
-     * @return a page of products matching the specified criteria.
-     */
-    @Query("SELECT p FROM Product p WHERE " +
-            "(:id IS NULL OR LOWER(CAST(p.id AS STRING)) LIKE :id%) AND " +
-            "(:name IS NULL OR LOWER(p.name) LIKE %:name%) AND " +
-            "(:description IS NULL OR LOWER(p.description) LIKE %:description%) AND " +
-            "(:minPrice IS NULL OR p.price >= :minPrice) AND " +
-            "(:maxPrice IS NULL OR p.price <= :maxPrice) AND " +
-            "(:minQuantity IS NULL OR p.quantity >= :minQuantity) AND " +
-            "(:maxQuantity IS NULL OR p.quantity <= :maxQuantity) ")
-    Page<Product> getProductsByCriteria(
-            @Param("id") String id,
-            @Param("name") String name,
-            @Param("description") String description,
-            @Param("minPrice") Double minPrice,
-            @Param("maxPrice") Double maxPrice,
-            @Param("minQuantity") Integer minQuantity,
-            @Param("maxQuantity") Integer maxQuantity,
-            Pageable pageable);
+/**
+ * Product persistence. Searches are built from {@link ProductSpecifications}, so only the criteria that
+ * are given end up in the SQL.
+ */
+public interface ProductRepository extends JpaRepository<Product, UUID>, JpaSpecificationExecutor<Product>, ProductSearchRepository {
+    // The stock of a product of alias p, counting its stock slots, and the version of that stock.
+    String STOCK_QUANTITY = "CAST(p.quantity + COALESCE((SELECT SUM(s.quantity) FROM StockSlot s WHERE s.productId = p.id), 0) AS Integer)";
+    String STOCK_VERSION = "p.version + COALESCE((SELECT SUM(s.version) FROM StockSlot s WHERE s.productId = p.id), 0)";
+
+    /**
+     * Atomically decrements the quantity of a product, but only if enough stock is available.
+     * The check and the write happen in a single UPDATE statement, so concurrent reservations
+     * can neither oversell nor lose each other's updates.
+     *
+     * @param id the unique identifier of the product
+     * @param quantity the amount to subtract from the product's quantity
+     * @return the number of updated rows: 1 if the stock was decremented, 0 if the product does not exist
+     *         or has insufficient stock
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Product p SET p.quantity = p.quantity - :quantity, p.version = p.version + 1 " +
+            "WHERE p.id = :id AND p.quantity >= :quantity")
+    int decrementQuantity(@Param("id") UUID id, @Param("quantity") Integer quantity);
+
+    /**
+     * Atomically increments the quantity of a product.
+     *
+     * @param id the unique identifier of the product
+     * @param quantity the amount to add to the product's quantity
+     * @return the number of updated rows: 1 if the stock was incremented, 0 if the product does not exist
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Product p SET p.quantity = p.quantity + :quantity, p.version = p.version + 1 WHERE p.id = :id")
+    int incrementQuantity(@Param("id") UUID id, @Param("quantity") Integer quantity);
+
+    /**
+     * Sets the quantity of a product, as the hot stock ledger does when it writes its counters back. The
+     * version is left alone: the counters carry their own, and bumping it on every write-back would make
+     * every update of a hot product fail with a stale version.
+     *
+     * @param id the unique identifier of the product
+     * @param quantity the new quantity of the product
+     * @return the number of updated rows: 1 if the quantity was set, 0 if the product does not exist
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Product p SET p.quantity = :quantity WHERE p.id = :id")
+    int setQuantity(@Param("id") UUID id, @Param("quantity") Integer quantity);
+
+    /**
+     * Reads a product and locks its row until the end of the transaction.
+     *
+     * @param id the unique identifier of the product
+     * @return the product, or empty if it does not exist
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT p FROM Product p WHERE p.id = :id")
+    Optional<Product> lockById(@Param("id") UUID id);
+
+    /**
+     * Reads only the current quantity of a product.
+     *
+     * @param id the unique identifier of the product
+     * @return the quantity of the product, or null if the product does not exist
+     */
+    @Query("SELECT p.quantity FROM Product p WHERE p.id = :id")
+    Integer findQuantityById(@Param("id") UUID id);
+
+    /**
+     * Reads only the current stock of a product: its quantity plus that of its stock slots if it is
+     * sharded, and its version plus theirs, which grows with every change to the stock.
+     *
+     * @param id the unique identifier of the product
+     * @return the stock level of the product, or null if the product does not exist
+     */
+    @Query("SELECT " + STOCK_QUANTITY + " AS quantity, " + STOCK_VERSION + " AS version FROM Product p WHERE p.id = :id")
+    StockLevel findStockById(@Param("id") UUID id);
+
+    /**
+     * Reads only the current stock of several products with a single query, like {@link #findStockById}.
+     *
+     * @param ids the unique identifiers of the products
+     * @return the stock levels of the products found, in no particular order
+     */
+    @Query("SELECT p.id AS id, " + STOCK_QUANTITY + " AS quantity, " + STOCK_VERSION + " AS version FROM Product p WHERE p.id IN :ids")
+    List<ProductStock> findStocksByIds(@Param("ids") Collection<UUID> ids);
+
+    /**
+     * Moves stock from the slots of a product back to the product, adding the versions of the slots to its
+     * own so that its stock version does not go back.
+     *
+     * @param id the unique identifier of the product
+     * @param quantity the quantity held by the slots
+     * @param versions the sum of the versions of the slots
+     * @return the number of updated rows: 1 if the stock was added, 0 if the product does not exist
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Product p SET p.quantity = COALESCE(p.quantity, 0) + :quantity, p.version = p.version + :versions + 1 WHERE p.id = :id")
+    int addSlotStock(@Param("id") UUID id, @Param("quantity") int quantity, @Param("versions") long versions);
+
+    /**
+     * Streams all products from a database cursor, fetching {@code 500} rows per round trip. The entities
+     * are loaded read-only, so Hibernate keeps no snapshot of them for dirty checking. Must be consumed
+     * inside a transaction and closed after use.
+     *
+     * @return a stream of all products, in ID order
+     */
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT p FROM Product p ORDER BY p.id")
+    Stream<Product> streamAll();
+
+    /**
+     * Streams the ID, name and description of all products, for rebuilding the search index. The rows are
+     * read as projections, not entities, so the persistence context does not grow while streaming. Must be
+     * consumed inside a transaction and closed after use.
+     *
+     * @return a stream of the searchable text of all products
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query("SELECT p.id AS id, p.name AS name, p.description AS description FROM Product p")
+    Stream<ProductText> streamAllText();
+
+    /**
+     * Streams every column of all products as projections, for loading the read model, with the stock of
+     * sharded products as {@link #findStockById} reads it. Must be consumed inside a transaction and
+     * closed after use.
+     *
+     * @return a stream of all products, in ID order
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query("SELECT p.id AS id, p.name AS name, p.description AS description, p.price AS price, " +
+            STOCK_QUANTITY + " AS quantity, " + STOCK_VERSION + " AS version FROM Product p ORDER BY p.id")
+    Stream<ProductRow> streamAllRows();
 }
@@ -0,0 +1,21 @@
+package ma.yassine.ecominventoryservice.repositories;
+
+import ma.yassine.ecominventoryservice.entities.Product;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Search queries that Spring Data cannot derive, implemented in {@link ProductSearchRepositoryImpl}.
+ */
+public interface ProductSearchRepository {
+
+    /**
+     * Selects only the IDs of the products matching a specification, without loading the entities.
+     *
+     * @param specification the criteria to match
+     * @return the IDs of the matching products, in no particular order
+     */
+    List<UUID> findIds(Specification<Product> specification);
+}
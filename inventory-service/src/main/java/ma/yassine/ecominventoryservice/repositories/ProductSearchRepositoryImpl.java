@@ -0,0 +1,26 @@
+package ma.yassine.ecominventoryservice.repositories;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Root;
+import lombok.AllArgsConstructor;
+import ma.yassine.ecominventoryservice.entities.Product;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.List;
+import java.util.UUID;
+
+@AllArgsConstructor
+class ProductSearchRepositoryImpl implements ProductSearchRepository {
+    private final EntityManager entityManager;
+
+    @Override
+    public List<UUID> findIds(Specification<Product> specification) {
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<UUID> query = builder.createQuery(UUID.class);
+        Root<Product> root = query.from(Product.class);
+        query.select(root.<UUID>get("id")).where(specification.toPredicate(root, query, builder));
+        return entityManager.createQuery(query).getResultList();
+    }
+}
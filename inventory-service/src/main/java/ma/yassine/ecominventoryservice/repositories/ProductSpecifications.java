@@ -0,0 +1,115 @@
+package ma.yassine.ecominventoryservice.repositories;
+
+import jakarta.persistence.criteria.CommonAbstractCriteria;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.Expression;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import jakarta.persistence.criteria.Subquery;
+import ma.yassine.ecominventoryservice.entities.Product;
+import ma.yassine.ecominventoryservice.entities.StockSlot;
+import ma.yassine.ecominventoryservice.search.UuidPrefixRange;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Building blocks for product searches. Each one adds a predicate only for the criteria that are
+ * actually given, so the SQL sent to the database contains no {@code :x IS NULL OR ...} branches and
+ * the planner can pick an index for the filters in use.
+ */
+public final class ProductSpecifications {
+
+    private ProductSpecifications() {
+    }
+
+    /**
+     * Matches products on their ID range, price and quantity. Null bounds and {@link UuidPrefixRange#ALL}
+     * add no predicate.
+     */
+    public static Specification<Product> matching(UuidPrefixRange idRange, Double minPrice, Double maxPrice,
+                                                  Integer minQuantity, Integer maxQuantity) {
+        return matching(idRange, minPrice, maxPrice, minQuantity, maxQuantity, false);
+    }
+
+    /**
+     * Matches products on their ID range, price and quantity, like {@link #matching(UuidPrefixRange, Double,
+     * Double, Integer, Integer)}, but compares the quantity bounds with the {@link #stockQuantity stock} of
+     * each product when stock slots are in use, since the quantity column of a sharded product stays at 0.
+     *
+     * @param slotStock whether the stock of some products may be held by stock slots
+     */
+    public static Specification<Product> matching(UuidPrefixRange idRange, Double minPrice, Double maxPrice,
+                                                  Integer minQuantity, Integer maxQuantity, boolean slotStock) {
+        return (root, query, builder) -> {
+            List<Predicate> predicates = new ArrayList<>();
+            if (idRange != null && !idRange.equals(UuidPrefixRange.ALL)) {
+                predicates.add(builder.between(root.<UUID>get("id"), idRange.lowest(), idRange.highest()));
+            }
+            if (minPrice != null) {
+                predicates.add(builder.greaterThanOrEqualTo(root.<Double>get("price"), minPrice));
+            }
+            if (maxPrice != null) {
+                predicates.add(builder.lessThanOrEqualTo(root.<Double>get("price"), maxPrice));
+            }
+            if (minQuantity != null || maxQuantity != null) {
+                Expression<Integer> quantity = slotStock ? stockQuantity(root, query, builder) : root.get("quantity");
+                if (minQuantity != null) {
+                    predicates.add(builder.greaterThanOrEqualTo(quantity, minQuantity));
+                }
+                if (maxQuantity != null) {
+                    predicates.add(builder.lessThanOrEqualTo(quantity, maxQuantity));
+                }
+            }
+            return builder.and(predicates.toArray(Predicate[]::new));
+        };
+    }
+
+    /**
+     * Orders the products as the given sort says, but by their {@link #stockQuantity stock} rather than by
+     * their quantity column. Adds no predicate, and no order to count queries.
+     */
+    public static Specification<Product> orderedByStock(Sort sort) {
+        return (root, query, builder) -> {
+            if (!Long.class.equals(query.getResultType())) {
+                query.orderBy(sort.stream().map(order -> {
+                    Expression<?> property = order.getProperty().equals("quantity")
+                            ? stockQuantity(root, query, builder)
+                            : root.get(order.getProperty());
+                    return order.isAscending() ? builder.asc(property) : builder.desc(property);
+                }).toList());
+            }
+            return null;
+        };
+    }
+
+    /**
+     * The stock of a product: its quantity plus that of its stock slots, like
+     * {@link ProductRepository#STOCK_QUANTITY}.
+     */
+    public static Expression<Integer> stockQuantity(Root<Product> root, CommonAbstractCriteria query, CriteriaBuilder builder) {
+        Subquery<Integer> slots = query.subquery(Integer.class);
+        Root<StockSlot> slot = slots.from(StockSlot.class);
+        slots.select(builder.sum(slot.<Integer>get("quantity")))
+                .where(builder.equal(slot.get("productId"), root.get("id")));
+        return builder.sum(root.<Integer>get("quantity"), builder.coalesce(slots, 0));
+    }
+
+    /**
+     * Matches only the given products.
+     */
+    public static Specification<Product> idIn(Collection<UUID> ids) {
+        return (root, query, builder) -> root.get("id").in(ids);
+    }
+
+    /**
+     * Matches the products whose ID comes after the given one, the keyset cursor of a search slice.
+     */
+    public static Specification<Product> idAfter(UUID id) {
+        return (root, query, builder) -> builder.greaterThan(root.<UUID>get("id"), id);
+    }
+}
@@ -0,0 +1,41 @@
+package ma.yassine.ecominventoryservice.repositories;
+
+import jakarta.persistence.LockModeType;
+import ma.yassine.ecominventoryservice.entities.StockChangeFeedHead;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Persistence of the head of the stock change feed.
+ */
+public interface StockChangeFeedHeadRepository extends JpaRepository<StockChangeFeedHead, Integer> {
+
+    /**
+     * Creates the head of the feed with the given epoch, unless another node created it already.
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "INSERT INTO stock_change_feed (id, epoch, version) " +
+            "SELECT " + StockChangeFeedHead.ID + ", :epoch, 0 FROM DUAL " +
+            "WHERE NOT EXISTS (SELECT 1 FROM stock_change_feed WHERE id = " + StockChangeFeedHead.ID + ")",
+            nativeQuery = true)
+    int create(@Param("epoch") UUID epoch);
+
+    /**
+     * Reads and locks the head of the feed, so that the caller appends the next versions. Must run inside a
+     * transaction; the lock is held until it ends.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT h FROM StockChangeFeedHead h WHERE h.id = " + StockChangeFeedHead.ID)
+    Optional<StockChangeFeedHead> lock();
+
+    @Query("SELECT h.version FROM StockChangeFeedHead h WHERE h.id = " + StockChangeFeedHead.ID)
+    Long findVersion();
+}
@@ -0,0 +1,25 @@
+package ma.yassine.ecominventoryservice.repositories;
+
+import ma.yassine.ecominventoryservice.entities.StockChangeRecord;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
+
+/**
+ * Persistence of the entries of the stock change feed.
+ */
+public interface StockChangeRepository extends JpaRepository<StockChangeRecord, Long> {
+
+    List<StockChangeRecord> findByVersionGreaterThanOrderByVersion(long version, Limit limit);
+
+    /**
+     * Deletes the entries up to the given version, which the feed no longer serves.
+     */
+    @Modifying
+    @Query("DELETE FROM StockChangeRecord c WHERE c.version <= :version")
+    int deleteUpTo(@Param("version") long version);
+}
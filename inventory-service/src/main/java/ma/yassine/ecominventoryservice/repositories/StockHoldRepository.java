@@ -0,0 +1,28 @@
+package ma.yassine.ecominventoryservice.repositories;
+
+import ma.yassine.ecominventoryservice.entities.StockHold;
+import ma.yassine.ecominventoryservice.models.OpenHold;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
+import java.util.UUID;
+
+public interface StockHoldRepository extends JpaRepository<StockHold, UUID> {
+
+    /**
+     * Atomically moves a hold from one status to another, but only if it still has the expected status,
+     * so that a confirmation and an expiry racing for the same hold cannot both succeed.
+     *
+     * @return 1 if the status was changed, 0 if the hold does not exist or no longer has the expected status
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE StockHold h SET h.status = :to WHERE h.id = :id AND h.status = :from")
+    int transition(@Param("id") UUID id, @Param("from") StockHold.Status from, @Param("to") StockHold.Status to);
+
+    @Query("SELECT h.id AS id, h.expiresAt AS expiresAt FROM StockHold h " +
+            "WHERE h.status = ma.yassine.ecominventoryservice.entities.StockHold.Status.HELD")
+    List<OpenHold> findOpenHolds();
+}
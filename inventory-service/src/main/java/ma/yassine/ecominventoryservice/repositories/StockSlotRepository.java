@@ -0,0 +1,56 @@
+package ma.yassine.ecominventoryservice.repositories;
+
+import jakarta.persistence.LockModeType;
+import ma.yassine.ecominventoryservice.entities.StockSlot;
+import ma.yassine.ecominventoryservice.models.ShardedProduct;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Persistence of the stock slots of sharded products.
+ */
+public interface StockSlotRepository extends JpaRepository<StockSlot, StockSlot.Key> {
+
+    /**
+     * Atomically takes stock from one slot, but only if the slot holds enough, like
+     * {@link ProductRepository#decrementQuantity} does for a whole product.
+     *
+     * @return 1 if the stock was taken, 0 if the slot does not exist or holds too little
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE StockSlot s SET s.quantity = s.quantity - :quantity, s.version = s.version + 1 " +
+            "WHERE s.productId = :productId AND s.slot = :slot AND s.quantity >= :quantity")
+    int decrementQuantity(@Param("productId") UUID productId, @Param("slot") int slot, @Param("quantity") int quantity);
+
+    /**
+     * Atomically adds stock to one slot.
+     *
+     * @return 1 if the stock was added, 0 if the slot does not exist
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE StockSlot s SET s.quantity = s.quantity + :quantity, s.version = s.version + 1 " +
+            "WHERE s.productId = :productId AND s.slot = :slot")
+    int incrementQuantity(@Param("productId") UUID productId, @Param("slot") int slot, @Param("quantity") int quantity);
+
+    List<StockSlot> findByProductIdOrderBySlot(UUID productId);
+
+    /**
+     * Reads and locks all the slots of a product, in slot order so that two callers cannot deadlock.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT s FROM StockSlot s WHERE s.productId = :productId ORDER BY s.slot")
+    List<StockSlot> lockAllByProductId(@Param("productId") UUID productId);
+
+    @Query("SELECT s.productId AS productId, COUNT(s) AS slots FROM StockSlot s GROUP BY s.productId")
+    List<ShardedProduct> findShardedProducts();
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("DELETE FROM StockSlot s WHERE s.productId = :productId")
+    int deleteAllByProductId(@Param("productId") UUID productId);
+}
@@ -0,0 +1,405 @@
+package ma.yassine.ecominventoryservice.search;
+
+import ma.yassine.ecominventoryservice.entities.Product;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Immutable column store of products: one primitive array per column with the rows in ID order, plus the
+ * rows sorted by price and by quantity, so a range filter on either column is two binary searches. Rows
+ * are ordered like the database orders UUIDs, as unsigned 128-bit numbers, so an ID prefix is also a
+ * contiguous run of rows. Built by {@link ProductReadModel} and never modified afterwards.
+ */
+final class ProductColumns {
+    static final ProductColumns EMPTY = build(List.of());
+
+    /**
+     * The orders rows can be returned in. Ties on price or quantity are broken by ID, and null prices and
+     * quantities come first, as in H2.
+     */
+    enum Column {
+        ID,
+        PRICE,
+        QUANTITY
+    }
+
+    /**
+     * One product, or the deletion of one, as held outside of the columns.
+     */
+    record Row(UUID id, String name, String description, Double price, Integer quantity, long version, boolean deleted) {
+
+        static Row of(UUID id, String name, String description, Double price, Integer quantity, long version) {
+            return new Row(id, name, description, price, quantity, version, false);
+        }
+
+        /**
+         * A deleted product. Its version is higher than any real one, so no late change can bring it back.
+         */
+        static Row deletion(UUID id) {
+            return new Row(id, null, null, null, null, Long.MAX_VALUE, true);
+        }
+
+        Row withQuantity(Integer quantity, long version) {
+            return new Row(id, name, description, price, quantity, version, false);
+        }
+
+        Product toProduct() {
+            return Product.builder().id(id).name(name).description(description)
+                    .price(price).quantity(quantity).version(version).build();
+        }
+    }
+
+    /**
+     * The column filters of a search. Null bounds and {@link UuidPrefixRange#ALL} match everything, and a
+     * null price or quantity never satisfies a bound, as in SQL.
+     */
+    record Criteria(UuidPrefixRange ids, Double minPrice, Double maxPrice, Integer minQuantity, Integer maxQuantity) {
+
+        boolean matches(Row row) {
+            if (row.deleted()) {
+                return false;
+            }
+            if (!UuidPrefixRange.ALL.equals(ids)
+                    && (compareIds(row.id(), ids.lowest()) < 0 || compareIds(row.id(), ids.highest()) > 0)) {
+                return false;
+            }
+            return matchesPrice(row.price() != null ? row.price() : Double.NaN)
+                    && matchesQuantity(row.quantity() != null, row.quantity() != null ? row.quantity() : 0);
+        }
+
+        private boolean matchesPrice(double price) {
+            // Comparisons with NaN, our null price, are always false.
+            return (minPrice == null || price >= minPrice) && (maxPrice == null || price <= maxPrice);
+        }
+
+        private boolean matchesQuantity(boolean present, int quantity) {
+            if (minQuantity == null && maxQuantity == null) {
+                return true;
+            }
+            return present && (minQuantity == null || quantity >= minQuantity) && (maxQuantity == null || quantity <= maxQuantity);
+        }
+    }
+
+    private final int size;
+    private final long[] idHighs;
+    private final long[] idLows;
+    private final String[] names;
+    private final String[] descriptions;
+    // NaN stands for a null price.
+    private final double[] prices;
+    private final int[] quantities;
+    private final BitSet nullQuantities;
+    private final long[] versions;
+    // Rows by ascending price, nulls first, with the price of each alongside for binary search, and the
+    // position of each row in that order.
+    private final int[] rowsByPrice;
+    private final double[] sortedPrices;
+    private final int[] priceRanks;
+    private final int firstPriced;
+    private final int[] rowsByQuantity;
+    private final int[] sortedQuantities;
+    private final int[] quantityRanks;
+    private final int firstQuantified;
+
+    private ProductColumns(List<Row> rows) {
+        size = rows.size();
+        idHighs = new long[size];
+        idLows = new long[size];
+        names = new String[size];
+        descriptions = new String[size];
+        prices = new double[size];
+        quantities = new int[size];
+        nullQuantities = new BitSet(size);
+        versions = new long[size];
+        for (int r = 0; r < size; r++) {
+            Row row = rows.get(r);
+            idHighs[r] = row.id().getMostSignificantBits();
+            idLows[r] = row.id().getLeastSignificantBits();
+            names[r] = row.name();
+            descriptions[r] = row.description();
+            prices[r] = row.price() != null ? row.price() : Double.NaN;
+            quantities[r] = row.quantity() != null ? row.quantity() : 0;
+            nullQuantities.set(r, row.quantity() == null);
+            versions[r] = row.version();
+        }
+
+        rowsByPrice = sortRows((a, b) -> comparePrices(prices[a], prices[b]));
+        sortedPrices = new double[size];
+        priceRanks = new int[size];
+        int nullPrices = 0;
+        for (int k = 0; k < size; k++) {
+            sortedPrices[k] = prices[rowsByPrice[k]];
+            priceRanks[rowsByPrice[k]] = k;
+            nullPrices += Double.isNaN(sortedPrices[k]) ? 1 : 0;
+        }
+        firstPriced = nullPrices;
+
+        rowsByQuantity = sortRows((a, b) -> compareQuantities(nullQuantities.get(a), quantities[a], nullQuantities.get(b), quantities[b]));
+        sortedQuantities = new int[size];
+        quantityRanks = new int[size];
+        for (int k = 0; k < size; k++) {
+            sortedQuantities[k] = quantities[rowsByQuantity[k]];
+            quantityRanks[rowsByQuantity[k]] = k;
+        }
+        firstQuantified = nullQuantities.cardinality();
+    }
+
+    /**
+     * Builds the columns from the given rows, in any order. Deleted rows are left out.
+     */
+    static ProductColumns build(List<Row> rows) {
+        List<Row> sorted = new ArrayList<>(rows.size());
+        for (Row row : rows) {
+            if (!row.deleted()) {
+                sorted.add(row);
+            }
+        }
+        sorted.sort(Comparator.comparing(Row::id, ProductColumns::compareIds));
+        return new ProductColumns(sorted);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the row holding the given product, or -1 if there is none
+     */
+    int indexOf(UUID id) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = compareIds(idHighs[middle], idLows[middle], id.getMostSignificantBits(), id.getLeastSignificantBits());
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    Row row(int r) {
+        return Row.of(new UUID(idHighs[r], idLows[r]), names[r], descriptions[r],
+                Double.isNaN(prices[r]) ? null : prices[r], nullQuantities.get(r) ? null : quantities[r], versions[r]);
+    }
+
+    Product product(int r) {
+        return row(r).toProduct();
+    }
+
+    /**
+     * Finds the rows matching the criteria. The scan is driven by whichever of the ID, price and quantity
+     * ranges holds the fewest rows; the other filters are checked on the primitive columns.
+     *
+     * @param criteria the filters
+     * @param skipped rows to leave out, because a newer version of them is held elsewhere
+     * @param order the order to return the rows in
+     * @return the matching rows, ascending in the given order
+     */
+    int[] rowsMatching(Criteria criteria, BitSet skipped, Column order) {
+        int idFrom = 0;
+        int idTo = size;
+        if (!UuidPrefixRange.ALL.equals(criteria.ids())) {
+            idFrom = firstIdAtLeast(criteria.ids().lowest(), false);
+            idTo = firstIdAtLeast(criteria.ids().highest(), true);
+        }
+        int priceFrom = 0;
+        int priceTo = size;
+        if (criteria.minPrice() != null || criteria.maxPrice() != null) {
+            priceFrom = criteria.minPrice() != null ? firstPriceAtLeast(criteria.minPrice(), false) : firstPriced;
+            priceTo = criteria.maxPrice() != null ? firstPriceAtLeast(criteria.maxPrice(), true) : size;
+        }
+        int quantityFrom = 0;
+        int quantityTo = size;
+        if (criteria.minQuantity() != null || criteria.maxQuantity() != null) {
+            quantityFrom = criteria.minQuantity() != null ? firstQuantityAtLeast(criteria.minQuantity(), false) : firstQuantified;
+            quantityTo = criteria.maxQuantity() != null ? firstQuantityAtLeast(criteria.maxQuantity(), true) : size;
+        }
+
+        Column driver = Column.ID;
+        int from = idFrom;
+        int to = idTo;
+        if (priceTo - priceFrom < to - from) {
+            driver = Column.PRICE;
+            from = priceFrom;
+            to = priceTo;
+        }
+        if (quantityTo - quantityFrom < to - from) {
+            driver = Column.QUANTITY;
+            from = quantityFrom;
+            to = quantityTo;
+        }
+        // Sorting the matches costs more than checking a few more rows, so scan in the requested order
+        // unless the narrowest range is less than a quarter of it.
+        int orderFrom = order == Column.ID ? idFrom : order == Column.PRICE ? priceFrom : quantityFrom;
+        int orderTo = order == Column.ID ? idTo : order == Column.PRICE ? priceTo : quantityTo;
+        if (driver != order && orderTo - orderFrom <= 4L * Math.max(0, to - from)) {
+            driver = order;
+            from = orderFrom;
+            to = orderTo;
+        }
+
+        int[] matches = new int[Math.max(0, to - from)];
+        int count = 0;
+        for (int k = from; k < to; k++) {
+            int r = switch (driver) {
+                case ID -> k;
+                case PRICE -> rowsByPrice[k];
+                case QUANTITY -> rowsByQuantity[k];
+            };
+            if (!skipped.get(r) && matches(r, criteria, driver)) {
+                matches[count++] = r;
+            }
+        }
+        matches = Arrays.copyOf(matches, count);
+        if (driver != order) {
+            sort(matches, order);
+        }
+        return matches;
+    }
+
+    /**
+     * Compares a row of the columns with a row held elsewhere, in the given order.
+     */
+    int compare(int r, Row other, Column order) {
+        int comparison = switch (order) {
+            case ID -> 0;
+            case PRICE -> comparePrices(prices[r], other.price() != null ? other.price() : Double.NaN);
+            case QUANTITY -> compareQuantities(nullQuantities.get(r), quantities[r], other.quantity() == null,
+                    other.quantity() != null ? other.quantity() : 0);
+        };
+        return comparison != 0 ? comparison : compareIds(idHighs[r], idLows[r],
+                other.id().getMostSignificantBits(), other.id().getLeastSignificantBits());
+    }
+
+    /**
+     * @return a comparator putting rows held outside of the columns in the given order
+     */
+    static Comparator<Row> comparator(Column order) {
+        Comparator<Row> byId = Comparator.comparing(Row::id, ProductColumns::compareIds);
+        return switch (order) {
+            case ID -> byId;
+            case PRICE -> Comparator.<Row, Double>comparing(Row::price, Comparator.nullsFirst(Comparator.naturalOrder()))
+                    .thenComparing(byId);
+            case QUANTITY -> Comparator.<Row, Integer>comparing(Row::quantity, Comparator.nullsFirst(Comparator.naturalOrder()))
+                    .thenComparing(byId);
+        };
+    }
+
+    static int compareIds(UUID a, UUID b) {
+        return compareIds(a.getMostSignificantBits(), a.getLeastSignificantBits(), b.getMostSignificantBits(), b.getLeastSignificantBits());
+    }
+
+    private static int compareIds(long aHigh, long aLow, long bHigh, long bLow) {
+        int comparison = Long.compareUnsigned(aHigh, bHigh);
+        return comparison != 0 ? comparison : Long.compareUnsigned(aLow, bLow);
+    }
+
+    private static int comparePrices(double a, double b) {
+        // Double.compare puts NaN last; null prices go first.
+        if (Double.isNaN(a) || Double.isNaN(b)) {
+            return Boolean.compare(!Double.isNaN(a), !Double.isNaN(b));
+        }
+        return Double.compare(a, b);
+    }
+
+    private static int compareQuantities(boolean aNull, int a, boolean bNull, int b) {
+        if (aNull || bNull) {
+            return Boolean.compare(!aNull, !bNull);
+        }
+        return Integer.compare(a, b);
+    }
+
+    private boolean matches(int r, Criteria criteria, Column driver) {
+        // The driving column is already known to be in range.
+        if (driver != Column.ID && !UuidPrefixRange.ALL.equals(criteria.ids())
+                && (compareIds(idHighs[r], idLows[r], criteria.ids().lowest().getMostSignificantBits(), criteria.ids().lowest().getLeastSignificantBits()) < 0
+                || compareIds(idHighs[r], idLows[r], criteria.ids().highest().getMostSignificantBits(), criteria.ids().highest().getLeastSignificantBits()) > 0)) {
+            return false;
+        }
+        return (driver == Column.PRICE || criteria.matchesPrice(prices[r]))
+                && (driver == Column.QUANTITY || criteria.matchesQuantity(!nullQuantities.get(r), quantities[r]));
+    }
+
+    private void sort(int[] rows, Column order) {
+        if (order == Column.ID) {
+            Arrays.sort(rows);
+            return;
+        }
+        // Sort the positions of the rows in the wanted order, then map them back to rows.
+        int[] ranks = order == Column.PRICE ? priceRanks : quantityRanks;
+        int[] sortedRows = order == Column.PRICE ? rowsByPrice : rowsByQuantity;
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = ranks[rows[i]];
+        }
+        Arrays.sort(rows);
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = sortedRows[rows[i]];
+        }
+    }
+
+    private int[] sortRows(Comparator<Integer> order) {
+        Integer[] rows = new Integer[size];
+        for (int r = 0; r < size; r++) {
+            rows[r] = r;
+        }
+        // Rows are in ID order, so breaking ties by row breaks them by ID.
+        Arrays.sort(rows, order.thenComparingInt(r -> r));
+        return Arrays.stream(rows).mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * @return the first row whose ID is at least (or, if {@code strictly}, greater than) the given one
+     */
+    private int firstIdAtLeast(UUID id, boolean strictly) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int comparison = compareIds(idHighs[middle], idLows[middle], id.getMostSignificantBits(), id.getLeastSignificantBits());
+            if (comparison < 0 || (strictly && comparison == 0)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int firstPriceAtLeast(double price, boolean strictly) {
+        int low = firstPriced;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sortedPrices[middle] < price || (strictly && sortedPrices[middle] == price)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int firstQuantityAtLeast(int quantity, boolean strictly) {
+        int low = firstQuantified;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sortedQuantities[middle] < quantity || (strictly && sortedQuantities[middle] == quantity)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,322 @@
+package ma.yassine.ecominventoryservice.search;
+
+import ma.yassine.ecominventoryservice.entities.Product;
+import ma.yassine.ecominventoryservice.events.ProductChangedEvent;
+import ma.yassine.ecominventoryservice.models.ProductRow;
+import ma.yassine.ecominventoryservice.repositories.ProductRepository;
+import ma.yassine.ecominventoryservice.search.ProductColumns.Column;
+import ma.yassine.ecominventoryservice.search.ProductColumns.Criteria;
+import ma.yassine.ecominventoryservice.search.ProductColumns.Row;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * In-memory read model answering product searches on ID prefix, price and quantity without touching
+ * the database. Enabled with {@code inventory.read-model.enabled=true}.
+ * <p>
+ * Products are held in immutable {@link ProductColumns}, plus a small map of the products changed since
+ * those were built. Every committed {@link ProductChangedEvent} is applied before the transaction's caller
+ * gets control back, so a write made on this node is visible to any search started after it returns
+ * (read-your-writes). Changes carry the product version, and a change older than the one already held is
+ * ignored, so events applied out of commit order cannot bring back stale values. Once more than
+ * {@code inventory.read-model.max-pending-changes} products have changed, the columns are rebuilt with them.
+ * Writes made on other nodes are picked up by a full reload every {@code inventory.read-model.refresh-interval}.
+ */
+@Component
+@ConditionalOnProperty(name = "inventory.read-model.enabled", havingValue = "true")
+public class ProductReadModel implements SmartInitializingSingleton, DisposableBean {
+
+    /**
+     * A consistent view of the products: the columns, the newer versions of changed products, and the
+     * rows of the columns those replace.
+     */
+    private record State(ProductColumns columns, Map<UUID, Row> changes, BitSet replacedRows) {
+
+        Row current(UUID id) {
+            Row changed = changes.get(id);
+            if (changed != null) {
+                return changed;
+            }
+            int r = columns.indexOf(id);
+            return r >= 0 ? columns.row(r) : null;
+        }
+
+        State with(Row row) {
+            Map<UUID, Row> newChanges = new HashMap<>(changes);
+            newChanges.put(row.id(), row);
+            BitSet newReplacedRows = replacedRows;
+            int r = columns.indexOf(row.id());
+            if (r >= 0 && !replacedRows.get(r)) {
+                newReplacedRows = (BitSet) replacedRows.clone();
+                newReplacedRows.set(r);
+            }
+            return new State(columns, newChanges, newReplacedRows);
+        }
+
+        State compacted() {
+            List<Row> rows = new ArrayList<>(columns.size() + changes.size());
+            for (int r = 0; r < columns.size(); r++) {
+                if (!replacedRows.get(r)) {
+                    rows.add(columns.row(r));
+                }
+            }
+            rows.addAll(changes.values());
+            return new State(ProductColumns.build(rows), Map.of(), new BitSet());
+        }
+    }
+
+    private final ProductRepository productRepository;
+    private final TransactionTemplate readOnlyTransaction;
+    private final int maxPendingChanges;
+    private final Duration refreshInterval;
+    private final ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("product-read-model-refresher").daemon().factory());
+    private volatile State state = new State(ProductColumns.EMPTY, Map.of(), new BitSet());
+    private volatile boolean loaded;
+    // Changes applied while a reload reads the database, replayed on top of what it read. Guarded by this.
+    private List<ProductChangedEvent> changesDuringReload;
+
+    public ProductReadModel(ProductRepository productRepository,
+                            PlatformTransactionManager transactionManager,
+                            @Value("${inventory.read-model.max-pending-changes:4096}") int maxPendingChanges,
+                            @Value("${inventory.read-model.refresh-interval:5m}") Duration refreshInterval) {
+        this.productRepository = productRepository;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.maxPendingChanges = maxPendingChanges;
+        this.refreshInterval = refreshInterval;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        reload();
+        if (refreshInterval.isPositive()) {
+            refresher.scheduleWithFixedDelay(this::refresh, refreshInterval.toMillis(), refreshInterval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Replaces the read model with the products currently in the database. Changes committed while the
+     * database is being read are applied on top, so none of them is lost.
+     */
+    public void reload() {
+        synchronized (this) {
+            if (changesDuringReload != null) {
+                // Another reload is already running.
+                return;
+            }
+            changesDuringReload = new ArrayList<>();
+        }
+        try {
+            List<Row> rows = new ArrayList<>();
+            readOnlyTransaction.executeWithoutResult(status -> {
+                try (Stream<ProductRow> products = productRepository.streamAllRows()) {
+                    products.forEach(product -> rows.add(Row.of(product.getId(), product.getName(), product.getDescription(),
+                            product.getPrice(), product.getQuantity(), product.getVersion())));
+                }
+            });
+            ProductColumns columns = ProductColumns.build(rows);
+            synchronized (this) {
+                State reloaded = new State(columns, Map.of(), new BitSet());
+                for (ProductChangedEvent event : changesDuringReload) {
+                    reloaded = apply(reloaded, event);
+                }
+                state = reloaded;
+                loaded = true;
+            }
+            System.out.printf("Loaded %d products into the read model.%n", columns.size());
+        } finally {
+            synchronized (this) {
+                changesDuringReload = null;
+            }
+        }
+    }
+
+    /**
+     * Applies a committed product change. The change is visible to searches when this returns.
+     *
+     * @param event the product change
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public synchronized void onProductChanged(ProductChangedEvent event) {
+        state = apply(state, event);
+        if (changesDuringReload != null) {
+            changesDuringReload.add(event);
+        }
+    }
+
+    /**
+     * Finds a page of products matching the given filters, like the database search would.
+     *
+     * @param idRange the range of product IDs to search, {@link UuidPrefixRange#ALL} for any
+     * @param minPrice the minimum price of the product, or null to ignore this criterion
+     * @param maxPrice the maximum price of the product, or null to ignore this criterion
+     * @param minQuantity the minimum available quantity of the product, or null to ignore this criterion
+     * @param maxQuantity the maximum available quantity of the product, or null to ignore this criterion
+     * @param pageable the pagination and sorting information; products are in ID order when it is unsorted
+     * @return the page of matching products, or empty if the read model is not loaded yet or cannot apply
+     *         the requested sort, which can only be on one of id, price or quantity, optionally followed by
+     *         id in the same direction
+     */
+    public Optional<Page<Product>> findByCriteria(UuidPrefixRange idRange, Double minPrice, Double maxPrice,
+                                                  Integer minQuantity, Integer maxQuantity, Pageable pageable) {
+        Optional<Column> order = sortColumn(pageable.getSort());
+        if (!loaded || order.isEmpty()) {
+            return Optional.empty();
+        }
+        boolean descending = pageable.getSort().isSorted() && pageable.getSort().iterator().next().isDescending();
+        Column column = order.get();
+        State current = state;
+        Criteria criteria = new Criteria(idRange, minPrice, maxPrice, minQuantity, maxQuantity);
+
+        int[] rows = current.columns().rowsMatching(criteria, current.replacedRows(), column);
+        List<Row> changed = current.changes().values().stream()
+                .filter(criteria::matches)
+                .sorted(ProductColumns.comparator(column))
+                .toList();
+        int total = rows.length + changed.size();
+        long offset = pageable.isPaged() ? pageable.getOffset() : 0;
+        int limit = pageable.isPaged() ? pageable.getPageSize() : total;
+
+        // Merge the two sorted lists, walking them backwards for a descending sort.
+        List<Product> content = new ArrayList<>(Math.min(limit, total));
+        int nextRow = 0;
+        int nextChanged = 0;
+        for (long position = 0; position < total && content.size() < limit; position++) {
+            int r = descending ? rows.length - 1 - nextRow : nextRow;
+            int c = descending ? changed.size() - 1 - nextChanged : nextChanged;
+            boolean fromColumns;
+            if (nextRow == rows.length) {
+                fromColumns = false;
+            } else if (nextChanged == changed.size()) {
+                fromColumns = true;
+            } else {
+                int comparison = current.columns().compare(rows[r], changed.get(c), column);
+                fromColumns = descending ? comparison > 0 : comparison < 0;
+            }
+            if (fromColumns) {
+                nextRow++;
+            } else {
+                nextChanged++;
+            }
+            if (position >= offset) {
+                content.add(fromColumns ? current.columns().product(rows[r]) : changed.get(c).toProduct());
+            }
+        }
+        return Optional.of(new PageImpl<>(content, pageable, total));
+    }
+
+    /**
+     * Keeps the given products that match the given filters.
+     *
+     * @param ids the products to filter, in any order
+     * @param idRange the range of product IDs to keep, {@link UuidPrefixRange#ALL} for any
+     * @param minPrice the minimum price of the product, or null to ignore this criterion
+     * @param maxPrice the maximum price of the product, or null to ignore this criterion
+     * @param minQuantity the minimum available quantity of the product, or null to ignore this criterion
+     * @param maxQuantity the maximum available quantity of the product, or null to ignore this criterion
+     * @return the matching IDs in their original order, or empty if the read model is not loaded yet
+     */
+    public Optional<List<UUID>> filter(List<UUID> ids, UuidPrefixRange idRange, Double minPrice, Double maxPrice,
+                                       Integer minQuantity, Integer maxQuantity) {
+        if (!loaded) {
+            return Optional.empty();
+        }
+        State current = state;
+        Criteria criteria = new Criteria(idRange, minPrice, maxPrice, minQuantity, maxQuantity);
+        return Optional.of(ids.stream()
+                .filter(id -> {
+                    Row row = current.current(id);
+                    return row != null && criteria.matches(row);
+                })
+                .toList());
+    }
+
+    /**
+     * Looks up the given products. Products that do not exist are left out.
+     *
+     * @param ids the IDs of the products
+     * @return the products, in the order of their IDs
+     */
+    public List<Product> findAllById(List<UUID> ids) {
+        State current = state;
+        List<Product> products = new ArrayList<>(ids.size());
+        for (UUID id : ids) {
+            Row row = current.current(id);
+            if (row != null && !row.deleted()) {
+                products.add(row.toProduct());
+            }
+        }
+        return products;
+    }
+
+    private State apply(State current, ProductChangedEvent event) {
+        Row held = current.current(event.productId());
+        Row updated = switch (event.type()) {
+            case DELETED -> held != null && !held.deleted() ? Row.deletion(event.productId()) : null;
+            case QUANTITY_CHANGED -> held != null && held.version() < event.version()
+                    ? held.withQuantity(event.quantity(), event.version()) : null;
+            case CREATED, UPDATED -> held == null || held.version() < event.version()
+                    ? Row.of(event.productId(), event.name(), event.description(), event.price(), event.quantity(), event.version()) : null;
+        };
+        if (updated == null) {
+            return current;
+        }
+        State next = current.with(updated);
+        return next.changes().size() > maxPendingChanges ? next.compacted() : next;
+    }
+
+    private void refresh() {
+        try {
+            reload();
+        } catch (RuntimeException e) {
+            System.err.println("Could not reload the product read model: " + e.getMessage());
+        }
+    }
+
+    private static Optional<Column> sortColumn(Sort sort) {
+        if (sort.isUnsorted()) {
+            return Optional.of(Column.ID);
+        }
+        List<Sort.Order> orders = sort.toList();
+        Sort.Order first = orders.get(0);
+        Optional<Column> column = switch (first.getProperty()) {
+            case "id" -> Optional.of(Column.ID);
+            case "price" -> Optional.of(Column.PRICE);
+            case "quantity" -> Optional.of(Column.QUANTITY);
+            default -> Optional.empty();
+        };
+        boolean tieBreakOnly = orders.size() == 1 || (orders.size() == 2 && orders.get(1).getProperty().equals("id")
+                && orders.get(1).getDirection() == first.getDirection() && column.orElse(null) != Column.ID);
+        boolean plain = orders.stream().allMatch(order -> !order.isIgnoreCase() && order.getNullHandling() == Sort.NullHandling.NATIVE);
+        return tieBreakOnly && plain ? column : Optional.empty();
+    }
+
+    @Override
+    public void destroy() {
+        refresher.shutdownNow();
+    }
+}
@@ -0,0 +1,263 @@
+package ma.yassine.ecominventoryservice.search;
+
+import ma.yassine.ecominventoryservice.events.ProductChangedEvent;
+import ma.yassine.ecominventoryservice.models.ProductText;
+import ma.yassine.ecominventoryservice.repositories.ProductRepository;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * In-memory Lucene index over product names and descriptions.
+ * <p>
+ * The index is built from the database once all beans are created, before the web server accepts
+ * requests, and then kept up to date from {@link ProductChangedEvent}s once their transaction has
+ * committed, so a write made on this node is visible to any search started after it returns. Writes
+ * made on other nodes are picked up by a full rebuild every {@code inventory.search.refresh-interval}.
+ * Searches return product IDs ranked by relevance; filtering on other columns and paging is left to
+ * the database.
+ */
+@Component
+public class ProductSearchIndex implements SmartInitializingSingleton, DisposableBean {
+    private static final String ID = "id";
+    private static final String NAME = "name";
+    private static final String DESCRIPTION = "description";
+    // An exact word counts more than a word that only starts with the searched text.
+    private static final float EXACT_TERM_BOOST = 2f;
+
+    private final ProductRepository productRepository;
+    private final TransactionTemplate readOnlyTransaction;
+    private final int maxResults;
+    private final Duration refreshInterval;
+    private final ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("product-search-index-refresher").daemon().factory());
+    private final Analyzer analyzer = new StandardAnalyzer();
+    private final Directory directory = new ByteBuffersDirectory();
+    private final IndexWriter writer;
+    private final SearcherManager searcherManager;
+    // Changes applied while a rebuild reads the database, replayed on top of what it read. Guarded by this.
+    private List<ProductChangedEvent> changesDuringRebuild;
+
+    public ProductSearchIndex(ProductRepository productRepository,
+                              PlatformTransactionManager transactionManager,
+                              @Value("${inventory.search.max-results:10000}") int maxResults,
+                              @Value("${inventory.search.refresh-interval:5m}") Duration refreshInterval) throws IOException {
+        this.productRepository = productRepository;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.maxResults = maxResults;
+        this.refreshInterval = refreshInterval;
+        this.writer = new IndexWriter(directory, new IndexWriterConfig(analyzer));
+        this.searcherManager = new SearcherManager(writer, null);
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        rebuild();
+        if (refreshInterval.isPositive()) {
+            refresher.scheduleWithFixedDelay(this::refresh, refreshInterval.toMillis(), refreshInterval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Replaces the whole index with the products currently in the database. Changes committed while the
+     * database is being read are applied on top, so none of them is lost, and searches keep seeing the
+     * previous index until the new one is complete.
+     */
+    public void rebuild() {
+        synchronized (this) {
+            if (changesDuringRebuild != null) {
+                // Another rebuild is already running.
+                return;
+            }
+            changesDuringRebuild = new ArrayList<>();
+        }
+        try {
+            List<ProductText> products = new ArrayList<>();
+            readOnlyTransaction.executeWithoutResult(status -> {
+                try (Stream<ProductText> rows = productRepository.streamAllText()) {
+                    rows.forEach(products::add);
+                }
+            });
+            synchronized (this) {
+                writer.deleteAll();
+                products.forEach(product -> index(product.getId(), product.getName(), product.getDescription()));
+                changesDuringRebuild.forEach(this::apply);
+                searcherManager.maybeRefreshBlocking();
+            }
+            System.out.printf("Indexed %d products for search.%n", products.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            synchronized (this) {
+                changesDuringRebuild = null;
+            }
+        }
+    }
+
+    /**
+     * Applies a committed product change to the index. The change is visible to searches when this returns.
+     *
+     * @param event the product change
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public synchronized void onProductChanged(ProductChangedEvent event) {
+        if (event.type() == ProductChangedEvent.Type.QUANTITY_CHANGED) {
+            // Stock movements do not touch the indexed text.
+            return;
+        }
+        apply(event);
+        if (changesDuringRebuild != null) {
+            changesDuringRebuild.add(event);
+        }
+        try {
+            searcherManager.maybeRefreshBlocking();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Finds the products whose name contains all words of {@code name} and whose description contains
+     * all words of {@code description}. Each word also matches longer words it is a prefix of, so
+     * "lap" finds "Laptop".
+     *
+     * @param name the words to look for in the name, or null/blank to ignore the name
+     * @param description the words to look for in the description, or null/blank to ignore the description
+     * @return the IDs of the matching products, best match first, at most {@code inventory.search.max-results}
+     */
+    public List<UUID> search(String name, String description) {
+        BooleanQuery.Builder query = new BooleanQuery.Builder();
+        boolean hasClauses = addFieldQuery(query, NAME, name) | addFieldQuery(query, DESCRIPTION, description);
+        if (!hasClauses) {
+            return List.of();
+        }
+        try {
+            IndexSearcher searcher = searcherManager.acquire();
+            try {
+                ScoreDoc[] hits = searcher.search(query.build(), maxResults).scoreDocs;
+                List<UUID> ids = new ArrayList<>(hits.length);
+                for (ScoreDoc hit : hits) {
+                    ids.add(UUID.fromString(searcher.storedFields().document(hit.doc).get(ID)));
+                }
+                return ids;
+            } finally {
+                searcherManager.release(searcher);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private boolean addFieldQuery(BooleanQuery.Builder query, String field, String text) {
+        List<String> words = analyze(field, text);
+        for (String word : words) {
+            Term term = new Term(field, word);
+            Query wordQuery = new BooleanQuery.Builder()
+                    .add(new BoostQuery(new TermQuery(term), EXACT_TERM_BOOST), BooleanClause.Occur.SHOULD)
+                    .add(new PrefixQuery(term), BooleanClause.Occur.SHOULD)
+                    .build();
+            query.add(wordQuery, BooleanClause.Occur.MUST);
+        }
+        return !words.isEmpty();
+    }
+
+    private List<String> analyze(String field, String text) {
+        List<String> words = new ArrayList<>();
+        if (text == null || text.isBlank()) {
+            return words;
+        }
+        try (TokenStream tokens = analyzer.tokenStream(field, text)) {
+            CharTermAttribute term = tokens.addAttribute(CharTermAttribute.class);
+            tokens.reset();
+            while (tokens.incrementToken()) {
+                words.add(term.toString());
+            }
+            tokens.end();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return words;
+    }
+
+    private void apply(ProductChangedEvent event) {
+        if (event.type() == ProductChangedEvent.Type.DELETED) {
+            try {
+                writer.deleteDocuments(new Term(ID, event.productId().toString()));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } else {
+            index(event.productId(), event.name(), event.description());
+        }
+    }
+
+    private void refresh() {
+        try {
+            rebuild();
+        } catch (RuntimeException e) {
+            System.err.println("Could not rebuild the product search index: " + e.getMessage());
+        }
+    }
+
+    private void index(UUID id, String name, String description) {
+        Document document = new Document();
+        document.add(new StringField(ID, id.toString(), Field.Store.YES));
+        if (name != null) {
+            document.add(new TextField(NAME, name, Field.Store.NO));
+        }
+        if (description != null) {
+            document.add(new TextField(DESCRIPTION, description, Field.Store.NO));
+        }
+        try {
+            writer.updateDocument(new Term(ID, id.toString()), document);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        refresher.shutdownNow();
+        searcherManager.close();
+        writer.close();
+        directory.close();
+    }
+}
@@ -0,0 +1,67 @@
+package ma.yassine.ecominventoryservice.search;
+
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * The range of UUIDs whose canonical form starts with a given prefix.
+ * <p>
+ * The database orders UUIDs by their 128 bits read as an unsigned number, which is also the order of
+ * their canonical hex strings. So "every UUID starting with {@code 0193a2}" is the same set as
+ * "between {@code 0193a200-0000-...} and {@code 0193a2ff-ffff-...}", and a {@code BETWEEN} on the
+ * primary key can be answered from its index, unlike a {@code LIKE} on the UUID cast to a string.
+ *
+ * @param lowest the smallest UUID with the prefix
+ * @param highest the largest UUID with the prefix
+ */
+public record UuidPrefixRange(UUID lowest, UUID highest) {
+    public static final UuidPrefixRange ALL = new UuidPrefixRange(
+            new UUID(0L, 0L), new UUID(-1L, -1L));
+
+    private static final int HEX_DIGITS = 32;
+
+    /**
+     * Converts an ID prefix as typed by a user, case-insensitive and with or without the dashes of the
+     * canonical form, into the matching range.
+     *
+     * @param prefix the beginning of a product ID, or null/blank for no restriction
+     * @return the range of matching UUIDs, {@link #ALL} for a null or blank prefix, or empty if the prefix
+     *         cannot start any UUID
+     */
+    public static Optional<UuidPrefixRange> parse(String prefix) {
+        if (prefix == null || prefix.isBlank()) {
+            return Optional.of(ALL);
+        }
+        String canonical = prefix.trim().toLowerCase();
+        StringBuilder hex = new StringBuilder(HEX_DIGITS);
+        for (int i = 0; i < canonical.length(); i++) {
+            char c = canonical.charAt(i);
+            boolean dashPosition = i == 8 || i == 13 || i == 18 || i == 23;
+            if (dashPosition ? c != '-' : (Character.digit(c, 16) < 0 || i >= 36)) {
+                // Also accept the prefix without dashes, as long as it is only hex digits.
+                return parseUndashed(canonical);
+            }
+            if (!dashPosition) {
+                hex.append(c);
+            }
+        }
+        return Optional.of(fromHex(hex.toString()));
+    }
+
+    private static Optional<UuidPrefixRange> parseUndashed(String prefix) {
+        if (prefix.length() > HEX_DIGITS || !prefix.chars().allMatch(c -> Character.digit(c, 16) >= 0)) {
+            return Optional.empty();
+        }
+        return Optional.of(fromHex(prefix));
+    }
+
+    private static UuidPrefixRange fromHex(String hex) {
+        String low = hex + "0".repeat(HEX_DIGITS - hex.length());
+        String high = hex + "f".repeat(HEX_DIGITS - hex.length());
+        return new UuidPrefixRange(toUuid(low), toUuid(high));
+    }
+
+    private static UUID toUuid(String hex) {
+        return new UUID(Long.parseUnsignedLong(hex.substring(0, 16), 16), Long.parseUnsignedLong(hex.substring(16), 16));
+    }
+}
@@ -0,0 +1,146 @@
+package ma.yassine.ecominventoryservice.services;
+
+import ma.yassine.ecominventoryservice.entities.Product;
+import ma.yassine.ecominventoryservice.models.StockLine;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.annotation.Primary;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Read-through cache in front of {@link ProductServiceImp}. Single products and the full catalog are
+ * served from the "products" and "product-catalog" caches; every mutation evicts exactly the products
+ * it touched plus the catalog, once its transaction has committed.
+ */
+@Service
+@Primary
+public class CachingProductService implements IProductService {
+    public static final String PRODUCTS_CACHE = "products";
+    public static final String CATALOG_CACHE = "product-catalog";
+    private static final String CATALOG_KEY = "all";
+
+    private final ProductServiceImp productService;
+    private final Cache productsCache;
+    private final Cache catalogCache;
+
+    public CachingProductService(ProductServiceImp productService, CacheManager cacheManager) {
+        this.productService = productService;
+        this.productsCache = Objects.requireNonNull(cacheManager.getCache(PRODUCTS_CACHE));
+        this.catalogCache = Objects.requireNonNull(cacheManager.getCache(CATALOG_CACHE));
+    }
+
+    @Override
+    public ResponseEntity<Product> getProductById(UUID id) {
+        // Unknown IDs are cached as null too, so repeated lookups of a missing product stay off the database.
+        Product product = productsCache.get(id, () -> productService.getProductById(id).getBody());
+        return product != null ? ResponseEntity.ok(product) : ResponseEntity.notFound().build();
+    }
+
+    @Override
+    public ResponseEntity<List<Product>> getProductsByIds(List<UUID> ids) {
+        // Batches read straight from the database: order-service snapshots the prices they return into its
+        // orders, and a product updated on another node stays in this node's cache until its entry expires.
+        return productService.getProductsByIds(ids);
+    }
+
+    @Override
+    public Page<Product> getProductsByCriteria(String idPrefix, String name, String description, Double minPrice, Double maxPrice, Integer minQuantity, Integer maxQuantity, Pageable pageable) {
+        return productService.getProductsByCriteria(idPrefix, name, description, minPrice, maxPrice, minQuantity, maxQuantity, pageable);
+    }
+
+    @Override
+    public Slice<Product> getProductsSliceByCriteria(String idPrefix, Double minPrice, Double maxPrice, Integer minQuantity, Integer maxQuantity, UUID afterId, int size) {
+        return productService.getProductsSliceByCriteria(idPrefix, minPrice, maxPrice, minQuantity, maxQuantity, afterId, size);
+    }
+
+    @Override
+    public ResponseEntity<List<Product>> getAllProducts() {
+        List<Product> products = catalogCache.get(CATALOG_KEY, () -> productService.getAllProducts().getBody());
+        return products != null && !products.isEmpty() ? ResponseEntity.ok(products) : ResponseEntity.badRequest().build();
+    }
+
+    @Override
+    public ResponseEntity<Product> addProduct(Product product) {
+        ResponseEntity<Product> response = productService.addProduct(product);
+        evictAfterCommit(response.getBody() != null ? List.of(response.getBody().getId()) : List.of());
+        return response;
+    }
+
+    @Override
+    public ResponseEntity<Product> updateProduct(UUID id, Product product) {
+        ResponseEntity<Product> response = productService.updateProduct(id, product);
+        evictAfterCommit(List.of(id));
+        return response;
+    }
+
+    @Override
+    public void deleteProduct(UUID id) {
+        productService.deleteProduct(id);
+        evictAfterCommit(List.of(id));
+    }
+
+    @Override
+    public Integer incrementProductQuantity(UUID id, Integer quantity) {
+        Integer newQuantity = productService.incrementProductQuantity(id, quantity);
+        evictAfterCommit(List.of(id));
+        return newQuantity;
+    }
+
+    @Override
+    public Integer decrementProductQuantity(UUID id, Integer quantity) {
+        Integer newQuantity = productService.decrementProductQuantity(id, quantity);
+        evictAfterCommit(List.of(id));
+        return newQuantity;
+    }
+
+    @Override
+    public ResponseEntity<Map<UUID, Integer>> reserveProductQuantities(List<StockLine> lines) {
+        ResponseEntity<Map<UUID, Integer>> response = productService.reserveProductQuantities(lines);
+        if (response.getBody() != null) {
+            evictAfterCommit(response.getBody().keySet());
+        }
+        return response;
+    }
+
+    @Override
+    public void forEachProduct(Consumer<Product> action) {
+        // Exports read straight from the database; filling the cache with every product would only evict hot entries.
+        productService.forEachProduct(action);
+    }
+
+    /**
+     * Evicts the given products and the catalog. Inside a transaction the eviction is deferred until the
+     * commit, so a concurrent reader cannot repopulate the cache with the pre-commit state.
+     *
+     * @param productIds the IDs of the products that were modified
+     */
+    private void evictAfterCommit(Collection<UUID> productIds) {
+        Runnable evict = () -> {
+            productIds.forEach(productsCache::evict);
+            catalogCache.evict(CATALOG_KEY);
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    evict.run();
+                }
+            });
+        } else {
+            evict.run();
+        }
+    }
+}
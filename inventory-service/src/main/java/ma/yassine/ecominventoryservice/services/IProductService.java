@@ -1,18 +1,26 @@
 package ma.yassine.ecominventoryservice.services;
 
 import ma.yassine.ecominventoryservice.entities.Product;
+import ma.yassine.ecominventoryservice.models.StockLine;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.http.ResponseEntity;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.function.Consumer;
 
 public interface IProductService {
     ResponseEntity<Product> getProductById(UUID id);
 
-    Page<Product> getProductsByCriteria(UUID id, String name, String description, Double minPrice, Double maxPrice, Integer minQuantity, Integer maxQuantity, Pageable pageable);
+    ResponseEntity<List<Product>> getProductsByIds(List<UUID> ids);
+
+    Page<Product> getProductsByCriteria(String idPrefix, String name, String description, Double minPrice, Double maxPrice, Integer minQuantity, Integer maxQuantity, Pageable pageable);
+
+    Slice<Product> getProductsSliceByCriteria(String idPrefix, Double minPrice, Double maxPrice, Integer minQuantity, Integer maxQuantity, UUID afterId, int size);
 
     ResponseEntity<List<Product>> getAllProducts();
 
@@ -24,9 +32,12 @@ public interface IProductService {
 
     void deleteProduct(UUID id);
 
-    @Transactional
     Integer incrementProductQuantity(UUID id, Integer quantity);
 
-    @Transactional
     Integer decrementProductQuantity(UUID id, Integer quantity);
+
+    ResponseEntity<Map<UUID, Integer>> reserveProductQuantities(List<StockLine> lines);
+
+    @Transactional(readOnly = true)
+    void forEachProduct(Consumer<Product> action);
 }
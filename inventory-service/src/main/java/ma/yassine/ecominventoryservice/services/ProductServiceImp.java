@@ -1,21 +1,70 @@
 package ma.yassine.ecominventoryservice.services;
 
+import jakarta.persistence.EntityManager;
 import lombok.AllArgsConstructor;
 import ma.yassine.ecominventoryservice.entities.Product;
+import ma.yassine.ecominventoryservice.events.ProductChangedEvent;
+import ma.yassine.ecominventoryservice.models.StockLevel;
+import ma.yassine.ecominventoryservice.models.StockLine;
 import ma.yassine.ecominventoryservice.repositories.ProductRepository;
+import ma.yassine.ecominventoryservice.repositories.ProductSpecifications;
+import ma.yassine.ecominventoryservice.search.ProductReadModel;
+import ma.yassine.ecominventoryservice.search.ProductSearchIndex;
+import ma.yassine.ecominventoryservice.search.UuidPrefixRange;
+import ma.yassine.ecominventoryservice.stock.HotStockLedger;
+import ma.yassine.ecominventoryservice.stock.StockSlots;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.ConcurrencyFailureException;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 @AllArgsConstructor
 public class ProductServiceImp implements IProductService {
+    public static final int MAX_SLICE_SIZE = 100;
+    public static final int MAX_BATCH_SIZE = 1_000;
+    private static final int SEARCH_CANDIDATE_CHUNK_SIZE = 1_000;
+    private static final int SLOT_TRANSACTION_ATTEMPTS = 3;
+
     private final ProductRepository productRepository;
+    private final EntityManager entityManager;
+    private final ProductSearchIndex productSearchIndex;
+    private final ApplicationEventPublisher eventPublisher;
+    private final ObjectProvider<ProductReadModel> productReadModel;
+    private final ObjectProvider<HotStockLedger> hotStockLedger;
+    private final ObjectProvider<StockSlots> stockSlots;
+    private final TransactionTemplate transactionTemplate;
 
     /**
      * Retrieves a product by its unique identifier.
@@ -26,13 +75,39 @@ public class ProductServiceImp implements IProductService {
     @Override
     public ResponseEntity<Product> getProductById(UUID id) {
         Product product = productRepository.findById(id).orElse(null);
-        return product != null ? ResponseEntity.ok(product) : ResponseEntity.notFound().build();
+        return product != null ? ResponseEntity.ok(withLiveStock(product)) : ResponseEntity.notFound().build();
+    }
+
+    /**
+     * Retrieves several products by their unique identifiers with a single query. Unknown IDs are left out
+     * of the result, and repeated IDs are returned once.
+     *
+     * @param ids the unique identifiers of the products to be retrieved, at most {@value #MAX_BATCH_SIZE}
+     * @return a {@link ResponseEntity} containing the products found, or a bad request response if an ID is
+     *         missing or there are too many of them
+     */
+    @Override
+    public ResponseEntity<List<Product>> getProductsByIds(List<UUID> ids) {
+        if (ids == null || ids.stream().anyMatch(Objects::isNull)) {
+            return ResponseEntity.badRequest().build();
+        }
+        Set<UUID> distinctIds = new LinkedHashSet<>(ids);
+        if (distinctIds.size() > MAX_BATCH_SIZE) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (distinctIds.isEmpty()) {
+            return ResponseEntity.ok(List.of());
+        }
+        return ResponseEntity.ok(withLiveStock(productRepository.findAllById(distinctIds)));
     }
 
     /**
      * Retrieves a paginated list of products based on the specified filtering criteria.
+     * When a name or description is given, products are matched word by word (including word prefixes)
+     * through the search index and returned by relevance; otherwise they come straight from the database.
+     * When the in-memory read model is enabled, it applies the other filters instead of the database.
      *
-     * @param id the unique identifier of the product, or null to ignore this criterion
+     * @param idPrefix the beginning of the product ID, with or without dashes, or null to ignore this criterion
      * @param name the name of the product, or null to ignore this criterion
      * @param description the description of the product, or null to ignore this criterion
      * @param minPrice the minimum price of the product, or null to ignore this criterion
@@ -43,21 +118,107 @@ public class ProductServiceImp implements IProductService {
      * @return a page containing the products that match the given criteria
      */
     @Override
-    public Page<Product> getProductsByCriteria(UUID id, String name, String description, Double minPrice, Double maxPrice, Integer minQuantity, Integer maxQuantity, Pageable pageable) {
-        String productId = id != null ? id.toString().toLowerCase().trim() : null;
-        String productName = name != null ? name.toLowerCase().trim() : null;
-        String productDescription = description != null ? description.toLowerCase().trim() : null;
+    public Page<Product> getProductsByCriteria(String idPrefix, String name, String description, Double minPrice, Double maxPrice, Integer minQuantity, Integer maxQuantity, Pageable pageable) {
+        UuidPrefixRange idRange = UuidPrefixRange.parse(idPrefix).orElse(null);
+        if (idRange == null) {
+            // No UUID can start with this prefix.
+            return Page.empty(pageable);
+        }
+        boolean textSearch = (name != null && !name.isBlank()) || (description != null && !description.isBlank());
+        ProductReadModel readModel = productReadModel.getIfAvailable();
+        if (!textSearch) {
+            Optional<Page<Product>> page = readModel != null
+                    ? readModel.findByCriteria(idRange, minPrice, maxPrice, minQuantity, maxQuantity, pageable)
+                    : Optional.empty();
+            Page<Product> found = page.orElseGet(() -> findInDatabase(matching(idRange, minPrice, maxPrice, minQuantity, maxQuantity), pageable));
+            return new PageImpl<>(withLiveStock(found.getContent()), pageable, found.getTotalElements());
+        }
+
+        // The index ranks the text matches; the database applies the other filters to those candidates.
+        // The total comes from the ranked list, so no COUNT query is needed.
+        List<UUID> rankedIds = productSearchIndex.search(name, description);
+        Optional<List<UUID>> filteredIds = readModel != null
+                ? readModel.filter(rankedIds, idRange, minPrice, maxPrice, minQuantity, maxQuantity)
+                : Optional.empty();
+        List<UUID> resultIds = filteredIds.orElseGet(() -> filterInDatabase(rankedIds, idRange, minPrice, maxPrice, minQuantity, maxQuantity));
+
+        int fromIndex = pageable.isPaged() ? (int) Math.min(pageable.getOffset(), resultIds.size()) : 0;
+        int toIndex = pageable.isPaged() ? Math.min(resultIds.size(), fromIndex + pageable.getPageSize()) : resultIds.size();
+        List<UUID> pageIds = resultIds.subList(fromIndex, toIndex);
+        List<Product> found = filteredIds.isPresent() ? readModel.findAllById(pageIds) : productRepository.findAllById(pageIds);
+        Map<UUID, Product> products = found.stream().collect(Collectors.toMap(Product::getId, product -> product));
+        List<Product> content = withLiveStock(pageIds.stream().map(products::get).filter(Objects::nonNull).toList());
+        return new PageImpl<>(content, pageable, resultIds.size());
+    }
+
+    /**
+     * Retrieves a page of products from the database. The quantity column of sharded products does not hold
+     * their stock, so sorting by quantity sorts by the stock of each product instead when stock slots are in use.
+     */
+    private Page<Product> findInDatabase(Specification<Product> filters, Pageable pageable) {
+        if (stockSlots.getIfAvailable() == null || pageable.getSort().getOrderFor("quantity") == null) {
+            return productRepository.findAll(filters, pageable);
+        }
+        Pageable unsorted = pageable.isPaged() ? PageRequest.of(pageable.getPageNumber(), pageable.getPageSize()) : Pageable.unpaged();
+        return productRepository.findAll(filters.and(ProductSpecifications.orderedByStock(pageable.getSort())), unsorted);
+    }
+
+    /**
+     * Keeps the given products that match the column filters, checking them in the database by chunks.
+     *
+     * @return the matching IDs in their original order
+     */
+    private List<UUID> filterInDatabase(List<UUID> ids, UuidPrefixRange idRange, Double minPrice, Double maxPrice, Integer minQuantity, Integer maxQuantity) {
+        Specification<Product> filters = matching(idRange, minPrice, maxPrice, minQuantity, maxQuantity);
+        Set<UUID> matchingIds = new HashSet<>();
+        for (int from = 0; from < ids.size(); from += SEARCH_CANDIDATE_CHUNK_SIZE) {
+            List<UUID> candidates = ids.subList(from, Math.min(ids.size(), from + SEARCH_CANDIDATE_CHUNK_SIZE));
+            matchingIds.addAll(productRepository.findIds(filters.and(ProductSpecifications.idIn(candidates))));
+        }
+        return ids.stream().filter(matchingIds::contains).toList();
+    }
+
+    /**
+     * Retrieves products matching the given column filters one slice at a time, in ID order. Slices are
+     * addressed by the ID of the last product of the previous slice rather than by page number, and no
+     * total is computed, so every slice costs a single indexed query however deep the client scrolls.
+     *
+     * @param idPrefix the beginning of the product ID, with or without dashes, or null to ignore this criterion
+     * @param minPrice the minimum price of the product, or null to ignore this criterion
+     * @param maxPrice the maximum price of the product, or null to ignore this criterion
+     * @param minQuantity the minimum available quantity of the product, or null to ignore this criterion
+     * @param maxQuantity the maximum available quantity of the product, or null to ignore this criterion
+     * @param afterId the ID of the last product of the previous slice, or null for the first slice
+     * @param size the maximum number of products in the slice, capped at {@value #MAX_SLICE_SIZE}
+     * @return a slice of matching products, telling whether more follow
+     */
+    @Override
+    public Slice<Product> getProductsSliceByCriteria(String idPrefix, Double minPrice, Double maxPrice, Integer minQuantity, Integer maxQuantity, UUID afterId, int size) {
+        int sliceSize = Math.max(1, Math.min(size, MAX_SLICE_SIZE));
+        UuidPrefixRange idRange = UuidPrefixRange.parse(idPrefix).orElse(null);
+        if (idRange == null) {
+            return new SliceImpl<>(List.of(), PageRequest.ofSize(sliceSize), false);
+        }
+        Specification<Product> specification = matching(idRange, minPrice, maxPrice, minQuantity, maxQuantity);
+        if (afterId != null) {
+            specification = specification.and(ProductSpecifications.idAfter(afterId));
+        }
+        // Fetch one extra row to know whether there is a next slice.
+        List<Product> products = productRepository.findBy(specification, query -> query
+                .sortBy(Sort.by("id"))
+                .limit(sliceSize + 1)
+                .all());
+        boolean hasNext = products.size() > sliceSize;
+        List<Product> content = withLiveStock(hasNext ? products.subList(0, sliceSize) : products);
+        return new SliceImpl<>(content, PageRequest.ofSize(sliceSize), hasNext);
+    }
 
-        return productRepository.getProductsByCriteria(
-                productId,
-                productName,
-                productDescription,
-                minPrice,
-                maxPrice,
-                minQuantity,
-                maxQuantity,
-                pageable
-        );
+    /**
+     * Builds the column filters of a search. The quantity column of sharded products does not hold their
+     * stock, so the quantity bounds are checked against the stock of each product when stock slots are in use.
+     */
+    private Specification<Product> matching(UuidPrefixRange idRange, Double minPrice, Double maxPrice, Integer minQuantity, Integer maxQuantity) {
+        return ProductSpecifications.matching(idRange, minPrice, maxPrice, minQuantity, maxQuantity, stockSlots.getIfAvailable() != null);
     }
 
     /**
@@ -68,7 +229,7 @@ public class ProductServiceImp implements IProductService {
      */
     @Override
     public ResponseEntity<List<Product>> getAllProducts() {
-        List<Product> products = productRepository.findAll();
+        List<Product> products = withLiveStock(productRepository.findAll());
         return !products.isEmpty() ? ResponseEntity.ok(products) : ResponseEntity.badRequest().build();
     }
 
@@ -81,116 +242,427 @@ public class ProductServiceImp implements IProductService {
     @Transactional
     @Override
     public ResponseEntity<Product> addProduct(Product product) {
+        product.setVersion(null);
         Product savedProduct = productRepository.save(product);
+        eventPublisher.publishEvent(ProductChangedEvent.created(savedProduct));
         return ResponseEntity.ok(savedProduct);
     }
     /**
      * Updates an existing product in the repository with the provided details.
      * If the product with the specified ID exists, its fields are updated with non-null
      * values from the given product object. Otherwise, a not found response is returned.
+     * When the given product carries a version, the update is optimistic: it is rejected with a
+     * conflict response if the stored product has been modified since that version was read.
+     * The in-memory stock of a hot product is only set once the update has committed.
      *
      * @param id the unique identifier of the product to be updated
      * @param product the product object containing the updated details
      * @return a {@link ResponseEntity} containing the updated product if the update is successful,
-     *         or a not found response if the product with the specified ID does not exist
+     *         a not found response if the product with the specified ID does not exist,
+     *         or a conflict response if the given version is stale
      */
     @Transactional
     @Override
     public ResponseEntity<Product> updateProduct(UUID id, Product product) {
         Product savedProduct = productRepository.findById(id).orElse(null);
         if (savedProduct != null) {
+            if (product.getVersion() != null && !product.getVersion().equals(savedProduct.getVersion())) {
+                return ResponseEntity.status(HttpStatus.CONFLICT).build();
+            }
             if(product.getName() != null && !product.getName().isBlank()) savedProduct.setName(product.getName());
             if(product.getDescription() != null && !product.getDescription().isBlank()) savedProduct.setDescription(product.getDescription());
             if(product.getPrice() != null && product.getPrice() > 0) savedProduct.setPrice(product.getPrice());
-            if(product.getQuantity() != null && product.getQuantity() >= 0) savedProduct.setQuantity(product.getQuantity());
-            productRepository.save(savedProduct);
-            return ResponseEntity.ok(savedProduct);
+            boolean quantityGiven = product.getQuantity() != null && product.getQuantity() >= 0;
+            StockSlots slots = stockSlots.getIfAvailable();
+            boolean sharded = slots != null && slots.isSharded(id);
+            // The quantity column of a sharded product stays at 0, its stock is in its slots.
+            if(quantityGiven && !sharded) savedProduct.setQuantity(product.getQuantity());
+            // Flush here so a concurrent modification surfaces as an optimistic locking failure.
+            productRepository.saveAndFlush(savedProduct);
+            HotStockLedger ledger = hotStockLedger.getIfAvailable();
+            boolean hot = ledger != null && ledger.isHot(id);
+            if (hot) {
+                // The counters are not rolled back with the transaction, so only change them once it commits.
+                Integer quantity = quantityGiven ? product.getQuantity() : null;
+                afterCommit(() -> {
+                    if (quantity != null) {
+                        ledger.set(id, quantity);
+                    } else {
+                        ledger.flushAgain(id);
+                    }
+                });
+            }
+            if (sharded) {
+                // Published by the slots once committed, with the stock as of then.
+                if (quantityGiven) {
+                    slots.set(id, product.getQuantity(), true);
+                } else {
+                    slots.productUpdated(id);
+                }
+            } else {
+                eventPublisher.publishEvent(ProductChangedEvent.updated(savedProduct));
+            }
+            Product updated = withLiveStock(savedProduct);
+            if (hot && quantityGiven) {
+                updated.setQuantity(product.getQuantity());
+            }
+            return ResponseEntity.ok(updated);
         }
         return ResponseEntity.notFound().build();
     }
 
     /**
      * Deletes a product identified by the provided ID.
+     * A hot product is dropped from the {@link HotStockLedger} once the deletion has committed, so that its
+     * stock can no longer be changed in memory.
      *
      * @param id the unique identifier of the product to be deleted
      */
     @Override
     public void deleteProduct(UUID id) {
-        productRepository.deleteById(id);
+        StockSlots slots = stockSlots.getIfAvailable();
+        HotStockLedger ledger = hotStockLedger.getIfAvailable();
+        transactionTemplate.executeWithoutResult(status -> {
+            if (slots != null && slots.isSharded(id)) {
+                slots.delete(id);
+            }
+            productRepository.deleteById(id);
+            if (ledger != null && ledger.isHot(id)) {
+                afterCommit(() -> ledger.remove(id));
+            }
+            eventPublisher.publishEvent(ProductChangedEvent.deleted(id));
+        });
     }
 
     /**
      * Increments the quantity of a product by a specified amount.
-     * If the increment amount is less than or equal to zero, this method returns an empty Optional.
-     * If the product is not found, an empty Optional is returned.
-     * If successful, the product's quantity is updated and the new quantity is returned.
+     * If the increment amount is less than or equal to zero, this method returns null.
+     * If the product is not found, null is returned.
+     * If successful, the product's quantity is atomically updated and the new quantity is returned.
+     * The stock of hot products is changed in the {@link HotStockLedger}, without a database transaction,
+     * and that of sharded products in one of their {@link StockSlots}.
      *
      * @param productId the unique identifier of the product whose quantity is to be incremented
      * @param incrementAmount the amount to increment the product's quantity by; must be greater than zero
-     * @return an Optional containing the updated quantity of the product if successful; otherwise, an empty Optional
+     * @return the updated quantity of the product if successful; otherwise, null
+     * @throws ArithmeticException if the stock of a hot product would exceed {@link Integer#MAX_VALUE}
      */
-    @Transactional
     @Override
     public Integer incrementProductQuantity(UUID productId, Integer incrementAmount) {
         if (incrementAmount <= 0) {
             System.out.println("Increment amount must be greater than zero.");
             return null;
         }
-
-        Product product = findProductById(productId);
-        if (product == null) {
-            System.out.printf("Product with id %s was not found.\n", productId);
-            return null;
+        HotStockLedger ledger = hotStockLedger.getIfAvailable();
+        if (ledger != null && ledger.isHot(productId)) {
+            return ledger.increment(productId, incrementAmount);
+        }
+        StockSlots slots = stockSlots.getIfAvailable();
+        if (slots != null && slots.isSharded(productId)) {
+            return transactionTemplate.execute(status -> {
+                slots.increment(productId, incrementAmount);
+                return productRepository.findStockById(productId).getQuantity();
+            });
         }
 
-        product.setQuantity(product.getQuantity() + incrementAmount);
-        productRepository.save(product);
-        return product.getQuantity();
-    }
-
-    /**
-     * Finds a product by its unique identifier.
-     *
-     * @param productId the unique identifier of the product to find
-     * @return the product corresponding to the given ID, or null if no product is found
-     */
-    private Product findProductById(UUID productId) {
-        return productRepository.findById(productId).orElse(null);
+        return transactionTemplate.execute(status -> {
+            if (productRepository.incrementQuantity(productId, incrementAmount) == 0) {
+                System.out.printf("Product with id %s was not found.\n", productId);
+                return null;
+            }
+            return publishQuantityChange(productId);
+        });
     }
 
     /**
      * Decreases the quantity of a product by the specified amount.
+     * The stock check and the decrement are a single conditional UPDATE, so the product row is never
+     * read and written back in separate steps. The stock of hot products is decremented in the
+     * {@link HotStockLedger}, without a database transaction. The stock of sharded products is taken from
+     * their {@link StockSlots}, so that concurrent decrements mostly lock different rows.
      *
      * @param id the unique identifier of the product whose quantity is to be decremented
      * @param quantity the amount by which the product's quantity should be reduced
      * @return the updated quantity of the product after the decrement
-     * @throws IllegalArgumentException if the product*/
-    @Transactional
+     * @throws IllegalArgumentException if the product does not exist, the quantity is not positive
+     *         or there is not enough stock
+     */
     @Override
     public Integer decrementProductQuantity(UUID id, Integer quantity) {
         if (id == null || quantity == null) {
             throw new IllegalArgumentException("Product ID and quantity must not be null.");
         }
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("Decrement quantity must be greater than zero.");
+        }
+        HotStockLedger ledger = hotStockLedger.getIfAvailable();
+        if (ledger != null && ledger.isHot(id)) {
+            return ledger.decrement(id, quantity);
+        }
+        StockSlots slots = stockSlots.getIfAvailable();
+        if (slots != null && slots.isSharded(id)) {
+            return inSlotTransaction((status, lockSlots) -> {
+                slots.decrement(id, quantity, lockSlots);
+                return productRepository.findStockById(id).getQuantity();
+            });
+        }
 
-        Product product = productRepository.findById(id).orElseThrow(
-                () -> new IllegalArgumentException("Product with ID " + id + " not found.")
-        );
+        return transactionTemplate.execute(status -> {
+            if (productRepository.decrementQuantity(id, quantity) == 0) {
+                if (!productRepository.existsById(id)) {
+                    throw new IllegalArgumentException("Product with ID " + id + " not found.");
+                }
+                throw new IllegalArgumentException("Not enough stock to decrement by " + quantity + ".");
+            }
+            return publishQuantityChange(id);
+        });
+    }
 
-        validateDecrementQuantity(product, quantity);
+    /**
+     * Reserves the requested quantities for a whole list of order lines in a single transaction.
+     * Lines targeting the same product are merged and each product is decremented with a conditional
+     * UPDATE; if any line cannot be satisfied the transaction is rolled back, so nothing is
+     * decremented (all-or-nothing). Lines for hot products are reserved in the {@link HotStockLedger}
+     * first and given back if the other lines fail, or if the transaction of the caller is rolled back;
+     * if all lines are for hot products, no database transaction is needed.
+     *
+     * @param lines the order lines, each holding a product ID and the quantity to reserve
+     * @return a {@link ResponseEntity} containing the remaining quantity of each reserved product,
+     *         or a bad request response if a line is invalid, a product does not exist or stock is insufficient
+     * @throws ArithmeticException if the lines of a product add up to more than {@link Integer#MAX_VALUE}
+     */
+    @Override
+    public ResponseEntity<Map<UUID, Integer>> reserveProductQuantities(List<StockLine> lines) {
+        Map<UUID, Integer> requested = mergeStockLines(lines);
+        if (requested == null) {
+            return ResponseEntity.badRequest().build();
+        }
 
-        product.setQuantity(product.getQuantity() - quantity);
-        productRepository.save(product);
+        Map<UUID, Integer> quantities = new HashMap<>();
+        Map<UUID, Integer> hot = new LinkedHashMap<>();
+        Map<UUID, Integer> cold = new LinkedHashMap<>();
+        HotStockLedger ledger = hotStockLedger.getIfAvailable();
+        requested.forEach((productId, quantity) -> (ledger != null && ledger.isHot(productId) ? hot : cold).put(productId, quantity));
+        if (!hot.isEmpty()) {
+            Map<UUID, Integer> reserved = ledger.reserve(hot);
+            if (reserved == null) {
+                System.out.printf("Cannot reserve the hot products of %s.\n", hot);
+                return ResponseEntity.badRequest().build();
+            }
+            quantities.putAll(reserved);
+        }
+        if (!cold.isEmpty()) {
+            Map<UUID, Integer> reserved = inSlotTransaction((status, lockSlots) -> reserveInDatabase(cold, status, lockSlots));
+            if (reserved == null) {
+                if (!hot.isEmpty()) {
+                    ledger.release(hot);
+                }
+                return ResponseEntity.badRequest().build();
+            }
+            quantities.putAll(reserved);
+        }
+
+        if (!hot.isEmpty()) {
+            // The counters are not rolled back with the caller's transaction, so give the stock back if it is.
+            afterRollback(() -> ledger.release(hot));
+        }
 
-        return product.getQuantity();
+        Map<UUID, Integer> remaining = new LinkedHashMap<>();
+        requested.keySet().forEach(productId -> remaining.put(productId, quantities.get(productId)));
+        return ResponseEntity.ok(remaining);
     }
 
-    private void validateDecrementQuantity(Product product, Integer quantity) {
-        if (quantity <= 0) {
-            throw new IllegalArgumentException("Decrement quantity must be greater than zero.");
+    /**
+     * Decrements the given products with conditional UPDATEs, rolling the transaction back if one of
+     * them cannot be satisfied.
+     *
+     * @return the remaining quantity of each product, or null if the reservation was rolled back
+     */
+    private Map<UUID, Integer> reserveInDatabase(Map<UUID, Integer> requested, TransactionStatus status, boolean lockSlots) {
+        StockSlots slots = stockSlots.getIfAvailable();
+        // Lock rows in a stable order so that two overlapping reservations cannot deadlock.
+        for (Map.Entry<UUID, Integer> line : new TreeMap<>(requested).entrySet()) {
+            if (!reserveInDatabase(slots, line.getKey(), line.getValue(), lockSlots)) {
+                System.out.printf("Cannot reserve %d unit(s) of product %s.\n", line.getValue(), line.getKey());
+                status.setRollbackOnly();
+                return null;
+            }
+        }
+
+        Map<UUID, Integer> quantities = new HashMap<>();
+        for (Product product : productRepository.findAllById(requested.keySet())) {
+            if (slots != null && slots.isSharded(product.getId())) {
+                // The slots publish the change once committed.
+                quantities.put(product.getId(), productRepository.findStockById(product.getId()).getQuantity());
+                continue;
+            }
+            quantities.put(product.getId(), product.getQuantity());
+            eventPublisher.publishEvent(ProductChangedEvent.quantityChanged(product.getId(), product.getQuantity(), product.getVersion()));
+        }
+        return quantities;
+    }
+
+    /**
+     * Runs a transaction that may take stock from {@link StockSlots}, running it again if a slot changed
+     * under it. The last attempt locks the slots before reading them, so it cannot fail that way. Within a
+     * transaction of the caller, which a failed attempt would spoil, the slots are locked on the first attempt.
+     */
+    private <T> T inSlotTransaction(BiFunction<TransactionStatus, Boolean, T> work) {
+        boolean joined = TransactionSynchronizationManager.isActualTransactionActive();
+        for (int attempt = 1; ; attempt++) {
+            boolean lockSlots = joined || attempt == SLOT_TRANSACTION_ATTEMPTS;
+            try {
+                return transactionTemplate.execute(status -> work.apply(status, lockSlots));
+            } catch (ConcurrencyFailureException e) {
+                if (lockSlots) {
+                    throw e;
+                }
+            }
         }
-        if (quantity > product.getQuantity()) {
-            throw new IllegalArgumentException("Not enough stock to decrement by " + quantity + ".");
+    }
+
+    /**
+     * Takes the given quantity of one product, from its stock slots if it is sharded.
+     *
+     * @return whether the product had enough stock
+     */
+    private boolean reserveInDatabase(StockSlots slots, UUID productId, int quantity, boolean lockSlots) {
+        if (slots == null || !slots.isSharded(productId)) {
+            return productRepository.decrementQuantity(productId, quantity) > 0;
+        }
+        try {
+            slots.decrement(productId, quantity, lockSlots);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the product with its actual stock: the stock held by the {@link HotStockLedger} if it is a hot
+     * product, whose quantity in the database can be behind by up to one flush interval, or the sum of its
+     * {@link StockSlots} if it is sharded, whose quantity in the database stays at 0.
+     */
+    private Product withLiveStock(Product product) {
+        return withLiveStock(List.of(product)).get(0);
+    }
+
+    /**
+     * Returns the products with their actual stock, like {@link #withLiveStock(Product)}, reading the stock
+     * of all the sharded ones with a single query.
+     */
+    private List<Product> withLiveStock(List<Product> products) {
+        HotStockLedger ledger = hotStockLedger.getIfAvailable();
+        StockSlots slots = stockSlots.getIfAvailable();
+        List<UUID> shardedIds = slots != null
+                ? products.stream().map(Product::getId).filter(slots::isSharded).toList()
+                : List.of();
+        Map<UUID, Integer> slotStock = new HashMap<>();
+        if (!shardedIds.isEmpty()) {
+            productRepository.findStocksByIds(shardedIds).forEach(stock -> slotStock.put(stock.getId(), stock.getQuantity()));
         }
+        return products.stream().map(product -> {
+            Integer quantity;
+            if (ledger != null && ledger.isHot(product.getId())) {
+                quantity = ledger.quantity(product.getId());
+            } else if (slotStock.containsKey(product.getId())) {
+                quantity = slotStock.get(product.getId());
+            } else {
+                return product;
+            }
+            // A copy, so that the managed entity is not modified.
+            return Product.builder().id(product.getId()).name(product.getName()).description(product.getDescription())
+                    .price(product.getPrice()).quantity(quantity).version(product.getVersion()).build();
+        }).toList();
     }
 
+    /**
+     * Runs an action once the current transaction has committed, or right away outside of a transaction.
+     */
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    /**
+     * Runs an action if the current transaction is rolled back; does nothing outside of a transaction.
+     */
+    private static void afterRollback(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == STATUS_ROLLED_BACK) {
+                        action.run();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Reads the quantity of a product whose stock was just changed and publishes the change.
+     *
+     * @param productId the unique identifier of the product
+     * @return the new quantity of the product
+     */
+    private Integer publishQuantityChange(UUID productId) {
+        StockLevel stock = productRepository.findStockById(productId);
+        eventPublisher.publishEvent(ProductChangedEvent.quantityChanged(productId, stock.getQuantity(), stock.getVersion()));
+        return stock.getQuantity();
+    }
+
+    /**
+     * Merges order lines by product ID, summing the quantities of lines that target the same product.
+     *
+     * @param lines the order lines to merge
+     * @return the requested quantity per product in line order, or null if the list is empty
+     *         or contains a line without a product ID or with a non-positive quantity
+     * @throws ArithmeticException if the quantities of a product add up to more than {@link Integer#MAX_VALUE}
+     */
+    private Map<UUID, Integer> mergeStockLines(List<StockLine> lines) {
+        if (lines == null || lines.isEmpty()) {
+            return null;
+        }
+        Map<UUID, Integer> requested = new LinkedHashMap<>();
+        for (StockLine line : lines) {
+            if (line == null || line.getProductId() == null || line.getQuantity() == null || line.getQuantity() <= 0) {
+                return null;
+            }
+            requested.merge(line.getProductId(), line.getQuantity(), (quantity, more) -> {
+                try {
+                    return Math.addExact(quantity, more);
+                } catch (ArithmeticException e) {
+                    throw new ArithmeticException("The quantities of product " + line.getProductId() + " add up to more than " + Integer.MAX_VALUE + ".");
+                }
+            });
+        }
+        return requested;
+    }
+
+
+    /**
+     * Passes every product to the given action, reading them from a database cursor instead of loading the
+     * whole catalog. Each product is detached once the action returns, so the persistence context, and with
+     * it the memory used by this call, stays the same size however many products there are.
+     *
+     * @param action the action to run for each product, in ID order
+     */
+    @Override
+    public void forEachProduct(Consumer<Product> action) {
+        try (Stream<Product> products = productRepository.streamAll()) {
+            products.forEach(product -> {
+                action.accept(withLiveStock(product));
+                entityManager.detach(product);
+            });
+        }
+    }
 }
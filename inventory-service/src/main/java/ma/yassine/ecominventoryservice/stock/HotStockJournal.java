@@ -0,0 +1,272 @@
+package ma.yassine.ecominventoryservice.stock;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Supplier;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only file of stock levels for the {@link HotStockLedger}. Each record holds the quantity of one
+ * product and the version of the counter that produced it, so the latest level of every product can be
+ * recovered after a crash whatever order the records were written in.
+ * <p>
+ * Records are written by a single thread that takes everything queued since its last write and forces it
+ * to disk with one {@code fsync} (group commit). An append completes once its record is durable, so many
+ * concurrent reservations share the cost of one disk flush.
+ */
+final class HotStockJournal implements Closeable {
+    // Product ID, version, quantity and a checksum covering them, which tells a torn last record apart.
+    static final int RECORD_SIZE = 16 + 4 + 4 + 4;
+    private static final int MAX_BATCH = 4096;
+
+    /**
+     * The stock level of a product as recorded in the journal.
+     */
+    record Entry(UUID productId, int version, int quantity) {
+    }
+
+    private sealed interface Task permits Append, Compact, Stop {
+    }
+
+    private record Append(Entry entry, CompletableFuture<Void> done) implements Task {
+    }
+
+    private record Compact(Supplier<Collection<Entry>> snapshot, CompletableFuture<Void> done) implements Task {
+    }
+
+    private record Stop() implements Task {
+    }
+
+    private final Path path;
+    private final boolean fsync;
+    private final BlockingQueue<Task> tasks = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private FileChannel channel;
+
+    HotStockJournal(Path path, boolean fsync) throws IOException {
+        this.path = path;
+        this.fsync = fsync;
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        this.channel = open(path);
+        this.writer = Thread.ofPlatform().name("hot-stock-journal").daemon().start(this::writeLoop);
+    }
+
+    /**
+     * Reads the latest recorded level of every product in the journal at the given path. Reading stops at
+     * the first incomplete or corrupt record, which can only be the last one, cut short by a crash.
+     *
+     * @param path the journal file
+     * @return the latest entry per product, empty if there is no journal
+     */
+    static Map<UUID, Entry> recover(Path path) throws IOException {
+        Map<UUID, Entry> latest = new HashMap<>();
+        if (!Files.exists(path)) {
+            return latest;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        while (buffer.remaining() >= RECORD_SIZE) {
+            Entry entry = read(buffer);
+            if (entry == null) {
+                System.err.printf("Ignoring a corrupt record at the end of the stock journal %s.%n", path);
+                break;
+            }
+            latest.merge(entry.productId(), entry, (held, next) -> isNewer(next.version(), held.version()) ? next : held);
+        }
+        return latest;
+    }
+
+    /**
+     * Tells whether a counter version comes after another. Versions are compared as a wrapping sequence,
+     * so a counter can go through any number of changes as long as fewer than 2^31 separate two records.
+     */
+    static boolean isNewer(int version, int than) {
+        return version - than > 0;
+    }
+
+    /**
+     * Queues a stock level for writing.
+     *
+     * @return a future completing once the record is durable, or exceptionally if it could not be written
+     */
+    CompletableFuture<Void> append(UUID productId, int version, int quantity) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        tasks.add(new Append(new Entry(productId, version, quantity), done));
+        return done;
+    }
+
+    /**
+     * Replaces the journal with one record per product. The snapshot is taken by the writer once every
+     * record queued before this call is written, and records queued after it go to the new file, so no
+     * level is lost.
+     *
+     * @param snapshot supplies the current level of every product to keep
+     * @return a future completing once the new journal is in place
+     */
+    CompletableFuture<Void> compact(Supplier<Collection<Entry>> snapshot) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        tasks.add(new Compact(snapshot, done));
+        return done;
+    }
+
+    long size() throws IOException {
+        return Files.size(path);
+    }
+
+    @Override
+    public void close() throws IOException {
+        tasks.add(new Stop());
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    private void writeLoop() {
+        List<Task> batch = new ArrayList<>(MAX_BATCH);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_BATCH * RECORD_SIZE);
+        while (true) {
+            try {
+                batch.add(tasks.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            tasks.drainTo(batch, MAX_BATCH - 1);
+            int appended = 0;
+            for (Task task : batch) {
+                if (task instanceof Append append) {
+                    write(buffer, append.entry());
+                    appended++;
+                    continue;
+                }
+                // Anything else must see the appends queued before it on disk.
+                flush(buffer, batch, appended);
+                appended = 0;
+                if (task instanceof Compact compact) {
+                    rewrite(compact);
+                } else if (task instanceof Stop) {
+                    return;
+                }
+            }
+            flush(buffer, batch, appended);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Writes the buffered records and completes the appends among the last {@code appended} tasks before
+     * the current position in the batch.
+     */
+    private void flush(ByteBuffer buffer, List<Task> batch, int appended) {
+        if (appended == 0) {
+            return;
+        }
+        IOException failure = null;
+        try {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (fsync) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            buffer.clear();
+        }
+        int completed = 0;
+        for (Task task : batch) {
+            if (task instanceof Append append && !append.done().isDone()) {
+                if (failure == null) {
+                    append.done().complete(null);
+                } else {
+                    append.done().completeExceptionally(new UncheckedIOException(failure));
+                }
+                if (++completed == appended) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private void rewrite(Compact compact) {
+        Path next = path.resolveSibling(path.getFileName() + ".compacting");
+        try {
+            Collection<Entry> entries = compact.snapshot().get();
+            try (FileChannel out = FileChannel.open(next, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.allocate(Math.max(1, entries.size()) * RECORD_SIZE);
+                entries.forEach(entry -> write(buffer, entry));
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                out.force(true);
+            }
+            channel.close();
+            Files.move(next, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel = open(path);
+            compact.done().complete(null);
+        } catch (IOException | RuntimeException e) {
+            compact.done().completeExceptionally(e);
+            try {
+                if (!channel.isOpen()) {
+                    channel = open(path);
+                }
+            } catch (IOException reopenFailure) {
+                e.addSuppressed(reopenFailure);
+            }
+        }
+    }
+
+    private static FileChannel open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        // Append after the last complete record, dropping a torn one left by a crash.
+        channel.truncate(channel.size() - channel.size() % RECORD_SIZE);
+        channel.position(channel.size());
+        return channel;
+    }
+
+    private static void write(ByteBuffer buffer, Entry entry) {
+        int start = buffer.position();
+        buffer.putLong(entry.productId().getMostSignificantBits());
+        buffer.putLong(entry.productId().getLeastSignificantBits());
+        buffer.putInt(entry.version());
+        buffer.putInt(entry.quantity());
+        buffer.putInt(checksum(buffer, start));
+    }
+
+    private static Entry read(ByteBuffer buffer) {
+        int start = buffer.position();
+        UUID productId = new UUID(buffer.getLong(), buffer.getLong());
+        int version = buffer.getInt();
+        int quantity = buffer.getInt();
+        int expected = checksum(buffer, start);
+        return buffer.getInt() == expected ? new Entry(productId, version, quantity) : null;
+    }
+
+    private static int checksum(ByteBuffer buffer, int start) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.duplicate().position(start).limit(start + RECORD_SIZE - 4));
+        return (int) crc.getValue();
+    }
+}
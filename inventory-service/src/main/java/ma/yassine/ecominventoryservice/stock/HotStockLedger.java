@@ -0,0 +1,345 @@
+package ma.yassine.ecominventoryservice.stock;
+
+import ma.yassine.ecominventoryservice.entities.Product;
+import ma.yassine.ecominventoryservice.events.ProductChangedEvent;
+import ma.yassine.ecominventoryservice.models.StockLevel;
+import ma.yassine.ecominventoryservice.repositories.ProductRepository;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory stock counters for a few designated hot products, enabled with
+ * {@code inventory.hot-stock.enabled=true} and {@code inventory.hot-stock.product-ids}.
+ * <p>
+ * While this mode is on, the counters, not the {@code product} table, are the authority for the stock of
+ * hot products: every increment, decrement and reservation is a compare-and-set on a counter, with no
+ * database transaction. Each change is written to a {@link HotStockJournal} before it is acknowledged,
+ * and the counters are written to the {@code product} table in one transaction every
+ * {@code inventory.hot-stock.flush-interval}. On startup, the levels found in the journal are written to
+ * the table before the counters are loaded from it, so acknowledged changes survive a crash. Reads from
+ * the database, such as searches, see the stock of hot products as of the last flush. Flushes do not
+ * change the version of the product, so they do not conflict with updates of the product.
+ * <p>
+ * The counters live in one process, so hot products must be served by a single inventory-service node.
+ */
+@Component
+@ConditionalOnProperty(name = "inventory.hot-stock.enabled", havingValue = "true")
+public class HotStockLedger implements SmartInitializingSingleton, DisposableBean {
+    private final ProductRepository productRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+    private final Set<UUID> hotProductIds;
+    private final Path journalPath;
+    private final boolean fsync;
+    private final Duration flushInterval;
+    private final long compactionSize;
+    // The version of each counter in the high 32 bits and the quantity in the low 32 bits, so that both
+    // change in a single compare-and-set.
+    private final Map<UUID, AtomicLong> counters = new ConcurrentHashMap<>();
+    private final Set<UUID> unflushed = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("hot-stock-flusher").daemon().factory());
+    private HotStockJournal journal;
+
+    public HotStockLedger(ProductRepository productRepository,
+                          PlatformTransactionManager transactionManager,
+                          ApplicationEventPublisher eventPublisher,
+                          @Value("${inventory.hot-stock.product-ids:}") List<UUID> hotProductIds,
+                          @Value("${inventory.hot-stock.journal.path:./data/hot-stock.journal}") Path journalPath,
+                          @Value("${inventory.hot-stock.journal.fsync:true}") boolean fsync,
+                          @Value("${inventory.hot-stock.journal.compaction-size:16MB}") DataSize compactionSize,
+                          @Value("${inventory.hot-stock.flush-interval:200ms}") Duration flushInterval) {
+        this.productRepository = productRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.eventPublisher = eventPublisher;
+        this.hotProductIds = Set.copyOf(hotProductIds);
+        this.journalPath = journalPath;
+        this.fsync = fsync;
+        this.compactionSize = compactionSize.toBytes();
+        this.flushInterval = flushInterval;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        try {
+            Map<UUID, HotStockJournal.Entry> recovered = HotStockJournal.recover(journalPath);
+            if (!recovered.isEmpty()) {
+                Map<UUID, Integer> levels = new LinkedHashMap<>();
+                recovered.values().forEach(entry -> levels.put(entry.productId(), entry.quantity()));
+                writeToDatabase(levels);
+                System.out.printf("Recovered the stock of %d product(s) from %s.%n", levels.size(), journalPath);
+            }
+            for (Product product : productRepository.findAllById(hotProductIds)) {
+                HotStockJournal.Entry entry = recovered.get(product.getId());
+                int quantity = product.getQuantity() != null ? product.getQuantity() : 0;
+                counters.put(product.getId(), new AtomicLong(pack(entry != null ? entry.version() : 0, quantity)));
+            }
+            hotProductIds.stream().filter(id -> !counters.containsKey(id))
+                    .forEach(id -> System.err.printf("Hot product %s does not exist; its stock stays in the database.%n", id));
+
+            journal = new HotStockJournal(journalPath, fsync);
+            // Start from one record per hot product, dropping what was recovered for products no longer hot.
+            journal.compact(this::snapshot).join();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        flusher.scheduleWithFixedDelay(this::flush, flushInterval.toMillis(), flushInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return whether the stock of the given product is held by this ledger
+     */
+    public boolean isHot(UUID productId) {
+        return counters.containsKey(productId);
+    }
+
+    /**
+     * @return the current quantity of a hot product
+     */
+    public int quantity(UUID productId) {
+        return quantityOf(counter(productId).get());
+    }
+
+    /**
+     * Adds stock to a hot product.
+     *
+     * @return the new quantity of the product
+     * @throws ArithmeticException if the stock would exceed {@link Integer#MAX_VALUE}
+     */
+    public int increment(UUID productId, int quantity) {
+        return change(productId, quantity);
+    }
+
+    /**
+     * Takes stock from a hot product, if enough is available.
+     *
+     * @return the new quantity of the product
+     * @throws IllegalArgumentException if there is not enough stock
+     */
+    public int decrement(UUID productId, int quantity) {
+        return change(productId, -quantity);
+    }
+
+    /**
+     * Sets the stock of a hot product, as an update of the product does.
+     *
+     * @return the new quantity of the product
+     */
+    public int set(UUID productId, int quantity) {
+        AtomicLong counter = counter(productId);
+        long current;
+        long next;
+        do {
+            current = counter.get();
+            next = pack(versionOf(current) + 1, quantity);
+        } while (!counter.compareAndSet(current, next));
+        record(productId, next);
+        return quantity;
+    }
+
+    /**
+     * Writes the stock of a hot product to the {@code product} table again at the next flush, after a
+     * write of the whole row that may have put an older quantity back.
+     */
+    public void flushAgain(UUID productId) {
+        counter(productId);
+        unflushed.add(productId);
+    }
+
+    /**
+     * Forgets a hot product that was deleted, so that its stock is no longer changed in memory nor written
+     * to the {@code product} table, and drops its record from the journal. Must only be called once the
+     * deletion has committed.
+     */
+    public void remove(UUID productId) {
+        if (counters.remove(productId) == null) {
+            return;
+        }
+        unflushed.remove(productId);
+        try {
+            journal.compact(this::snapshot).join();
+        } catch (CompletionException e) {
+            // The record is dropped by the next compaction; until then recovery only updates a missing row.
+            System.err.println("Could not compact the hot stock journal: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Takes stock from several hot products, all or nothing.
+     *
+     * @param quantities the quantity to take per product
+     * @return the new quantity of each product, or null if one of them has not enough stock, in which case
+     *         none is changed
+     */
+    public Map<UUID, Integer> reserve(Map<UUID, Integer> quantities) {
+        Map<UUID, Integer> remaining = new LinkedHashMap<>();
+        for (Map.Entry<UUID, Integer> line : quantities.entrySet()) {
+            try {
+                remaining.put(line.getKey(), decrement(line.getKey(), line.getValue()));
+            } catch (IllegalArgumentException e) {
+                release(quantities, remaining.keySet());
+                return null;
+            }
+        }
+        return remaining;
+    }
+
+    /**
+     * Gives back stock taken by {@link #reserve}.
+     *
+     * @param quantities the quantity taken per product
+     */
+    public void release(Map<UUID, Integer> quantities) {
+        release(quantities, quantities.keySet());
+    }
+
+    /**
+     * Writes the stock of every hot product changed since the last flush to the {@code product} table.
+     */
+    public void flush() {
+        List<UUID> changed = new ArrayList<>(unflushed);
+        if (changed.isEmpty()) {
+            return;
+        }
+        // Unmark before reading, so a change made while flushing is flushed again next time.
+        unflushed.removeAll(changed);
+        Map<UUID, Integer> levels = new LinkedHashMap<>();
+        changed.forEach(productId -> {
+            AtomicLong counter = counters.get(productId);
+            // Products removed since they were changed are not written back.
+            if (counter != null) {
+                levels.put(productId, quantityOf(counter.get()));
+            }
+        });
+        try {
+            writeToDatabase(levels);
+        } catch (RuntimeException e) {
+            unflushed.addAll(changed);
+            System.err.println("Could not write hot stock to the database: " + e.getMessage());
+            return;
+        }
+        try {
+            if (journal.size() > compactionSize) {
+                journal.compact(this::snapshot).join();
+            }
+        } catch (IOException | CompletionException e) {
+            System.err.println("Could not compact the hot stock journal: " + e.getMessage());
+        }
+    }
+
+    private int change(UUID productId, int delta) {
+        AtomicLong counter = counter(productId);
+        long current;
+        long next;
+        do {
+            current = counter.get();
+            int quantity;
+            try {
+                quantity = Math.addExact(quantityOf(current), delta);
+            } catch (ArithmeticException e) {
+                throw new ArithmeticException("The stock of product " + productId + " cannot exceed " + Integer.MAX_VALUE + ".");
+            }
+            if (quantity < 0) {
+                throw new IllegalArgumentException("Not enough stock to decrement by " + -delta + ".");
+            }
+            next = pack(versionOf(current) + 1, quantity);
+        } while (!counter.compareAndSet(current, next));
+        try {
+            record(productId, next);
+        } catch (IllegalStateException e) {
+            // The change was not acknowledged, so take it back.
+            counter.getAndUpdate(state -> pack(versionOf(state) + 1, quantityOf(state) - delta));
+            unflushed.add(productId);
+            throw e;
+        }
+        return quantityOf(next);
+    }
+
+    private void release(Map<UUID, Integer> quantities, Set<UUID> productIds) {
+        for (UUID productId : productIds) {
+            increment(productId, quantities.get(productId));
+        }
+    }
+
+    private void record(UUID productId, long state) {
+        unflushed.add(productId);
+        try {
+            journal.append(productId, versionOf(state), quantityOf(state)).join();
+        } catch (CompletionException e) {
+            throw new IllegalStateException("Could not journal the stock of product " + productId + ".", e.getCause());
+        }
+    }
+
+    private void writeToDatabase(Map<UUID, Integer> levels) {
+        transactionTemplate.executeWithoutResult(status -> levels.forEach((productId, quantity) -> {
+            if (productRepository.setQuantity(productId, quantity) > 0) {
+                StockLevel stock = productRepository.findStockById(productId);
+                if (stock != null) {
+                    eventPublisher.publishEvent(ProductChangedEvent.quantityChanged(productId, stock.getQuantity(), stock.getVersion()));
+                }
+            }
+        }));
+    }
+
+    private List<HotStockJournal.Entry> snapshot() {
+        List<HotStockJournal.Entry> entries = new ArrayList<>(counters.size());
+        counters.forEach((productId, counter) -> {
+            long state = counter.get();
+            entries.add(new HotStockJournal.Entry(productId, versionOf(state), quantityOf(state)));
+        });
+        return entries;
+    }
+
+    private AtomicLong counter(UUID productId) {
+        AtomicLong counter = counters.get(productId);
+        if (counter == null) {
+            throw new IllegalArgumentException("Product with ID " + productId + " is not a hot product.");
+        }
+        return counter;
+    }
+
+    private static long pack(int version, int quantity) {
+        return ((long) version << 32) | (quantity & 0xFFFFFFFFL);
+    }
+
+    private static int versionOf(long state) {
+        return (int) (state >>> 32);
+    }
+
+    private static int quantityOf(long state) {
+        return (int) state;
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        flusher.shutdownNow();
+        flush();
+        if (journal != null) {
+            journal.close();
+        }
+    }
+}
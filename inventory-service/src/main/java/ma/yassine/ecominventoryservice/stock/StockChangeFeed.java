@@ -0,0 +1,258 @@
+package ma.yassine.ecominventoryservice.stock;
+
+import jakarta.persistence.EntityManager;
+import ma.yassine.ecominventoryservice.entities.StockChangeFeedHead;
+import ma.yassine.ecominventoryservice.entities.StockChangeRecord;
+import ma.yassine.ecominventoryservice.events.ProductChangedEvent;
+import ma.yassine.ecominventoryservice.models.StockChange;
+import ma.yassine.ecominventoryservice.models.StockChangePage;
+import ma.yassine.ecominventoryservice.models.StockLevel;
+import ma.yassine.ecominventoryservice.repositories.ProductRepository;
+import ma.yassine.ecominventoryservice.repositories.StockChangeFeedHeadRepository;
+import ma.yassine.ecominventoryservice.repositories.StockChangeRepository;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * A versioned feed of the committed changes of products, for services that keep a copy of prices and stock.
+ * <p>
+ * The feed is kept in the {@code stock_change} table, so that every inventory node serves the same feed,
+ * with the changes committed on all of them. Each {@link ProductChangedEvent} is appended just before the
+ * transaction that published it commits, in that transaction, which locks the {@link StockChangeFeedHead}
+ * to take the next versions: a change is in the feed if and only if it was committed, and versions follow
+ * commit order and have no gaps. Changes of sharded products are appended from the
+ * {@link StockSlots.SlotsChanged} of their transaction, with the stock read once the head is locked, so that
+ * it includes every change that reached the feed before. Only the last {@code inventory.change-feed.capacity}
+ * changes are kept.
+ * <p>
+ * Readers ask for the changes after the last version they have seen, and may wait for one when there are
+ * none yet. A reader waiting on a node wakes up as soon as a transaction of that node appending a change
+ * commits, or within {@code inventory.change-feed.poll-interval} of a change appended by another node, so a
+ * reader that keeps asking receives changes with one request per batch of changes rather than one per change.
+ * <p>
+ * A reader from another epoch, or that has fallen further behind than the table holds, is told to reset:
+ * it loads the whole catalog again and follows the feed from the version it was given.
+ */
+@Component
+public class StockChangeFeed implements SmartInitializingSingleton, DisposableBean {
+    public static final Duration MAX_WAIT = Duration.ofSeconds(30);
+    public static final int MAX_LIMIT = 10_000;
+
+    private final StockChangeRepository stockChangeRepository;
+    private final StockChangeFeedHeadRepository stockChangeFeedHeadRepository;
+    private final ProductRepository productRepository;
+    private final EntityManager entityManager;
+    private final TransactionTemplate transactionTemplate;
+    private final int capacity;
+    private final Duration pollInterval;
+    private final ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("stock-change-feed-poll").daemon().factory());
+    // Reads the feed for readers woken up by a change, so that neither the committing thread nor the poller waits on them.
+    private final ExecutorService readers = Executors.newVirtualThreadPerTaskExecutor();
+    private volatile UUID epoch;
+    // The last version this node appended or saw in the table.
+    private long lastSeen;
+    // Completed, and replaced, whenever a change is seen.
+    private CompletableFuture<Void> nextChange = new CompletableFuture<>();
+
+    public StockChangeFeed(StockChangeRepository stockChangeRepository,
+                           StockChangeFeedHeadRepository stockChangeFeedHeadRepository,
+                           ProductRepository productRepository,
+                           EntityManager entityManager,
+                           PlatformTransactionManager transactionManager,
+                           @Value("${inventory.change-feed.capacity:65536}") int capacity,
+                           @Value("${inventory.change-feed.poll-interval:200ms}") Duration pollInterval) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The change feed capacity must be positive.");
+        }
+        this.stockChangeRepository = stockChangeRepository;
+        this.stockChangeFeedHeadRepository = stockChangeFeedHeadRepository;
+        this.productRepository = productRepository;
+        this.entityManager = entityManager;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.capacity = capacity;
+        this.pollInterval = pollInterval;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        open();
+        poller.scheduleWithFixedDelay(this::poll, pollInterval.toMillis(), pollInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Reads the epoch of the feed, creating the feed if no node did yet.
+     */
+    void open() {
+        stockChangeFeedHeadRepository.create(UUID.randomUUID());
+        StockChangeFeedHead head = stockChangeFeedHeadRepository.findById(StockChangeFeedHead.ID).orElseThrow();
+        synchronized (this) {
+            lastSeen = head.getVersion();
+        }
+        epoch = head.getEpoch();
+    }
+
+    /**
+     * Appends a change in the transaction that made it. Changes published outside of a transaction are
+     * not appended: those are the changes of sharded products, which {@link StockSlots} publishes once
+     * committed, and which are appended from their {@link StockSlots.SlotsChanged} instead.
+     */
+    @TransactionalEventListener(phase = TransactionPhase.BEFORE_COMMIT)
+    public void onProductChanged(ProductChangedEvent event) {
+        append(() -> event);
+    }
+
+    /**
+     * Appends the change of a sharded product in the transaction that changed its slots, with its stock
+     * read once the head of the feed is locked.
+     */
+    @TransactionalEventListener(phase = TransactionPhase.BEFORE_COMMIT)
+    void onSlotsChanged(StockSlots.SlotsChanged change) {
+        append(() -> {
+            StockLevel stock = productRepository.findStockById(change.productId());
+            if (stock == null) {
+                return null;
+            }
+            if (!change.productUpdated()) {
+                return ProductChangedEvent.quantityChanged(change.productId(), stock.getQuantity(), stock.getVersion());
+            }
+            return productRepository.findById(change.productId())
+                    .map(product -> ProductChangedEvent.updated(product, stock))
+                    .orElse(null);
+        });
+    }
+
+    /**
+     * Returns the changes after the given version, waiting for one if there are none yet.
+     *
+     * @param epoch the epoch of the feed the version was read from, or null on the first read
+     * @param since the last version the reader has seen
+     * @param wait how long to wait for a change at most, capped at {@link #MAX_WAIT}
+     * @param limit the maximum number of changes to return, capped at {@link #MAX_LIMIT}
+     * @return a future completed with the changes, with no changes if none came during the wait, or with a
+     *         reset if the reader must load the whole catalog again
+     */
+    public CompletableFuture<StockChangePage> changes(UUID epoch, long since, Duration wait, int limit) {
+        int max = Math.clamp(limit, 1, MAX_LIMIT);
+        CompletableFuture<Void> next;
+        synchronized (this) {
+            next = nextChange;
+        }
+        // Read after taking the future, so that a change appended in between wakes this reader up.
+        StockChangePage page = read(epoch, since, max);
+        if (page.reset() || !page.changes().isEmpty() || wait.isNegative() || wait.isZero()) {
+            return CompletableFuture.completedFuture(page);
+        }
+        long millis = Math.min(wait.toMillis(), MAX_WAIT.toMillis());
+        // Copy, so that the timeout of one reader does not wake up the others.
+        return next.copy()
+                .completeOnTimeout(null, millis, TimeUnit.MILLISECONDS)
+                .thenApplyAsync(ignored -> read(epoch, since, max), readers);
+    }
+
+    @Override
+    public void destroy() {
+        poller.shutdownNow();
+        readers.shutdownNow();
+    }
+
+    /**
+     * Appends a change within the current transaction, or in a transaction of its own outside of one, and
+     * wakes up the waiting readers once it has committed.
+     *
+     * @param change reads the change to append once the head of the feed is locked; returns null if there
+     *               is nothing to append
+     */
+    private void append(Supplier<ProductChangedEvent> change) {
+        Long last = transactionTemplate.execute(status -> {
+            StockChangeFeedHead head = stockChangeFeedHeadRepository.lock().orElseThrow();
+            ProductChangedEvent event = change.get();
+            if (event == null) {
+                return null;
+            }
+            long version = head.getVersion() + 1;
+            entityManager.persist(StockChangeRecord.builder().version(version).type(event.type())
+                    .productId(event.productId()).price(event.price()).quantity(event.quantity())
+                    .productVersion(event.version()).build());
+            head.setVersion(version);
+            stockChangeRepository.deleteUpTo(version - capacity);
+            return version;
+        });
+        if (last == null) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    seen(last);
+                }
+            });
+        } else {
+            seen(last);
+        }
+    }
+
+    /**
+     * Wakes up the waiting readers if another node appended changes.
+     */
+    private void poll() {
+        try {
+            Long version = stockChangeFeedHeadRepository.findVersion();
+            if (version != null) {
+                seen(version);
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Error: Could not poll the stock change feed: " + e.getMessage());
+        }
+    }
+
+    private void seen(long version) {
+        CompletableFuture<Void> waiting;
+        synchronized (this) {
+            if (version <= lastSeen) {
+                return;
+            }
+            lastSeen = version;
+            waiting = nextChange;
+            nextChange = new CompletableFuture<>();
+        }
+        waiting.complete(null);
+    }
+
+    private StockChangePage read(UUID epoch, long since, int limit) {
+        long version = stockChangeFeedHeadRepository.findVersion();
+        if (!this.epoch.equals(epoch) || since > version || since < version - capacity) {
+            return new StockChangePage(this.epoch, version, true, List.of());
+        }
+        List<StockChange> changes = stockChangeRepository.findByVersionGreaterThanOrderByVersion(since, Limit.of(limit)).stream()
+                .map(change -> new StockChange(change.getVersion(), change.getType(), change.getProductId(),
+                        change.getPrice(), change.getQuantity(), change.getProductVersion()))
+                .toList();
+        if (!changes.isEmpty() && changes.get(0).version() != since + 1) {
+            // Deleted by a node that appended past the capacity since the version was read.
+            return new StockChangePage(this.epoch, version, true, List.of());
+        }
+        long last = changes.isEmpty() ? since : changes.get(changes.size() - 1).version();
+        return new StockChangePage(this.epoch, last, false, changes);
+    }
+}
@@ -0,0 +1,258 @@
+package ma.yassine.ecominventoryservice.stock;
+
+import ma.yassine.ecomidempotency.IdempotencyStore;
+import ma.yassine.ecominventoryservice.models.StockCommand;
+import ma.yassine.ecominventoryservice.models.StockCommandResult;
+import ma.yassine.ecominventoryservice.models.StockLine;
+import ma.yassine.ecominventoryservice.services.IProductService;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Applies batches of {@link StockCommand}s, so that a caller with many reservations to send makes one round
+ * trip instead of one per reservation.
+ * <p>
+ * Each command is applied at most once per key: its outcome is kept by the {@link IdempotencyStore}, like the
+ * response of a request sent with an {@code Idempotency-Key} header, and a command sent again is answered
+ * with it. The reservations of a batch that were not applied yet are taken together, in one reservation with
+ * the quantities of each product summed across them, so that a popular product is decremented once per batch
+ * rather than once per order. If that reservation is refused, they are taken one by one, so that only those
+ * that cannot be served are refused. A release that names its reservation gives the stock back only if that
+ * reservation was applied; if it was not, the reservation key is settled as refused, so that the reservation
+ * can no longer be applied when it arrives late.
+ */
+@Component
+public class StockCommands {
+    // Stored for a reservation that was cancelled before it was applied.
+    private static final int CANCELLED = HttpStatus.GONE.value();
+
+    /**
+     * A command claimed for this caller, to be applied.
+     */
+    private record Claimed(int index, StockCommand command, String fingerprint) {
+    }
+
+    private final IdempotencyStore idempotencyStore;
+    private final IProductService productService;
+    private final TransactionTemplate transactionTemplate;
+
+    public StockCommands(IdempotencyStore idempotencyStore, IProductService productService, TransactionTemplate transactionTemplate) {
+        this.idempotencyStore = idempotencyStore;
+        this.productService = productService;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    /**
+     * Applies the given commands: the reservations first, together, then the releases one after the other.
+     *
+     * @param commands the commands, each with its own idempotency key
+     * @param caller the name of the caller, so that a key reused by another caller is refused
+     * @return the outcome of each command, in the order of the commands
+     */
+    public List<StockCommandResult> apply(List<StockCommand> commands, String caller) {
+        StockCommandResult.Outcome[] outcomes = new StockCommandResult.Outcome[commands.size()];
+        List<Claimed> reservations = new ArrayList<>();
+        List<Claimed> releases = new ArrayList<>();
+        for (int i = 0; i < commands.size(); i++) {
+            StockCommand command = commands.get(i);
+            if (command.idempotencyKey() == null || command.idempotencyKey().isBlank() || command.type() == null
+                    || command.lines() == null || command.lines().isEmpty()) {
+                outcomes[i] = StockCommandResult.Outcome.REJECTED;
+                continue;
+            }
+            String fingerprint = fingerprint(caller, command.type(), command.reservationKey(), command.lines());
+            outcomes[i] = claim(command.idempotencyKey(), fingerprint);
+            if (outcomes[i] == null) {
+                (command.type() == StockCommand.Type.RESERVE ? reservations : releases).add(new Claimed(i, command, fingerprint));
+            }
+        }
+
+        reserveTogether(reservations, outcomes);
+        for (Claimed release : releases) {
+            outcomes[release.index()] = apply(release, caller);
+        }
+
+        List<StockCommandResult> results = new ArrayList<>(commands.size());
+        for (int i = 0; i < commands.size(); i++) {
+            results.add(new StockCommandResult(commands.get(i).idempotencyKey(), outcomes[i]));
+        }
+        return results;
+    }
+
+    /**
+     * Claims the key of a command.
+     *
+     * @return the outcome of the command if it is already settled or being applied, or null if it was claimed
+     *         and must now be applied
+     */
+    private StockCommandResult.Outcome claim(String key, String fingerprint) {
+        IdempotencyStore.Claim claim;
+        try {
+            claim = idempotencyStore.claim(key, fingerprint);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return StockCommandResult.Outcome.RETRY;
+        }
+        return switch (claim.outcome()) {
+            case REPLAY -> outcome(claim.response().status());
+            case MISMATCH -> {
+                System.out.printf("Idempotency key %s was already used for another stock command.\n", key);
+                yield StockCommandResult.Outcome.REJECTED;
+            }
+            case IN_PROGRESS -> StockCommandResult.Outcome.RETRY;
+            case PROCEED -> null;
+        };
+    }
+
+    /**
+     * Takes the stock of the given reservations in one reservation, or one by one if it is refused.
+     */
+    private void reserveTogether(List<Claimed> reservations, StockCommandResult.Outcome[] outcomes) {
+        if (reservations.size() < 2) {
+            reservations.forEach(reservation -> outcomes[reservation.index()] = apply(reservation, null));
+            return;
+        }
+        List<StockLine> lines = reservations.stream().flatMap(reservation -> reservation.command().lines().stream()).toList();
+        Integer status = null;
+        try {
+            status = reserve(lines);
+        } catch (ArithmeticException e) {
+            // The summed quantities overflow; the reservations may still fit one by one.
+            System.out.println(e.getMessage());
+            status = HttpStatus.BAD_REQUEST.value();
+        } catch (RuntimeException e) {
+            System.err.printf("Error: Could not reserve the stock of %d stock commands: %s%n", reservations.size(), e.getMessage());
+        }
+
+        if (status == null) {
+            for (Claimed reservation : reservations) {
+                idempotencyStore.abandon(reservation.command().idempotencyKey());
+                outcomes[reservation.index()] = StockCommandResult.Outcome.RETRY;
+            }
+        } else if (HttpStatus.valueOf(status).is2xxSuccessful()) {
+            for (Claimed reservation : reservations) {
+                idempotencyStore.complete(reservation.command().idempotencyKey(), reservation.fingerprint(),
+                        new IdempotencyStore.StoredResponse(status, null, null, null));
+                outcomes[reservation.index()] = StockCommandResult.Outcome.APPLIED;
+            }
+        } else {
+            // At least one of them cannot be served: take them one by one, so that the others are.
+            reservations.forEach(reservation -> outcomes[reservation.index()] = apply(reservation, null));
+        }
+    }
+
+    /**
+     * Applies a claimed command on its own, and settles its key with the outcome.
+     */
+    private StockCommandResult.Outcome apply(Claimed claimed, String caller) {
+        StockCommand command = claimed.command();
+        String key = command.idempotencyKey();
+        Integer status = null;
+        try {
+            status = command.type() == StockCommand.Type.RESERVE ? reserve(command.lines())
+                    : release(command.reservationKey(), command.lines(), caller);
+        } catch (ArithmeticException e) {
+            System.out.println(e.getMessage());
+            status = HttpStatus.BAD_REQUEST.value();
+        } catch (RuntimeException e) {
+            System.err.printf("Error: Could not apply stock command %s: %s%n", key, e.getMessage());
+        } finally {
+            if (status != null) {
+                idempotencyStore.complete(key, claimed.fingerprint(), new IdempotencyStore.StoredResponse(status, null, null, null));
+            } else {
+                idempotencyStore.abandon(key);
+            }
+        }
+        return status != null ? outcome(status) : StockCommandResult.Outcome.RETRY;
+    }
+
+    private int reserve(List<StockLine> lines) {
+        ResponseEntity<Map<UUID, Integer>> response = productService.reserveProductQuantities(lines);
+        return response.getStatusCode().value();
+    }
+
+    /**
+     * Gives the stock of the lines back, unless they belong to a reservation that was never applied.
+     *
+     * @return the status to store for the release, or null if its reservation is still being applied
+     */
+    private Integer release(String reservationKey, List<StockLine> lines, String caller) {
+        if (reservationKey != null) {
+            String reservation = fingerprint(caller, StockCommand.Type.RESERVE, null, lines);
+            IdempotencyStore.Claim claim;
+            try {
+                claim = idempotencyStore.claim(reservationKey, reservation);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            switch (claim.outcome()) {
+                case PROCEED -> {
+                    // Never applied: settle it as refused, so that it cannot take the stock later.
+                    idempotencyStore.complete(reservationKey, reservation, new IdempotencyStore.StoredResponse(CANCELLED, null, null, null));
+                    return HttpStatus.OK.value();
+                }
+                case IN_PROGRESS -> {
+                    return null;
+                }
+                case MISMATCH -> {
+                    return HttpStatus.OK.value();
+                }
+                case REPLAY -> {
+                    if (!HttpStatus.valueOf(claim.response().status()).is2xxSuccessful()) {
+                        return HttpStatus.OK.value();
+                    }
+                }
+            }
+        }
+        transactionTemplate.executeWithoutResult(status -> {
+            for (StockLine line : lines) {
+                if (line.getProductId() == null || line.getQuantity() == null || line.getQuantity() <= 0) {
+                    continue;
+                }
+                if (productService.incrementProductQuantity(line.getProductId(), line.getQuantity()) == null) {
+                    System.out.printf("Product %s is gone; %d released unit(s) were not given back.\n", line.getProductId(), line.getQuantity());
+                }
+            }
+        });
+        return HttpStatus.OK.value();
+    }
+
+    private static StockCommandResult.Outcome outcome(int status) {
+        if (status >= 200 && status < 300) {
+            return StockCommandResult.Outcome.APPLIED;
+        }
+        return status < 500 ? StockCommandResult.Outcome.REJECTED : StockCommandResult.Outcome.RETRY;
+    }
+
+    /**
+     * @return the SHA-256 of the caller, type, reservation key and lines of a command, in hexadecimal
+     */
+    private static String fingerprint(String caller, StockCommand.Type type, String reservationKey, List<StockLine> lines) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        StringBuilder parts = new StringBuilder();
+        parts.append(caller != null ? caller : "").append('\0').append(type).append('\0')
+                .append(reservationKey != null ? reservationKey : "").append('\0');
+        for (StockLine line : lines) {
+            parts.append(line.getProductId()).append(':').append(line.getQuantity()).append('\0');
+        }
+        digest.update(parts.toString().getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(digest.digest());
+    }
+}
@@ -0,0 +1,217 @@
+package ma.yassine.ecominventoryservice.stock;
+
+import ma.yassine.ecominventoryservice.entities.StockHold;
+import ma.yassine.ecominventoryservice.models.OpenHold;
+import ma.yassine.ecominventoryservice.models.StockLine;
+import ma.yassine.ecominventoryservice.repositories.StockHoldRepository;
+import ma.yassine.ecominventoryservice.services.IProductService;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timed holds on stock, for checkouts that take several steps.
+ * <p>
+ * Placing a hold reserves the stock of its lines at once, all or nothing, like
+ * {@link IProductService#reserveProductQuantities}, in the transaction that saves the hold. The hold is then either confirmed, which keeps the
+ * stock taken for good, or released, which gives it back. A hold that is neither confirmed nor released
+ * within its time to live expires and gives its stock back on its own, so abandoned carts do not lock
+ * stock forever. Every change of status is a conditional UPDATE from {@code HELD}, so a confirmation
+ * racing with an expiry either wins or finds the hold expired.
+ * <p>
+ * Expiries are driven by a {@link TimingWheel} ticking every {@code inventory.stock-holds.tick}: placing
+ * and settling a hold take constant time, and a tick only visits the holds hashed to it, so hundreds of
+ * thousands of open holds cost no more per tick than a few, and the database is never polled for them.
+ * Open holds are loaded into the wheel on startup; holds placed on other nodes are only expired by this
+ * node after it restarts.
+ */
+@Component
+public class StockHolds implements SmartInitializingSingleton, DisposableBean {
+    private final StockHoldRepository stockHoldRepository;
+    private final IProductService productService;
+    private final TransactionTemplate transactionTemplate;
+    private final Duration defaultTtl;
+    private final Duration maxTtl;
+    private final Duration tick;
+    private final TimingWheel<UUID> wheel;
+    private final Map<UUID, TimingWheel.Timeout<UUID>> timeouts = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("stock-hold-expiry").daemon().factory());
+
+    public StockHolds(StockHoldRepository stockHoldRepository,
+                      IProductService productService,
+                      PlatformTransactionManager transactionManager,
+                      @Value("${inventory.stock-holds.default-ttl:15m}") Duration defaultTtl,
+                      @Value("${inventory.stock-holds.max-ttl:2h}") Duration maxTtl,
+                      @Value("${inventory.stock-holds.tick:100ms}") Duration tick,
+                      @Value("${inventory.stock-holds.wheel-size:1024}") int wheelSize) {
+        this.stockHoldRepository = stockHoldRepository;
+        this.productService = productService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.defaultTtl = defaultTtl;
+        this.maxTtl = maxTtl;
+        this.tick = tick;
+        this.wheel = new TimingWheel<>(tick, wheelSize, System.nanoTime());
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        Instant now = Instant.now();
+        List<OpenHold> openHolds = stockHoldRepository.findOpenHolds();
+        for (OpenHold hold : openHolds) {
+            schedule(hold.getId(), Duration.between(now, hold.getExpiresAt()));
+        }
+        if (!openHolds.isEmpty()) {
+            System.out.printf("Loaded %d open stock hold(s).%n", openHolds.size());
+        }
+        ticker.scheduleAtFixedRate(this::expireDueHolds, tick.toNanos(), tick.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Reserves the stock of the given lines, all or nothing, until the hold is confirmed, released or expires.
+     *
+     * @param lines the lines to hold, each holding a product ID and a quantity
+     * @param ttl how long the stock is held unless the hold is confirmed; null for the default
+     * @return a ResponseEntity containing the hold, or a bad request response if the lines or the time to
+     *         live are invalid or there is not enough stock
+     */
+    public ResponseEntity<StockHold> hold(List<StockLine> lines, Duration ttl) {
+        Duration timeToLive = ttl != null ? ttl : defaultTtl;
+        if (timeToLive.isNegative() || timeToLive.isZero() || timeToLive.compareTo(maxTtl) > 0) {
+            System.out.printf("A hold must last more than 0 and at most %s.\n", maxTtl);
+            return ResponseEntity.badRequest().build();
+        }
+        // The stock is taken in the transaction that saves the hold, so it is never taken without a hold to expire it.
+        StockHold hold = transactionTemplate.execute(status -> {
+            ResponseEntity<Map<UUID, Integer>> reserved = productService.reserveProductQuantities(lines);
+            if (!reserved.getStatusCode().is2xxSuccessful()) {
+                status.setRollbackOnly();
+                return null;
+            }
+            List<StockLine> heldLines = lines.stream().map(line -> new StockLine(line.getProductId(), line.getQuantity())).toList();
+            return stockHoldRepository.save(StockHold.builder()
+                    .lines(heldLines).status(StockHold.Status.HELD).expiresAt(Instant.now().plus(timeToLive)).build());
+        });
+        if (hold == null) {
+            return ResponseEntity.badRequest().build();
+        }
+        schedule(hold.getId(), timeToLive);
+        return ResponseEntity.ok(hold);
+    }
+
+    /**
+     * @return a ResponseEntity containing the hold, or a not found response if it does not exist
+     */
+    public ResponseEntity<StockHold> getHold(UUID holdId) {
+        return ResponseEntity.of(stockHoldRepository.findById(holdId));
+    }
+
+    /**
+     * Keeps the stock of a hold taken for good. Confirming a hold twice is harmless.
+     *
+     * @return a ResponseEntity containing the confirmed hold, a not found response if it does not exist,
+     *         or a conflict response if it was released or expired first
+     */
+    public ResponseEntity<StockHold> confirm(UUID holdId) {
+        return settle(holdId, StockHold.Status.CONFIRMED);
+    }
+
+    /**
+     * Gives the stock of a hold back. Releasing a hold twice, or once it expired, is harmless.
+     *
+     * @return a ResponseEntity containing the released hold, a not found response if it does not exist,
+     *         or a conflict response if it was confirmed first
+     */
+    public ResponseEntity<StockHold> release(UUID holdId) {
+        return settle(holdId, StockHold.Status.RELEASED);
+    }
+
+    /**
+     * Expires the holds whose time has come. Runs on every tick of the wheel.
+     */
+    void expireDueHolds() {
+        for (UUID holdId : wheel.advance(System.nanoTime())) {
+            timeouts.remove(holdId);
+            try {
+                if (close(holdId, StockHold.Status.EXPIRED)) {
+                    System.out.printf("Stock hold %s expired.\n", holdId);
+                }
+            } catch (RuntimeException e) {
+                System.err.printf("Failed to expire stock hold %s: %s%n", holdId, e);
+            }
+        }
+    }
+
+    /**
+     * @return the number of holds waiting to expire on this node
+     */
+    public int openHolds() {
+        return wheel.size();
+    }
+
+    @Override
+    public void destroy() {
+        ticker.shutdownNow();
+    }
+
+    private ResponseEntity<StockHold> settle(UUID holdId, StockHold.Status status) {
+        if (close(holdId, status)) {
+            TimingWheel.Timeout<UUID> timeout = timeouts.remove(holdId);
+            if (timeout != null) {
+                wheel.cancel(timeout);
+            }
+        }
+        StockHold hold = stockHoldRepository.findById(holdId).orElse(null);
+        if (hold == null) {
+            return ResponseEntity.notFound().build();
+        }
+        boolean settled = hold.getStatus() == status
+                || status == StockHold.Status.RELEASED && hold.getStatus() == StockHold.Status.EXPIRED;
+        return settled ? ResponseEntity.ok(hold) : ResponseEntity.status(HttpStatus.CONFLICT).body(hold);
+    }
+
+    /**
+     * Moves an open hold to the given status, giving its stock back unless it is confirmed. The stock of
+     * products in the database is given back in the same transaction as the change of status.
+     *
+     * @return true if the hold was open and now has the given status
+     */
+    private boolean close(UUID holdId, StockHold.Status status) {
+        return Boolean.TRUE.equals(transactionTemplate.execute(tx -> {
+            if (stockHoldRepository.transition(holdId, StockHold.Status.HELD, status) == 0) {
+                return false;
+            }
+            if (status != StockHold.Status.CONFIRMED) {
+                stockHoldRepository.findById(holdId).ifPresent(hold -> giveBack(hold.getLines()));
+            }
+            return true;
+        }));
+    }
+
+    private void giveBack(List<StockLine> lines) {
+        for (StockLine line : lines) {
+            if (productService.incrementProductQuantity(line.getProductId(), line.getQuantity()) == null) {
+                System.out.printf("Product %s is gone; %d held unit(s) were not given back.\n", line.getProductId(), line.getQuantity());
+            }
+        }
+    }
+
+    private void schedule(UUID holdId, Duration delay) {
+        timeouts.put(holdId, wheel.schedule(holdId, delay, System.nanoTime()));
+    }
+}
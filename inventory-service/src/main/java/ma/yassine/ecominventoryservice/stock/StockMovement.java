@@ -0,0 +1,28 @@
+package ma.yassine.ecominventoryservice.stock;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * A change to the stock of a product, as recorded by the {@link StockMovementJournal}.
+ *
+ * @param productId the unique identifier of the product
+ * @param type what changed the stock
+ * @param version the version of the product after the change
+ * @param quantity the quantity of the product after the change, 0 if it was deleted
+ * @param delta the quantity after the change minus the quantity before it
+ * @param timestamp when the change was recorded
+ */
+public record StockMovement(UUID productId, Type type, long version, int quantity, int delta, Instant timestamp) {
+
+    public enum Type {
+        /**
+         * The level of a product when the journal was compacted, not a change.
+         */
+        SNAPSHOT,
+        CREATED,
+        UPDATED,
+        QUANTITY_CHANGED,
+        DELETED
+    }
+}
@@ -0,0 +1,410 @@
+package ma.yassine.ecominventoryservice.stock;
+
+import ma.yassine.ecominventoryservice.events.ProductChangedEvent;
+import ma.yassine.ecominventoryservice.models.ProductRow;
+import ma.yassine.ecominventoryservice.repositories.ProductRepository;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only journal of every change to the stock of a product, enabled with
+ * {@code inventory.stock-journal.enabled=true}. It records each committed {@link ProductChangedEvent} that
+ * changes a quantity as a fixed-size record, with the quantity before and after, giving an audit trail of
+ * stock movements and the current level of every product without reading the {@code product} table.
+ * <p>
+ * Records go to a segment file mapped into memory, so an append is a copy into the page cache: it survives
+ * a crash of the process, and with {@code inventory.stock-journal.force=true} a crash of the machine. When
+ * a segment is full, and every {@code inventory.stock-journal.snapshot-interval}, the level of every
+ * product is written to a snapshot and appends move on to a new segment. On startup the latest snapshot is
+ * read and only the segments after it are replayed. Older segments are kept for the audit trail, up to
+ * {@code inventory.stock-journal.retained-segments} of them.
+ * <p>
+ * Only changes made through this node are recorded. The stock of hot products is recorded each time the
+ * {@link HotStockLedger} writes it to the database, not on every reservation.
+ */
+@Component
+@ConditionalOnProperty(name = "inventory.stock-journal.enabled", havingValue = "true")
+public class StockMovementJournal implements SmartInitializingSingleton, DisposableBean {
+    // Product ID, version, timestamp, quantity, delta, type, 3 bytes of padding and a checksum of the rest.
+    static final int RECORD_SIZE = 16 + 8 + 8 + 4 + 4 + 1 + 3 + 4;
+    private static final StockMovement.Type[] TYPES = StockMovement.Type.values();
+
+    /**
+     * The last recorded level of a product; a deleted product keeps the highest version, so that changes
+     * to it arriving late are ignored.
+     */
+    private record Level(long version, int quantity) {
+        static final Level DELETED = new Level(Long.MAX_VALUE, 0);
+    }
+
+    private final ProductRepository productRepository;
+    private final TransactionTemplate readOnlyTransaction;
+    private final Path directory;
+    private final int segmentCapacity;
+    private final int retainedSegments;
+    private final boolean force;
+    private final Duration snapshotInterval;
+    private final ScheduledExecutorService snapshotter = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("stock-journal-snapshotter").daemon().factory());
+    // Everything below is guarded by this.
+    private final Map<UUID, Level> levels = new HashMap<>();
+    private long segment;
+    private FileChannel segmentChannel;
+    private MappedByteBuffer segmentBuffer;
+    private int appendedSinceSnapshot;
+
+    public StockMovementJournal(ProductRepository productRepository,
+                                PlatformTransactionManager transactionManager,
+                                @Value("${inventory.stock-journal.directory:./data/stock-journal}") Path directory,
+                                @Value("${inventory.stock-journal.segment-size:8MB}") DataSize segmentSize,
+                                @Value("${inventory.stock-journal.retained-segments:8}") int retainedSegments,
+                                @Value("${inventory.stock-journal.force:false}") boolean force,
+                                @Value("${inventory.stock-journal.snapshot-interval:10m}") Duration snapshotInterval) {
+        this.productRepository = productRepository;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.directory = directory;
+        // A whole number of records, and at least one.
+        this.segmentCapacity = (int) Math.max(RECORD_SIZE, Math.min(segmentSize.toBytes(), Integer.MAX_VALUE) / RECORD_SIZE * RECORD_SIZE);
+        this.retainedSegments = Math.max(0, retainedSegments);
+        this.force = force;
+        this.snapshotInterval = snapshotInterval;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        try {
+            open();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (snapshotInterval.isPositive()) {
+            snapshotter.scheduleWithFixedDelay(this::snapshotIfChanged, snapshotInterval.toMillis(), snapshotInterval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Records a committed product change if it changes the stock of the product. Changes older than the
+     * last one recorded for the same product are ignored.
+     *
+     * @param event the product change
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public synchronized void onProductChanged(ProductChangedEvent event) {
+        try {
+            // Other beans, such as the hot stock ledger, can change stock while starting up before this one.
+            open();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Level held = levels.get(event.productId());
+        if (held == Level.DELETED) {
+            return;
+        }
+        int previous = held != null ? held.quantity() : 0;
+        StockMovement.Type type;
+        Level level;
+        if (event.type() == ProductChangedEvent.Type.DELETED) {
+            if (held == null) {
+                return;
+            }
+            type = StockMovement.Type.DELETED;
+            level = Level.DELETED;
+        } else {
+            long version = event.version() != null ? event.version() : 0;
+            if (held != null && version <= held.version()) {
+                return;
+            }
+            type = StockMovement.Type.valueOf(event.type().name());
+            level = new Level(version, event.quantity() != null ? event.quantity() : 0);
+        }
+        levels.put(event.productId(), level);
+        if (type != StockMovement.Type.CREATED && level.quantity() == previous && held != null && level != Level.DELETED) {
+            // An update that left the stock alone.
+            return;
+        }
+        try {
+            append(new StockMovement(event.productId(), type, level.version(), level.quantity(),
+                    level.quantity() - previous, Instant.now()));
+        } catch (IOException e) {
+            System.err.println("Could not record a stock movement of product " + event.productId() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Lists the recorded stock movements of a product, oldest first, as far back as the retained segments go.
+     * The segments are read without holding the lock, so that appends do not wait for the read.
+     *
+     * @param productId the unique identifier of the product
+     * @return the movements of the product
+     */
+    public List<StockMovement> movements(UUID productId) throws IOException {
+        List<Long> archived;
+        ByteBuffer current;
+        synchronized (this) {
+            long open = segment;
+            archived = list("journal").stream().filter(number -> number < open).toList();
+            // Records before the position are never written again, so they can be read after the lock is released.
+            current = segmentBuffer.duplicate().flip();
+        }
+        List<StockMovement> movements = new ArrayList<>();
+        Consumer<StockMovement> collect = movement -> {
+            if (movement.productId().equals(productId)) {
+                movements.add(movement);
+            }
+        };
+        for (long number : archived) {
+            byte[] records;
+            try {
+                records = Files.readAllBytes(segmentPath(number));
+            } catch (NoSuchFileException e) {
+                // Dropped by a snapshot since the segments were listed.
+                continue;
+            }
+            read(ByteBuffer.wrap(records), collect);
+        }
+        read(current, collect);
+        return movements;
+    }
+
+    /**
+     * Writes the level of every product to a new snapshot and starts a new segment, so that a restart
+     * only replays what is appended from now on.
+     */
+    public synchronized void snapshot() throws IOException {
+        long next = segment + 1;
+        // Create the new segment first: from the moment the snapshot exists, startup replays from it.
+        FileChannel nextChannel = FileChannel.open(segmentPath(next), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer nextBuffer = nextChannel.map(FileChannel.MapMode.READ_WRITE, 0, segmentCapacity);
+        writeSnapshot(next);
+        if (segmentChannel != null) {
+            segmentBuffer.force();
+            segmentChannel.close();
+        }
+        segment = next;
+        segmentChannel = nextChannel;
+        segmentBuffer = nextBuffer;
+        appendedSinceSnapshot = 0;
+
+        for (long older : list("snapshot")) {
+            if (older < next) {
+                Files.deleteIfExists(snapshotPath(older));
+            }
+        }
+        List<Long> archived = list("journal").stream().filter(number -> number < next).toList();
+        for (int i = 0; i < archived.size() - retainedSegments; i++) {
+            Files.deleteIfExists(segmentPath(archived.get(i)));
+        }
+    }
+
+    private void snapshotIfChanged() {
+        synchronized (this) {
+            if (appendedSinceSnapshot == 0) {
+                return;
+            }
+        }
+        try {
+            snapshot();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Could not snapshot the stock journal: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the latest snapshot and replays the segments after it, unless that is already done. If there
+     * is neither, the journal is new and starts from a snapshot of the {@code product} table.
+     */
+    private synchronized void open() throws IOException {
+        if (segmentChannel != null) {
+            return;
+        }
+        long started = System.nanoTime();
+        Files.createDirectories(directory);
+        List<Long> snapshots = list("snapshot");
+        List<Long> segments = list("journal");
+        long first = snapshots.isEmpty() ? 0 : snapshots.getLast();
+        if (!snapshots.isEmpty()) {
+            read(ByteBuffer.wrap(Files.readAllBytes(snapshotPath(first))), this::replay);
+        }
+        int replayed = 0;
+        for (long number : segments) {
+            if (number < first) {
+                continue;
+            }
+            segment = number;
+            if (segmentChannel != null) {
+                segmentChannel.close();
+            }
+            segmentChannel = FileChannel.open(segmentPath(number), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            segmentBuffer = segmentChannel.map(FileChannel.MapMode.READ_WRITE, 0, segmentCapacity);
+            // Appends continue after the last complete record, overwriting a torn one left by a crash.
+            replayed += read(segmentBuffer, this::replay);
+        }
+        appendedSinceSnapshot = replayed;
+
+        if (snapshots.isEmpty() && segments.isEmpty()) {
+            readOnlyTransaction.executeWithoutResult(status -> {
+                try (Stream<ProductRow> products = productRepository.streamAllRows()) {
+                    products.forEach(product -> levels.put(product.getId(), new Level(
+                            product.getVersion() != null ? product.getVersion() : 0,
+                            product.getQuantity() != null ? product.getQuantity() : 0)));
+                }
+            });
+            segment = -1;
+            snapshot();
+        } else if (segmentChannel == null) {
+            segment = first - 1;
+            snapshot();
+        }
+        System.out.printf("Loaded the stock of %d products from %s, replaying %d movement(s) in %d ms.%n",
+                levels.size(), directory, replayed, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+    }
+
+    private void replay(StockMovement movement) {
+        levels.put(movement.productId(), movement.type() == StockMovement.Type.DELETED
+                ? Level.DELETED
+                : new Level(movement.version(), movement.quantity()));
+    }
+
+    private void append(StockMovement movement) throws IOException {
+        if (segmentBuffer.remaining() < RECORD_SIZE) {
+            snapshot();
+        }
+        int start = segmentBuffer.position();
+        write(segmentBuffer, movement);
+        if (force) {
+            segmentBuffer.force(start, RECORD_SIZE);
+        }
+        appendedSinceSnapshot++;
+    }
+
+    private void writeSnapshot(long number) throws IOException {
+        Path next = snapshotPath(number).resolveSibling(snapshotPath(number).getFileName() + ".tmp");
+        Instant now = Instant.now();
+        ByteBuffer buffer = ByteBuffer.allocate(Math.max(1, levels.size()) * RECORD_SIZE);
+        levels.forEach((productId, level) -> {
+            if (level != Level.DELETED) {
+                write(buffer, new StockMovement(productId, StockMovement.Type.SNAPSHOT, level.version(), level.quantity(), 0, now));
+            }
+        });
+        buffer.flip();
+        try (FileChannel out = FileChannel.open(next, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            out.force(true);
+        }
+        Files.move(next, snapshotPath(number), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads records from the position of the buffer until the first incomplete, empty or corrupt one, and
+     * leaves the buffer positioned there.
+     *
+     * @return the number of records read
+     */
+    private static int read(ByteBuffer buffer, Consumer<StockMovement> action) {
+        int count = 0;
+        while (buffer.remaining() >= RECORD_SIZE) {
+            int start = buffer.position();
+            UUID productId = new UUID(buffer.getLong(), buffer.getLong());
+            long version = buffer.getLong();
+            long timestamp = buffer.getLong();
+            int quantity = buffer.getInt();
+            int delta = buffer.getInt();
+            int type = buffer.get();
+            buffer.position(start + RECORD_SIZE - 4);
+            if (buffer.getInt() != checksum(buffer, start) || type < 0 || type >= TYPES.length) {
+                buffer.position(start);
+                break;
+            }
+            action.accept(new StockMovement(productId, TYPES[type], version, quantity, delta, Instant.ofEpochMilli(timestamp)));
+            count++;
+        }
+        return count;
+    }
+
+    private static void write(ByteBuffer buffer, StockMovement movement) {
+        int start = buffer.position();
+        buffer.putLong(movement.productId().getMostSignificantBits());
+        buffer.putLong(movement.productId().getLeastSignificantBits());
+        buffer.putLong(movement.version());
+        buffer.putLong(movement.timestamp().toEpochMilli());
+        buffer.putInt(movement.quantity());
+        buffer.putInt(movement.delta());
+        buffer.put((byte) movement.type().ordinal());
+        buffer.put(new byte[3]);
+        buffer.putInt(checksum(buffer, start));
+    }
+
+    private static int checksum(ByteBuffer buffer, int start) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.duplicate().position(start).limit(start + RECORD_SIZE - 4));
+        // Never 0, so that the zeroed end of a segment does not pass for a record.
+        return (int) crc.getValue() | 1;
+    }
+
+    /**
+     * @return the numbers of the files with the given extension, in ascending order
+     */
+    private List<Long> list(String extension) throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "stock-*." + extension)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                numbers.add(Long.parseLong(name.substring("stock-".length(), name.length() - extension.length() - 1)));
+            }
+        }
+        numbers.sort(null);
+        return numbers;
+    }
+
+    private Path segmentPath(long number) {
+        return directory.resolve("stock-%010d.journal".formatted(number));
+    }
+
+    private Path snapshotPath(long number) {
+        return directory.resolve("stock-%010d.snapshot".formatted(number));
+    }
+
+    @Override
+    public synchronized void destroy() throws IOException {
+        snapshotter.shutdownNow();
+        if (segmentChannel != null) {
+            segmentBuffer.force();
+            segmentChannel.close();
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package ma.yassine.ecominventoryservice.stock;
+
+import ma.yassine.ecominventoryservice.entities.Product;
+import ma.yassine.ecominventoryservice.entities.StockSlot;
+import ma.yassine.ecominventoryservice.events.ProductChangedEvent;
+import ma.yassine.ecominventoryservice.models.ShardedProduct;
+import ma.yassine.ecominventoryservice.models.StockLevel;
+import ma.yassine.ecominventoryservice.repositories.ProductRepository;
+import ma.yassine.ecominventoryservice.repositories.ProductSpecifications;
+import ma.yassine.ecominventoryservice.repositories.StockSlotRepository;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Spreads the stock of popular products over several rows, enabled with
+ * {@code inventory.stock-slots.enabled=true} and {@code inventory.stock-slots.product-ids}.
+ * <p>
+ * The stock of a sharded product is held by {@code inventory.stock-slots.count} {@link StockSlot} rows
+ * rather than by its own {@code quantity} column, which stays at 0. Each decrement goes to the slot of the
+ * calling thread with a conditional UPDATE, so concurrent reservations of the same product mostly lock
+ * different rows; when that slot runs dry, the stock is taken from another slot, or borrowed from several
+ * of them. Reading the stock of a product sums its slots, see {@link ProductRepository#findStockById}.
+ * <p>
+ * The changes are applied within the transaction of the caller. Because several transactions can change
+ * the stock of a product at once, its {@link ProductChangedEvent} is published once the transaction has
+ * committed, with the stock read at that point; the {@link StockChangeFeed} records the change from the
+ * {@link SlotsChanged} of the transaction instead, before it commits. Searches filter and sort on the stock of each product,
+ * see {@link ProductSpecifications#stockQuantity}.
+ * <p>
+ * Products left out of {@code product-ids} get their stock back in their own row on the next startup, so
+ * empty that list and restart before turning this mode off. Products held by the {@link HotStockLedger}
+ * should not be sharded.
+ */
+@Component
+@ConditionalOnProperty(name = "inventory.stock-slots.enabled", havingValue = "true")
+public class StockSlots implements SmartInitializingSingleton {
+
+    /**
+     * Published within the transaction that changed the slots of a product.
+     *
+     * @param productId the unique identifier of the product
+     * @param productUpdated whether other fields of the product changed too
+     */
+    record SlotsChanged(UUID productId, boolean productUpdated) {
+    }
+
+    private final StockSlotRepository stockSlotRepository;
+    private final ProductRepository productRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+    private final List<UUID> configuredProductIds;
+    private final int slotCount;
+    // The number of slots of each sharded product.
+    private final Map<UUID, Integer> slotCounts = new ConcurrentHashMap<>();
+
+    public StockSlots(StockSlotRepository stockSlotRepository,
+                      ProductRepository productRepository,
+                      PlatformTransactionManager transactionManager,
+                      ApplicationEventPublisher eventPublisher,
+                      @Value("${inventory.stock-slots.product-ids:}") List<UUID> configuredProductIds,
+                      @Value("${inventory.stock-slots.count:8}") int slotCount) {
+        this.stockSlotRepository = stockSlotRepository;
+        this.productRepository = productRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.eventPublisher = eventPublisher;
+        this.configuredProductIds = List.copyOf(configuredProductIds);
+        this.slotCount = slotCount;
+        if (slotCount <= 0) {
+            throw new IllegalArgumentException("inventory.stock-slots.count must be greater than zero.");
+        }
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        for (ShardedProduct product : stockSlotRepository.findShardedProducts()) {
+            slotCounts.put(product.getProductId(), product.getSlots().intValue());
+        }
+        for (UUID productId : new ArrayList<>(slotCounts.keySet())) {
+            if (!configuredProductIds.contains(productId) || slotCounts.get(productId) != slotCount) {
+                unshard(productId);
+            }
+        }
+        for (UUID productId : configuredProductIds) {
+            if (!slotCounts.containsKey(productId) && !shard(productId, slotCount)) {
+                System.err.printf("Product %s does not exist; its stock is not sharded.%n", productId);
+            }
+        }
+        System.out.printf("The stock of %d product(s) is spread over %d slots each.%n", slotCounts.size(), slotCount);
+    }
+
+    /**
+     * @return whether the stock of the given product is held by slots
+     */
+    public boolean isSharded(UUID productId) {
+        return slotCounts.containsKey(productId);
+    }
+
+    /**
+     * @return the unique identifiers of the sharded products
+     */
+    public Set<UUID> shardedProductIds() {
+        return Collections.unmodifiableSet(slotCounts.keySet());
+    }
+
+    /**
+     * Moves the stock of a product into the given number of slots, in a transaction of its own.
+     *
+     * @return true if the product is sharded, false if it does not exist
+     */
+    public boolean shard(UUID productId, int slots) {
+        Boolean sharded = transactionTemplate.execute(status -> {
+            Product product = productRepository.lockById(productId).orElse(null);
+            if (product == null) {
+                return false;
+            }
+            int quantity = product.getQuantity() != null ? product.getQuantity() : 0;
+            productRepository.setQuantity(productId, 0);
+            List<StockSlot> rows = new ArrayList<>(slots);
+            for (int slot = 0; slot < slots; slot++) {
+                rows.add(StockSlot.builder().productId(productId).slot(slot)
+                        .quantity(quantity / slots + (slot < quantity % slots ? 1 : 0)).version(0L).build());
+            }
+            stockSlotRepository.saveAll(rows);
+            return true;
+        });
+        if (Boolean.TRUE.equals(sharded)) {
+            slotCounts.put(productId, slots);
+        }
+        return Boolean.TRUE.equals(sharded);
+    }
+
+    /**
+     * Moves the stock of a product from its slots back to its own row, in a transaction of its own. The
+     * product is taken for sharded until that transaction has committed.
+     */
+    public void unshard(UUID productId) {
+        transactionTemplate.executeWithoutResult(status -> {
+            List<StockSlot> slots = stockSlotRepository.lockAllByProductId(productId);
+            int quantity = slots.stream().mapToInt(StockSlot::getQuantity).sum();
+            long versions = slots.stream().mapToLong(StockSlot::getVersion).sum();
+            productRepository.addSlotStock(productId, quantity, versions);
+            stockSlotRepository.deleteAllByProductId(productId);
+        });
+        slotCounts.remove(productId);
+    }
+
+    /**
+     * Takes stock from a sharded product, within the current transaction. The stock is taken from the slot
+     * of the calling thread if it holds enough, else from the next slot that does, else from several slots.
+     * <p>
+     * Unless the slots are locked first, they are read without locks and decremented with conditional
+     * UPDATEs in slot order, so the transaction holds at most the slots it took from. If a slot changed in
+     * between, nothing is retried within the transaction, which may already hold locks a concurrent
+     * borrower is waiting for: it has to be rolled back and can be run again.
+     *
+     * @param lockSlots whether to lock all the slots of the product before reading them, so that no
+     *                  concurrent change can get in the way; slower, but never fails because of one
+     * @throws IllegalArgumentException if the slots do not hold enough stock together
+     * @throws ConcurrencyFailureException if a slot changed since it was read
+     */
+    public void decrement(UUID productId, int quantity, boolean lockSlots) {
+        List<StockSlot> slots = lockSlots
+                ? stockSlotRepository.lockAllByProductId(productId)
+                : stockSlotRepository.findByProductIdOrderBySlot(productId);
+        if (slots.isEmpty()) {
+            throw new IllegalArgumentException("Product with ID " + productId + " is not sharded.");
+        }
+        int[] taken = plan(slots, quantity);
+        if (taken == null) {
+            throw new IllegalArgumentException("Not enough stock to decrement by " + quantity + ".");
+        }
+        for (int slot = 0; slot < taken.length; slot++) {
+            if (taken[slot] == 0) {
+                continue;
+            }
+            if (lockSlots) {
+                slots.get(slot).setQuantity(slots.get(slot).getQuantity() - taken[slot]);
+                slots.get(slot).setVersion(slots.get(slot).getVersion() + 1);
+            } else if (stockSlotRepository.decrementQuantity(productId, slot, taken[slot]) == 0) {
+                throw new ConcurrencyFailureException("The stock of product " + productId + " changed while it was being decremented.");
+            }
+        }
+        changed(productId, false);
+    }
+
+    /**
+     * Decides how much to take from each slot, starting from the slot of the calling thread.
+     *
+     * @return the quantity to take per slot, or null if the slots do not hold enough together
+     */
+    private static int[] plan(List<StockSlot> slots, int quantity) {
+        int[] taken = new int[slots.size()];
+        int first = slotOfCurrentThread(slots.size());
+        for (int i = 0; i < slots.size(); i++) {
+            int slot = (first + i) % slots.size();
+            if (slots.get(slot).getQuantity() >= quantity) {
+                taken[slot] = quantity;
+                return taken;
+            }
+        }
+        // No slot holds enough on its own, so borrow from the others.
+        int remaining = quantity;
+        for (int i = 0; i < slots.size() && remaining > 0; i++) {
+            int slot = (first + i) % slots.size();
+            taken[slot] = Math.min(slots.get(slot).getQuantity(), remaining);
+            remaining -= taken[slot];
+        }
+        return remaining == 0 ? taken : null;
+    }
+
+    /**
+     * Adds stock to a sharded product, within the current transaction.
+     */
+    public void increment(UUID productId, int quantity) {
+        Integer slots = slotCounts.get(productId);
+        if (slots == null || stockSlotRepository.incrementQuantity(productId, slotOfCurrentThread(slots), quantity) == 0) {
+            throw new IllegalArgumentException("Product with ID " + productId + " is not sharded.");
+        }
+        changed(productId, false);
+    }
+
+    /**
+     * Sets the stock of a sharded product, spreading it evenly over its slots, within the current transaction.
+     *
+     * @param productUpdated whether other fields of the product were changed by the same transaction
+     */
+    public void set(UUID productId, int quantity, boolean productUpdated) {
+        List<StockSlot> locked = stockSlotRepository.lockAllByProductId(productId);
+        if (locked.isEmpty()) {
+            throw new IllegalArgumentException("Product with ID " + productId + " is not sharded.");
+        }
+        for (int slot = 0; slot < locked.size(); slot++) {
+            locked.get(slot).setQuantity(quantity / locked.size() + (slot < quantity % locked.size() ? 1 : 0));
+            locked.get(slot).setVersion(locked.get(slot).getVersion() + 1);
+        }
+        changed(productId, productUpdated);
+    }
+
+    /**
+     * Records that other fields of a sharded product changed, so that the change is published with its stock.
+     */
+    public void productUpdated(UUID productId) {
+        changed(productId, true);
+    }
+
+    /**
+     * Deletes the slots of a product that is being deleted, within the current transaction. The product is
+     * still taken for sharded until the transaction has committed, so a rollback leaves it sharded.
+     */
+    public void delete(UUID productId) {
+        stockSlotRepository.deleteAllByProductId(productId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    slotCounts.remove(productId);
+                }
+            });
+        } else {
+            slotCounts.remove(productId);
+        }
+    }
+
+    /**
+     * Publishes the change of a sharded product once its transaction has committed, with its stock as
+     * of now, which includes every change committed before.
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onSlotsChanged(SlotsChanged change) {
+        StockLevel stock = productRepository.findStockById(change.productId());
+        if (stock == null) {
+            return;
+        }
+        if (!change.productUpdated()) {
+            eventPublisher.publishEvent(ProductChangedEvent.quantityChanged(change.productId(), stock.getQuantity(), stock.getVersion()));
+            return;
+        }
+        productRepository.findById(change.productId())
+                .ifPresent(product -> eventPublisher.publishEvent(ProductChangedEvent.updated(product, stock)));
+    }
+
+    private void changed(UUID productId, boolean productUpdated) {
+        eventPublisher.publishEvent(new SlotsChanged(productId, productUpdated));
+    }
+
+    private static int slotOfCurrentThread(int slots) {
+        return (int) Math.floorMod(Thread.currentThread().threadId(), (long) slots);
+    }
+}
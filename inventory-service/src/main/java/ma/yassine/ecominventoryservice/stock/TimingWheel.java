@@ -0,0 +1,155 @@
+package ma.yassine.ecominventoryservice.stock;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A hashed timing wheel: a ring of buckets, one per tick, each holding the timeouts whose deadline falls
+ * on that tick modulo the size of the ring. Scheduling and cancelling a timeout take constant time, and
+ * each tick only visits the timeouts hashed to its own bucket, however many timeouts are pending.
+ * Timeouts due more than one turn of the wheel ahead simply stay in their bucket until the turn in which
+ * they are due.
+ * <p>
+ * The wheel keeps no clock of its own: the caller passes the current {@link System#nanoTime()} and calls
+ * {@link #advance} about once per tick. A timeout never expires before its delay, and at most one tick
+ * after it, plus however late {@link #advance} is called.
+ *
+ * @param <T> the type of the items that are scheduled
+ */
+public class TimingWheel<T> {
+
+    /**
+     * A scheduled item, which can be cancelled until it expires.
+     */
+    public static final class Timeout<T> {
+        private final T item;
+        private final long deadline;
+        private Timeout<T> previous;
+        private Timeout<T> next;
+        private boolean pending = true;
+
+        private Timeout(T item, long deadline) {
+            this.item = item;
+            this.deadline = deadline;
+        }
+
+        public T item() {
+            return item;
+        }
+    }
+
+    private final long tickNanos;
+    private final long startNanos;
+    private final Timeout<T>[] buckets;
+    private final int mask;
+    // The next tick to process.
+    private long tick;
+    private int size;
+
+    /**
+     * @param tickDuration the duration of one tick, which is also the precision of the timeouts
+     * @param wheelSize the number of buckets, rounded up to a power of two
+     * @param startNanos the current {@link System#nanoTime()}, from which ticks are counted
+     */
+    @SuppressWarnings("unchecked")
+    public TimingWheel(Duration tickDuration, int wheelSize, long startNanos) {
+        if (tickDuration.isNegative() || tickDuration.isZero()) {
+            throw new IllegalArgumentException("The tick duration must be positive.");
+        }
+        if (wheelSize <= 0 || wheelSize > 1 << 30) {
+            throw new IllegalArgumentException("The wheel size must be between 1 and 2^30.");
+        }
+        int buckets = Integer.highestOneBit(wheelSize) == wheelSize ? wheelSize : Integer.highestOneBit(wheelSize) << 1;
+        this.tickNanos = tickDuration.toNanos();
+        this.startNanos = startNanos;
+        this.buckets = (Timeout<T>[]) new Timeout[buckets];
+        this.mask = buckets - 1;
+    }
+
+    /**
+     * Schedules an item to expire once the given delay has elapsed.
+     *
+     * @param delay the delay after which the item expires; zero or negative expires it on the next tick
+     * @param nowNanos the current {@link System#nanoTime()}
+     * @return the timeout, which can be passed to {@link #cancel}
+     */
+    public synchronized Timeout<T> schedule(T item, Duration delay, long nowNanos) {
+        long due = nowNanos - startNanos + Math.max(0, delay.toNanos());
+        // Round up, so that the item never expires early, but not into a tick already processed.
+        long deadline = Math.max(tick, (due + tickNanos - 1) / tickNanos);
+        Timeout<T> timeout = new Timeout<>(item, deadline);
+        int index = (int) (deadline & mask);
+        timeout.next = buckets[index];
+        if (timeout.next != null) {
+            timeout.next.previous = timeout;
+        }
+        buckets[index] = timeout;
+        size++;
+        return timeout;
+    }
+
+    /**
+     * Cancels a timeout, so that its item does not expire.
+     *
+     * @return true if the timeout was cancelled, false if it had already expired or been cancelled
+     */
+    public synchronized boolean cancel(Timeout<T> timeout) {
+        if (!timeout.pending) {
+            return false;
+        }
+        unlink(timeout);
+        return true;
+    }
+
+    /**
+     * Processes every tick up to the current time, removing the items that are due.
+     *
+     * @param nowNanos the current {@link System#nanoTime()}
+     * @return the items that expired, in no particular order
+     */
+    public synchronized List<T> advance(long nowNanos) {
+        long target = Math.floorDiv(nowNanos - startNanos, tickNanos);
+        if (target < tick) {
+            return List.of();
+        }
+        List<T> expired = new ArrayList<>();
+        // After a long pause, one turn of the wheel visits every bucket, whatever the number of ticks missed.
+        long ticks = Math.min(target - tick + 1, buckets.length);
+        for (long i = 0; i < ticks; i++) {
+            Timeout<T> timeout = buckets[(int) ((tick + i) & mask)];
+            while (timeout != null) {
+                Timeout<T> next = timeout.next;
+                if (timeout.deadline <= target) {
+                    unlink(timeout);
+                    expired.add(timeout.item);
+                }
+                timeout = next;
+            }
+        }
+        tick = target + 1;
+        return expired;
+    }
+
+    /**
+     * @return the number of timeouts that have neither expired nor been cancelled
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    private void unlink(Timeout<T> timeout) {
+        if (timeout.previous != null) {
+            timeout.previous.next = timeout.next;
+        } else {
+            buckets[(int) (timeout.deadline & mask)] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.previous = timeout.previous;
+        }
+        timeout.previous = null;
+        timeout.next = null;
+        timeout.pending = false;
+        size--;
+    }
+}
@@ -1,22 +1,51 @@
 package ma.yassine.ecominventoryservice.web;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import lombok.AllArgsConstructor;
 import ma.yassine.ecominventoryservice.entities.Product;
+import ma.yassine.ecominventoryservice.entities.StockHold;
+import ma.yassine.ecominventoryservice.models.StockChangePage;
+import ma.yassine.ecominventoryservice.models.StockCommand;
+import ma.yassine.ecominventoryservice.models.StockCommandResult;
+import ma.yassine.ecominventoryservice.models.StockLine;
 import ma.yassine.ecominventoryservice.services.IProductService;
+import ma.yassine.ecominventoryservice.services.ProductServiceImp;
+import ma.yassine.ecominventoryservice.stock.StockChangeFeed;
+import ma.yassine.ecominventoryservice.stock.StockCommands;
+import ma.yassine.ecominventoryservice.stock.StockHolds;
+import ma.yassine.ecominventoryservice.stock.StockMovement;
+import ma.yassine.ecominventoryservice.stock.StockMovementJournal;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.Principal;
+import java.time.Duration;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping("/api/products")
 @AllArgsConstructor
 public class ProductController {
     private final IProductService productService;
+    private final ObjectMapper objectMapper;
+    private final ObjectProvider<StockMovementJournal> stockMovementJournal;
+    private final StockHolds stockHolds;
+    private final StockCommands stockCommands;
+    private final StockChangeFeed stockChangeFeed;
 
     /**
      * Retrieves a list of all products.
@@ -28,6 +57,53 @@ public class ProductController {
         return productService.getAllProducts();
     }
 
+    /**
+     * Exports the whole catalog as newline-delimited JSON, one product per line. Products are written as
+     * they are read from the database, so the response starts right away and memory use does not depend
+     * on the size of the catalog.
+     *
+     * @return ResponseEntity streaming all products as NDJSON.
+     */
+    @GetMapping(value = "/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    ResponseEntity<StreamingResponseBody> exportProducts() {
+        ObjectWriter writer = objectMapper.writerFor(Product.class);
+        StreamingResponseBody body = out -> {
+            try {
+                productService.forEachProduct(product -> {
+                    try {
+                        out.write(writer.writeValueAsBytes(product));
+                        out.write('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+
+    /**
+     * Retrieves the changes of prices and stock after a version of the change feed. Readers keep a copy of
+     * the catalog up to date by asking for the changes after the {@code version} of the previous answer; when
+     * the answer is a reset, they load the whole catalog again first. With a wait, the request is held until
+     * a change is committed or the wait runs out, so readers can long-poll for changes.
+     *
+     * @param epoch the {@code epoch} of the previous answer; omit it on the first request
+     * @param since the {@code version} of the previous answer
+     * @param wait how long to wait for a change if there is none yet, such as {@code 20s}, at most 30 seconds
+     * @param limit the maximum number of changes to return, at most 10,000
+     * @return a ResponseEntity containing the changes, oldest first
+     */
+    @GetMapping(value = "/changes", produces = "application/json")
+    CompletableFuture<ResponseEntity<StockChangePage>> getStockChanges(@RequestParam(required = false) UUID epoch,
+                                                                       @RequestParam(defaultValue = "0") long since,
+                                                                       @RequestParam(defaultValue = "0s") Duration wait,
+                                                                       @RequestParam(defaultValue = "1000") int limit) {
+        return stockChangeFeed.changes(epoch, since, wait, limit).thenApply(ResponseEntity::ok);
+    }
+
     /**
      * Retrieves a product by its unique identifier.
      *
@@ -39,6 +115,21 @@ public class ProductController {
         return productService.getProductById(id);
     }
 
+    /**
+     * Retrieves several products by their unique identifiers in one request, so that callers needing many
+     * products do not make one request per product. The products are read from the database rather than
+     * from the product cache, so their prices can be snapshotted into orders. Unknown IDs are left out of
+     * the response.
+     *
+     * @param ids the unique identifiers of the products to retrieve, at most 1000
+     * @return a {@link ResponseEntity} containing the products found, or a bad request response if an ID is
+     *         missing or there are too many of them
+     */
+    @PostMapping(value = "/batch", produces = "application/json")
+    ResponseEntity<List<Product>> getProductsByIds(@RequestBody List<UUID> ids) {
+        return productService.getProductsByIds(ids);
+    }
+
     /**
      * Creates a new product entry in the system.
      *
@@ -96,10 +187,99 @@ public class ProductController {
         return productService.decrementProductQuantity(id, quantity);
     }
 
+    /**
+     * Lists the recorded stock movements of a product, oldest first. Movements are only recorded when the
+     * stock journal is enabled.
+     *
+     * @param id the unique identifier of the product
+     * @return a ResponseEntity containing the stock movements of the product,
+     *         or a not found response if the stock journal is disabled
+     */
+    @GetMapping(value = "/{id}/stock-movements", produces = "application/json")
+    ResponseEntity<List<StockMovement>> getStockMovements(@PathVariable UUID id) throws IOException {
+        StockMovementJournal journal = stockMovementJournal.getIfAvailable();
+        return journal != null ? ResponseEntity.ok(journal.movements(id)) : ResponseEntity.notFound().build();
+    }
+
+    /**
+     * Reserves stock for a whole list of order lines in one call. Either every line is
+     * decremented or none is.
+     *
+     * @param lines the order lines, each holding a product ID and the quantity to reserve
+     * @return a ResponseEntity containing the remaining quantity of each reserved product,
+     *         or a bad request response if any line cannot be reserved
+     */
+    @PostMapping(value = "/reserve", produces = "application/json")
+    ResponseEntity<Map<UUID, Integer>> reserveProductQuantities(@RequestBody List<StockLine> lines) {
+        return productService.reserveProductQuantities(lines);
+    }
+
+    /**
+     * Applies a batch of reservations and releases in one call. Each command is applied on its own, at most
+     * once per idempotency key, so the batch can be sent again as a whole after a failure.
+     *
+     * @param commands the commands, at most {@value ProductServiceImp#MAX_BATCH_SIZE}
+     * @return a ResponseEntity containing the outcome of each command in the order of the commands,
+     *         or a bad request response if there are no commands or too many
+     */
+    @PostMapping(value = "/stock-commands", produces = "application/json")
+    ResponseEntity<List<StockCommandResult>> applyStockCommands(@RequestBody List<StockCommand> commands, Principal principal) {
+        if (commands == null || commands.isEmpty() || commands.size() > ProductServiceImp.MAX_BATCH_SIZE) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(stockCommands.apply(commands, principal != null ? principal.getName() : null));
+    }
+
+    /**
+     * Holds stock for a whole list of order lines until the hold is confirmed or released, or its time to
+     * live runs out. Either every line is held or none is.
+     *
+     * @param lines the order lines, each holding a product ID and the quantity to hold
+     * @param ttl how long the stock is held, such as {@code 15m}; the configured default if omitted
+     * @return a ResponseEntity containing the hold, or a bad request response if any line cannot be held
+     */
+    @PostMapping(value = "/holds", produces = "application/json")
+    ResponseEntity<StockHold> holdProductQuantities(@RequestBody List<StockLine> lines, @RequestParam(required = false) Duration ttl) {
+        return stockHolds.hold(lines, ttl);
+    }
+
+    /**
+     * Retrieves a stock hold by its unique identifier.
+     *
+     * @param holdId the unique identifier of the hold
+     * @return a ResponseEntity containing the hold, or a not found response
+     */
+    @GetMapping(value = "/holds/{holdId}", produces = "application/json")
+    ResponseEntity<StockHold> getHold(@PathVariable UUID holdId) {
+        return stockHolds.getHold(holdId);
+    }
+
+    /**
+     * Confirms a stock hold, so that its stock stays taken.
+     *
+     * @param holdId the unique identifier of the hold
+     * @return a ResponseEntity containing the confirmed hold, or a conflict response if it was released or expired
+     */
+    @PostMapping(value = "/holds/{holdId}/confirm", produces = "application/json")
+    ResponseEntity<StockHold> confirmHold(@PathVariable UUID holdId) {
+        return stockHolds.confirm(holdId);
+    }
+
+    /**
+     * Releases a stock hold, giving its stock back.
+     *
+     * @param holdId the unique identifier of the hold
+     * @return a ResponseEntity containing the released hold, or a conflict response if it was confirmed
+     */
+    @PostMapping(value = "/holds/{holdId}/release", produces = "application/json")
+    ResponseEntity<StockHold> releaseHold(@PathVariable UUID holdId) {
+        return stockHolds.release(holdId);
+    }
+
     /**
      * Retrieves a paginated list of products matching the given search criteria.
      *
-     * @param id the unique identifier of the product to search for; can be null
+     * @param id the unique identifier of the product to search for, or its beginning; can be null
      * @param name the name of the product to filter by; can be null
      * @param description the description of the product to filter by; can be null
      * @param minPrice the minimum price of the products to filter by; can be null
@@ -112,7 +292,7 @@ public class ProductController {
      */
     @GetMapping(value = "/search", produces = MediaType.APPLICATION_JSON_VALUE)
     Page<Product> searchProducts(
-            @RequestParam(required = false) UUID id,
+            @RequestParam(required = false) String id,
             @RequestParam(required = false) String name,
             @RequestParam(required = false) String description,
             @RequestParam(required = false) Double minPrice,
@@ -124,4 +304,54 @@ public class ProductController {
     ) {
         return productService.getProductsByCriteria(id, name, description, minPrice, maxPrice, minQuantity, maxQuantity, Pageable.ofSize(size).withPage(page));
     }
+
+    /**
+     * Retrieves products matching the given filters one slice at a time, in ID order, without counting
+     * the total. Pass the ID of the last product of a slice as {@code afterId} to get the next one.
+     *
+     * @param id the unique identifier of the product to search for, or its beginning; can be null
+     * @param minPrice the minimum price of the products to filter by; can be null
+     * @param maxPrice the maximum price of the products to filter by; can be null
+     * @param minQuantity the minimum quantity of the products to filter by; can be null
+     * @param maxQuantity the maximum quantity of the products to filter by; can be null
+     * @param afterId the ID of the last product of the previous slice; omit it for the first slice
+     * @param size the maximum number of products in the slice (default is 10, at most 100)
+     * @return a slice of products that match the filters
+     */
+    @GetMapping(value = "/search/slice", produces = MediaType.APPLICATION_JSON_VALUE)
+    Slice<Product> searchProductsSlice(
+            @RequestParam(required = false) String id,
+            @RequestParam(required = false) Double minPrice,
+            @RequestParam(required = false) Double maxPrice,
+            @RequestParam(required = false) Integer minQuantity,
+            @RequestParam(required = false) Integer maxQuantity,
+            @RequestParam(required = false) UUID afterId,
+            @RequestParam(defaultValue = "10") int size
+    ) {
+        return productService.getProductsSliceByCriteria(id, minPrice, maxPrice, minQuantity, maxQuantity, afterId, size);
+    }
+
+    /**
+     * Maps an optimistic locking failure, raised when a product was modified concurrently
+     * during an update, to a conflict response so the client can reload and retry.
+     *
+     * @param e the optimistic locking failure
+     * @return a ResponseEntity with HTTP 409 status
+     */
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    ResponseEntity<String> handleOptimisticLockingFailure(OptimisticLockingFailureException e) {
+        return ResponseEntity.status(HttpStatus.CONFLICT).body("Product was modified concurrently, reload it and retry.");
+    }
+
+    /**
+     * Maps a quantity that does not fit in a stock level, such as order lines adding up to more than
+     * {@link Integer#MAX_VALUE} units of a product, to a bad request response.
+     *
+     * @param e the overflow
+     * @return a ResponseEntity with HTTP 400 status explaining which quantity is too large
+     */
+    @ExceptionHandler(ArithmeticException.class)
+    ResponseEntity<String> handleQuantityOverflow(ArithmeticException e) {
+        return ResponseEntity.badRequest().body(e.getMessage());
+    }
 }
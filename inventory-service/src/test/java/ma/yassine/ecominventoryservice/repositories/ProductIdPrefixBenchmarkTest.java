@@ -0,0 +1,127 @@
+package ma.yassine.ecominventoryservice.repositories;
+
+import ma.yassine.ecominventoryservice.search.UuidPrefixRange;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares the old ID prefix filter, {@code LOWER(CAST(id AS VARCHAR)) LIKE 'prefix%'}, with the
+ * {@link UuidPrefixRange} {@code BETWEEN} on a 1M-row product table in H2. Each lookup runs the two
+ * statements of a search page: the first 10 rows and the count. Run with
+ * {@code mvn test -Dtest=ProductIdPrefixBenchmarkTest -Dbenchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class ProductIdPrefixBenchmarkTest {
+    private static final int ROWS = Integer.getInteger("benchmark.rows", 1_000_000);
+    private static final int LOOKUPS = Integer.getInteger("benchmark.lookups", 20);
+
+    private static final String LIKE_FILTER = "LOWER(CAST(id AS VARCHAR)) LIKE ?";
+    private static final String RANGE_FILTER = "id BETWEEN ? AND ?";
+
+    @Test
+    void likeOnCastAgainstPrimaryKeyRange() throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:h2:mem:prefix-benchmark;DB_CLOSE_DELAY=-1", "sa", "")) {
+            List<UUID> samples = populate(connection);
+            System.out.println("LIKE plan:  " + plan(connection, LIKE_FILTER));
+            System.out.println("RANGE plan: " + plan(connection, RANGE_FILTER));
+
+            for (int prefixLength : new int[]{4, 8, 13, 36}) {
+                // Warm up both paths before timing them.
+                lookUp(connection, samples, prefixLength, false);
+                lookUp(connection, samples, prefixLength, true);
+                long likeNanos = lookUp(connection, samples, prefixLength, false);
+                long rangeNanos = lookUp(connection, samples, prefixLength, true);
+                System.out.printf("prefix length %2d: LIKE %9.3f ms/lookup, BETWEEN %7.3f ms/lookup%n",
+                        prefixLength, likeNanos / 1e6 / LOOKUPS, rangeNanos / 1e6 / LOOKUPS);
+            }
+        }
+    }
+
+    private List<UUID> populate(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS product");
+            statement.execute("CREATE TABLE product (id UUID PRIMARY KEY, name VARCHAR(255) NOT NULL, description VARCHAR(255), " +
+                    "price DOUBLE, quantity INT, version BIGINT NOT NULL DEFAULT 0)");
+        }
+        List<UUID> samples = new ArrayList<>();
+        connection.setAutoCommit(false);
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO product (id, name, price, quantity) VALUES (?, ?, ?, ?)")) {
+            for (int i = 0; i < ROWS; i++) {
+                UUID id = UUID.randomUUID();
+                if (i % (ROWS / LOOKUPS) == 0) {
+                    samples.add(id);
+                }
+                insert.setObject(1, id);
+                insert.setString(2, "product-" + i);
+                insert.setDouble(3, i % 1000);
+                insert.setInt(4, i % 50);
+                insert.addBatch();
+                if (i % 10_000 == 9_999) {
+                    insert.executeBatch();
+                    connection.commit();
+                }
+            }
+            insert.executeBatch();
+            connection.commit();
+        }
+        connection.setAutoCommit(true);
+        return samples;
+    }
+
+    private long lookUp(Connection connection, List<UUID> samples, int prefixLength, boolean range) throws SQLException {
+        String filter = range ? RANGE_FILTER : LIKE_FILTER;
+        long start = System.nanoTime();
+        for (UUID sample : samples) {
+            String prefix = sample.toString().substring(0, prefixLength);
+            UuidPrefixRange ids = UuidPrefixRange.parse(prefix).orElseThrow();
+            int rows = 0;
+            try (PreparedStatement page = connection.prepareStatement("SELECT id, name, price, quantity FROM product WHERE " + filter + " LIMIT 10");
+                 PreparedStatement count = connection.prepareStatement("SELECT COUNT(*) FROM product WHERE " + filter)) {
+                bind(page, range, prefix, ids);
+                bind(count, range, prefix, ids);
+                try (ResultSet resultSet = page.executeQuery()) {
+                    while (resultSet.next()) {
+                        rows++;
+                    }
+                }
+                try (ResultSet resultSet = count.executeQuery()) {
+                    resultSet.next();
+                    assertEquals(Math.min(10, resultSet.getLong(1)), rows);
+                }
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void bind(PreparedStatement statement, boolean range, String prefix, UuidPrefixRange ids) throws SQLException {
+        if (range) {
+            statement.setObject(1, ids.lowest());
+            statement.setObject(2, ids.highest());
+        } else {
+            statement.setString(1, prefix + "%");
+        }
+    }
+
+    private static String plan(Connection connection, String filter) throws SQLException {
+        UuidPrefixRange ids = UuidPrefixRange.parse("0193").orElseThrow();
+        try (PreparedStatement explain = connection.prepareStatement("EXPLAIN SELECT COUNT(*) FROM product WHERE " + filter)) {
+            bind(explain, filter.equals(RANGE_FILTER), "0193", ids);
+            try (ResultSet resultSet = explain.executeQuery()) {
+                resultSet.next();
+                return resultSet.getString(1).replaceAll("\\s+", " ");
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package ma.yassine.ecominventoryservice.search;
+
+import ma.yassine.ecominventoryservice.entities.Product;
+import ma.yassine.ecominventoryservice.repositories.ProductRepository;
+import ma.yassine.ecominventoryservice.repositories.ProductSpecifications;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.JdbcTemplateAutoConfiguration;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernateJpaAutoConfiguration;
+import org.springframework.boot.autoconfigure.transaction.TransactionAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH comparison of a product search page served by the JPA Specification query on H2 and by the
+ * {@link ProductReadModel}, for a selective price range, a price and quantity range, and a wide price
+ * range. Run with {@code mvn test -Dtest=ProductReadModelBenchmarkTest -Dbenchmark=true}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ProductReadModelBenchmarkTest {
+    private static final int QUERIES = 64;
+    private static final Pageable FIRST_PAGE = PageRequest.of(0, 20);
+
+    @Param({"100000"})
+    public int products;
+
+    @Param({"narrow-price", "price-and-quantity", "wide-price"})
+    public String shape;
+
+    private ConfigurableApplicationContext context;
+    private ProductRepository productRepository;
+    private ProductReadModel productReadModel;
+    private final List<double[]> queries = new ArrayList<>();
+    private int next;
+
+    @Configuration
+    @ImportAutoConfiguration({DataSourceAutoConfiguration.class, JdbcTemplateAutoConfiguration.class,
+            HibernateJpaAutoConfiguration.class, TransactionAutoConfiguration.class})
+    @EntityScan(basePackageClasses = Product.class)
+    @EnableJpaRepositories(basePackageClasses = ProductRepository.class)
+    @Import(ProductReadModel.class)
+    static class BenchmarkConfiguration {
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    void jpqlAgainstReadModel() throws RunnerException {
+        new Runner(new OptionsBuilder().include(ProductReadModelBenchmarkTest.class.getName()).build()).run();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = new SpringApplicationBuilder(BenchmarkConfiguration.class)
+                .web(WebApplicationType.NONE)
+                // Passed as arguments, so they win over application.properties.
+                .run("--spring.cloud.config.enabled=false",
+                        "--spring.datasource.url=jdbc:h2:mem:read-model-benchmark;DB_CLOSE_DELAY=-1",
+                        "--spring.jpa.hibernate.ddl-auto=create-drop",
+                        "--inventory.read-model.enabled=true",
+                        "--inventory.read-model.refresh-interval=0s",
+                        "--logging.level.root=WARN");
+        productRepository = context.getBean(ProductRepository.class);
+        productReadModel = context.getBean(ProductReadModel.class);
+
+        Random random = new Random(7);
+        List<Object[]> rows = new ArrayList<>(products);
+        for (int i = 0; i < products; i++) {
+            rows.add(new Object[]{UUID.randomUUID(), "product-" + i, Math.round(random.nextDouble() * 1_000_000) / 100.0, random.nextInt(1_000)});
+        }
+        context.getBean(JdbcTemplate.class).batchUpdate(
+                "INSERT INTO product (id, name, price, quantity, version) VALUES (?, ?, ?, ?, 0)", rows);
+        productReadModel.reload();
+
+        for (int i = 0; i < QUERIES; i++) {
+            double from = random.nextDouble() * 9_000;
+            queries.add(switch (shape) {
+                // About 1% of the products.
+                case "narrow-price" -> new double[]{from, from + 100, -1, -1};
+                // 10% of the prices and 10% of the quantities, 1% of the products.
+                case "price-and-quantity" -> new double[]{from, from + 1_000, 100, 199};
+                // About half of the products.
+                default -> new double[]{from / 2, from / 2 + 5_000, -1, -1};
+            });
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Page<Product> jpql() {
+        double[] query = nextQuery();
+        return productRepository.findAll(ProductSpecifications.matching(UuidPrefixRange.ALL, query[0], query[1],
+                minQuantity(query), maxQuantity(query)), FIRST_PAGE);
+    }
+
+    @Benchmark
+    public Page<Product> readModel() {
+        double[] query = nextQuery();
+        return productReadModel.findByCriteria(UuidPrefixRange.ALL, query[0], query[1],
+                minQuantity(query), maxQuantity(query), FIRST_PAGE).orElseThrow();
+    }
+
+    private double[] nextQuery() {
+        next = (next + 1) % QUERIES;
+        return queries.get(next);
+    }
+
+    private static Integer minQuantity(double[] query) {
+        return query[2] < 0 ? null : (int) query[2];
+    }
+
+    private static Integer maxQuantity(double[] query) {
+        return query[3] < 0 ? null : (int) query[3];
+    }
+}
@@ -0,0 +1,136 @@
+package ma.yassine.ecominventoryservice.search;
+
+import jakarta.persistence.EntityManagerFactory;
+import ma.yassine.ecominventoryservice.entities.Product;
+import ma.yassine.ecominventoryservice.models.StockLine;
+import ma.yassine.ecominventoryservice.repositories.ProductRepository;
+import ma.yassine.ecominventoryservice.repositories.ProductSpecifications;
+import ma.yassine.ecominventoryservice.services.ProductServiceImp;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@DataJpaTest(properties = {
+        "spring.cloud.config.enabled=false",
+        "spring.jpa.properties.hibernate.generate_statistics=true",
+        "inventory.read-model.enabled=true",
+        "inventory.read-model.max-pending-changes=16"
+})
+@Import({ProductServiceImp.class, ProductSearchIndex.class, ProductReadModel.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class ProductReadModelTest {
+    private static final List<Sort> SORTS = List.of(
+            Sort.by("id"),
+            Sort.by(Sort.Direction.DESC, "price", "id"),
+            Sort.by("quantity").and(Sort.by("id")),
+            Sort.by(Sort.Direction.DESC, "quantity", "id"));
+
+    @Autowired
+    private ProductServiceImp productService;
+    @Autowired
+    private ProductRepository productRepository;
+    @Autowired
+    private ProductReadModel productReadModel;
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private final Random random = new Random(42);
+    private final List<UUID> ids = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        productRepository.deleteAll();
+        for (int i = 0; i < 150; i++) {
+            // Some products have no price or quantity, and many share one, to exercise nulls and ties.
+            productRepository.save(Product.builder().name("product-" + i)
+                    .price(i % 20 == 0 ? null : (double) random.nextInt(50))
+                    .quantity(i % 25 == 0 ? null : random.nextInt(10))
+                    .build());
+        }
+        productReadModel.reload();
+        productRepository.findAll().forEach(product -> ids.add(product.getId()));
+    }
+
+    @Test
+    void answersLikeTheDatabaseWhileProductsChange() {
+        for (int round = 0; round < 60; round++) {
+            mutateRandomProduct();
+            for (int query = 0; query < 5; query++) {
+                assertSameAsDatabase();
+            }
+        }
+    }
+
+    @Test
+    void servesSearchesWithoutTheDatabaseAndSeesItsOwnWrites() {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        UUID id = ids.get(0);
+        productService.updateProduct(id, Product.builder().price(1_000.0).quantity(5).build());
+        productService.reserveProductQuantities(List.of(new StockLine(id, 1)));
+        productService.incrementProductQuantity(id, 7);
+
+        statistics.clear();
+        Page<Product> page = productService.getProductsByCriteria(null, null, null, 1_000.0, null, null, null, Pageable.ofSize(10));
+
+        assertEquals(List.of(id), page.getContent().stream().map(Product::getId).toList());
+        assertEquals(productRepository.findQuantityById(id), page.getContent().get(0).getQuantity());
+        statistics.clear();
+        productService.getProductsByCriteria(id.toString().substring(0, 6), null, null, 10.0, 40.0, 2, null, PageRequest.of(1, 5, Sort.by("price")));
+        assertEquals(0, statistics.getPrepareStatementCount());
+    }
+
+    private void mutateRandomProduct() {
+        UUID id = ids.get(random.nextInt(ids.size()));
+        switch (random.nextInt(5)) {
+            case 0 -> productService.updateProduct(id, Product.builder().price(1.0 + random.nextInt(50)).build());
+            case 1 -> productService.incrementProductQuantity(id, 1 + random.nextInt(5));
+            case 2 -> productService.reserveProductQuantities(List.of(new StockLine(id, 1)));
+            case 3 -> {
+                productService.deleteProduct(id);
+                ids.remove(id);
+            }
+            default -> ids.add(productService.addProduct(Product.builder().name("added")
+                    .price((double) random.nextInt(50)).quantity(random.nextInt(10)).build()).getBody().getId());
+        }
+    }
+
+    private void assertSameAsDatabase() {
+        String idPrefix = random.nextBoolean() ? null : Integer.toHexString(random.nextInt(16));
+        Double minPrice = random.nextBoolean() ? null : (double) random.nextInt(30);
+        Double maxPrice = random.nextBoolean() ? null : 20.0 + random.nextInt(30);
+        Integer minQuantity = random.nextBoolean() ? null : random.nextInt(5);
+        Integer maxQuantity = random.nextBoolean() ? null : 3 + random.nextInt(7);
+        Pageable pageable = PageRequest.of(random.nextInt(3), 1 + random.nextInt(20), SORTS.get(random.nextInt(SORTS.size())));
+        UuidPrefixRange idRange = UuidPrefixRange.parse(idPrefix).orElseThrow();
+
+        Page<Product> expected = productRepository.findAll(ProductSpecifications.matching(idRange, minPrice, maxPrice, minQuantity, maxQuantity), pageable);
+        Page<Product> actual = productReadModel.findByCriteria(idRange, minPrice, maxPrice, minQuantity, maxQuantity, pageable).orElseThrow();
+
+        String query = String.format("prefix=%s price=[%s, %s] quantity=[%s, %s] %s", idPrefix, minPrice, maxPrice, minQuantity, maxQuantity, pageable);
+        assertEquals(expected.getTotalElements(), actual.getTotalElements(), query);
+        assertEquals(describe(expected), describe(actual), query);
+    }
+
+    private static List<String> describe(Page<Product> page) {
+        return page.getContent().stream()
+                .map(product -> product.getId() + " " + product.getPrice() + " " + product.getQuantity() + " v" + product.getVersion())
+                .toList();
+    }
+}
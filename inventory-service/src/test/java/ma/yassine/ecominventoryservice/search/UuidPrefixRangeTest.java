@@ -0,0 +1,35 @@
+package ma.yassine.ecominventoryservice.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class UuidPrefixRangeTest {
+
+    @Test
+    void padsThePrefixToTheSmallestAndLargestUuid() {
+        UuidPrefixRange range = UuidPrefixRange.parse(" 0193A2b4-1 ").orElseThrow();
+
+        assertEquals(UUID.fromString("0193a2b4-1000-0000-0000-000000000000"), range.lowest());
+        assertEquals(UUID.fromString("0193a2b4-1fff-ffff-ffff-ffffffffffff"), range.highest());
+        assertEquals(range, UuidPrefixRange.parse("0193a2b41").orElseThrow());
+    }
+
+    @Test
+    void aFullIdIsASingleValueRange() {
+        UUID id = UUID.fromString("f47ac10b-58cc-4372-a567-0e02b2c3d479");
+
+        assertEquals(Optional.of(new UuidPrefixRange(id, id)), UuidPrefixRange.parse(id.toString()));
+    }
+
+    @Test
+    void rejectsPrefixesNoUuidCanStartWith() {
+        assertEquals(Optional.empty(), UuidPrefixRange.parse("0193a2g"));
+        assertEquals(Optional.empty(), UuidPrefixRange.parse("0193-a2"));
+        assertEquals(Optional.empty(), UuidPrefixRange.parse("f47ac10b-58cc-4372-a567-0e02b2c3d4790"));
+        assertEquals(Optional.of(UuidPrefixRange.ALL), UuidPrefixRange.parse("  "));
+    }
+}
@@ -0,0 +1,71 @@
+package ma.yassine.ecominventoryservice.services;
+
+import ma.yassine.ecominventoryservice.entities.Product;
+import ma.yassine.ecominventoryservice.models.StockLine;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.http.ResponseEntity;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.*;
+
+class CachingProductServiceTest {
+    private final ProductServiceImp productServiceImp = mock(ProductServiceImp.class);
+    private final CachingProductService productService = new CachingProductService(productServiceImp,
+            new CaffeineCacheManager(CachingProductService.PRODUCTS_CACHE, CachingProductService.CATALOG_CACHE));
+
+    @Test
+    void repeatedReadsAreServedFromTheCache() {
+        UUID id = UUID.randomUUID();
+        when(productServiceImp.getProductById(id)).thenReturn(ResponseEntity.ok(product(id, 5)));
+        when(productServiceImp.getAllProducts()).thenReturn(ResponseEntity.ok(List.of(product(id, 5))));
+
+        productService.getProductById(id);
+        productService.getProductById(id);
+        productService.getAllProducts();
+        productService.getAllProducts();
+
+        verify(productServiceImp, times(1)).getProductById(id);
+        verify(productServiceImp, times(1)).getAllProducts();
+    }
+
+    @Test
+    void missingProductsAreCachedAsNotFound() {
+        UUID id = UUID.randomUUID();
+        when(productServiceImp.getProductById(id)).thenReturn(ResponseEntity.notFound().build());
+
+        assertEquals(404, productService.getProductById(id).getStatusCode().value());
+        assertEquals(404, productService.getProductById(id).getStatusCode().value());
+        verify(productServiceImp, times(1)).getProductById(id);
+    }
+
+    @Test
+    void mutationsEvictOnlyTheTouchedProductsAndTheCatalog() {
+        UUID touched = UUID.randomUUID();
+        UUID untouched = UUID.randomUUID();
+        when(productServiceImp.getProductById(touched)).thenReturn(ResponseEntity.ok(product(touched, 5)));
+        when(productServiceImp.getProductById(untouched)).thenReturn(ResponseEntity.ok(product(untouched, 5)));
+        when(productServiceImp.getAllProducts()).thenReturn(ResponseEntity.ok(List.of(product(touched, 5))));
+        when(productServiceImp.reserveProductQuantities(anyList())).thenReturn(ResponseEntity.ok(Map.of(touched, 4)));
+        productService.getProductById(touched);
+        productService.getProductById(untouched);
+        productService.getAllProducts();
+
+        productService.reserveProductQuantities(List.of(new StockLine(touched, 1)));
+        productService.getProductById(touched);
+        productService.getProductById(untouched);
+        productService.getAllProducts();
+
+        verify(productServiceImp, times(2)).getProductById(touched);
+        verify(productServiceImp, times(1)).getProductById(untouched);
+        verify(productServiceImp, times(2)).getAllProducts();
+    }
+
+    private Product product(UUID id, int quantity) {
+        return Product.builder().id(id).name("Product").price(10.0).quantity(quantity).build();
+    }
+}
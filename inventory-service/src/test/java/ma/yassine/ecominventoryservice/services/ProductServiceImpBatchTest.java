@@ -0,0 +1,107 @@
+package ma.yassine.ecominventoryservice.services;
+
+import ma.yassine.ecominventoryservice.entities.Product;
+import ma.yassine.ecominventoryservice.models.StockLine;
+import ma.yassine.ecominventoryservice.repositories.ProductRepository;
+import ma.yassine.ecominventoryservice.search.ProductSearchIndex;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@DataJpaTest(properties = "spring.cloud.config.enabled=false")
+@Import({ProductServiceImp.class, ProductSearchIndex.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class ProductServiceImpBatchTest {
+    @Autowired
+    private ProductServiceImp productService;
+    @Autowired
+    private ProductRepository productRepository;
+
+    private UUID laptop;
+    private UUID phone;
+
+    @BeforeEach
+    void setUp() {
+        productRepository.deleteAll();
+        laptop = add("Laptop", 1500.0, 5);
+        phone = add("Phone", 700.0, 12);
+    }
+
+    @Test
+    void returnsEachKnownProductOnce() {
+        ResponseEntity<List<Product>> response = productService.getProductsByIds(List.of(laptop, UUID.randomUUID(), phone, laptop));
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(2, response.getBody().size());
+        assertEquals(Set.of(laptop, phone), response.getBody().stream().map(Product::getId).collect(Collectors.toSet()));
+        assertEquals(List.of(), productService.getProductsByIds(List.of()).getBody());
+    }
+
+    @Test
+    void refusesMissingIds() {
+        assertEquals(HttpStatus.BAD_REQUEST, productService.getProductsByIds(null).getStatusCode());
+        assertEquals(HttpStatus.BAD_REQUEST, productService.getProductsByIds(Arrays.asList(laptop, null)).getStatusCode());
+    }
+
+    @Test
+    void acceptsUpToTheBatchSizeOfDistinctIds() {
+        List<UUID> ids = new ArrayList<>(IntStream.range(1, ProductServiceImp.MAX_BATCH_SIZE).mapToObj(i -> UUID.randomUUID()).toList());
+        ids.add(laptop);
+        // Repeated IDs do not count towards the limit.
+        ids.add(laptop);
+
+        ResponseEntity<List<Product>> response = productService.getProductsByIds(ids);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(List.of(laptop), response.getBody().stream().map(Product::getId).toList());
+        ids.add(UUID.randomUUID());
+        assertEquals(HttpStatus.BAD_REQUEST, productService.getProductsByIds(ids).getStatusCode());
+    }
+
+    @Test
+    void seesPricesUpdatedOnAnotherNodeThroughTheCache() {
+        CachingProductService cachingService = new CachingProductService(productService,
+                new CaffeineCacheManager(CachingProductService.PRODUCTS_CACHE, CachingProductService.CATALOG_CACHE));
+        assertEquals(1500.0, cachingService.getProductById(laptop).getBody().getPrice());
+        assertEquals(1500.0, cachingService.getProductsByIds(List.of(laptop)).getBody().get(0).getPrice());
+
+        // Another node updates the shared database, which does not evict the cache of this one.
+        Product product = productRepository.findById(laptop).orElseThrow();
+        product.setPrice(1400.0);
+        productRepository.save(product);
+
+        assertEquals(1400.0, cachingService.getProductsByIds(List.of(laptop)).getBody().get(0).getPrice());
+    }
+
+    @Test
+    void refusesLinesAddingUpToMoreThanTheLargestQuantity() {
+        List<StockLine> lines = List.of(new StockLine(laptop, Integer.MAX_VALUE), new StockLine(laptop, 1));
+
+        assertThrows(ArithmeticException.class, () -> productService.reserveProductQuantities(lines));
+
+        assertEquals(5, productRepository.findQuantityById(laptop));
+    }
+
+    private UUID add(String name, Double price, Integer quantity) {
+        Product product = Product.builder().name(name).price(price).quantity(quantity).build();
+        return productService.addProduct(product).getBody().getId();
+    }
+}
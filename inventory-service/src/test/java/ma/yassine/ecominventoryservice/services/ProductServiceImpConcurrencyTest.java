@@ -0,0 +1,157 @@
+package ma.yassine.ecominventoryservice.services;
+
+import ma.yassine.ecominventoryservice.entities.Product;
+import ma.yassine.ecominventoryservice.models.StockLine;
+import ma.yassine.ecominventoryservice.repositories.ProductRepository;
+import ma.yassine.ecominventoryservice.search.ProductSearchIndex;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@DataJpaTest(properties = "spring.cloud.config.enabled=false")
+@Import({ProductServiceImp.class, ProductSearchIndex.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class ProductServiceImpConcurrencyTest {
+    private static final int THREADS = 16;
+    private static final int ATTEMPTS_PER_THREAD = 50;
+    private static final int STOCK = 300;
+
+    @Autowired
+    private ProductServiceImp productService;
+    @Autowired
+    private ProductRepository productRepository;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Test
+    void concurrentDecrementsNeverOversell() throws Exception {
+        UUID productId = newProduct(STOCK);
+
+        Result result = hammer(() -> {
+            try {
+                productService.decrementProductQuantity(productId, 1);
+                return true;
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+        });
+
+        assertEquals(STOCK, result.successes());
+        assertEquals(0, productRepository.findQuantityById(productId));
+        System.out.printf("Conditional UPDATE: %d decrements, %d rejected, %.0f ops/s%n",
+                result.successes(), result.failures(), result.throughput());
+    }
+
+    @Test
+    void concurrentReservationsNeverOversell() throws Exception {
+        UUID productId = newProduct(STOCK);
+
+        Result result = hammer(() -> productService.reserveProductQuantities(
+                List.of(new StockLine(productId, 1))
+        ).getStatusCode().is2xxSuccessful());
+
+        assertEquals(STOCK, result.successes());
+        assertEquals(0, productRepository.findQuantityById(productId));
+    }
+
+    @Test
+    void conditionalUpdateThroughputAgainstReadModifyWrite() throws Exception {
+        UUID atomicProductId = newProduct(STOCK);
+        Result atomic = hammer(() -> {
+            try {
+                productService.decrementProductQuantity(atomicProductId, 1);
+                return true;
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+        });
+
+        // The previous implementation: findById, check the quantity in Java, then save.
+        UUID legacyProductId = newProduct(STOCK);
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        Result readModifyWrite = hammer(() -> {
+            try {
+                return Boolean.TRUE.equals(transactionTemplate.execute(status -> {
+                    Product product = productRepository.findById(legacyProductId).orElseThrow();
+                    if (product.getQuantity() < 1) {
+                        return false;
+                    }
+                    product.setQuantity(product.getQuantity() - 1);
+                    productRepository.save(product);
+                    return true;
+                }));
+            } catch (RuntimeException e) {
+                // Optimistic locking failures: the row was modified between the read and the write.
+                return false;
+            }
+        });
+
+        assertEquals(STOCK, atomic.successes());
+        System.out.printf("Conditional UPDATE : %d ok / %d rejected in %d ms (%.0f ops/s)%n",
+                atomic.successes(), atomic.failures(), atomic.elapsedMillis(), atomic.throughput());
+        System.out.printf("Read-modify-write  : %d ok / %d rejected in %d ms (%.0f ops/s), remaining stock %d%n",
+                readModifyWrite.successes(), readModifyWrite.failures(), readModifyWrite.elapsedMillis(),
+                readModifyWrite.throughput(), productRepository.findQuantityById(legacyProductId));
+    }
+
+    private UUID newProduct(int quantity) {
+        Product product = Product.builder().name("Hot SKU").description("Flash sale item").price(10.0).quantity(quantity).build();
+        return productRepository.save(product).getId();
+    }
+
+    private Result hammer(Attempt attempt) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger successes = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < ATTEMPTS_PER_THREAD; i++) {
+                    if (attempt.run()) successes.incrementAndGet(); else failures.incrementAndGet();
+                }
+                return null;
+            }));
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(2, TimeUnit.MINUTES);
+        }
+        long elapsed = System.nanoTime() - begin;
+        executor.shutdown();
+        return new Result(successes.get(), failures.get(), elapsed);
+    }
+
+    private interface Attempt {
+        boolean run();
+    }
+
+    private record Result(int successes, int failures, long elapsedNanos) {
+        long elapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        }
+
+        double throughput() {
+            return (successes + failures) / (elapsedNanos / 1_000_000_000.0);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package ma.yassine.ecominventoryservice.services;
+
+import jakarta.persistence.EntityManager;
+import ma.yassine.ecominventoryservice.entities.Product;
+import ma.yassine.ecominventoryservice.repositories.ProductRepository;
+import ma.yassine.ecominventoryservice.search.ProductSearchIndex;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@DataJpaTest(properties = "spring.cloud.config.enabled=false")
+@Import({ProductServiceImp.class, ProductSearchIndex.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class ProductServiceImpExportTest {
+    private static final int PRODUCTS = 2_000;
+
+    @Autowired
+    private ProductServiceImp productService;
+    @Autowired
+    private ProductRepository productRepository;
+    @Autowired
+    private EntityManager entityManager;
+
+    @Test
+    void visitsEveryProductInIdOrderWithoutGrowingThePersistenceContext() {
+        productRepository.deleteAll();
+        productRepository.saveAll(IntStream.range(0, PRODUCTS)
+                .mapToObj(i -> Product.builder().name("product-" + i).price(1.0 + i).quantity(i).build())
+                .toList());
+
+        List<UUID> visited = new ArrayList<>();
+        int[] maxManaged = {0};
+        productService.forEachProduct(product -> {
+            visited.add(product.getId());
+            int managed = entityManager.unwrap(SessionImplementor.class).getPersistenceContextInternal().getNumberOfManagedEntities();
+            maxManaged[0] = Math.max(maxManaged[0], managed);
+        });
+
+        assertEquals(PRODUCTS, visited.size());
+        assertEquals(visited.stream().sorted().toList(), visited);
+        assertEquals(1, maxManaged[0], "only the product being exported is managed");
+    }
+}
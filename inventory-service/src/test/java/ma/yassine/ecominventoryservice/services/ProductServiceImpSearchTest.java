@@ -0,0 +1,118 @@
+package ma.yassine.ecominventoryservice.services;
+
+import ma.yassine.ecominventoryservice.entities.Product;
+import ma.yassine.ecominventoryservice.repositories.ProductRepository;
+import ma.yassine.ecominventoryservice.search.ProductSearchIndex;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DataJpaTest(properties = "spring.cloud.config.enabled=false")
+@Import({ProductServiceImp.class, ProductSearchIndex.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class ProductServiceImpSearchTest {
+    @Autowired
+    private ProductServiceImp productService;
+    @Autowired
+    private ProductRepository productRepository;
+    @Autowired
+    private ProductSearchIndex productSearchIndex;
+
+    private UUID laptop;
+    private UUID laptopBag;
+    private UUID lapDesk;
+    private UUID phone;
+
+    @BeforeEach
+    void setUp() {
+        productRepository.deleteAll();
+        productSearchIndex.rebuild();
+        laptop = add("Gaming Laptop", "Fast laptop with a large screen", 1500.0, 5);
+        laptopBag = add("Laptop Bag", "Padded bag", 40.0, 100);
+        lapDesk = add("Lap Desk", "Wooden desk for a laptop", 30.0, 0);
+        phone = add("Phone", "Smartphone", 700.0, 12);
+    }
+
+    @Test
+    void matchesWordPrefixesAndRanksExactWordsFirst() {
+        Page<Product> page = search("lap", null, null, null, Pageable.ofSize(10));
+
+        assertEquals(3, page.getTotalElements());
+        assertEquals(lapDesk, page.getContent().get(0).getId(), "'lap' is a whole word only in 'Lap Desk'");
+        assertTrue(ids(page).containsAll(List.of(laptop, laptopBag)));
+    }
+
+    @Test
+    void combinesTextWithColumnFiltersAndPaging() {
+        Page<Product> firstPage = search(null, "laptop", 20.0, null, Pageable.ofSize(1));
+        Page<Product> secondPage = search(null, "laptop", 20.0, null, Pageable.ofSize(1).withPage(1));
+
+        assertEquals(2, firstPage.getTotalElements());
+        assertEquals(2, firstPage.getTotalPages());
+        assertEquals(2, List.of(ids(firstPage).get(0), ids(secondPage).get(0)).stream().distinct().count());
+        assertTrue(List.of(laptop, lapDesk).containsAll(List.of(ids(firstPage).get(0), ids(secondPage).get(0))));
+
+        assertEquals(List.of(laptop), ids(search("laptop", "screen", null, 1, Pageable.ofSize(10))));
+    }
+
+    @Test
+    void picksUpWritesMadeOnOtherNodesWhenRebuilt() {
+        // Saved straight to the database, as another node would, so no event reaches this node's index.
+        UUID tablet = productRepository.save(Product.builder().name("Tablet").description("Light tablet")
+                .price(300.0).quantity(3).build()).getId();
+        productRepository.deleteById(phone);
+        assertEquals(List.of(), ids(search("tablet", null, null, null, Pageable.ofSize(10))));
+
+        productSearchIndex.rebuild();
+
+        assertEquals(List.of(tablet), ids(search("tablet", null, null, null, Pageable.ofSize(10))));
+        assertEquals(List.of(), productSearchIndex.search("phone", null));
+    }
+
+    @Test
+    void followsUpdatesAndDeletes() {
+        productService.updateProduct(phone, Product.builder().name("Phone Holder for Laptop").build());
+        productService.deleteProduct(laptopBag);
+
+        List<UUID> found = ids(search("laptop", null, null, null, Pageable.ofSize(10)));
+
+        assertEquals(2, found.size());
+        assertTrue(found.containsAll(List.of(laptop, phone)));
+        assertEquals(List.of(), ids(search("bag", null, null, null, Pageable.ofSize(10))));
+    }
+
+    @Test
+    void filtersOnIdPrefixesWithAndWithoutDashes() {
+        String id = laptop.toString().toUpperCase();
+
+        assertEquals(List.of(laptop), ids(productService.getProductsByCriteria(id, null, null, null, null, null, null, Pageable.ofSize(10))));
+        assertTrue(ids(productService.getProductsByCriteria(id.substring(0, 10), null, null, null, null, null, null, Pageable.ofSize(10))).contains(laptop));
+        assertTrue(ids(productService.getProductsByCriteria(id.replace("-", "").substring(0, 12), "laptop", null, null, null, null, null, Pageable.ofSize(10))).contains(laptop));
+        assertEquals(0, productService.getProductsByCriteria("not-an-id", null, null, null, null, null, null, Pageable.ofSize(10)).getTotalElements());
+    }
+
+    private UUID add(String name, String description, Double price, Integer quantity) {
+        Product product = Product.builder().name(name).description(description).price(price).quantity(quantity).build();
+        return productService.addProduct(product).getBody().getId();
+    }
+
+    private Page<Product> search(String name, String description, Double minPrice, Integer minQuantity, Pageable pageable) {
+        return productService.getProductsByCriteria(null, name, description, minPrice, null, minQuantity, null, pageable);
+    }
+
+    private static List<UUID> ids(Page<Product> page) {
+        return page.getContent().stream().map(Product::getId).toList();
+    }
+}
@@ -0,0 +1,86 @@
+package ma.yassine.ecominventoryservice.services;
+
+import jakarta.persistence.EntityManagerFactory;
+import ma.yassine.ecominventoryservice.entities.Product;
+import ma.yassine.ecominventoryservice.repositories.ProductRepository;
+import ma.yassine.ecominventoryservice.search.ProductSearchIndex;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.Slice;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DataJpaTest(properties = {
+        "spring.cloud.config.enabled=false",
+        "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+@Import({ProductServiceImp.class, ProductSearchIndex.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class ProductServiceImpSliceTest {
+    @Autowired
+    private ProductServiceImp productService;
+    @Autowired
+    private ProductRepository productRepository;
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @BeforeEach
+    void setUp() {
+        productRepository.deleteAll();
+        productRepository.saveAll(IntStream.range(0, 50)
+                .mapToObj(i -> Product.builder().name("product-" + i).price((double) i).quantity(i % 10).build())
+                .toList());
+    }
+
+    @Test
+    void walksAllMatchingProductsWithOneQueryPerSlice() {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        List<UUID> visited = new ArrayList<>();
+        UUID afterId = null;
+        int slices = 0;
+        statistics.clear();
+        while (true) {
+            Slice<Product> slice = productService.getProductsSliceByCriteria(null, 10.0, null, 5, null, afterId, 7);
+            slices++;
+            slice.forEach(product -> {
+                assertTrue(product.getPrice() >= 10.0 && product.getQuantity() >= 5);
+                visited.add(product.getId());
+            });
+            if (!slice.hasNext()) {
+                break;
+            }
+            afterId = slice.getContent().get(slice.getNumberOfElements() - 1).getId();
+        }
+
+        // Prices 10..49 with a quantity of 5..9 leave 20 products: 7 + 7 + 6.
+        assertEquals(20, visited.size());
+        assertEquals(20, new HashSet<>(visited).size());
+        assertEquals(3, slices);
+        assertEquals(slices, statistics.getPrepareStatementCount(), "no COUNT query is issued");
+    }
+
+    @Test
+    void capsTheSliceSizeAndRejectsInvalidPrefixes() {
+        assertEquals(ProductServiceImp.MAX_SLICE_SIZE, productService.getProductsSliceByCriteria(null, null, null, null, null, null, 1_000).getSize());
+        assertEquals(1, productService.getProductsSliceByCriteria(null, null, null, null, null, null, 0).getNumberOfElements());
+
+        Slice<Product> invalid = productService.getProductsSliceByCriteria("not-an-id", null, null, null, null, null, 10);
+        assertFalse(invalid.hasContent());
+        assertFalse(invalid.hasNext());
+    }
+}
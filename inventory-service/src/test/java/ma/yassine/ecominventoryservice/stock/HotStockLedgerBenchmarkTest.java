@@ -0,0 +1,102 @@
+package ma.yassine.ecominventoryservice.stock;
+
+import ma.yassine.ecominventoryservice.entities.Product;
+import ma.yassine.ecominventoryservice.repositories.ProductRepository;
+import ma.yassine.ecominventoryservice.search.ProductSearchIndex;
+import ma.yassine.ecominventoryservice.services.ProductServiceImp;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Measures decrements per second on a single product from many concurrent clients: the database path of
+ * {@link ProductServiceImp#decrementProductQuantity} against the {@link HotStockLedger}, with and without
+ * an fsync per journal batch. Run with {@code mvn test -Dtest=HotStockLedgerBenchmarkTest -Dbenchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+@DataJpaTest(properties = "spring.cloud.config.enabled=false")
+@Import({ProductServiceImp.class, ProductSearchIndex.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class HotStockLedgerBenchmarkTest {
+    private static final int CLIENTS = Integer.getInteger("benchmark.clients", 64);
+    private static final long SECONDS = Long.getLong("benchmark.seconds", 5);
+
+    @Autowired
+    private ProductServiceImp productService;
+    @Autowired
+    private ProductRepository productRepository;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @TempDir
+    private Path directory;
+
+    @Test
+    void databaseAgainstLedger() throws Exception {
+        UUID productId = productRepository.save(Product.builder().name("flash sale").price(1.0).quantity(Integer.MAX_VALUE).build()).getId();
+
+        run("database, one transaction per decrement", id -> productService.decrementProductQuantity(id, 1), productId);
+        for (boolean fsync : new boolean[]{true, false}) {
+            HotStockLedger ledger = new HotStockLedger(productRepository, transactionManager, eventPublisher, List.of(productId),
+                    directory.resolve("hot-stock-" + fsync + ".journal"), fsync, DataSize.ofMegabytes(64), Duration.ofMillis(200));
+            ledger.afterSingletonsInstantiated();
+            try {
+                run("ledger, fsync=" + fsync, id -> ledger.decrement(id, 1), productId);
+            } finally {
+                ledger.destroy();
+            }
+        }
+    }
+
+    private void run(String label, Consumer<UUID> decrement, UUID productId) throws Exception {
+        // Warm up, then measure.
+        measure(decrement, productId, Math.max(1, SECONDS / 2));
+        long decrements = measure(decrement, productId, SECONDS);
+        System.out.printf("%-40s %,10.0f decrements/s with %d clients%n", label, decrements / (double) SECONDS, CLIENTS);
+    }
+
+    private long measure(Consumer<UUID> decrement, UUID productId, long seconds) throws Exception {
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Future<Long>> counts = new ArrayList<>();
+        try (ExecutorService clients = Executors.newFixedThreadPool(CLIENTS)) {
+            for (int i = 0; i < CLIENTS; i++) {
+                counts.add(clients.submit(() -> {
+                    long count = 0;
+                    while (running.get()) {
+                        decrement.accept(productId);
+                        count++;
+                    }
+                    return count;
+                }));
+            }
+            Thread.sleep(Duration.ofSeconds(seconds));
+            running.set(false);
+        }
+        long total = 0;
+        for (Future<Long> count : counts) {
+            total += count.get();
+        }
+        return total;
+    }
+}
@@ -0,0 +1,155 @@
+package ma.yassine.ecominventoryservice.stock;
+
+import ma.yassine.ecominventoryservice.entities.Product;
+import ma.yassine.ecominventoryservice.repositories.ProductRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+class HotStockLedgerTest {
+    private final UUID hotId = UUID.randomUUID();
+    private final UUID otherHotId = UUID.randomUUID();
+    private final ProductRepository productRepository = mock(ProductRepository.class);
+
+    @TempDir
+    private Path directory;
+
+    @Test
+    void recoversAcknowledgedChangesAfterACrash() throws IOException {
+        stockInDatabase(10, 5);
+        HotStockLedger crashed = start();
+        crashed.decrement(hotId, 3);
+        crashed.decrement(hotId, 2);
+        crashed.increment(otherHotId, 4);
+        // The process dies here: nothing was flushed and the ledger is never closed.
+        verify(productRepository, never()).setQuantity(any(), anyInt());
+
+        HotStockLedger recovered = start();
+
+        verify(productRepository).setQuantity(hotId, 5);
+        verify(productRepository).setQuantity(otherHotId, 9);
+        assertEquals(5, recovered.quantity(hotId));
+        assertEquals(9, recovered.quantity(otherHotId));
+        recovered.destroy();
+    }
+
+    @Test
+    void ignoresATornRecordAtTheEndOfTheJournal() throws IOException {
+        stockInDatabase(10, 5);
+        HotStockLedger crashed = start();
+        crashed.decrement(hotId, 1);
+        Files.write(journal(), new byte[HotStockJournal.RECORD_SIZE - 3], StandardOpenOption.APPEND);
+
+        HotStockLedger recovered = start();
+
+        verify(productRepository).setQuantity(hotId, 9);
+        assertEquals(0, Files.size(journal()) % HotStockJournal.RECORD_SIZE);
+        recovered.destroy();
+    }
+
+    @Test
+    void reservesAllOrNothingAndFlushesTheLatestLevels() throws IOException {
+        stockInDatabase(10, 1);
+        HotStockLedger ledger = start();
+
+        assertNull(ledger.reserve(Map.of(hotId, 3, otherHotId, 2)));
+        assertEquals(10, ledger.quantity(hotId));
+        assertEquals(Map.of(hotId, 7, otherHotId, 0), ledger.reserve(Map.of(hotId, 3, otherHotId, 1)));
+        assertThrows(IllegalArgumentException.class, () -> ledger.decrement(otherHotId, 1));
+
+        ledger.flush();
+        ledger.flush();
+
+        verify(productRepository, times(1)).setQuantity(hotId, 7);
+        verify(productRepository, times(1)).setQuantity(otherHotId, 0);
+        ledger.destroy();
+    }
+
+    @Test
+    void refusesToIncrementBeyondTheLargestQuantity() throws IOException {
+        stockInDatabase(Integer.MAX_VALUE - 1, 0);
+        HotStockLedger ledger = start();
+
+        assertThrows(ArithmeticException.class, () -> ledger.increment(hotId, 2));
+
+        assertEquals(Integer.MAX_VALUE - 1, ledger.quantity(hotId));
+        assertEquals(Integer.MAX_VALUE, ledger.increment(hotId, 1));
+        ledger.destroy();
+    }
+
+    @Test
+    void neverOversellsUnderConcurrentDecrements() throws Exception {
+        stockInDatabase(1_000, 0);
+        HotStockLedger ledger = start();
+        List<Future<Integer>> sold = new ArrayList<>();
+        try (ExecutorService clients = Executors.newFixedThreadPool(16)) {
+            for (int i = 0; i < 1_500; i++) {
+                sold.add(clients.submit(() -> {
+                    try {
+                        ledger.decrement(hotId, 1);
+                        return 1;
+                    } catch (IllegalArgumentException e) {
+                        return 0;
+                    }
+                }));
+            }
+        }
+        int total = 0;
+        for (Future<Integer> result : sold) {
+            total += result.get();
+        }
+
+        assertEquals(1_000, total);
+        assertEquals(0, ledger.quantity(hotId));
+        ledger.destroy();
+    }
+
+    private HotStockLedger start() {
+        HotStockLedger ledger = new HotStockLedger(productRepository, mock(PlatformTransactionManager.class),
+                mock(ApplicationEventPublisher.class), List.of(hotId, otherHotId), journal(), true,
+                DataSize.ofMegabytes(1), Duration.ofHours(1));
+        ledger.afterSingletonsInstantiated();
+        return ledger;
+    }
+
+    /**
+     * Backs the mocked repository with a map of quantities, as the product table.
+     */
+    private void stockInDatabase(int hotQuantity, int otherHotQuantity) {
+        Map<UUID, Integer> table = new ConcurrentHashMap<>(Map.of(hotId, hotQuantity, otherHotId, otherHotQuantity));
+        when(productRepository.findAllById(any())).thenAnswer(invocation -> table.entrySet().stream()
+                .map(row -> Product.builder().id(row.getKey()).name("hot").quantity(row.getValue()).version(0L).build())
+                .toList());
+        when(productRepository.setQuantity(any(), anyInt())).thenAnswer(invocation -> {
+            table.put(invocation.getArgument(0), invocation.getArgument(1));
+            return 1;
+        });
+    }
+
+    private Path journal() {
+        return directory.resolve("hot-stock.journal");
+    }
+}
@@ -0,0 +1,121 @@
+package ma.yassine.ecominventoryservice.stock;
+
+import jakarta.persistence.EntityManager;
+import ma.yassine.ecominventoryservice.entities.Product;
+import ma.yassine.ecominventoryservice.models.StockLine;
+import ma.yassine.ecominventoryservice.repositories.ProductRepository;
+import ma.yassine.ecominventoryservice.search.ProductReadModel;
+import ma.yassine.ecominventoryservice.search.ProductSearchIndex;
+import ma.yassine.ecominventoryservice.services.ProductServiceImp;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@DataJpaTest(properties = "spring.cloud.config.enabled=false")
+@Import(ProductSearchIndex.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class HotStockUpdateTest {
+    @Autowired
+    private ProductRepository productRepository;
+    @Autowired
+    private EntityManager entityManager;
+    @Autowired
+    private ProductSearchIndex productSearchIndex;
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @TempDir
+    private Path directory;
+
+    private HotStockLedger ledger;
+
+    @AfterEach
+    void tearDown() throws IOException {
+        ledger.destroy();
+    }
+
+    @Test
+    void aRolledBackUpdateLeavesTheCountersAlone() {
+        UUID id = productRepository.save(Product.builder().name("hot").price(1.0).quantity(10).build()).getId();
+        ProductServiceImp productService = productServiceWithHotProduct(id);
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+
+        transaction.executeWithoutResult(status -> {
+            productService.updateProduct(id, Product.builder().quantity(50).build());
+            status.setRollbackOnly();
+        });
+        assertEquals(10, ledger.quantity(id));
+
+        ResponseEntity<Product> updated = transaction.execute(status -> productService.updateProduct(id, Product.builder().quantity(50).build()));
+        assertEquals(50, updated.getBody().getQuantity());
+        assertEquals(50, ledger.quantity(id));
+    }
+
+    @Test
+    void flushesDoNotMakeUpdatesConflict() {
+        UUID id = productRepository.save(Product.builder().name("hot").price(1.0).quantity(10).build()).getId();
+        ProductServiceImp productService = productServiceWithHotProduct(id);
+        Long version = productRepository.findById(id).orElseThrow().getVersion();
+
+        ledger.decrement(id, 1);
+        ledger.flush();
+        ResponseEntity<Product> updated = new TransactionTemplate(transactionManager).execute(status ->
+                productService.updateProduct(id, Product.builder().name("renamed").version(version).build()));
+
+        assertEquals(HttpStatus.OK, updated.getStatusCode());
+        assertEquals(9, updated.getBody().getQuantity());
+        ledger.flush();
+        assertEquals(9, productRepository.findQuantityById(id));
+    }
+
+    @Test
+    void aDeletedHotProductCannotBeReserved() {
+        UUID id = productRepository.save(Product.builder().name("hot").price(1.0).quantity(10).build()).getId();
+        ProductServiceImp productService = productServiceWithHotProduct(id);
+
+        productService.deleteProduct(id);
+
+        assertFalse(ledger.isHot(id));
+        assertEquals(HttpStatus.BAD_REQUEST, productService.reserveProductQuantities(List.of(new StockLine(id, 1))).getStatusCode());
+        assertThrows(IllegalArgumentException.class, () -> productService.decrementProductQuantity(id, 1));
+        assertNull(productService.incrementProductQuantity(id, 1));
+        ledger.flush();
+        assertFalse(productRepository.existsById(id));
+    }
+
+    private ProductServiceImp productServiceWithHotProduct(UUID id) {
+        ledger = new HotStockLedger(productRepository, transactionManager, eventPublisher, List.of(id),
+                directory.resolve("hot-stock.journal"), false, DataSize.ofMegabytes(1), Duration.ofHours(1));
+        ledger.afterSingletonsInstantiated();
+        StaticListableBeanFactory beans = new StaticListableBeanFactory(Map.of("hotStockLedger", ledger));
+        return new ProductServiceImp(productRepository, entityManager, productSearchIndex, eventPublisher,
+                beans.getBeanProvider(ProductReadModel.class), beans.getBeanProvider(HotStockLedger.class),
+                beans.getBeanProvider(StockSlots.class), new TransactionTemplate(transactionManager));
+    }
+}
@@ -0,0 +1,149 @@
+package ma.yassine.ecominventoryservice.stock;
+
+import jakarta.persistence.EntityManager;
+import ma.yassine.ecominventoryservice.events.ProductChangedEvent;
+import ma.yassine.ecominventoryservice.models.StockChange;
+import ma.yassine.ecominventoryservice.models.StockChangePage;
+import ma.yassine.ecominventoryservice.repositories.ProductRepository;
+import ma.yassine.ecominventoryservice.repositories.StockChangeFeedHeadRepository;
+import ma.yassine.ecominventoryservice.repositories.StockChangeRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DataJpaTest(properties = "spring.cloud.config.enabled=false")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class StockChangeFeedTest {
+    private final UUID productId = UUID.randomUUID();
+    private final List<StockChangeFeed> nodes = new ArrayList<>();
+
+    @Autowired
+    private StockChangeRepository stockChangeRepository;
+    @Autowired
+    private StockChangeFeedHeadRepository stockChangeFeedHeadRepository;
+    @Autowired
+    private ProductRepository productRepository;
+    @Autowired
+    private EntityManager entityManager;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @AfterEach
+    void tearDown() {
+        nodes.forEach(StockChangeFeed::destroy);
+    }
+
+    @Test
+    void aNewReaderIsResetThenFollowsTheChanges() throws Exception {
+        StockChangeFeed feed = node(16);
+        feed.onProductChanged(ProductChangedEvent.quantityChanged(productId, 10, 1L));
+
+        StockChangePage first = feed.changes(null, 0, Duration.ZERO, 100).get();
+        assertTrue(first.reset());
+        long version = first.version();
+
+        feed.onProductChanged(ProductChangedEvent.quantityChanged(productId, 9, 2L));
+        feed.onProductChanged(ProductChangedEvent.deleted(productId));
+        StockChangePage next = feed.changes(first.epoch(), version, Duration.ZERO, 1).get();
+        assertFalse(next.reset());
+        assertEquals(List.of(new StockChange(version + 1, ProductChangedEvent.Type.QUANTITY_CHANGED, productId, null, 9, 2L)), next.changes());
+        assertEquals(version + 1, next.version());
+        StockChangePage last = feed.changes(next.epoch(), next.version(), Duration.ZERO, 100).get();
+        assertEquals(ProductChangedEvent.Type.DELETED, last.changes().get(0).type());
+        assertEquals(version + 2, last.version());
+    }
+
+    @Test
+    void changesAreAppendedInTheTransactionThatMadeThem() throws Exception {
+        StockChangeFeed feed = node(16);
+        StockChangePage start = feed.changes(null, 0, Duration.ZERO, 100).get();
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+
+        transaction.executeWithoutResult(status -> {
+            feed.onProductChanged(ProductChangedEvent.quantityChanged(productId, 1, 1L));
+            status.setRollbackOnly();
+        });
+        assertTrue(feed.changes(start.epoch(), start.version(), Duration.ZERO, 100).get().changes().isEmpty());
+
+        transaction.executeWithoutResult(status -> feed.onProductChanged(ProductChangedEvent.quantityChanged(productId, 2, 2L)));
+        StockChangePage page = feed.changes(start.epoch(), start.version(), Duration.ZERO, 100).get();
+        assertEquals(List.of(new StockChange(start.version() + 1, ProductChangedEvent.Type.QUANTITY_CHANGED, productId, null, 2, 2L)), page.changes());
+    }
+
+    @Test
+    void aReaderThatFellBehindTheFeedIsReset() throws Exception {
+        StockChangeFeed feed = node(4);
+        StockChangePage start = feed.changes(null, 0, Duration.ZERO, 100).get();
+        for (int i = 1; i <= 6; i++) {
+            feed.onProductChanged(ProductChangedEvent.quantityChanged(productId, i, (long) i));
+        }
+
+        assertTrue(feed.changes(start.epoch(), start.version() + 1, Duration.ZERO, 100).get().reset());
+        StockChangePage kept = feed.changes(start.epoch(), start.version() + 2, Duration.ZERO, 100).get();
+        assertFalse(kept.reset());
+        assertEquals(4, kept.changes().size());
+        assertTrue(feed.changes(UUID.randomUUID(), start.version() + 6, Duration.ZERO, 100).get().reset());
+    }
+
+    @Test
+    void aWaitingReaderGetsTheNextChangeAsSoonAsItIsAppended() throws Exception {
+        StockChangeFeed feed = node(16);
+        feed.afterSingletonsInstantiated();
+        StockChangePage start = feed.changes(null, 0, Duration.ZERO, 100).get();
+
+        CompletableFuture<StockChangePage> waiting = feed.changes(start.epoch(), start.version(), Duration.ofSeconds(10), 100);
+        CompletableFuture<StockChangePage> timingOut = feed.changes(start.epoch(), start.version(), Duration.ofMillis(50), 100);
+        assertTrue(timingOut.get(5, TimeUnit.SECONDS).changes().isEmpty());
+        assertFalse(waiting.isDone());
+
+        feed.onProductChanged(ProductChangedEvent.quantityChanged(productId, 5, 7L));
+        StockChangePage page = waiting.get(5, TimeUnit.SECONDS);
+        assertEquals(start.version() + 1, page.version());
+        assertEquals(5, page.changes().get(0).quantity());
+    }
+
+    @Test
+    void allNodesServeTheSameFeed() throws Exception {
+        StockChangeFeed one = node(16);
+        StockChangeFeed other = node(16);
+        other.afterSingletonsInstantiated();
+        StockChangePage start = one.changes(null, 0, Duration.ZERO, 100).get();
+        CompletableFuture<StockChangePage> waitingOnOther = other.changes(start.epoch(), start.version(), Duration.ofSeconds(10), 100);
+
+        one.onProductChanged(ProductChangedEvent.quantityChanged(productId, 3, 4L));
+        other.onProductChanged(ProductChangedEvent.quantityChanged(productId, 2, 5L));
+
+        // The reader waiting on the other node sees the change appended by the first one.
+        StockChangePage page = waitingOnOther.get(5, TimeUnit.SECONDS);
+        assertFalse(page.reset());
+        assertEquals(start.epoch(), page.epoch());
+        assertEquals(3, page.changes().get(0).quantity());
+        StockChangePage both = one.changes(start.epoch(), start.version(), Duration.ZERO, 100).get();
+        assertEquals(List.of(3, 2), both.changes().stream().map(StockChange::quantity).toList());
+        assertEquals(both.changes(), other.changes(start.epoch(), start.version(), Duration.ZERO, 100).get().changes());
+    }
+
+    private StockChangeFeed node(int capacity) {
+        StockChangeFeed feed = new StockChangeFeed(stockChangeRepository, stockChangeFeedHeadRepository, productRepository, entityManager,
+                transactionManager, capacity, Duration.ofMillis(20));
+        feed.open();
+        nodes.add(feed);
+        return feed;
+    }
+}
@@ -0,0 +1,122 @@
+package ma.yassine.ecominventoryservice.stock;
+
+import ma.yassine.ecomidempotency.IdempotencyAutoConfiguration;
+import ma.yassine.ecomidempotency.IdempotencyStore;
+import ma.yassine.ecominventoryservice.entities.Product;
+import ma.yassine.ecominventoryservice.models.StockCommand;
+import ma.yassine.ecominventoryservice.models.StockCommandResult;
+import ma.yassine.ecominventoryservice.models.StockLine;
+import ma.yassine.ecominventoryservice.repositories.ProductRepository;
+import ma.yassine.ecominventoryservice.search.ProductSearchIndex;
+import ma.yassine.ecominventoryservice.services.IProductService;
+import ma.yassine.ecominventoryservice.services.ProductServiceImp;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.AdditionalAnswers.delegatesTo;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+@DataJpaTest(properties = "spring.cloud.config.enabled=false")
+@Import({ProductServiceImp.class, ProductSearchIndex.class, StockCommands.class})
+@ImportAutoConfiguration(IdempotencyAutoConfiguration.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class StockCommandsTest {
+    @Autowired
+    private ProductServiceImp productService;
+    @Autowired
+    private ProductRepository productRepository;
+    @Autowired
+    private StockCommands stockCommands;
+    @Autowired
+    private IdempotencyStore idempotencyStore;
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Test
+    void appliesEachCommandOfABatchOnce() {
+        UUID productId = product(10);
+        String reserved = key();
+        String refused = key();
+        List<StockCommand> batch = List.of(
+                new StockCommand(reserved, StockCommand.Type.RESERVE, null, List.of(new StockLine(productId, 3))),
+                new StockCommand(refused, StockCommand.Type.RESERVE, null, List.of(new StockLine(productId, 20))));
+
+        assertEquals(List.of(StockCommandResult.Outcome.APPLIED, StockCommandResult.Outcome.REJECTED), outcomes(batch));
+        assertEquals(List.of(StockCommandResult.Outcome.APPLIED, StockCommandResult.Outcome.REJECTED), outcomes(batch));
+        assertEquals(7, productRepository.findQuantityById(productId));
+
+        List<StockCommand> release = List.of(new StockCommand(key(), StockCommand.Type.RELEASE, reserved, List.of(new StockLine(productId, 3))));
+        assertEquals(List.of(StockCommandResult.Outcome.APPLIED), outcomes(release));
+        assertEquals(List.of(StockCommandResult.Outcome.APPLIED), outcomes(release));
+        assertEquals(10, productRepository.findQuantityById(productId));
+    }
+
+    @Test
+    void releasingAReservationThatWasNotAppliedKeepsItFromBeingApplied() {
+        UUID productId = product(10);
+        String reservation = key();
+        List<StockLine> lines = List.of(new StockLine(productId, 4));
+
+        assertEquals(List.of(StockCommandResult.Outcome.APPLIED),
+                outcomes(List.of(new StockCommand(key(), StockCommand.Type.RELEASE, reservation, lines))));
+        assertEquals(10, productRepository.findQuantityById(productId));
+
+        assertEquals(List.of(StockCommandResult.Outcome.REJECTED),
+                outcomes(List.of(new StockCommand(reservation, StockCommand.Type.RESERVE, null, lines))));
+        assertEquals(10, productRepository.findQuantityById(productId));
+    }
+
+    @Test
+    void takesTheStockOfTheReservationsOfABatchTogether() {
+        UUID productId = product(10);
+        IProductService products = mock(IProductService.class, delegatesTo(productService));
+        StockCommands coalescing = new StockCommands(idempotencyStore, products, transactionTemplate);
+        List<StockCommand> batch = List.of(reservation(productId, 3), reservation(productId, 3), reservation(productId, 3));
+
+        assertEquals(List.of(StockCommandResult.Outcome.APPLIED, StockCommandResult.Outcome.APPLIED, StockCommandResult.Outcome.APPLIED),
+                coalescing.apply(batch, "order-service").stream().map(StockCommandResult::outcome).toList());
+        verify(products, times(1)).reserveProductQuantities(anyList());
+        assertEquals(1, productRepository.findQuantityById(productId));
+    }
+
+    @Test
+    void takesTheReservationsOneByOneWhenTheyCannotAllBeServed() {
+        UUID productId = product(10);
+        IProductService products = mock(IProductService.class, delegatesTo(productService));
+        StockCommands coalescing = new StockCommands(idempotencyStore, products, transactionTemplate);
+        List<StockCommand> batch = List.of(reservation(productId, 4), reservation(productId, 4), reservation(productId, 4));
+
+        assertEquals(List.of(StockCommandResult.Outcome.APPLIED, StockCommandResult.Outcome.APPLIED, StockCommandResult.Outcome.REJECTED),
+                coalescing.apply(batch, "order-service").stream().map(StockCommandResult::outcome).toList());
+        // Together first, then each one.
+        verify(products, times(4)).reserveProductQuantities(anyList());
+        assertEquals(2, productRepository.findQuantityById(productId));
+    }
+
+    private static StockCommand reservation(UUID productId, int quantity) {
+        return new StockCommand(key(), StockCommand.Type.RESERVE, null, List.of(new StockLine(productId, quantity)));
+    }
+
+    private List<StockCommandResult.Outcome> outcomes(List<StockCommand> commands) {
+        return stockCommands.apply(commands, "order-service").stream().map(StockCommandResult::outcome).toList();
+    }
+
+    private static String key() {
+        return UUID.randomUUID().toString();
+    }
+
+    private UUID product(int quantity) {
+        return productService.addProduct(Product.builder().name("commanded").price(1.0).quantity(quantity).build()).getBody().getId();
+    }
+}
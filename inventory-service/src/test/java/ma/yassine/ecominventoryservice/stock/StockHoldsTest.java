@@ -0,0 +1,103 @@
+package ma.yassine.ecominventoryservice.stock;
+
+import ma.yassine.ecominventoryservice.entities.Product;
+import ma.yassine.ecominventoryservice.entities.StockHold;
+import ma.yassine.ecominventoryservice.models.StockLine;
+import ma.yassine.ecominventoryservice.repositories.ProductRepository;
+import ma.yassine.ecominventoryservice.repositories.StockHoldRepository;
+import ma.yassine.ecominventoryservice.search.ProductSearchIndex;
+import ma.yassine.ecominventoryservice.services.ProductServiceImp;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+
+@DataJpaTest(properties = {"spring.cloud.config.enabled=false", "inventory.stock-holds.tick=10ms"})
+@Import({ProductServiceImp.class, ProductSearchIndex.class, StockHolds.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class StockHoldsTest {
+    @Autowired
+    private ProductServiceImp productService;
+    @Autowired
+    private ProductRepository productRepository;
+    @Autowired
+    private StockHolds stockHolds;
+    @MockitoSpyBean
+    private StockHoldRepository stockHoldRepository;
+
+    @Test
+    void confirmedHoldsKeepTheirStockAndReleasedHoldsGiveItBack() {
+        UUID productId = product(10);
+        UUID confirmed = stockHolds.hold(List.of(new StockLine(productId, 3)), null).getBody().getId();
+        UUID released = stockHolds.hold(List.of(new StockLine(productId, 4)), null).getBody().getId();
+        assertEquals(3, productRepository.findQuantityById(productId));
+        assertEquals(HttpStatus.BAD_REQUEST, stockHolds.hold(List.of(new StockLine(productId, 4)), null).getStatusCode());
+
+        assertEquals(StockHold.Status.CONFIRMED, stockHolds.confirm(confirmed).getBody().getStatus());
+        assertEquals(StockHold.Status.RELEASED, stockHolds.release(released).getBody().getStatus());
+        assertEquals(StockHold.Status.RELEASED, stockHolds.release(released).getBody().getStatus());
+        assertEquals(HttpStatus.CONFLICT, stockHolds.release(confirmed).getStatusCode());
+        assertEquals(HttpStatus.CONFLICT, stockHolds.confirm(released).getStatusCode());
+        assertEquals(HttpStatus.NOT_FOUND, stockHolds.confirm(UUID.randomUUID()).getStatusCode());
+        assertEquals(7, productRepository.findQuantityById(productId));
+        assertEquals(0, stockHolds.openHolds());
+    }
+
+    @Test
+    void expiredHoldsGiveTheirStockBackAndCannotBeConfirmed() throws InterruptedException {
+        UUID productId = product(10);
+        UUID otherProductId = product(5);
+        UUID holdId = stockHolds.hold(List.of(new StockLine(productId, 6), new StockLine(otherProductId, 5)), Duration.ofMillis(50))
+                .getBody().getId();
+        assertEquals(4, productRepository.findQuantityById(productId));
+
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (stockHolds.getHold(holdId).getBody().getStatus() == StockHold.Status.HELD && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(StockHold.Status.EXPIRED, stockHolds.getHold(holdId).getBody().getStatus());
+        assertEquals(10, productRepository.findQuantityById(productId));
+        assertEquals(5, productRepository.findQuantityById(otherProductId));
+        assertEquals(HttpStatus.CONFLICT, stockHolds.confirm(holdId).getStatusCode());
+        assertEquals(HttpStatus.OK, stockHolds.release(holdId).getStatusCode());
+    }
+
+    @Test
+    void takesNoStockWhenTheHoldCannotBeSaved() {
+        UUID productId = product(10);
+        doThrow(new DataAccessResourceFailureException("down")).when(stockHoldRepository).save(any());
+
+        assertThrows(DataAccessResourceFailureException.class, () -> stockHolds.hold(List.of(new StockLine(productId, 4)), null));
+
+        assertEquals(10, productRepository.findQuantityById(productId));
+        assertEquals(0, stockHolds.openHolds());
+    }
+
+    @Test
+    void rejectsTimesToLiveBeyondTheMaximum() {
+        UUID productId = product(10);
+
+        assertEquals(HttpStatus.BAD_REQUEST, stockHolds.hold(List.of(new StockLine(productId, 1)), Duration.ofDays(1)).getStatusCode());
+        assertEquals(HttpStatus.BAD_REQUEST, stockHolds.hold(List.of(new StockLine(productId, 1)), Duration.ZERO).getStatusCode());
+        assertEquals(10, productRepository.findQuantityById(productId));
+    }
+
+    private UUID product(int quantity) {
+        return productService.addProduct(Product.builder().name("held").price(1.0).quantity(quantity).build()).getBody().getId();
+    }
+}
@@ -0,0 +1,115 @@
+package ma.yassine.ecominventoryservice.stock;
+
+import ma.yassine.ecominventoryservice.entities.Product;
+import ma.yassine.ecominventoryservice.events.ProductChangedEvent;
+import ma.yassine.ecominventoryservice.repositories.ProductRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+
+class StockMovementJournalTest {
+    private final UUID productId = UUID.randomUUID();
+    private final UUID otherProductId = UUID.randomUUID();
+
+    @TempDir
+    private Path directory;
+
+    @Test
+    void replaysMovementsAfterACrash() throws IOException {
+        StockMovementJournal crashed = open(DataSize.ofMegabytes(1));
+        crashed.onProductChanged(created(productId, 10, 0L));
+        crashed.onProductChanged(ProductChangedEvent.quantityChanged(productId, 7, 1L));
+        crashed.onProductChanged(ProductChangedEvent.quantityChanged(productId, 12, 2L));
+        crashed.onProductChanged(created(otherProductId, 3, 0L));
+        // The process dies here, in the middle of writing the next record, and the journal is never closed.
+        tearNextRecord();
+
+        StockMovementJournal recovered = open(DataSize.ofMegabytes(1));
+
+        assertEquals(List.of(10, -3, 5), recovered.movements(productId).stream().map(StockMovement::delta).toList());
+        // Appends go over the torn record, and start from the recovered levels.
+        recovered.onProductChanged(ProductChangedEvent.quantityChanged(otherProductId, 1, 1L));
+        recovered.destroy();
+        assertEquals(List.of(3, -2), open(DataSize.ofMegabytes(1)).movements(otherProductId).stream().map(StockMovement::delta).toList());
+    }
+
+    @Test
+    void compactsFullSegmentsIntoSnapshots() throws IOException {
+        // Room for 4 records per segment, and 2 old segments kept.
+        StockMovementJournal journal = open(DataSize.ofBytes(4 * StockMovementJournal.RECORD_SIZE));
+        journal.onProductChanged(created(productId, 100, 0L));
+        for (int version = 1; version <= 20; version++) {
+            journal.onProductChanged(ProductChangedEvent.quantityChanged(productId, 100 - version, (long) version));
+        }
+        journal.onProductChanged(created(otherProductId, 5, 0L));
+        journal.onProductChanged(ProductChangedEvent.deleted(otherProductId));
+        journal.destroy();
+
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(1 + 3, files.count(), "one snapshot, the current segment and two old ones");
+        }
+        StockMovementJournal reopened = open(DataSize.ofBytes(4 * StockMovementJournal.RECORD_SIZE));
+        // The levels come back from the snapshot: the next change is recorded against 80, and the deleted
+        // product ignores late changes.
+        reopened.onProductChanged(ProductChangedEvent.quantityChanged(productId, 81, 21L));
+        reopened.onProductChanged(ProductChangedEvent.quantityChanged(otherProductId, 4, 9L));
+        assertEquals(1, reopened.movements(productId).getLast().delta());
+        assertEquals(List.of(StockMovement.Type.CREATED, StockMovement.Type.DELETED),
+                reopened.movements(otherProductId).stream().map(StockMovement::type).toList());
+    }
+
+    @Test
+    void skipsStaleChangesAndUpdatesThatLeaveTheStockAlone() throws IOException {
+        StockMovementJournal journal = open(DataSize.ofMegabytes(1));
+        journal.onProductChanged(created(productId, 10, 0L));
+        journal.onProductChanged(ProductChangedEvent.quantityChanged(productId, 8, 2L));
+        journal.onProductChanged(ProductChangedEvent.quantityChanged(productId, 9, 1L));
+        journal.onProductChanged(new ProductChangedEvent(ProductChangedEvent.Type.UPDATED, productId, "renamed", null, 1.0, 8, 3L));
+
+        List<StockMovement> movements = journal.movements(productId);
+        assertEquals(List.of(10, -2), movements.stream().map(StockMovement::delta).toList());
+        assertEquals(8, movements.getLast().quantity());
+        journal.destroy();
+    }
+
+    private StockMovementJournal open(DataSize segmentSize) {
+        StockMovementJournal journal = new StockMovementJournal(mock(ProductRepository.class), mock(PlatformTransactionManager.class),
+                directory, segmentSize, 2, false, Duration.ZERO);
+        journal.afterSingletonsInstantiated();
+        return journal;
+    }
+
+    private static ProductChangedEvent created(UUID productId, int quantity, long version) {
+        return ProductChangedEvent.created(Product.builder().id(productId).name("product").price(1.0).quantity(quantity).version(version).build());
+    }
+
+    /**
+     * Writes the first half of a record after the last complete one of the newest segment.
+     */
+    private void tearNextRecord() throws IOException {
+        Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.filter(file -> file.toString().endsWith(".journal")).sorted().toList().getLast();
+        }
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            ByteBuffer half = ByteBuffer.allocate(StockMovementJournal.RECORD_SIZE / 2);
+            half.putLong(productId.getMostSignificantBits()).putLong(productId.getLeastSignificantBits()).putLong(3L).flip();
+            channel.write(half, 4L * StockMovementJournal.RECORD_SIZE);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package ma.yassine.ecominventoryservice.stock;
+
+import ma.yassine.ecominventoryservice.entities.Product;
+import ma.yassine.ecominventoryservice.search.ProductSearchIndex;
+import ma.yassine.ecominventoryservice.services.ProductServiceImp;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures decrements per second on a single product from many concurrent clients, with its stock in its
+ * own row and spread over an increasing number of {@link StockSlots}. Run with
+ * {@code mvn test -Dtest=StockSlotsBenchmarkTest -Dbenchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+@DataJpaTest(properties = {"spring.cloud.config.enabled=false", "inventory.stock-slots.enabled=true"})
+@Import({ProductServiceImp.class, ProductSearchIndex.class, StockSlots.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class StockSlotsBenchmarkTest {
+    private static final int CLIENTS = Integer.getInteger("benchmark.clients", 32);
+    private static final long SECONDS = Long.getLong("benchmark.seconds", 5);
+
+    @Autowired
+    private ProductServiceImp productService;
+    @Autowired
+    private StockSlots stockSlots;
+
+    @Test
+    void throughputBySlotCount() throws Exception {
+        run("product row", newProduct());
+        for (int slots : new int[]{1, 2, 4, 8, 16, 32}) {
+            UUID productId = newProduct();
+            stockSlots.shard(productId, slots);
+            run(slots + " slot(s)", productId);
+        }
+    }
+
+    private UUID newProduct() {
+        return productService.addProduct(Product.builder().name("flash sale").price(1.0).quantity(Integer.MAX_VALUE).build()).getBody().getId();
+    }
+
+    private void run(String label, UUID productId) throws Exception {
+        // Warm up, then measure.
+        measure(productId, Math.max(1, SECONDS / 2));
+        long decrements = measure(productId, SECONDS);
+        System.out.printf("%-12s %,8.0f decrements/s with %d clients%n", label, decrements / (double) SECONDS, CLIENTS);
+    }
+
+    private long measure(UUID productId, long seconds) throws Exception {
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Future<Long>> counts = new ArrayList<>();
+        try (ExecutorService clients = Executors.newFixedThreadPool(CLIENTS)) {
+            for (int i = 0; i < CLIENTS; i++) {
+                counts.add(clients.submit(() -> {
+                    long count = 0;
+                    while (running.get()) {
+                        productService.decrementProductQuantity(productId, 1);
+                        count++;
+                    }
+                    return count;
+                }));
+            }
+            Thread.sleep(Duration.ofSeconds(seconds));
+            running.set(false);
+        }
+        long total = 0;
+        for (Future<Long> count : counts) {
+            total += count.get();
+        }
+        return total;
+    }
+}
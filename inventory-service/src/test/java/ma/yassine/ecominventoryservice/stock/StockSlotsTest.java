@@ -0,0 +1,168 @@
+package ma.yassine.ecominventoryservice.stock;
+
+import ma.yassine.ecominventoryservice.entities.Product;
+import ma.yassine.ecominventoryservice.events.ProductChangedEvent;
+import ma.yassine.ecominventoryservice.models.StockLine;
+import ma.yassine.ecominventoryservice.repositories.ProductRepository;
+import ma.yassine.ecominventoryservice.search.ProductSearchIndex;
+import ma.yassine.ecominventoryservice.services.ProductServiceImp;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.test.context.event.ApplicationEvents;
+import org.springframework.test.context.event.RecordApplicationEvents;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DataJpaTest(properties = {"spring.cloud.config.enabled=false", "inventory.stock-slots.enabled=true"})
+@Import({ProductServiceImp.class, ProductSearchIndex.class, StockSlots.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@RecordApplicationEvents
+class StockSlotsTest {
+    @Autowired
+    private ProductServiceImp productService;
+    @Autowired
+    private ProductRepository productRepository;
+    @Autowired
+    private StockSlots stockSlots;
+    @Autowired
+    private ApplicationEvents events;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Test
+    void readsAndSearchesTheSumOfTheSlots() {
+        UUID productId = shardedProduct(10, 4);
+
+        assertEquals(0, productRepository.findQuantityById(productId));
+        assertEquals(10, productService.getProductById(productId).getBody().getQuantity());
+        assertEquals(List.of(10), quantitiesOfSearch(productId, 10, 10));
+        assertEquals(List.of(), quantitiesOfSearch(productId, 11, null));
+        assertEquals(List.of(), quantitiesOfSearch(productId, null, 9));
+    }
+
+    @Test
+    void sortsSearchesByTheSumOfTheSlots() {
+        String name = "sorted-" + UUID.randomUUID();
+        UUID sharded = shardedProduct(name, 10, 4);
+        UUID small = productService.addProduct(Product.builder().name(name).price(1.0).quantity(5).build()).getBody().getId();
+        UUID large = productService.addProduct(Product.builder().name(name).price(1.0).quantity(20).build()).getBody().getId();
+
+        Page<Product> page = productService.getProductsByCriteria(null, null, null, null, null, 1, null,
+                PageRequest.of(0, 100, Sort.by("quantity")));
+
+        List<UUID> ids = page.map(Product::getId).filter(List.of(sharded, small, large)::contains).toList();
+        assertEquals(List.of(small, sharded, large), ids);
+        assertEquals(Sort.by("quantity"), page.getSort());
+    }
+
+    @Test
+    void aRolledBackDeleteLeavesTheProductSharded() {
+        UUID productId = shardedProduct(10, 4);
+
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            stockSlots.delete(productId);
+            status.setRollbackOnly();
+        });
+
+        assertTrue(stockSlots.isSharded(productId));
+        assertEquals(10, productService.getProductById(productId).getBody().getQuantity());
+        assertEquals(3, productService.decrementProductQuantity(productId, 7));
+    }
+
+    @Test
+    void borrowsFromOtherSlotsWhenOneRunsDry() {
+        // Slots of 3, 3, 2 and 2.
+        UUID productId = shardedProduct(10, 4);
+        UUID otherProductId = productService.addProduct(Product.builder().name("other").price(1.0).quantity(5).build()).getBody().getId();
+
+        assertEquals(3, productService.decrementProductQuantity(productId, 7));
+        assertThrows(IllegalArgumentException.class, () -> productService.decrementProductQuantity(productId, 4));
+        assertTrue(productService.reserveProductQuantities(List.of(new StockLine(otherProductId, 1), new StockLine(productId, 4)))
+                .getStatusCode().is4xxClientError());
+        assertEquals(5, productRepository.findQuantityById(otherProductId));
+        assertEquals(Map.of(otherProductId, 4, productId, 0),
+                productService.reserveProductQuantities(List.of(new StockLine(otherProductId, 1), new StockLine(productId, 3))).getBody());
+        assertEquals(6, productService.incrementProductQuantity(productId, 6));
+
+        // Every change is published once committed, with a version that tells it is newer.
+        List<ProductChangedEvent> changes = events.stream(ProductChangedEvent.class)
+                .filter(event -> event.productId().equals(productId) && event.type() == ProductChangedEvent.Type.QUANTITY_CHANGED).toList();
+        assertEquals(List.of(3, 0, 6), changes.stream().map(ProductChangedEvent::quantity).toList());
+        for (int i = 1; i < changes.size(); i++) {
+            assertTrue(changes.get(i).version() > changes.get(i - 1).version());
+        }
+    }
+
+    @Test
+    void neverOversellsUnderConcurrentDecrements() throws Exception {
+        UUID productId = shardedProduct(100, 8);
+        List<Future<Integer>> sold = new ArrayList<>();
+        try (ExecutorService clients = Executors.newFixedThreadPool(16)) {
+            for (int i = 0; i < 300; i++) {
+                sold.add(clients.submit(() -> {
+                    try {
+                        productService.decrementProductQuantity(productId, 1);
+                        return 1;
+                    } catch (IllegalArgumentException e) {
+                        return 0;
+                    }
+                }));
+            }
+        }
+        int total = 0;
+        for (Future<Integer> result : sold) {
+            total += result.get();
+        }
+
+        assertEquals(100, total);
+        assertEquals(0, productService.getProductById(productId).getBody().getQuantity());
+    }
+
+    @Test
+    void unshardingMovesTheStockBackWithoutGoingBackInVersion() {
+        UUID productId = shardedProduct(10, 4);
+        productService.decrementProductQuantity(productId, 4);
+        long version = productRepository.findStockById(productId).getVersion();
+
+        stockSlots.unshard(productId);
+
+        assertEquals(6, productRepository.findQuantityById(productId));
+        assertTrue(productRepository.findStockById(productId).getVersion() > version);
+        assertEquals(2, productService.decrementProductQuantity(productId, 4));
+    }
+
+    private UUID shardedProduct(int quantity, int slots) {
+        return shardedProduct("popular", quantity, slots);
+    }
+
+    private UUID shardedProduct(String name, int quantity, int slots) {
+        UUID productId = productService.addProduct(Product.builder().name(name).price(1.0).quantity(quantity).build()).getBody().getId();
+        assertTrue(stockSlots.shard(productId, slots));
+        return productId;
+    }
+
+    private List<Integer> quantitiesOfSearch(UUID productId, Integer minQuantity, Integer maxQuantity) {
+        return productService.getProductsByCriteria(productId.toString(), null, null, null, null, minQuantity, maxQuantity, Pageable.ofSize(10))
+                .map(Product::getQuantity).getContent();
+    }
+}
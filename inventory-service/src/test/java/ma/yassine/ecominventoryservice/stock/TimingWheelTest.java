@@ -0,0 +1,64 @@
+package ma.yassine.ecominventoryservice.stock;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimingWheelTest {
+    private static final long MS = 1_000_000;
+
+    @Test
+    void expiresItemsOnTheTickAfterTheirDelayAndNeverBefore() {
+        TimingWheel<String> wheel = new TimingWheel<>(Duration.ofMillis(10), 8, 0);
+        wheel.schedule("a", Duration.ofMillis(25), 0);
+        wheel.schedule("b", Duration.ofMillis(30), 0);
+        wheel.schedule("now", Duration.ZERO, 0);
+
+        assertEquals(List.of("now"), wheel.advance(0));
+        assertEquals(List.of(), wheel.advance(29 * MS));
+        assertEquals(List.of("b", "a"), wheel.advance(30 * MS));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void keepsItemsDueInALaterTurnOfTheWheel() {
+        // One turn of 4 buckets lasts 40 ms; both items hash to the same bucket.
+        TimingWheel<String> wheel = new TimingWheel<>(Duration.ofMillis(10), 4, 0);
+        wheel.schedule("soon", Duration.ofMillis(20), 0);
+        wheel.schedule("later", Duration.ofMillis(100), 0);
+
+        assertEquals(List.of("soon"), wheel.advance(20 * MS));
+        assertEquals(List.of(), wheel.advance(60 * MS));
+        assertEquals(List.of("later"), wheel.advance(100 * MS));
+    }
+
+    @Test
+    void catchesUpOnEveryMissedTickAfterAPause() {
+        TimingWheel<Integer> wheel = new TimingWheel<>(Duration.ofMillis(10), 16, 0);
+        for (int i = 0; i < 1000; i++) {
+            wheel.schedule(i, Duration.ofMillis(i), 0);
+        }
+
+        assertEquals(501, wheel.advance(500 * MS).size());
+        assertEquals(499, wheel.advance(10_000 * MS).size());
+        // An item scheduled behind the processed ticks expires on the next one.
+        wheel.schedule(-1, Duration.ZERO, 5_000 * MS);
+        assertEquals(List.of(-1), wheel.advance(10_010 * MS));
+    }
+
+    @Test
+    void cancelledItemsDoNotExpire() {
+        TimingWheel<String> wheel = new TimingWheel<>(Duration.ofMillis(10), 8, 0);
+        TimingWheel.Timeout<String> cancelled = wheel.schedule("cancelled", Duration.ofMillis(10), 0);
+        wheel.schedule("kept", Duration.ofMillis(10), 0);
+
+        assertTrue(wheel.cancel(cancelled));
+        assertFalse(wheel.cancel(cancelled));
+        assertEquals(List.of("kept"), wheel.advance(10 * MS));
+    }
+}
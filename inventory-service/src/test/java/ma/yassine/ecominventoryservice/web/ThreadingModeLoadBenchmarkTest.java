@@ -0,0 +1,146 @@
+package ma.yassine.ecominventoryservice.web;
+
+import ma.yassine.ecominventoryservice.InventoryServiceApplication;
+import ma.yassine.ecominventoryservice.entities.Product;
+import ma.yassine.ecominventoryservice.repositories.ProductRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares inventory-service on Tomcat's default platform-thread pool with the same service on virtual
+ * threads ({@code spring.threads.virtual.enabled=true}). Each run starts the whole application on an
+ * in-memory database and sends a mix of product searches, which read the database, and single-line
+ * reservations, which write it. Both modes share the default JDBC connection pool, which bounds how many
+ * of these requests can make progress at once. Run with
+ * {@code mvn test -Dtest=ThreadingModeLoadBenchmarkTest -Dbenchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class ThreadingModeLoadBenchmarkTest {
+    private static final int CONCURRENT_CLIENTS = Integer.getInteger("benchmark.clients", 1000);
+    private static final int REQUESTS_PER_CLIENT = Integer.getInteger("benchmark.requests-per-client", 10);
+    private static final int PRODUCTS = Integer.getInteger("benchmark.products", 1000);
+
+    @Test
+    void platformThreadsAgainstVirtualThreads() throws Exception {
+        Stats platform = run(false);
+        Stats virtual = run(true);
+        System.out.println(platform.describe("platform (maxThreads=200)"));
+        System.out.println(virtual.describe("virtual"));
+    }
+
+    private Stats run(boolean virtualThreads) throws Exception {
+        String mode = virtualThreads ? "virtual" : "platform";
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(InventoryServiceApplication.class, AnyToken.class)
+                .properties("server.port=0",
+                        "spring.threads.virtual.enabled=" + virtualThreads,
+                        "spring.cloud.config.enabled=false",
+                        "eureka.client.enabled=false",
+                        "spring.datasource.url=jdbc:h2:mem:threading-" + mode + ";DB_CLOSE_DELAY=-1",
+                        "logging.level.root=warn")
+                .run();
+             ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor();
+             HttpClient httpClient = HttpClient.newBuilder().executor(clients).connectTimeout(Duration.ofSeconds(30)).build()) {
+            List<UUID> productIds = context.getBean(ProductRepository.class).saveAll(IntStream.range(0, PRODUCTS)
+                            .mapToObj(i -> Product.builder().name("product-" + i).price(1.0 + i).quantity(1_000_000).build())
+                            .toList())
+                    .stream().map(Product::getId).toList();
+            String baseUrl = "http://localhost:" + ((WebServerApplicationContext) context).getWebServer().getPort() + "/api/products";
+            for (int i = 0; i < 20; i++) {
+                timedRequest(httpClient, request(baseUrl, productIds, i));
+            }
+
+            long[] latencies = new long[CONCURRENT_CLIENTS * REQUESTS_PER_CLIENT];
+            List<CompletableFuture<Void>> requests = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int i = 0; i < CONCURRENT_CLIENTS; i++) {
+                int client = i;
+                // Each client sends its requests one after another over a kept-alive connection.
+                requests.add(CompletableFuture.runAsync(() -> {
+                    for (int r = 0; r < REQUESTS_PER_CLIENT; r++) {
+                        int n = client * REQUESTS_PER_CLIENT + r;
+                        latencies[n] = timedRequest(httpClient, request(baseUrl, productIds, n));
+                    }
+                }, clients));
+            }
+            CompletableFuture.allOf(requests.toArray(CompletableFuture[]::new)).join();
+            return new Stats(latencies, System.nanoTime() - start);
+        }
+    }
+
+    private HttpRequest request(String baseUrl, List<UUID> productIds, int n) {
+        HttpRequest.Builder builder;
+        if (n % 2 == 0) {
+            builder = HttpRequest.newBuilder(URI.create(baseUrl + "/search?minPrice=" + (n % PRODUCTS) + "&size=20"));
+        } else {
+            String lines = "[{\"productId\":\"" + productIds.get(n % productIds.size()) + "\",\"quantity\":1}]";
+            builder = HttpRequest.newBuilder(URI.create(baseUrl + "/reserve"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(lines));
+        }
+        return builder.header("Authorization", "Bearer benchmark").timeout(Duration.ofMinutes(2)).build();
+    }
+
+    private long timedRequest(HttpClient httpClient, HttpRequest request) {
+        long start = System.nanoTime();
+        try {
+            HttpResponse<Void> response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+            assertEquals(200, response.statusCode());
+        } catch (IOException | InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Accepts any bearer token, so the benchmark needs no identity provider.
+     */
+    static class AnyToken {
+        @Bean
+        JwtDecoder jwtDecoder() {
+            return token -> Jwt.withTokenValue(token)
+                    .header("alg", "none")
+                    .subject("benchmark")
+                    .issuedAt(Instant.now())
+                    .expiresAt(Instant.now().plusSeconds(3600))
+                    .build();
+        }
+    }
+
+    private record Stats(long[] latencies, long elapsedNanos) {
+        String describe(String mode) {
+            long[] sorted = latencies.clone();
+            Arrays.sort(sorted);
+            return String.format("%-26s requests=%d p50=%d ms p99=%d ms throughput=%.0f req/s",
+                    mode, sorted.length, millis(sorted, 0.50), millis(sorted, 0.99),
+                    sorted.length / (elapsedNanos / 1_000_000_000.0));
+        }
+
+        private static long millis(long[] sorted, double percentile) {
+            return sorted[Math.min(sorted.length - 1, (int) Math.ceil(percentile * sorted.length) - 1)] / 1_000_000;
+        }
+    }
+}
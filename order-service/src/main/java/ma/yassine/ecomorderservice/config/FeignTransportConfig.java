@@ -0,0 +1,117 @@
+package ma.yassine.ecomorderservice.config;
+
+import feign.Client;
+import feign.Request;
+import feign.Response;
+import feign.http2client.Http2Client;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.httpcomponents.hc5.PoolingHttpClientConnectionManagerMetricsBinder;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.io.HttpClientConnectionManager;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cloud.client.loadbalancer.LoadBalancerClient;
+import org.springframework.cloud.loadbalancer.support.LoadBalancerClientFactory;
+import org.springframework.cloud.openfeign.loadbalancer.FeignBlockingLoadBalancerClient;
+import org.springframework.cloud.openfeign.loadbalancer.LoadBalancerFeignRequestTransformer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpClient;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Transport used by the Feign clients. By default Spring Cloud OpenFeign picks up the pooled Apache
+ * HttpClient 5 transport from the classpath; setting {@code spring.cloud.openfeign.http2client.enabled=true}
+ * and {@code spring.cloud.openfeign.httpclient.hc5.enabled=false} switches to the JDK {@link HttpClient},
+ * which negotiates HTTP/2 and multiplexes calls over one connection per host.
+ */
+@Configuration
+public class FeignTransportConfig {
+
+    /**
+     * Publishes the connection pool of the Apache HttpClient 5 transport as the
+     * {@code httpcomponents.httpclient.pool.*} meters (leased, pending and available connections
+     * and the pool limits), visible under {@code /actuator/metrics}.
+     * Nothing is bound when the JDK transport is used, as it does not expose its pool.
+     *
+     * @param connectionManager the connection manager created by Spring Cloud OpenFeign, if any
+     * @return a {@link MeterBinder} for the Feign connection pool
+     */
+    @Bean
+    public MeterBinder feignConnectionPoolMetrics(ObjectProvider<HttpClientConnectionManager> connectionManager) {
+        return registry -> connectionManager.ifAvailable(manager -> {
+            if (manager instanceof PoolingHttpClientConnectionManager pool) {
+                new PoolingHttpClientConnectionManagerMetricsBinder(pool, "feign").bindTo(registry);
+            }
+        });
+    }
+
+    /**
+     * Provides the Feign client for the JDK HTTP/2 transport. Apache HttpClient 5 decompresses gzip
+     * responses on its own, the JDK client does not, so this client does it before Feign decodes the body.
+     * It replaces the one Spring Cloud OpenFeign would create, so it keeps the same load-balancer wrapper.
+     *
+     * @param httpClient the JDK {@link HttpClient} created by Spring Cloud OpenFeign
+     * @return a load-balanced {@link Client} that sends requests through the JDK client
+     */
+    @Bean
+    @ConditionalOnProperty("spring.cloud.openfeign.http2client.enabled")
+    public Client http2FeignClient(HttpClient httpClient,
+                                   LoadBalancerClient loadBalancerClient,
+                                   LoadBalancerClientFactory loadBalancerClientFactory,
+                                   List<LoadBalancerFeignRequestTransformer> transformers) {
+        return new FeignBlockingLoadBalancerClient(new DecompressingClient(new Http2Client(httpClient)),
+                loadBalancerClient, loadBalancerClientFactory, transformers);
+    }
+
+    /**
+     * Decompresses {@code gzip} and {@code deflate} response bodies of the wrapped client.
+     */
+    static class DecompressingClient implements Client {
+        private final Client delegate;
+
+        DecompressingClient(Client delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Response execute(Request request, Request.Options options) throws IOException {
+            Response response = delegate.execute(request, options);
+            String encoding = firstHeader(response, "Content-Encoding");
+            if (response.body() == null || encoding == null) {
+                return response;
+            }
+
+            InputStream body;
+            if (encoding.equalsIgnoreCase("gzip")) {
+                body = new GZIPInputStream(response.body().asInputStream());
+            } else if (encoding.equalsIgnoreCase("deflate")) {
+                body = new InflaterInputStream(response.body().asInputStream());
+            } else {
+                return response;
+            }
+            Map<String, Collection<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            headers.putAll(response.headers());
+            headers.remove("Content-Encoding");
+            headers.remove("Content-Length");
+            return response.toBuilder().headers(headers).body(body, null).build();
+        }
+
+        private static String firstHeader(Response response, String name) {
+            for (Map.Entry<String, Collection<String>> header : response.headers().entrySet()) {
+                if (header.getKey().equalsIgnoreCase(name) && !header.getValue().isEmpty()) {
+                    return header.getValue().iterator().next().trim();
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package ma.yassine.ecomorderservice.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnThreading;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+@Configuration
+public class InventoryExecutorConfig {
+
+    /**
+     * Provides the executor on which the {@code InventoryNearCache} loads and refreshes its entries in the
+     * background, when virtual threads are enabled. Each load runs on its own virtual thread, so waiting on
+     * Feign never ties up the JVM-wide common ForkJoinPool. Orders do not use it: the stock of an order is
+     * reserved with a single call to the batch endpoint of inventory, made by the thread taking the order.
+     *
+     * @return an {@link ExecutorService} dedicated to near-cache loads
+     */
+    @Bean(name = "inventoryRefreshExecutor", destroyMethod = "shutdown")
+    @ConditionalOnThreading(Threading.VIRTUAL)
+    public ExecutorService virtualInventoryRefreshExecutor() {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("inventory-refresh-", 0).factory());
+    }
+
+    /**
+     * Provides a bounded pool of platform threads for near-cache loads when virtual threads are disabled.
+     *
+     * @param poolSize the maximum number of near-cache loads running at the same time
+     * @return an {@link ExecutorService} dedicated to near-cache loads
+     */
+    @Bean(name = "inventoryRefreshExecutor", destroyMethod = "shutdown")
+    @ConditionalOnThreading(Threading.PLATFORM)
+    public ExecutorService platformInventoryRefreshExecutor(@Value("${order.inventory.cache.refresh-pool-size:8}") int poolSize) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), Thread.ofPlatform().name("inventory-refresh-", 0).daemon().factory());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
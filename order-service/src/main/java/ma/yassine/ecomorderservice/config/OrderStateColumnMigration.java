@@ -0,0 +1,35 @@
+package ma.yassine.ecomorderservice.config;
+
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Turns the order state column of databases created before it was mapped as text from an H2 ENUM into a
+ * VARCHAR. Schema updates never change the type of an existing column, and the ENUM only accepts the
+ * states that existed when the table was created, so orders in a newer state could not be saved.
+ */
+@Component
+public class OrderStateColumnMigration implements InitializingBean {
+    private final JdbcTemplate jdbcTemplate;
+
+    public OrderStateColumnMigration(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        try {
+            List<String> types = jdbcTemplate.queryForList("SELECT DATA_TYPE FROM INFORMATION_SCHEMA.COLUMNS " +
+                    "WHERE TABLE_NAME = 'orders-table' AND COLUMN_NAME = 'ORDER_STATE'", String.class);
+            if (types.contains("ENUM")) {
+                jdbcTemplate.execute("ALTER TABLE \"orders-table\" ALTER COLUMN ORDER_STATE VARCHAR(16)");
+                System.out.println("Migrated the order state column from ENUM to VARCHAR.");
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Error: Could not check the type of the order state column: " + e.getMessage());
+        }
+    }
+}
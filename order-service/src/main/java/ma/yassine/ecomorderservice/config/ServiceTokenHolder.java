@@ -0,0 +1,100 @@
+package ma.yassine.ecomorderservice.config;
+
+import jakarta.annotation.PreDestroy;
+import org.keycloak.admin.client.Keycloak;
+import org.keycloak.representations.AccessTokenResponse;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Holds the service access token used for calls to other services.
+ * <p>
+ * The token is fetched once and then refreshed in the background at 75% of its lifetime, so callers
+ * only read a volatile field. A caller blocks on the token endpoint only when there is no usable token,
+ * e.g. on the first request or after refreshes kept failing; concurrent callers then share that fetch.
+ */
+@Component
+public class ServiceTokenHolder {
+    private static final long RETRY_DELAY_MILLIS = 1_000;
+
+    private final Keycloak keycloak;
+    private final ReentrantLock fetchLock = new ReentrantLock();
+    private final ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("service-token-refresher").daemon().factory());
+    private volatile CachedToken current;
+    private ScheduledFuture<?> scheduledRefresh;
+
+    public ServiceTokenHolder(Keycloak keycloak) {
+        this.keycloak = keycloak;
+    }
+
+    /**
+     * Returns a usable access token, fetching one only if none is cached or the cached one is about to expire.
+     *
+     * @return the access token string, without the "Bearer " prefix
+     */
+    public String getAccessToken() {
+        CachedToken token = current;
+        if (token != null && token.isUsable()) {
+            return token.value();
+        }
+        fetchLock.lock();
+        try {
+            token = current;
+            if (token != null && token.isUsable()) {
+                return token.value();
+            }
+            return fetch().value();
+        } finally {
+            fetchLock.unlock();
+        }
+    }
+
+    private void refresh() {
+        fetchLock.lock();
+        try {
+            fetch();
+        } catch (RuntimeException e) {
+            System.err.println("Error: Could not refresh the service token: " + e.getMessage());
+            schedule(RETRY_DELAY_MILLIS);
+        } finally {
+            fetchLock.unlock();
+        }
+    }
+
+    /**
+     * Fetches a new token and schedules its background refresh. Must be called while holding {@code fetchLock}.
+     */
+    private CachedToken fetch() {
+        long fetchedAt = System.nanoTime();
+        AccessTokenResponse response = keycloak.tokenManager().grantToken();
+        long lifetimeNanos = TimeUnit.SECONDS.toNanos(Math.max(1, response.getExpiresIn()));
+        CachedToken token = new CachedToken(response.getToken(), fetchedAt + lifetimeNanos * 95 / 100);
+        current = token;
+        schedule(TimeUnit.NANOSECONDS.toMillis(lifetimeNanos * 75 / 100));
+        return token;
+    }
+
+    private void schedule(long delayMillis) {
+        if (scheduledRefresh != null) {
+            scheduledRefresh.cancel(false);
+        }
+        scheduledRefresh = refresher.schedule(this::refresh, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        refresher.shutdownNow();
+    }
+
+    private record CachedToken(String value, long usableUntilNanos) {
+        boolean isUsable() {
+            return System.nanoTime() - usableUntilNanos < 0;
+        }
+    }
+}
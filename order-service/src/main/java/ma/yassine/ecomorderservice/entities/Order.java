@@ -3,6 +3,9 @@ package ma.yassine.ecomorderservice.entities;
 import jakarta.persistence.*;
 import lombok.*;
 import ma.yassine.ecomorderservice.enums.OrderState;
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
 
 import java.time.LocalDate;
 import java.util.List;
@@ -15,15 +18,24 @@ import java.util.List;
 @Builder
 @Table(name = "orders-table")
 public class Order {
+    // Sequence-based IDs, allocated 50 at a time, let Hibernate batch inserts; IDENTITY would disable batching.
+    // The sequence starts above the IDs of the orders created before it existed.
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "orders_seq")
+    @SequenceGenerator(name = "orders_seq", sequenceName = "orders_seq", initialValue = 100, allocationSize = 50)
     private Long id;
     private LocalDate orderDate;
 
+    // Stored as text rather than as a database enum, so that adding a state does not need a schema change.
+    // See OrderStateColumnMigration for databases created with the enum.
     @Enumerated(EnumType.STRING)
+    @JdbcTypeCode(SqlTypes.VARCHAR)
+    @Column(length = 16)
     private OrderState orderState;
 
+    // Items of orders loaded together are fetched in batches instead of one select per order.
     @OneToMany(mappedBy = "order", cascade = CascadeType.ALL, fetch = FetchType.EAGER)
+    @BatchSize(size = 100)
     private List<ProductItem> productItem;
 
     @PrePersist
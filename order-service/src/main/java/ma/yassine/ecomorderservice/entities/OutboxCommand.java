@@ -0,0 +1,98 @@
+package ma.yassine.ecomorderservice.entities;
+
+import jakarta.persistence.*;
+import lombok.*;
+import ma.yassine.ecomorderservice.models.StockLine;
+import org.hibernate.annotations.ColumnDefault;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A stock reservation for an order, written in the same transaction as the order and sent to inventory by
+ * the {@code OutboxRelay}, so that an order is never saved without its reservation being attempted, nor
+ * stock reserved for an order that was not saved. A release gives back the stock of a reservation that
+ * must not stand, e.g. because its order was deleted or the relay gave up on it.
+ */
+@Entity
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter @Setter @Builder
+@Table(name = "order-outbox", indexes = {
+        @Index(name = "idx_order_outbox_due", columnList = "status, next_attempt_at"),
+        @Index(name = "idx_order_outbox_claim", columnList = "claim_token")
+})
+public class OutboxCommand {
+    public enum Type {
+        RESERVE,
+        RELEASE
+    }
+
+    public enum Status {
+        // Waiting to be sent, or to be sent again after a failure.
+        PENDING,
+        // Inventory applied the command.
+        DISPATCHED,
+        // Inventory refused the command.
+        REJECTED,
+        // Gave up after too many failed attempts. The order of a reservation is rejected, and the reservation
+        // released in case it was applied; a release is left for someone to look into.
+        DEAD
+    }
+
+    // See Order#id.
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "order_outbox_seq")
+    @SequenceGenerator(name = "order_outbox_seq", sequenceName = "order_outbox_seq", allocationSize = 50)
+    private Long id;
+
+    @Column(nullable = false)
+    private Long orderId;
+
+    @Enumerated(EnumType.STRING)
+    @JdbcTypeCode(SqlTypes.VARCHAR)
+    @ColumnDefault("'RESERVE'")
+    @Column(nullable = false, length = 16)
+    private Type type;
+
+    // Sent with every attempt, so that inventory can recognise a command it already applied.
+    @Column(nullable = false, unique = true, length = 36)
+    private String idempotencyKey;
+
+    // For a release, the idempotency key of the reservation it gives back.
+    @Column(length = 36)
+    private String reservationKey;
+
+    @JdbcTypeCode(SqlTypes.JSON)
+    @Column(nullable = false)
+    private List<StockLine> lines;
+
+    @Enumerated(EnumType.STRING)
+    @JdbcTypeCode(SqlTypes.VARCHAR)
+    @Column(nullable = false, length = 16)
+    private Status status;
+
+    private int attempts;
+
+    @Column(nullable = false)
+    private Instant createdAt;
+
+    @Column(name = "next_attempt_at", nullable = false)
+    private Instant nextAttemptAt;
+
+    private Instant dispatchedAt;
+
+    // Set by the relay that claimed the command, until its lease ends at nextAttemptAt.
+    @Column(name = "claim_token")
+    private UUID claimToken;
+
+    private String lastError;
+
+    // Bumped by every claim, so that a relay whose lease ran out cannot overwrite the settlement of the
+    // relay that claimed the command after it.
+    @Version
+    private long version;
+}
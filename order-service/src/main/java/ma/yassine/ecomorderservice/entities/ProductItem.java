@@ -12,7 +12,9 @@ import java.util.UUID;
 @Getter @Setter @Builder
 @Table(name = "product-items-table")
 public class ProductItem {
-    @Id @GeneratedValue(strategy = GenerationType.IDENTITY)
+    // See Order#id.
+    @Id @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "product_items_seq")
+    @SequenceGenerator(name = "product_items_seq", sequenceName = "product_items_seq", initialValue = 100, allocationSize = 50)
     private Long id;
     private UUID productId;
     private int quantity;
@@ -4,5 +4,9 @@ public enum OrderState {
     NEW,
     PROCESSING,
     DELIVERED,
-    CANCELLED
+    CANCELLED,
+    // Accepted for asynchronous intake, waiting for its stock to be reserved.
+    PENDING,
+    // Taken in asynchronously, but its stock could not be reserved.
+    REJECTED
 }
@@ -0,0 +1,32 @@
+package ma.yassine.ecomorderservice.enums;
+
+import java.util.Set;
+
+/**
+ * The order state changes that can be requested, with the states each one is allowed from.
+ */
+public enum OrderTransition {
+    CONFIRM(OrderState.PROCESSING, Set.of(OrderState.NEW)),
+    CANCEL(OrderState.CANCELLED, Set.of(OrderState.NEW, OrderState.PROCESSING)),
+    DELIVER(OrderState.DELIVERED, Set.of(OrderState.PROCESSING));
+
+    private final OrderState target;
+    private final Set<OrderState> allowedFrom;
+
+    OrderTransition(OrderState target, Set<OrderState> allowedFrom) {
+        this.target = target;
+        this.allowedFrom = allowedFrom;
+    }
+
+    public OrderState getTarget() {
+        return target;
+    }
+
+    public Set<OrderState> getAllowedFrom() {
+        return allowedFrom;
+    }
+
+    public boolean isAllowedFrom(OrderState state) {
+        return allowedFrom.contains(state);
+    }
+}
@@ -0,0 +1,7 @@
+package ma.yassine.ecomorderservice.enums;
+
+public enum ReservationStatus {
+    RESERVED,
+    REJECTED,
+    UNAVAILABLE
+}
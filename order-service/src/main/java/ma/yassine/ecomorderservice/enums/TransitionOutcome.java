@@ -0,0 +1,7 @@
+package ma.yassine.ecomorderservice.enums;
+
+public enum TransitionOutcome {
+    TRANSITIONED,
+    NOT_FOUND,
+    INVALID_STATE
+}
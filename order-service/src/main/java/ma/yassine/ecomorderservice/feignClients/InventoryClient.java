@@ -1,14 +1,24 @@
 package ma.yassine.ecomorderservice.feignClients;
 
+import feign.FeignException;
 import io.github.resilience4j.circuitbreaker.annotation.CircuitBreaker;
 import ma.yassine.ecomorderservice.models.Product;
+import ma.yassine.ecomorderservice.models.StockChangePage;
+import ma.yassine.ecomorderservice.models.StockCommand;
+import ma.yassine.ecomorderservice.models.StockCommandResult;
+import ma.yassine.ecomorderservice.models.StockLine;
 import org.springframework.cloud.openfeign.FeignClient;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 
+import java.time.Duration;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 @FeignClient(name = "inventory-service")
@@ -18,6 +28,13 @@ public interface InventoryClient {
     @CircuitBreaker(name = "inventory-service", fallbackMethod = "fallbackGetProductById")
     ResponseEntity<Product> getProductById(@PathVariable UUID id);
 
+    /**
+     * Reads several products with a single request, at most 1000. Unknown IDs are left out of the response.
+     */
+    @PostMapping("/api/products/batch")
+    @CircuitBreaker(name = "inventory-service-5", fallbackMethod = "fallbackGetProductsByIds")
+    ResponseEntity<List<Product>> getProductsByIds(@RequestBody List<UUID> ids);
+
     @GetMapping("/api/products/all")
     @CircuitBreaker(name = "inventory-service-0", fallbackMethod = "fallbackGetAllProducts")
     ResponseEntity<List<Product>> getAllProducts();
@@ -28,7 +45,53 @@ public interface InventoryClient {
 
     @PostMapping("/api/products/{id}/increment-quantity")
     @CircuitBreaker(name = "inventory-service-2", fallbackMethod = "fallbackIncrementProductQuantity")
-    ResponseEntity<?> incrementProductQuantity(@PathVariable UUID id, int quantity);
+    ResponseEntity<?> incrementProductQuantity(@PathVariable UUID id, @RequestParam int quantity);
+
+    @PostMapping("/api/products/reserve")
+    @CircuitBreaker(name = "inventory-service-3", fallbackMethod = "fallbackReserveProductQuantities")
+    ResponseEntity<Map<UUID, Integer>> reserveProductQuantities(@RequestBody List<StockLine> lines);
+
+    /**
+     * Applies a batch of reservations and releases with a single request, at most 1000. Inventory applies
+     * each command on its own, at most once per idempotency key, so a batch that failed can be sent again.
+     */
+    @PostMapping("/api/products/stock-commands")
+    @CircuitBreaker(name = "inventory-service-3", fallbackMethod = "fallbackApplyStockCommands")
+    ResponseEntity<List<StockCommandResult>> applyStockCommands(@RequestBody List<StockCommand> commands);
+
+    /**
+     * Long-polls the stock change feed: waits up to {@code wait} for changes after {@code since}. The wait must
+     * stay below the read timeout of the inventory client.
+     */
+    @GetMapping("/api/products/changes")
+    @CircuitBreaker(name = "inventory-service-4", fallbackMethod = "fallbackGetStockChanges")
+    ResponseEntity<StockChangePage> getStockChanges(@RequestParam(required = false) UUID epoch, @RequestParam long since,
+                                                    @RequestParam Duration wait, @RequestParam int limit);
+
+    default ResponseEntity<List<Product>> fallbackGetProductsByIds(List<UUID> ids, Exception e) {
+        System.out.println("GetProductsByIds: Inventory service not available.");
+        System.err.println("Error: " + e.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+    }
+
+    default ResponseEntity<StockChangePage> fallbackGetStockChanges(UUID epoch, long since, Duration wait, int limit, Exception e) {
+        System.out.println("GetStockChanges: Inventory service not available.");
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+    }
+
+    default ResponseEntity<List<StockCommandResult>> fallbackApplyStockCommands(List<StockCommand> commands, Exception e) {
+        System.out.println("ApplyStockCommands: Inventory service not available.");
+        System.err.println("Error: " + e.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+    }
+
+    default ResponseEntity<Map<UUID, Integer>> fallbackReserveProductQuantities(List<StockLine> lines, Exception e) {
+        System.out.println("ReserveProductQuantities: Inventory service not available.");
+        System.err.println("Error: " + e.getMessage());
+        // Keep the upstream status (e.g. 400 for insufficient stock) so callers can tell a rejection from an outage.
+        int status = e instanceof FeignException fe && fe.status() > 0 ? fe.status() : HttpStatus.SERVICE_UNAVAILABLE.value();
+        return ResponseEntity.status(status).build();
+    }
 
     default ResponseEntity<?> fallbackIncrementProductQuantity(UUID id, int quantity, Exception e) {
         System.out.println("IncrementProductQuantity: Inventory service not available.");
@@ -0,0 +1,140 @@
+package ma.yassine.ecomorderservice.feignClients;
+
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Policy;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import ma.yassine.ecomorderservice.models.Product;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Local read-through cache in front of the {@link InventoryClient} lookups.
+ * <p>
+ * Entries are fresh for {@code ttl}. Entries that are read after {@code refresh-ahead} are reloaded in the
+ * background, so hot entries rarely reach the TTL. Concurrent misses and refreshes for the same key share
+ * one upstream call. A read after the TTL reloads synchronously, unless the inventory circuit breaker is
+ * open, in which case the stale entry is served (for up to {@code stale-ttl}) instead of the 404 fallback.
+ */
+@Component
+public class InventoryNearCache {
+    private static final String CATALOG_KEY = "all";
+    private static final String PRODUCT_CIRCUIT_BREAKER = "inventory-service";
+    private static final String CATALOG_CIRCUIT_BREAKER = "inventory-service-0";
+
+    private final InventoryClient inventoryClient;
+    private final CircuitBreakerRegistry circuitBreakerRegistry;
+    private final Duration ttl;
+    private final AsyncLoadingCache<UUID, Product> products;
+    private final AsyncLoadingCache<String, List<Product>> catalog;
+
+    public InventoryNearCache(InventoryClient inventoryClient,
+                              CircuitBreakerRegistry circuitBreakerRegistry,
+                              MeterRegistry meterRegistry,
+                              @Qualifier("inventoryRefreshExecutor") ExecutorService inventoryRefreshExecutor,
+                              @Value("${order.inventory.cache.ttl:30s}") Duration ttl,
+                              @Value("${order.inventory.cache.refresh-ahead:20s}") Duration refreshAhead,
+                              @Value("${order.inventory.cache.stale-ttl:10m}") Duration staleTtl,
+                              @Value("${order.inventory.cache.max-size:10000}") long maxSize) {
+        this.inventoryClient = inventoryClient;
+        this.circuitBreakerRegistry = circuitBreakerRegistry;
+        this.ttl = ttl;
+        this.products = CaffeineCacheMetrics.monitor(meterRegistry, Caffeine.newBuilder()
+                .executor(inventoryRefreshExecutor)
+                .maximumSize(maxSize)
+                .refreshAfterWrite(refreshAhead)
+                .expireAfterWrite(staleTtl)
+                .recordStats()
+                .buildAsync(this::loadProduct), "inventory-products");
+        this.catalog = CaffeineCacheMetrics.monitor(meterRegistry, Caffeine.newBuilder()
+                .executor(inventoryRefreshExecutor)
+                .maximumSize(1)
+                .refreshAfterWrite(refreshAhead)
+                .expireAfterWrite(staleTtl)
+                .recordStats()
+                .buildAsync((String key) -> loadCatalog()), "inventory-catalog");
+    }
+
+    /**
+     * Retrieves a product through the cache.
+     *
+     * @param id the unique identifier of the product
+     * @return a {@link ResponseEntity} containing the product, or a not found response if it is neither
+     *         cached nor available from inventory
+     */
+    public ResponseEntity<Product> getProductById(UUID id) {
+        Product product = get(products, id, PRODUCT_CIRCUIT_BREAKER);
+        return product != null ? ResponseEntity.ok(product) : ResponseEntity.notFound().build();
+    }
+
+    /**
+     * Retrieves the whole catalog through the cache. Concurrent callers share a single upstream request.
+     *
+     * @return a {@link ResponseEntity} containing all products, or a not found response if the catalog is
+     *         neither cached nor available from inventory
+     */
+    public ResponseEntity<List<Product>> getAllProducts() {
+        List<Product> products = get(catalog, CATALOG_KEY, CATALOG_CIRCUIT_BREAKER);
+        return products != null ? ResponseEntity.ok(products) : ResponseEntity.notFound().build();
+    }
+
+    private <K, V> V get(AsyncLoadingCache<K, V> cache, K key, String circuitBreakerName) {
+        reloadIfExpired(cache, key, circuitBreakerName);
+        try {
+            return cache.get(key).join();
+        } catch (CompletionException | CancellationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reloads an entry older than the TTL before it is served. A failed reload keeps the old value, and
+     * no reload is attempted while the circuit breaker is open, so stale data is preferred to no data.
+     */
+    private <K, V> void reloadIfExpired(AsyncLoadingCache<K, V> cache, K key, String circuitBreakerName) {
+        Optional<Duration> age = cache.synchronous().policy().expireAfterWrite()
+                .flatMap((Policy.FixedExpiration<K, V> expiration) -> expiration.ageOf(key));
+        if (age.isEmpty() || age.get().compareTo(ttl) <= 0 || isOpen(circuitBreakerName)) {
+            return;
+        }
+        try {
+            cache.synchronous().refresh(key).join();
+        } catch (CompletionException | CancellationException e) {
+            // Keep serving the stale entry.
+        }
+    }
+
+    private boolean isOpen(String circuitBreakerName) {
+        CircuitBreaker.State state = circuitBreakerRegistry.circuitBreaker(circuitBreakerName).getState();
+        return state == CircuitBreaker.State.OPEN || state == CircuitBreaker.State.FORCED_OPEN;
+    }
+
+    private Product loadProduct(UUID id) {
+        ResponseEntity<Product> response = inventoryClient.getProductById(id);
+        if (!response.getStatusCode().is2xxSuccessful() || response.getBody() == null) {
+            throw new IllegalStateException("Inventory service did not return product " + id + ".");
+        }
+        return response.getBody();
+    }
+
+    private List<Product> loadCatalog() {
+        ResponseEntity<List<Product>> response = inventoryClient.getAllProducts();
+        if (!response.getStatusCode().is2xxSuccessful() || response.getBody() == null) {
+            throw new IllegalStateException("Inventory service did not return the catalog.");
+        }
+        return List.copyOf(response.getBody());
+    }
+}
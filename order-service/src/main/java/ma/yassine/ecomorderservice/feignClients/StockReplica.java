@@ -0,0 +1,225 @@
+package ma.yassine.ecomorderservice.feignClients;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import ma.yassine.ecomorderservice.models.Product;
+import ma.yassine.ecomorderservice.models.StockChange;
+import ma.yassine.ecomorderservice.models.StockChangePage;
+import ma.yassine.ecomorderservice.models.StockLine;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A local copy of the price and stock of every product, kept up to date from the stock change feed of
+ * inventory, enabled with {@code order.stock-replica.enabled=true}.
+ * <p>
+ * The replica loads the whole catalog once, then long-polls {@code /api/products/changes} for the changes
+ * after the last version it applied, waiting up to {@code order.stock-replica.wait} each time, so it
+ * usually trails inventory by the time it takes a change to cross the network. When the feed tells it to
+ * reset, because it fell too far behind or the feed was created again with a new epoch, it loads the
+ * catalog again.
+ * <p>
+ * Orders for more than the replicated stock of a product cannot be filled, and are rejected by
+ * {@link #canFill} without calling inventory. The replica is only an early filter: reservations are still
+ * made by inventory, which has the last word, and the replica accepts every order while it has not heard
+ * from the feed for {@code order.stock-replica.max-staleness}, or does not know a product yet.
+ */
+@Component
+@ConditionalOnProperty(name = "order.stock-replica.enabled", havingValue = "true")
+public class StockReplica implements SmartInitializingSingleton, DisposableBean {
+
+    /**
+     * The replicated price and stock of a product.
+     *
+     * @param price the price of the product, or null if it is not known yet or the product was deleted
+     * @param quantity the quantity in stock, 0 if the product was deleted
+     * @param version the version of the product the stock was read at, or null if it was loaded with the catalog
+     */
+    public record Stock(Double price, int quantity, Long version) {
+    }
+
+    // Deleted products are kept with no stock, and a version that no late change of theirs can exceed.
+    private static final Stock DELETED = new Stock(null, 0, Long.MAX_VALUE);
+
+    private final InventoryClient inventoryClient;
+    private final Duration wait;
+    private final int batchSize;
+    private final Duration retryInterval;
+    private final Duration maxStaleness;
+    private final ExecutorService syncer = Executors.newSingleThreadExecutor(
+            Thread.ofPlatform().name("stock-replica-sync").daemon().factory());
+    private final Counter rejections;
+
+    private volatile Map<UUID, Stock> products = new ConcurrentHashMap<>();
+    // Only touched by the sync thread.
+    private UUID epoch;
+    private long version;
+    // System.nanoTime() of the last successful sync, or 0 before the catalog is loaded.
+    private volatile long syncedAt;
+
+    public StockReplica(InventoryClient inventoryClient,
+                        MeterRegistry meterRegistry,
+                        @Value("${order.stock-replica.wait:2s}") Duration wait,
+                        @Value("${order.stock-replica.batch-size:1000}") int batchSize,
+                        @Value("${order.stock-replica.retry-interval:1s}") Duration retryInterval,
+                        @Value("${order.stock-replica.max-staleness:10s}") Duration maxStaleness) {
+        this.inventoryClient = inventoryClient;
+        this.wait = wait;
+        this.batchSize = Math.max(1, batchSize);
+        this.retryInterval = retryInterval;
+        this.maxStaleness = maxStaleness;
+
+        this.rejections = Counter.builder("order.stock-replica.rejections")
+                .description("Orders rejected from the stock replica without calling inventory")
+                .register(meterRegistry);
+        Gauge.builder("order.stock-replica.products", this, replica -> replica.products.size())
+                .description("Products held by the stock replica")
+                .register(meterRegistry);
+        Gauge.builder("order.stock-replica.staleness", this, replica -> replica.staleness().toMillis() / 1000.0)
+                .description("Seconds since the stock replica last heard from the change feed")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        syncer.execute(this::follow);
+    }
+
+    /**
+     * Tells whether the replicated stock could fill the given lines. Quantities of the same product are summed.
+     *
+     * @return false if the replica is up to date and holds less stock than asked for one of the products,
+     *         true otherwise
+     */
+    public boolean canFill(List<StockLine> lines) {
+        if (!isFresh()) {
+            return true;
+        }
+        Map<UUID, Integer> quantities = new HashMap<>();
+        for (StockLine line : lines) {
+            if (line.getProductId() != null && line.getQuantity() != null) {
+                quantities.merge(line.getProductId(), line.getQuantity(), Integer::sum);
+            }
+        }
+        Map<UUID, Stock> current = products;
+        for (Map.Entry<UUID, Integer> line : quantities.entrySet()) {
+            Stock stock = current.get(line.getKey());
+            if (stock != null && stock.quantity() < line.getValue()) {
+                rejections.increment();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the replicated price and stock of a product, or null if the replica does not know it
+     */
+    public Stock get(UUID productId) {
+        return products.get(productId);
+    }
+
+    /**
+     * @return true if the catalog is loaded and the feed answered within {@code max-staleness}
+     */
+    public boolean isFresh() {
+        return syncedAt != 0 && staleness().compareTo(maxStaleness) < 0;
+    }
+
+    @Override
+    public void destroy() {
+        syncer.shutdownNow();
+    }
+
+    private Duration staleness() {
+        long at = syncedAt;
+        return at == 0 ? Duration.ZERO : Duration.ofNanos(System.nanoTime() - at);
+    }
+
+    private void follow() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                sync();
+            } catch (RuntimeException e) {
+                System.err.println("Error: Could not sync the stock replica: " + e.getMessage());
+                try {
+                    Thread.sleep(retryInterval);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies the next changes of the feed, waiting for them if there are none yet, or loads the whole
+     * catalog again if the feed asks for it.
+     */
+    void sync() {
+        ResponseEntity<StockChangePage> response = inventoryClient.getStockChanges(epoch, version, wait, batchSize);
+        StockChangePage page = response.getBody();
+        if (!response.getStatusCode().is2xxSuccessful() || page == null) {
+            throw new IllegalStateException("The stock change feed answered " + response.getStatusCode());
+        }
+        if (page.reset() || !page.epoch().equals(epoch)) {
+            load();
+        } else {
+            page.changes().forEach(this::apply);
+        }
+        epoch = page.epoch();
+        version = page.version();
+        syncedAt = System.nanoTime();
+    }
+
+    /**
+     * Loads the whole catalog. Changes committed while it loads are applied again afterwards, which is
+     * harmless since each change carries the full stock of its product.
+     */
+    private void load() {
+        ResponseEntity<List<Product>> response = inventoryClient.getAllProducts();
+        // Inventory answers an empty catalog with a 400 Bad Request status.
+        List<Product> catalog = response.getStatusCode() == HttpStatus.BAD_REQUEST ? List.of()
+                : response.getStatusCode().is2xxSuccessful() ? response.getBody() : null;
+        if (catalog == null) {
+            throw new IllegalStateException("Could not load the catalog: " + response.getStatusCode());
+        }
+        Map<UUID, Stock> loaded = new ConcurrentHashMap<>();
+        for (Product product : catalog) {
+            loaded.put(product.getId(), new Stock(product.getPrice(), product.getQuantity() != null ? product.getQuantity() : 0, null));
+        }
+        products = loaded;
+        System.out.printf("Loaded %d product(s) into the stock replica.%n", loaded.size());
+    }
+
+    private void apply(StockChange change) {
+        if (change.type() == StockChange.Type.DELETED) {
+            products.put(change.productId(), DELETED);
+            return;
+        }
+        products.compute(change.productId(), (id, held) -> {
+            // Changes of a product may come out of order; keep the latest one.
+            if (held != null && held.version() != null && change.productVersion() != null && change.productVersion() < held.version()) {
+                return held;
+            }
+            Double price = change.price() != null ? change.price() : held != null ? held.price() : null;
+            int quantity = change.quantity() != null ? change.quantity() : held != null ? held.quantity() : 0;
+            return new Stock(price, quantity, change.productVersion());
+        });
+    }
+}
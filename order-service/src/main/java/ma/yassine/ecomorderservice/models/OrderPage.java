@@ -0,0 +1,13 @@
+package ma.yassine.ecomorderservice.models;
+
+import lombok.*;
+import ma.yassine.ecomorderservice.entities.Order;
+
+import java.util.List;
+
+@AllArgsConstructor @NoArgsConstructor @Getter @Setter
+public class OrderPage {
+    private List<Order> orders;
+    // ID to pass as "beforeId" to get the next page, or null when this is the last page.
+    private Long nextCursor;
+}
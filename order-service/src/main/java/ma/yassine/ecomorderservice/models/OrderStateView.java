@@ -0,0 +1,12 @@
+package ma.yassine.ecomorderservice.models;
+
+import ma.yassine.ecomorderservice.enums.OrderState;
+
+/**
+ * Projection of an order on its ID and state, used where loading the order and its items is not needed.
+ */
+public interface OrderStateView {
+    Long getId();
+
+    OrderState getOrderState();
+}
@@ -0,0 +1,10 @@
+package ma.yassine.ecomorderservice.models;
+
+import lombok.*;
+import ma.yassine.ecomorderservice.enums.OrderState;
+
+@AllArgsConstructor @NoArgsConstructor @Getter @Setter @ToString
+public class OrderStatus {
+    private Long orderId;
+    private OrderState orderState;
+}
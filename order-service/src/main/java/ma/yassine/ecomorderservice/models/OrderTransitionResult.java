@@ -0,0 +1,13 @@
+package ma.yassine.ecomorderservice.models;
+
+import lombok.*;
+import ma.yassine.ecomorderservice.enums.OrderState;
+import ma.yassine.ecomorderservice.enums.TransitionOutcome;
+
+@AllArgsConstructor @NoArgsConstructor @Getter @Setter @ToString
+public class OrderTransitionResult {
+    private Long orderId;
+    private TransitionOutcome outcome;
+    // State of the order after the request, or null if it does not exist.
+    private OrderState orderState;
+}
@@ -0,0 +1,23 @@
+package ma.yassine.ecomorderservice.models;
+
+import java.util.UUID;
+
+/**
+ * One entry of the stock change feed of inventory.
+ *
+ * @param version the position of the change in the feed
+ * @param type what happened to the product
+ * @param productId the unique identifier of the product
+ * @param price the price of the product after the change, or null if it was deleted or only its quantity changed
+ * @param quantity the quantity of the product after the change, or null if it was deleted
+ * @param productVersion the version of the product after the change, or null if it was deleted
+ */
+public record StockChange(long version, Type type, UUID productId, Double price, Integer quantity, Long productVersion) {
+
+    public enum Type {
+        CREATED,
+        UPDATED,
+        DELETED,
+        QUANTITY_CHANGED
+    }
+}
@@ -0,0 +1,15 @@
+package ma.yassine.ecomorderservice.models;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The changes of the stock change feed of inventory after a given version.
+ *
+ * @param epoch identifies the feed; versions of different epochs cannot be compared
+ * @param version the version to ask for changes after next time
+ * @param reset true if the whole catalog must be loaded again before reading the changes after {@code version}
+ * @param changes the changes, oldest first
+ */
+public record StockChangePage(UUID epoch, long version, boolean reset, List<StockChange> changes) {
+}
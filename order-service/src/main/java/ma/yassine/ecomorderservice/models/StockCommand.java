@@ -0,0 +1,21 @@
+package ma.yassine.ecomorderservice.models;
+
+import java.util.List;
+
+/**
+ * A change of stock sent to inventory in a batch, applied at most once per key.
+ *
+ * @param idempotencyKey identifies the command, so that sending it again does not apply it twice
+ * @param type what to do with the stock of the lines
+ * @param reservationKey for a release, the key of the reservation it gives back, so that a reservation that
+ *                       was never applied is cancelled rather than given back; null to give the lines back
+ *                       unconditionally
+ * @param lines the products and quantities to reserve or give back
+ */
+public record StockCommand(String idempotencyKey, Type type, String reservationKey, List<StockLine> lines) {
+
+    public enum Type {
+        RESERVE,
+        RELEASE
+    }
+}
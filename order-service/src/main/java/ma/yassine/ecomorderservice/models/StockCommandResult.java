@@ -0,0 +1,19 @@
+package ma.yassine.ecomorderservice.models;
+
+/**
+ * The outcome of a {@link StockCommand}, as answered by inventory.
+ *
+ * @param idempotencyKey the key of the command
+ * @param outcome what became of it
+ */
+public record StockCommandResult(String idempotencyKey, Outcome outcome) {
+
+    public enum Outcome {
+        // Applied, now or by an earlier attempt.
+        APPLIED,
+        // Refused for good, e.g. for lack of stock.
+        REJECTED,
+        // Not applied yet; to be sent again with the same key.
+        RETRY
+    }
+}
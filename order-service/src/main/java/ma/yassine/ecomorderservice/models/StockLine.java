@@ -0,0 +1,11 @@
+package ma.yassine.ecomorderservice.models;
+
+import lombok.*;
+
+import java.util.UUID;
+
+@AllArgsConstructor @NoArgsConstructor @Getter @Setter @ToString @EqualsAndHashCode
+public class StockLine {
+    private UUID productId;
+    private Integer quantity;
+}
@@ -1,7 +1,59 @@
 package ma.yassine.ecomorderservice.repositories;
 
+import jakarta.persistence.LockModeType;
 import ma.yassine.ecomorderservice.entities.Order;
+import ma.yassine.ecomorderservice.enums.OrderState;
+import ma.yassine.ecomorderservice.models.OrderStateView;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
 
 public interface OrderRepository extends JpaRepository<Order, Long> {
+
+    /**
+     * Returns the highest order IDs below the given cursor. Paging on the primary key keeps
+     * every page an index range scan, however deep the client has scrolled.
+     */
+    @Query("select o.id from Order o where o.id < :beforeId order by o.id desc")
+    List<Long> findIdsBefore(@Param("beforeId") Long beforeId, Limit limit);
+
+    /**
+     * Loads the given orders together with their items in a single query.
+     */
+    @EntityGraph(attributePaths = "productItem")
+    @Query("select o from Order o where o.id in :ids order by o.id desc")
+    List<Order> findWithItemsByIdIn(@Param("ids") Collection<Long> ids);
+
+    /**
+     * Moves the given orders to {@code to}, but only those currently in one of the {@code from} states.
+     * The check and the change happen in the same statement, so concurrent transitions cannot both win.
+     *
+     * @return the number of orders that changed state
+     */
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Order o set o.orderState = :to where o.id in :ids and o.orderState in :from")
+    int transitionStates(@Param("ids") Collection<Long> ids,
+                         @Param("from") Collection<OrderState> from,
+                         @Param("to") OrderState to);
+
+    @Query("select o.orderState from Order o where o.id = :id")
+    Optional<OrderState> findStateById(@Param("id") Long id);
+
+    /**
+     * Reads and row-locks the states of the given orders, without loading their items. Must run inside a
+     * transaction; the locks are held until it ends.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select o.id as id, o.orderState as orderState from Order o where o.id in :ids")
+    List<OrderStateView> lockStatesByIdIn(@Param("ids") Collection<Long> ids);
 }
@@ -0,0 +1,53 @@
+package ma.yassine.ecomorderservice.repositories;
+
+import ma.yassine.ecomorderservice.entities.OutboxCommand;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+public interface OutboxCommandRepository extends JpaRepository<OutboxCommand, Long> {
+
+    @Query("select c.id from OutboxCommand c where c.status = ma.yassine.ecomorderservice.entities.OutboxCommand.Status.PENDING " +
+            "and c.nextAttemptAt <= :now order by c.id")
+    List<Long> findDueIds(@Param("now") Instant now, Limit limit);
+
+    /**
+     * Claims the given commands that are still due, by marking them with the token of the caller and
+     * pushing their next attempt to the end of the lease. Relays on other nodes skip them until then, and
+     * pick them up again if the caller dies before settling them. Every claim bumps the version of the
+     * command, so a caller that outlived its lease fails to settle it.
+     *
+     * @return the number of commands claimed
+     */
+    @Transactional
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update OutboxCommand c set c.claimToken = :token, c.nextAttemptAt = :leaseEnd, c.version = c.version + 1 " +
+            "where c.id in :ids and c.status = ma.yassine.ecomorderservice.entities.OutboxCommand.Status.PENDING " +
+            "and c.nextAttemptAt <= :now")
+    int claim(@Param("ids") Collection<Long> ids, @Param("now") Instant now,
+              @Param("token") UUID token, @Param("leaseEnd") Instant leaseEnd);
+
+    List<OutboxCommand> findByClaimToken(UUID claimToken);
+
+    long countByStatus(OutboxCommand.Status status);
+
+    @Query("select min(c.createdAt) from OutboxCommand c " +
+            "where c.status = ma.yassine.ecomorderservice.entities.OutboxCommand.Status.PENDING")
+    Instant findOldestPendingCreatedAt();
+
+    /**
+     * Deletes settled commands older than the given instant.
+     */
+    @Transactional
+    @Modifying
+    @Query("delete from OutboxCommand c where c.status in :statuses and c.dispatchedAt < :before")
+    int deleteSettledBefore(@Param("statuses") Collection<OutboxCommand.Status> statuses, @Param("before") Instant before);
+}
@@ -2,18 +2,30 @@ package ma.yassine.ecomorderservice.services;
 
 import ma.yassine.ecomorderservice.entities.Order;
 import ma.yassine.ecomorderservice.entities.ProductItem;
+import ma.yassine.ecomorderservice.enums.OrderTransition;
+import ma.yassine.ecomorderservice.models.OrderPage;
+import ma.yassine.ecomorderservice.models.OrderStatus;
+import ma.yassine.ecomorderservice.models.OrderTransitionResult;
 import ma.yassine.ecomorderservice.models.Product;
 import org.springframework.http.ResponseEntity;
 
+import java.time.Duration;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public interface IOrderService {
     ResponseEntity<List<Order>> getOrders();
 
+    ResponseEntity<OrderPage> getOrdersPage(Long beforeId, int size);
+
     ResponseEntity<Order> getOrder(Long id);
 
     ResponseEntity<Order> createNewOrder(List<Product> products);
 
+    ResponseEntity<Order> createNewOrderAsync(List<Product> products);
+
+    CompletableFuture<ResponseEntity<OrderStatus>> getOrderStatus(Long id, Duration wait);
+
     void deleteOrder(Long id);
 
     ResponseEntity<String> confirmOrder(Long orderId);
@@ -22,6 +34,8 @@ public interface IOrderService {
 
     ResponseEntity<String> deliverOrder(Long orderId);
 
+    ResponseEntity<List<OrderTransitionResult>> transitionOrders(OrderTransition transition, List<Long> orderIds);
+
     void printProducts();
 
     List<ProductItem> getProductItems();
@@ -0,0 +1,87 @@
+package ma.yassine.ecomorderservice.services;
+
+import lombok.AllArgsConstructor;
+import ma.yassine.ecomorderservice.enums.ReservationStatus;
+import ma.yassine.ecomorderservice.feignClients.InventoryClient;
+import ma.yassine.ecomorderservice.models.Product;
+import ma.yassine.ecomorderservice.models.StockLine;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+
+@Service
+@AllArgsConstructor
+public class InventoryReservationService {
+    // The most products inventory returns from one batch lookup.
+    private static final int PRICE_LOOKUP_CHUNK_SIZE = 1_000;
+
+    private final InventoryClient inventoryClient;
+
+    /**
+     * Replaces the prices of the ordered products with the prices inventory holds for them, read for the whole
+     * order with one batch lookup per {@value #PRICE_LOOKUP_CHUNK_SIZE} distinct products rather than one call
+     * per product.
+     *
+     * @param products the ordered products, each with its ID and quantity
+     * @return copies of the products carrying their catalog price, or null if inventory could not be reached
+     * @throws RuntimeException if one of the products does not exist or has no price
+     */
+    public List<Product> withCatalogPrices(List<Product> products) {
+        List<UUID> ids = products.stream().map(Product::getId).filter(Objects::nonNull).distinct().toList();
+        Map<UUID, Product> catalog = new HashMap<>();
+        for (int from = 0; from < ids.size(); from += PRICE_LOOKUP_CHUNK_SIZE) {
+            ResponseEntity<List<Product>> response = inventoryClient.getProductsByIds(ids.subList(from, Math.min(ids.size(), from + PRICE_LOOKUP_CHUNK_SIZE)));
+            if (!response.getStatusCode().is2xxSuccessful() || response.getBody() == null) {
+                return null;
+            }
+            response.getBody().forEach(product -> catalog.put(product.getId(), product));
+        }
+
+        List<Product> priced = new ArrayList<>(products.size());
+        for (Product product : products) {
+            Product known = product.getId() != null ? catalog.get(product.getId()) : null;
+            if (known == null) {
+                System.out.println("Error: One or more products do not exist.");
+                throw new RuntimeException("Error: One or more products do not exist.");
+            }
+            if (known.getPrice() == null) {
+                System.out.println("Error: One or more products have no price.");
+                throw new RuntimeException("Error: One or more products have no price.");
+            }
+            priced.add(new Product(product.getId(), product.getName(), product.getDescription(), known.getPrice(), product.getQuantity()));
+        }
+        return priced;
+    }
+
+    /**
+     * Reserves stock for all the given lines with a single call to the batch endpoint, which inventory
+     * applies atomically: either every line is reserved or none is, so a failed call never leaves part
+     * of the order reserved.
+     * <p>
+     * The call is bounded by the read timeout of the inventory client. A call that times out may still
+     * have been applied by inventory; callers that must not lose that stock send their reservations
+     * through the outbox, which retries them with an idempotency key. Stock to be given back is likewise
+     * released through the outbox, see {@link OutboxRelay#release}.
+     *
+     * @param lines the order lines to reserve
+     * @return {@link ReservationStatus#RESERVED} if every line was reserved, {@link ReservationStatus#REJECTED}
+     *         if inventory refused a line, or {@link ReservationStatus#UNAVAILABLE} if inventory could not be
+     *         reached in time
+     */
+    public ReservationStatus reserve(List<StockLine> lines) {
+        if (lines == null || lines.isEmpty()) {
+            return ReservationStatus.REJECTED;
+        }
+        ResponseEntity<Map<UUID, Integer>> response = inventoryClient.reserveProductQuantities(lines);
+        if (response.getStatusCode().is2xxSuccessful()) {
+            return ReservationStatus.RESERVED;
+        }
+        return response.getStatusCode().is4xxClientError() ? ReservationStatus.REJECTED : ReservationStatus.UNAVAILABLE;
+    }
+}
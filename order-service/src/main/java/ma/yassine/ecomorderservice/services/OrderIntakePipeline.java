@@ -0,0 +1,95 @@
+package ma.yassine.ecomorderservice.services;
+
+import ma.yassine.ecomorderservice.entities.Order;
+import ma.yassine.ecomorderservice.entities.ProductItem;
+import ma.yassine.ecomorderservice.enums.OrderState;
+import ma.yassine.ecomorderservice.models.Product;
+import ma.yassine.ecomorderservice.models.StockLine;
+import ma.yassine.ecomorderservice.repositories.OrderRepository;
+import ma.yassine.ecomorderservice.repositories.ProductItemsRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Asynchronous order intake. Orders are saved as {@link OrderState#PENDING} together with their stock
+ * reservation in the {@link OutboxRelay outbox}, in one transaction, and the client gets its answer without
+ * waiting for inventory. The relay sends the due reservations of many orders to inventory in one request,
+ * and inventory takes their stock together, with the quantities of each product summed across the orders,
+ * so during peaks both the inventory round trips and the decrements of a popular product grow with the
+ * number of batches rather than with the number of orders. When inventory cannot serve them all, it takes
+ * them one by one, so one order that cannot be served is {@link OrderState#REJECTED} without holding back
+ * the others, and accepted orders move to {@link OrderState#NEW}, as if they had been created synchronously.
+ * <p>
+ * Every reservation keeps its idempotency key across retries, and is claimed by one relay at a time, so a
+ * pending order is never reserved twice, whether inventory could not be reached or the node that took the
+ * order stopped before it was settled.
+ */
+@Service
+public class OrderIntakePipeline {
+    private final OrderRepository orderRepository;
+    private final ProductItemsRepository productItemsRepository;
+    private final OutboxRelay outboxRelay;
+    private final TransactionTemplate transactionTemplate;
+    private final int queueCapacity;
+
+    public OrderIntakePipeline(OrderRepository orderRepository,
+                               ProductItemsRepository productItemsRepository,
+                               OutboxRelay outboxRelay,
+                               TransactionTemplate transactionTemplate,
+                               @Value("${order.intake.queue-capacity:10000}") int queueCapacity) {
+        this.orderRepository = orderRepository;
+        this.productItemsRepository = productItemsRepository;
+        this.outboxRelay = outboxRelay;
+        this.transactionTemplate = transactionTemplate;
+        this.queueCapacity = Math.max(1, queueCapacity);
+    }
+
+    /**
+     * Saves the given products as a pending order, with the reservation of their stock. Nothing is saved
+     * while too many reservations are already waiting to be sent, so that shedding an order costs no write.
+     *
+     * @param products the products of the order, each with its ID, price and quantity
+     * @return the saved order, in PENDING state, or null if too many reservations are already waiting
+     */
+    public Order submit(List<Product> products) {
+        if (outboxRelay.backlog() >= queueCapacity) {
+            System.out.println("Error: Too many orders are waiting for their stock to be reserved.");
+            return null;
+        }
+        Order order = transactionTemplate.execute(status -> {
+            Order saved = orderRepository.save(Order.builder().orderState(OrderState.PENDING).build());
+            List<ProductItem> productItems = products.stream()
+                    .map(product -> ProductItem.builder()
+                            .order(saved)
+                            .price(product.getPrice())
+                            .quantity(product.getQuantity())
+                            .productId(product.getId())
+                            .build())
+                    .toList();
+            saved.setProductItem(productItemsRepository.saveAll(productItems));
+            outboxRelay.enqueue(saved.getId(), products.stream()
+                    .map(product -> new StockLine(product.getId(), product.getQuantity()))
+                    .toList());
+            return saved;
+        });
+        outboxRelay.wakeUp();
+        return order;
+    }
+
+    /**
+     * Returns the outcome of an order once it leaves PENDING, or right away if it was not taken by this node.
+     *
+     * @param orderId the ID of the order
+     * @param wait how long to wait for the outcome at most
+     * @return a future completed with the state of the order once it is settled, with PENDING if it is still
+     *         pending after the wait, or with null if the order was not taken by this node
+     */
+    public CompletableFuture<OrderState> outcome(Long orderId, Duration wait) {
+        return outboxRelay.outcome(orderId, wait);
+    }
+}
@@ -4,22 +4,56 @@ import lombok.AllArgsConstructor;
 import ma.yassine.ecomorderservice.entities.Order;
 import ma.yassine.ecomorderservice.entities.ProductItem;
 import ma.yassine.ecomorderservice.enums.OrderState;
-import ma.yassine.ecomorderservice.feignClients.InventoryClient;
+import ma.yassine.ecomorderservice.enums.OrderTransition;
+import ma.yassine.ecomorderservice.enums.ReservationStatus;
+import ma.yassine.ecomorderservice.enums.TransitionOutcome;
+import ma.yassine.ecomorderservice.feignClients.InventoryNearCache;
+import ma.yassine.ecomorderservice.feignClients.StockReplica;
+import ma.yassine.ecomorderservice.models.OrderPage;
+import ma.yassine.ecomorderservice.models.OrderStatus;
+import ma.yassine.ecomorderservice.models.OrderStateView;
+import ma.yassine.ecomorderservice.models.OrderTransitionResult;
 import ma.yassine.ecomorderservice.models.Product;
+import ma.yassine.ecomorderservice.models.StockLine;
 import ma.yassine.ecomorderservice.repositories.OrderRepository;
 import ma.yassine.ecomorderservice.repositories.ProductItemsRepository;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.domain.Limit;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.net.URI;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 @Service
 @AllArgsConstructor
 public class OrderServiceImpl implements IOrderService {
+    public static final int MAX_PAGE_SIZE = 100;
+    public static final int MAX_BULK_TRANSITION_SIZE = 10_000;
+    private static final int BULK_TRANSITION_CHUNK_SIZE = 1_000;
+    public static final Duration MAX_STATUS_WAIT = Duration.ofSeconds(30);
+    // The states of orders whose stock is reserved and not yet delivered.
+    private static final Set<OrderState> HOLDS_STOCK = Set.of(OrderState.NEW, OrderState.PROCESSING);
+
     private final OrderRepository orderRepository;
     private final ProductItemsRepository productItemsRepository;
-    private final InventoryClient inventoryClient;
+    private final InventoryReservationService inventoryReservationService;
+    private final InventoryNearCache inventoryNearCache;
+    private final TransactionTemplate transactionTemplate;
+    private final OrderIntakePipeline orderIntakePipeline;
+    private final ObjectProvider<OutboxRelay> outboxRelay;
+    private final ObjectProvider<StockReplica> stockReplica;
 
     /**
      * Retrieves all orders from the database and returns them as a response entity.
@@ -32,6 +66,32 @@ public class OrderServiceImpl implements IOrderService {
         return ResponseEntity.ok(orders);
     }
 
+    /**
+     * Retrieves one page of orders in descending ID order, using the order ID as cursor. The pages never
+     * skip or repeat an order, but "newest first" is only approximate: each node takes order IDs from the
+     * sequence in blocks of 50, so an order created later on one node may have a lower ID than an earlier
+     * order on another node. The page IDs are selected first and the orders are then loaded with their
+     * items in a single query.
+     *
+     * @param beforeId the cursor returned with the previous page, or {@code null} for the first page
+     * @param size the number of orders per page, capped at {@value #MAX_PAGE_SIZE}
+     * @return a ResponseEntity containing the page and the cursor of the next page, or a 400 Bad Request
+     *         status if the size is not positive
+     */
+    @Override
+    public ResponseEntity<OrderPage> getOrdersPage(Long beforeId, int size){
+        if (size < 1){
+            return ResponseEntity.badRequest().build();
+        }
+        int pageSize = Math.min(size, MAX_PAGE_SIZE);
+        // Fetch one extra ID to know whether there is a next page without a count query.
+        List<Long> ids = orderRepository.findIdsBefore(beforeId != null ? beforeId : Long.MAX_VALUE, Limit.of(pageSize + 1));
+        boolean hasNext = ids.size() > pageSize;
+        List<Long> pageIds = hasNext ? ids.subList(0, pageSize) : ids;
+        List<Order> orders = pageIds.isEmpty() ? List.of() : orderRepository.findWithItemsByIdIn(pageIds);
+        return ResponseEntity.ok(new OrderPage(orders, hasNext ? pageIds.get(pageIds.size() - 1) : null));
+    }
+
     /**
      * Retrieves an order based on the provided order ID.
      *
@@ -49,45 +109,213 @@ public class OrderServiceImpl implements IOrderService {
     }
 
     /**
-     * Creates a new order by saving it to the database, deducting product quantities from inventory,
-     * and persisting individual product items associated with the order.
+     * Creates a new order by reserving all product quantities from inventory (all-or-nothing, see
+     * {@link InventoryReservationService#reserve}), then saving the order and its product items in one
+     * transaction. Nothing is saved when the reservation is refused, and the stock is given back through
+     * the {@link OutboxRelay} when the order cannot be saved.
+     * <p>
+     * When the outbox is enabled, the order, its items and its reservation command are saved in one
+     * transaction instead, and the {@link OutboxRelay} sends the reservation. The order is answered once
+     * the reservation is settled, or as pending with HTTP 202 status if that takes longer than
+     * {@code order.outbox.sync-wait}.
+     * <p>
+     * When the stock replica is enabled, an order for more than the replicated stock of a product is rejected
+     * before anything is saved or sent to inventory.
+     * <p>
+     * The prices sent by the client are ignored: every product item is saved with the price inventory holds
+     * for its product when the order is taken, see {@link InventoryReservationService#withCatalogPrices}.
      *
-     * @param products A list of {@code Product} objects representing the products to be included in the order.
-     *                 Each product contains information such as its ID, price, and quantity.
+     * @param orderedProducts A list of {@code Product} objects representing the products to be included in the order.
+     *                 Each product contains information such as its ID and quantity.
      * @return A {@code ResponseEntity<Order>} containing the created {@code Order} object if successful.
      */
     @Override
-    public ResponseEntity<Order> createNewOrder(List<Product> products){
-
-        Order savedOrder = orderRepository.save(new Order());
-        List<ProductItem> productItems = new ArrayList<>();
-        products.parallelStream().forEach(product -> {
-            Integer productQuantity = inventoryClient.decrementProductQuantity(product.getId(), product.getQuantity());
-            if (productQuantity != null) {
-                ProductItem productItem = ProductItem.builder()
-                        .order(savedOrder)
-                        .price(product.getPrice())
-                        .quantity(product.getQuantity())
-                        .productId(product.getId())
-                        .build();
-                productItems.add(productItem);
-            } else {
-                System.out.println("Error: Product with id '" + product.getId() + "' does not exist or has insufficient quantity.");
-                throw new RuntimeException("Error: Product with id '" + product.getId() + "' does not exist or has insufficient quantity.");
-            }
+    public ResponseEntity<Order> createNewOrder(List<Product> orderedProducts){
+        rejectIfStockIsShort(orderedProducts);
+        List<Product> products = inventoryReservationService.withCatalogPrices(orderedProducts);
+        if (products == null){
+            System.out.println("Error: Could not read the prices of the products from inventory.");
+            throw new RuntimeException("Error: Could not read the prices of the products from inventory.");
+        }
+        OutboxRelay relay = outboxRelay.getIfAvailable();
+        if (relay != null && relay.takesOrders()){
+            return createNewOrderThroughOutbox(products, relay);
+        }
+
+        // Reserved before anything is saved, so that a refused reservation leaves no order behind.
+        List<StockLine> stockLines = products.stream()
+                .map(product -> new StockLine(product.getId(), product.getQuantity()))
+                .toList();
+        if (inventoryReservationService.reserve(stockLines) != ReservationStatus.RESERVED) {
+            System.out.println("Error: One or more products do not exist or have insufficient quantity.");
+            throw new RuntimeException("Error: One or more products do not exist or have insufficient quantity.");
+        }
+
+        Order order = new Order();
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                Order savedOrder = orderRepository.save(order);
+                List<ProductItem> productItems = products.stream()
+                        .map(product -> ProductItem.builder()
+                                .order(savedOrder)
+                                .price(product.getPrice())
+                                .quantity(product.getQuantity())
+                                .productId(product.getId())
+                                .build())
+                        .toList();
+                productItemsRepository.saveAll(productItems);
+            });
+        } catch (RuntimeException e) {
+            giveBack(order.getId(), stockLines, relay);
+            throw e;
+        }
+        return ResponseEntity.ok(order);
+    }
+
+    /**
+     * Gives back the stock reserved for an order that could not be saved, through the outbox.
+     *
+     * @param orderId the ID the order was given when it was persisted, or null if it never was
+     */
+    private void giveBack(Long orderId, List<StockLine> lines, OutboxRelay relay){
+        if (orderId == null || relay == null){
+            System.err.printf("Error: The stock reserved for an order that was not saved was not given back: %s%n", lines);
+            return;
+        }
+        try {
+            relay.release(orderId, lines);
+            relay.wakeUp();
+        } catch (RuntimeException e) {
+            System.err.printf("Error: The stock reserved for order %d, which was not saved, was not given back: %s%n", orderId, e.getMessage());
+        }
+    }
+
+    /**
+     * Rejects an order that the stock replica, if enabled, knows cannot be filled.
+     */
+    private void rejectIfStockIsShort(List<Product> products){
+        StockReplica replica = stockReplica.getIfAvailable();
+        if (replica != null && !replica.canFill(products.stream()
+                .map(product -> new StockLine(product.getId(), product.getQuantity()))
+                .toList())){
+            System.out.println("Error: One or more products do not exist or have insufficient quantity.");
+            throw new RuntimeException("Error: One or more products do not exist or have insufficient quantity.");
+        }
+    }
+
+    private ResponseEntity<Order> createNewOrderThroughOutbox(List<Product> products, OutboxRelay relay){
+        Order order = transactionTemplate.execute(status -> {
+            Order savedOrder = orderRepository.save(Order.builder().orderState(OrderState.PENDING).build());
+            List<ProductItem> productItems = products.stream()
+                    .map(product -> ProductItem.builder()
+                            .order(savedOrder)
+                            .price(product.getPrice())
+                            .quantity(product.getQuantity())
+                            .productId(product.getId())
+                            .build())
+                    .toList();
+            productItemsRepository.saveAll(productItems);
+            relay.enqueue(savedOrder.getId(), products.stream()
+                    .map(product -> new StockLine(product.getId(), product.getQuantity()))
+                    .toList());
+            return savedOrder;
         });
-        productItemsRepository.saveAll(productItems);
-        return ResponseEntity.ok(savedOrder);
+        relay.wakeUp();
+
+        OrderState outcome = relay.outcome(order.getId(), relay.syncWait()).join();
+        // The outcome is forgotten once settled, which may happen before it is asked for.
+        OrderState orderState = outcome != null ? outcome : orderRepository.findStateById(order.getId()).orElse(OrderState.PENDING);
+        order.setOrderState(orderState);
+        if (orderState == OrderState.REJECTED){
+            System.out.println("Error: One or more products do not exist or have insufficient quantity.");
+            throw new RuntimeException("Error: One or more products do not exist or have insufficient quantity.");
+        }
+        if (orderState == OrderState.PENDING){
+            return ResponseEntity.accepted().location(URI.create("/api/orders/" + order.getId() + "/status")).body(order);
+        }
+        return ResponseEntity.ok(order);
     }
 
     /**
-     * Deletes an order with the specified ID from the database.
+     * Takes in an order without waiting for inventory: the order is saved in PENDING state with its product
+     * items and its stock reservation by the {@link OrderIntakePipeline}, and the outbox relay reserves its stock
+     * together with that of other pending orders and then moves it to NEW, or to REJECTED if its stock could
+     * not be reserved.
+     * Orders that the stock replica knows cannot be filled are rejected right away, and the items are priced
+     * from inventory, as by {@link #createNewOrder}.
+     *
+     * @param orderedProducts the products to be included in the order, each with its ID and quantity
+     * @return a ResponseEntity with HTTP 202 status containing the pending order and the location of its status,
+     *         a 400 Bad Request status if a product has no ID or no positive quantity,
+     *         or a 503 Service Unavailable status if too many orders are already waiting or the prices could not be read
+     */
+    @Override
+    public ResponseEntity<Order> createNewOrderAsync(List<Product> orderedProducts){
+        if (orderedProducts == null || orderedProducts.isEmpty() || orderedProducts.stream()
+                .anyMatch(product -> product == null || product.getId() == null || product.getQuantity() == null || product.getQuantity() <= 0)){
+            return ResponseEntity.badRequest().build();
+        }
+        rejectIfStockIsShort(orderedProducts);
+        List<Product> products = inventoryReservationService.withCatalogPrices(orderedProducts);
+        if (products == null){
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        Order order = orderIntakePipeline.submit(products);
+        if (order == null){
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        return ResponseEntity.accepted().location(URI.create("/api/orders/" + order.getId() + "/status")).body(order);
+    }
+
+    /**
+     * Retrieves the state of an order, waiting for it to leave PENDING if it is still waiting for its stock.
+     * The future completes as soon as the order is settled, so clients can long-poll instead of polling in a loop.
+     *
+     * @param id the ID of the order
+     * @param wait how long to wait for a pending order to be settled, capped at 30 seconds; zero to answer at once
+     * @return a future of a ResponseEntity containing the state of the order, which is still PENDING if the wait
+     *         ran out, or a 404 Not Found status if no order exists with the provided ID
+     */
+    @Override
+    public CompletableFuture<ResponseEntity<OrderStatus>> getOrderStatus(Long id, Duration wait){
+        Duration boundedWait = wait == null || wait.isNegative() ? Duration.ZERO
+                : wait.compareTo(MAX_STATUS_WAIT) > 0 ? MAX_STATUS_WAIT : wait;
+        return orderIntakePipeline.outcome(id, boundedWait).thenApply(state -> {
+            // Orders not taken by this node are read from the database.
+            OrderState orderState = state != null ? state : orderRepository.findStateById(id).orElse(null);
+            return orderState != null ? ResponseEntity.ok(new OrderStatus(id, orderState)) : ResponseEntity.<OrderStatus>notFound().build();
+        });
+    }
+
+    /**
+     * Deletes an order with the specified ID from the database. The stock of an order that still holds it,
+     * i.e. a NEW or PROCESSING order, is given back through the outbox, in the transaction of the delete.
+     * Pending orders are left to the outbox relay, which releases their reservation once it is settled.
      *
      * @param id the unique identifier of the order to be deleted
      */
     @Override
     public void deleteOrder(Long id){
-        orderRepository.deleteById(id);
+        OutboxRelay relay = outboxRelay.getIfAvailable();
+        boolean released = Boolean.TRUE.equals(transactionTemplate.execute(status -> {
+            // Locked, so that a transition racing with the delete cannot change whether the order holds stock.
+            List<OrderStateView> states = orderRepository.lockStatesByIdIn(List.of(id));
+            Order order = orderRepository.findById(id).orElse(null);
+            if (states.isEmpty() || order == null){
+                return false;
+            }
+            boolean holdsStock = HOLDS_STOCK.contains(states.get(0).getOrderState()) && relay != null;
+            if (holdsStock){
+                relay.release(id, order.getProductItem().stream()
+                        .map(item -> new StockLine(item.getProductId(), item.getQuantity()))
+                        .toList());
+            }
+            orderRepository.delete(order);
+            return holdsStock;
+        }));
+        if (released){
+            relay.wakeUp();
+        }
     }
 
     /**
@@ -100,11 +328,7 @@ public class OrderServiceImpl implements IOrderService {
      */
     @Override
     public ResponseEntity<String> confirmOrder(Long orderId){
-        Order order = orderRepository.findById(orderId).orElse(null);
-
-        if (order != null && order.getOrderState() == OrderState.NEW){
-            order.setOrderState(OrderState.PROCESSING);
-            orderRepository.save(order);
+        if (transition(orderId, OrderTransition.CONFIRM)){
             return ResponseEntity.ok("Order confirmed.");
         } else {
             return ResponseEntity.badRequest().body("Order with id '" + orderId + "' was not found or is not in NEW state.");
@@ -121,11 +345,7 @@ public class OrderServiceImpl implements IOrderService {
      */
     @Override
     public ResponseEntity<String> cancelOrder(Long orderId){
-        Order order = orderRepository.findById(orderId).orElse(null);
-
-        if (order != null && order.getOrderState() != OrderState.DELIVERED && order.getOrderState() != OrderState.CANCELLED){
-            order.setOrderState(OrderState.CANCELLED);
-            orderRepository.save(order);
+        if (transition(orderId, OrderTransition.CANCEL)){
             return ResponseEntity.ok("Order cancelled.");
         } else {
             return ResponseEntity.badRequest().body("Order with id '" + orderId + "' was not found or is already in DELIVERED or CANCELLED state.");
@@ -141,22 +361,72 @@ public class OrderServiceImpl implements IOrderService {
      */
     @Override
     public ResponseEntity<String> deliverOrder(Long orderId){
-        Order order = orderRepository.findById(orderId).orElse(null);
-        if (order != null && order.getOrderState() == OrderState.DELIVERED){
+        if (transition(orderId, OrderTransition.DELIVER)){
+            return ResponseEntity.ok("Order delivered.");
+        }
+        // The update did not match; read the state only to explain why.
+        OrderState orderState = orderRepository.findStateById(orderId).orElse(null);
+        if (orderState == OrderState.DELIVERED){
             return ResponseEntity.badRequest().body("Order with id '" + orderId + "' was already delivered.");
-        } else if (order != null && order.getOrderState() == OrderState.CANCELLED){
+        } else if (orderState == OrderState.CANCELLED){
             return ResponseEntity.badRequest().body("Order with id '" + orderId + "' was cancelled.");
-        } else if (order != null && order.getOrderState() == OrderState.PROCESSING) {
-            order.setOrderState(OrderState.DELIVERED);
-            orderRepository.save(order);
-            return ResponseEntity.ok("Order delivered.");
         }
         return ResponseEntity.badRequest().body("Order with id '" + orderId + "' was not found or is not in PROCESSING state.");
     }
 
+    /**
+     * Applies the same transition to many orders. The IDs are processed in chunks of
+     * {@value #BULK_TRANSITION_CHUNK_SIZE}, each in its own short transaction: the states of the chunk are
+     * read and row-locked in one query, then all eligible orders are moved in one guarded update.
+     *
+     * @param transition the transition to apply
+     * @param orderIds the IDs of the orders, at most {@value #MAX_BULK_TRANSITION_SIZE}; duplicates are ignored
+     * @return a ResponseEntity containing one result per distinct ID, in request order, or a 400 Bad Request
+     *         status if no IDs or too many IDs were given
+     */
+    @Override
+    public ResponseEntity<List<OrderTransitionResult>> transitionOrders(OrderTransition transition, List<Long> orderIds){
+        if (orderIds == null || orderIds.isEmpty() || orderIds.size() > MAX_BULK_TRANSITION_SIZE || orderIds.stream().anyMatch(Objects::isNull)){
+            return ResponseEntity.badRequest().build();
+        }
+        List<Long> distinctIds = List.copyOf(new LinkedHashSet<>(orderIds));
+        Map<Long, OrderTransitionResult> results = new HashMap<>();
+        for (int from = 0; from < distinctIds.size(); from += BULK_TRANSITION_CHUNK_SIZE){
+            List<Long> chunk = distinctIds.subList(from, Math.min(distinctIds.size(), from + BULK_TRANSITION_CHUNK_SIZE));
+            transactionTemplate.executeWithoutResult(status -> transitionChunk(transition, chunk, results));
+        }
+        return ResponseEntity.ok(distinctIds.stream().map(results::get).toList());
+    }
+
+    private void transitionChunk(OrderTransition transition, List<Long> chunk, Map<Long, OrderTransitionResult> results){
+        Set<Long> found = new HashSet<>();
+        List<Long> eligible = new ArrayList<>();
+        for (OrderStateView order : orderRepository.lockStatesByIdIn(chunk)){
+            found.add(order.getId());
+            if (transition.isAllowedFrom(order.getOrderState())){
+                eligible.add(order.getId());
+                results.put(order.getId(), new OrderTransitionResult(order.getId(), TransitionOutcome.TRANSITIONED, transition.getTarget()));
+            } else {
+                results.put(order.getId(), new OrderTransitionResult(order.getId(), TransitionOutcome.INVALID_STATE, order.getOrderState()));
+            }
+        }
+        for (Long id : chunk){
+            if (!found.contains(id)){
+                results.put(id, new OrderTransitionResult(id, TransitionOutcome.NOT_FOUND, null));
+            }
+        }
+        if (!eligible.isEmpty()){
+            orderRepository.transitionStates(eligible, transition.getAllowedFrom(), transition.getTarget());
+        }
+    }
+
+    private boolean transition(Long orderId, OrderTransition transition){
+        return orderRepository.transitionStates(List.of(orderId), transition.getAllowedFrom(), transition.getTarget()) == 1;
+    }
+
     @Override
     public void printProducts(){
-        ResponseEntity<List<Product>> allProducts = inventoryClient.getAllProducts();
+        ResponseEntity<List<Product>> allProducts = inventoryNearCache.getAllProducts();
         if (allProducts.getStatusCode().is2xxSuccessful() && allProducts.getBody() != null){
             List<Product> products = allProducts.getBody();
             products.forEach(System.out::println);
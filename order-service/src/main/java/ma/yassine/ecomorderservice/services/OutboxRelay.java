@@ -0,0 +1,448 @@
+package ma.yassine.ecomorderservice.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import ma.yassine.ecomorderservice.entities.Order;
+import ma.yassine.ecomorderservice.entities.OutboxCommand;
+import ma.yassine.ecomorderservice.enums.OrderState;
+import ma.yassine.ecomorderservice.feignClients.InventoryClient;
+import ma.yassine.ecomorderservice.models.StockCommand;
+import ma.yassine.ecomorderservice.models.StockCommandResult;
+import ma.yassine.ecomorderservice.models.StockLine;
+import ma.yassine.ecomorderservice.repositories.OrderRepository;
+import ma.yassine.ecomorderservice.repositories.OutboxCommandRepository;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.Limit;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Sends the stock reservations of new orders, and the stock to give back, to inventory from the
+ * {@code order-outbox} table. Asynchronous orders always go through it, and synchronous orders do when
+ * {@code order.outbox.enabled=true}.
+ * <p>
+ * {@link OrderIntakePipeline#submit} and {@link OrderServiceImpl#createNewOrder} save the order as PENDING
+ * together with its {@link OutboxCommand} in one local transaction, so an order is never left without its
+ * reservation, and no stock is reserved for an order that was not saved. The relay then claims due commands
+ * in batches of {@code order.outbox.batch-size}, sends each batch to inventory in one request, every command
+ * with its own idempotency key, where the reservations of the batch take their stock together, and settles
+ * the batch in one transaction: reserved orders move to NEW, refused ones to REJECTED. A command that could
+ * not be applied, because inventory could not be reached or was still applying an earlier attempt, is retried
+ * with the same key after an exponential backoff, from {@code order.outbox.initial-backoff} up to
+ * {@code order.outbox.max-backoff}, and marked DEAD after {@code order.outbox.max-attempts}. The order of a dead
+ * reservation is rejected, and a release of the reservation is queued, which gives its stock back if an
+ * attempt went through and otherwise keeps a late attempt from taking it. Reserved orders deleted in the
+ * meantime have their reservation released the same way, and {@link OrderServiceImpl#deleteOrder} releases
+ * the stock of the orders it deletes that hold it. Claims are leases, so relays on several nodes share
+ * the table and a command claimed by a node that died is sent again once its lease ends; every claim bumps
+ * the version of the command, so a node that outlived its lease cannot settle it over the node that took it
+ * over.
+ * <p>
+ * Throughput and lag are published under {@code /actuator/metrics}: {@code order.outbox.commands} counts
+ * commands by outcome, {@code order.outbox.lag} times each command from its creation to its settlement,
+ * and the {@code order.outbox.pending} and {@code order.outbox.oldest.age} gauges tell how far behind the
+ * relay is.
+ */
+@Service
+public class OutboxRelay implements SmartInitializingSingleton, DisposableBean {
+    private static final Set<OutboxCommand.Status> SETTLED = EnumSet.of(OutboxCommand.Status.DISPATCHED, OutboxCommand.Status.REJECTED);
+    // How long an outcome can be waited for on this node; status requests read the database afterwards.
+    private static final Duration OUTCOME_RETENTION = Duration.ofMinutes(5);
+
+    private final OutboxCommandRepository outboxCommandRepository;
+    private final OrderRepository orderRepository;
+    private final InventoryClient inventoryClient;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean takesOrders;
+    private final int batchSize;
+    private final Duration pollInterval;
+    private final Duration lease;
+    private final Duration initialBackoff;
+    private final Duration maxBackoff;
+    private final int maxAttempts;
+    private final Duration retention;
+    private final Duration syncWait;
+    private final ScheduledExecutorService relayer = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("order-outbox-relay").daemon().factory());
+    private final AtomicBoolean wakeUpPending = new AtomicBoolean();
+    // The outcome of each order created on this node, completed once its command is settled. Orders settled by
+    // the relay of another node are never completed here, so their outcomes are dropped after a while.
+    private final Cache<Long, CompletableFuture<OrderState>> outcomes = Caffeine.newBuilder()
+            .expireAfterWrite(OUTCOME_RETENTION).build();
+
+    private final Counter dispatched;
+    private final Counter rejected;
+    private final Counter retried;
+    private final Counter dead;
+    private final Timer lag;
+    private final AtomicLong pending = new AtomicLong();
+    private final AtomicLong oldestAgeMillis = new AtomicLong();
+    private volatile Instant lastPurge = Instant.EPOCH;
+
+    public OutboxRelay(OutboxCommandRepository outboxCommandRepository,
+                       OrderRepository orderRepository,
+                       InventoryClient inventoryClient,
+                       TransactionTemplate transactionTemplate,
+                       MeterRegistry meterRegistry,
+                       @Value("${order.outbox.enabled:false}") boolean takesOrders,
+                       @Value("${order.outbox.batch-size:50}") int batchSize,
+                       @Value("${order.outbox.poll-interval:500ms}") Duration pollInterval,
+                       @Value("${order.outbox.lease:30s}") Duration lease,
+                       @Value("${order.outbox.initial-backoff:500ms}") Duration initialBackoff,
+                       @Value("${order.outbox.max-backoff:5m}") Duration maxBackoff,
+                       @Value("${order.outbox.max-attempts:20}") int maxAttempts,
+                       @Value("${order.outbox.retention:7d}") Duration retention,
+                       @Value("${order.outbox.sync-wait:5s}") Duration syncWait) {
+        this.outboxCommandRepository = outboxCommandRepository;
+        this.orderRepository = orderRepository;
+        this.inventoryClient = inventoryClient;
+        this.transactionTemplate = transactionTemplate;
+        this.takesOrders = takesOrders;
+        this.batchSize = Math.max(1, batchSize);
+        this.pollInterval = pollInterval;
+        this.lease = lease;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.retention = retention;
+        this.syncWait = syncWait;
+
+        this.dispatched = commandCounter(meterRegistry, "dispatched");
+        this.rejected = commandCounter(meterRegistry, "rejected");
+        this.retried = commandCounter(meterRegistry, "retried");
+        this.dead = commandCounter(meterRegistry, "dead");
+        this.lag = Timer.builder("order.outbox.lag")
+                .description("Time from the creation of an outbox command to its settlement")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        Gauge.builder("order.outbox.pending", pending, AtomicLong::get)
+                .description("Outbox commands waiting to be sent")
+                .register(meterRegistry);
+        Gauge.builder("order.outbox.oldest.age", oldestAgeMillis, age -> age.get() / 1000.0)
+                .description("Age in seconds of the oldest outbox command waiting to be sent")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        relayer.scheduleWithFixedDelay(this::relay, 0, pollInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Adds the reservation of an order to the outbox. Must be called in the transaction that saves the order.
+     *
+     * @return the command, which is sent once the transaction has committed
+     */
+    public OutboxCommand enqueue(Long orderId, List<StockLine> lines) {
+        OutboxCommand command = save(orderId, OutboxCommand.Type.RESERVE, null, lines);
+        // Awaited before the commit, so that a relay settling the command right after it completes the outcome.
+        outcomes.put(orderId, new CompletableFuture<>());
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status != STATUS_COMMITTED) {
+                        outcomes.invalidate(orderId);
+                    }
+                }
+            });
+        }
+        return command;
+    }
+
+    /**
+     * Gives back stock that was reserved for an order that cannot be completed. The release is saved in the
+     * outbox, in the transaction of the caller if there is one, and sent with its own idempotency key until
+     * inventory applies it, so the stock is given back once, and is not lost if inventory cannot be reached.
+     *
+     * @param orderId the order the stock was reserved for
+     * @param lines the lines whose quantities should be returned to inventory
+     */
+    public void release(Long orderId, List<StockLine> lines) {
+        transactionTemplate.executeWithoutResult(status -> save(orderId, OutboxCommand.Type.RELEASE, null, lines));
+    }
+
+    /**
+     * @return whether {@link OrderServiceImpl#createNewOrder} saves its reservations in the outbox
+     */
+    public boolean takesOrders() {
+        return takesOrders;
+    }
+
+    /**
+     * Adds the release of a reservation to the outbox, in the transaction of the caller.
+     */
+    private void enqueueRelease(OutboxCommand reservation) {
+        save(reservation.getOrderId(), OutboxCommand.Type.RELEASE, reservation.getIdempotencyKey(), reservation.getLines());
+    }
+
+    private OutboxCommand save(Long orderId, OutboxCommand.Type type, String reservationKey, List<StockLine> lines) {
+        Instant now = Instant.now();
+        return outboxCommandRepository.save(OutboxCommand.builder()
+                .orderId(orderId)
+                .type(type)
+                .idempotencyKey(UUID.randomUUID().toString())
+                .reservationKey(reservationKey)
+                .lines(List.copyOf(lines))
+                .status(OutboxCommand.Status.PENDING)
+                .createdAt(now)
+                .nextAttemptAt(now)
+                .build());
+    }
+
+    /**
+     * Runs the relay now rather than at its next poll, e.g. right after an order was committed.
+     */
+    public void wakeUp() {
+        if (wakeUpPending.compareAndSet(false, true)) {
+            relayer.execute(() -> {
+                wakeUpPending.set(false);
+                relay();
+            });
+        }
+    }
+
+    /**
+     * Returns the outcome of an order created on this node once its command is settled.
+     *
+     * @param wait how long to wait for the outcome at most
+     * @return a future completed with the state of the order, or with PENDING if the wait ran out
+     */
+    public CompletableFuture<OrderState> outcome(Long orderId, Duration wait) {
+        CompletableFuture<OrderState> outcome = outcomes.getIfPresent(orderId);
+        if (outcome == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return outcome.copy().completeOnTimeout(OrderState.PENDING, wait.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the number of commands waiting to be sent, as of the last run of the relay
+     */
+    public long backlog() {
+        return pending.get();
+    }
+
+    /**
+     * @return how long {@link OrderServiceImpl#createNewOrder} waits for the outcome of an order before
+     *         answering that it is still pending
+     */
+    public Duration syncWait() {
+        return syncWait;
+    }
+
+    @Override
+    public void destroy() {
+        relayer.shutdownNow();
+    }
+
+    /**
+     * Sends every due command, one batch after the other, then refreshes the gauges.
+     */
+    void relay() {
+        try {
+            List<OutboxCommand> batch;
+            do {
+                batch = claim();
+                if (!batch.isEmpty()) {
+                    settle(batch, send(batch));
+                }
+            } while (batch.size() == batchSize);
+            refreshGauges();
+            purge();
+        } catch (OptimisticLockingFailureException e) {
+            // The lease ran out before the batch was settled; the relay that claimed it since settles it.
+            System.err.println("Error: Outbox commands were claimed again before this relay settled them: " + e.getMessage());
+        } catch (RuntimeException e) {
+            System.err.println("Error: Could not relay the order outbox: " + e.getMessage());
+        }
+    }
+
+    private List<OutboxCommand> claim() {
+        Instant now = Instant.now();
+        List<Long> ids = outboxCommandRepository.findDueIds(now, Limit.of(batchSize));
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        UUID token = UUID.randomUUID();
+        if (outboxCommandRepository.claim(ids, now, token, now.plus(lease)) == 0) {
+            return List.of();
+        }
+        return outboxCommandRepository.findByClaimToken(token);
+    }
+
+    /**
+     * Sends a batch to inventory in one request.
+     *
+     * @return the outcome of each command of the batch, {@link StockCommandResult.Outcome#RETRY} for all of them
+     *         if inventory could not be reached
+     */
+    private List<StockCommandResult.Outcome> send(List<OutboxCommand> batch) {
+        List<StockCommand> commands = batch.stream()
+                .map(command -> new StockCommand(command.getIdempotencyKey(),
+                        command.getType() == OutboxCommand.Type.RELEASE ? StockCommand.Type.RELEASE : StockCommand.Type.RESERVE,
+                        command.getReservationKey(), command.getLines()))
+                .toList();
+        Map<String, StockCommandResult.Outcome> results = new HashMap<>();
+        try {
+            ResponseEntity<List<StockCommandResult>> response = inventoryClient.applyStockCommands(commands);
+            if (response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
+                response.getBody().forEach(result -> results.put(result.idempotencyKey(), result.outcome()));
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Error: Could not send outbox commands: " + e.getMessage());
+        }
+        return batch.stream()
+                .map(command -> results.getOrDefault(command.getIdempotencyKey(), StockCommandResult.Outcome.RETRY))
+                .toList();
+    }
+
+    /**
+     * Records the outcome of a batch and moves the orders of its reservations out of PENDING, in one
+     * transaction, together with the releases of reservations that must not stand.
+     */
+    private void settle(List<OutboxCommand> batch, List<StockCommandResult.Outcome> results) {
+        Instant now = Instant.now();
+        List<OutboxCommand> reserved = new ArrayList<>();
+        List<Long> refused = new ArrayList<>();
+        transactionTemplate.executeWithoutResult(status -> {
+            for (int i = 0; i < batch.size(); i++) {
+                OutboxCommand command = batch.get(i);
+                boolean reservation = command.getType() != OutboxCommand.Type.RELEASE;
+                command.setAttempts(command.getAttempts() + 1);
+                command.setClaimToken(null);
+                switch (results.get(i)) {
+                    case APPLIED -> {
+                        command.setStatus(OutboxCommand.Status.DISPATCHED);
+                        command.setDispatchedAt(now);
+                        if (reservation) {
+                            reserved.add(command);
+                        }
+                    }
+                    case REJECTED -> {
+                        command.setStatus(OutboxCommand.Status.REJECTED);
+                        command.setDispatchedAt(now);
+                        if (reservation) {
+                            refused.add(command.getOrderId());
+                        }
+                    }
+                    case RETRY -> {
+                        command.setLastError("Inventory could not apply the command.");
+                        if (command.getAttempts() < maxAttempts) {
+                            command.setNextAttemptAt(now.plus(backoff(command.getAttempts())));
+                        } else {
+                            command.setStatus(OutboxCommand.Status.DEAD);
+                            if (reservation) {
+                                // An attempt may have gone through unseen; the release gives its stock back.
+                                refused.add(command.getOrderId());
+                                enqueueRelease(command);
+                            }
+                        }
+                    }
+                }
+            }
+            outboxCommandRepository.saveAll(batch);
+            List<Long> reservedOrders = reserved.stream().map(OutboxCommand::getOrderId).toList();
+            if (!reservedOrders.isEmpty() && orderRepository.transitionStates(reservedOrders, Set.of(OrderState.PENDING), OrderState.NEW) < reservedOrders.size()) {
+                // Orders deleted while their stock was being reserved.
+                Set<Long> existing = orderRepository.findAllById(reservedOrders).stream().map(Order::getId).collect(Collectors.toSet());
+                reserved.stream().filter(command -> !existing.contains(command.getOrderId())).forEach(this::enqueueRelease);
+            }
+            if (!refused.isEmpty()) {
+                orderRepository.transitionStates(refused, Set.of(OrderState.PENDING), OrderState.REJECTED);
+            }
+        });
+
+        for (OutboxCommand command : batch) {
+            switch (command.getStatus()) {
+                case DISPATCHED -> settled(command, OrderState.NEW, dispatched, now);
+                case REJECTED -> settled(command, OrderState.REJECTED, rejected, now);
+                case DEAD -> {
+                    System.err.printf("Error: Gave up on the %s outbox command of order %d after %d attempts.%n",
+                            command.getType(), command.getOrderId(), command.getAttempts());
+                    settled(command, OrderState.REJECTED, dead, now);
+                }
+                default -> retried.increment();
+            }
+        }
+    }
+
+    private void settled(OutboxCommand command, OrderState state, Counter outcome, Instant now) {
+        outcome.increment();
+        lag.record(Duration.between(command.getCreatedAt(), now));
+        if (command.getType() == OutboxCommand.Type.RELEASE) {
+            return;
+        }
+        CompletableFuture<OrderState> future = outcomes.asMap().remove(command.getOrderId());
+        if (future != null) {
+            future.complete(state);
+        }
+    }
+
+    /**
+     * @return the delay before the next attempt, doubling with every attempt, with up to 20% of jitter so
+     *         that commands that failed together are not retried together
+     */
+    Duration backoff(int attempts) {
+        long millis = initialBackoff.toMillis() << Math.min(attempts - 1, 30);
+        millis = Math.min(millis, maxBackoff.toMillis());
+        return Duration.ofMillis(millis - (long) (millis * 0.2 * ThreadLocalRandom.current().nextDouble()));
+    }
+
+    private void refreshGauges() {
+        pending.set(outboxCommandRepository.countByStatus(OutboxCommand.Status.PENDING));
+        Instant oldest = outboxCommandRepository.findOldestPendingCreatedAt();
+        oldestAgeMillis.set(oldest != null ? Duration.between(oldest, Instant.now()).toMillis() : 0);
+    }
+
+    /**
+     * Deletes settled commands older than {@code order.outbox.retention}, at most once an hour.
+     */
+    private void purge() {
+        Instant now = Instant.now();
+        if (lastPurge.plus(Duration.ofHours(1)).isAfter(now)) {
+            return;
+        }
+        lastPurge = now;
+        int purged = outboxCommandRepository.deleteSettledBefore(SETTLED, now.minus(retention));
+        if (purged > 0) {
+            System.out.printf("Purged %d settled outbox command(s).%n", purged);
+        }
+    }
+
+    private static Counter commandCounter(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("order.outbox.commands")
+                .description("Outbox commands settled or retried, by outcome")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+}
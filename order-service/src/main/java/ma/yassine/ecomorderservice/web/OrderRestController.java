@@ -3,12 +3,18 @@ package ma.yassine.ecomorderservice.web;
 import lombok.AllArgsConstructor;
 import ma.yassine.ecomorderservice.entities.Order;
 import ma.yassine.ecomorderservice.entities.ProductItem;
+import ma.yassine.ecomorderservice.enums.OrderTransition;
+import ma.yassine.ecomorderservice.models.OrderPage;
+import ma.yassine.ecomorderservice.models.OrderStatus;
+import ma.yassine.ecomorderservice.models.OrderTransitionResult;
 import ma.yassine.ecomorderservice.models.Product;
 import ma.yassine.ecomorderservice.services.IOrderService;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.Duration;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping("/api/orders")
@@ -26,6 +32,19 @@ public class OrderRestController {
         return orderService.getOrders();
     }
 
+    /**
+     * Retrieves a page of orders, roughly newest first (in descending ID order), with their product items.
+     *
+     * @param beforeId the {@code nextCursor} of the previous page; omit it to get the first page
+     * @param size the number of orders per page, at most 100
+     * @return a {@code ResponseEntity} containing the {@code OrderPage} and the cursor of the next page
+     */
+    @GetMapping("/page")
+    ResponseEntity<OrderPage> getOrdersPage(@RequestParam(required = false) Long beforeId,
+                                            @RequestParam(defaultValue = "20") int size){
+        return orderService.getOrdersPage(beforeId, size);
+    }
+
     /**
      * Retrieves an order by its unique identifier.
      *
@@ -39,16 +58,37 @@ public class OrderRestController {
     }
 
     /**
-     * Creates a new order based on the provided list of products.
+     * Creates a new order based on the provided list of products. With a {@code Prefer: respond-async} header,
+     * the order is only taken in: the response is a 202 Accepted with the pending order, and its outcome can be
+     * followed at {@code /api/orders/{id}/status}.
      *
      * @param products a list of {@code Product} objects representing the products to be included in the order
-     * @return a {@code ResponseEntity} containing the created {@code Order} object
+     * @param prefer the {@code Prefer} request header, if any
+     * @return a {@code ResponseEntity} containing the created {@code Order} object, or the pending one
      */
     @PostMapping("/new")
-    ResponseEntity<Order> createNewOrder(@RequestBody List<Product> products){
+    ResponseEntity<Order> createNewOrder(@RequestBody List<Product> products,
+                                         @RequestHeader(name = "Prefer", required = false) String prefer){
+        if (prefer != null && prefer.contains("respond-async")){
+            return orderService.createNewOrderAsync(products);
+        }
         return orderService.createNewOrder(products);
     }
 
+    /**
+     * Retrieves the state of an order. For an order taken in asynchronously, the request is held until the
+     * order is accepted or rejected, or until the wait runs out, so clients can long-poll for the outcome.
+     *
+     * @param id the unique identifier of the order
+     * @param wait how long to wait for a pending order to be settled, such as {@code 20s}, at most 30 seconds
+     * @return a {@code ResponseEntity} containing the {@code OrderStatus}, or a 404 Not Found status
+     */
+    @GetMapping("/{id}/status")
+    CompletableFuture<ResponseEntity<OrderStatus>> getOrderStatus(@PathVariable Long id,
+                                                                  @RequestParam(defaultValue = "0s") Duration wait){
+        return orderService.getOrderStatus(id, wait);
+    }
+
     /**
      * Deletes an order with the specified ID.
      *
@@ -93,6 +133,39 @@ public class OrderRestController {
         return orderService.deliverOrder(orderId);
     }
 
+    /**
+     * Confirms many orders at once. Each order is moved from NEW to PROCESSING independently of the others.
+     *
+     * @param orderIds the IDs of the orders to confirm, at most 10,000
+     * @return a ResponseEntity containing the result for each order
+     */
+    @PatchMapping("/bulk/confirm")
+    ResponseEntity<List<OrderTransitionResult>> confirmOrders(@RequestBody List<Long> orderIds){
+        return orderService.transitionOrders(OrderTransition.CONFIRM, orderIds);
+    }
+
+    /**
+     * Cancels many orders at once. Orders that are already delivered or cancelled are reported and left unchanged.
+     *
+     * @param orderIds the IDs of the orders to cancel, at most 10,000
+     * @return a ResponseEntity containing the result for each order
+     */
+    @PatchMapping("/bulk/cancel")
+    ResponseEntity<List<OrderTransitionResult>> cancelOrders(@RequestBody List<Long> orderIds){
+        return orderService.transitionOrders(OrderTransition.CANCEL, orderIds);
+    }
+
+    /**
+     * Marks many orders as delivered at once. Only orders in PROCESSING state are delivered.
+     *
+     * @param orderIds the IDs of the orders to deliver, at most 10,000
+     * @return a ResponseEntity containing the result for each order
+     */
+    @PatchMapping("/bulk/deliver")
+    ResponseEntity<List<OrderTransitionResult>> deliverOrders(@RequestBody List<Long> orderIds){
+        return orderService.transitionOrders(OrderTransition.DELIVER, orderIds);
+    }
+
     /**
      * Processes the test endpoint by invoking the printProducts method of the order service and
      * returns a response entity with a static "test" string as the message.
@@ -0,0 +1,68 @@
+package ma.yassine.ecomorderservice.config;
+
+import feign.Client;
+import feign.Request;
+import feign.Response;
+import feign.Util;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class FeignTransportConfigTest {
+    private static final String CATALOG = "[{\"id\":\"3f1c2a5e-0000-0000-0000-000000000001\",\"name\":\"Laptop\"}]";
+
+    private final Request request = Request.create(Request.HttpMethod.GET, "http://inventory-service/api/products/all",
+            Map.of(), null, StandardCharsets.UTF_8, null);
+
+    @Test
+    void decompressesGzipResponses() throws IOException {
+        byte[] gzipped = gzip(CATALOG);
+        Client delegate = (req, options) -> response(Map.of(
+                "content-encoding", List.of("gzip"),
+                "content-length", List.of(String.valueOf(gzipped.length)),
+                "content-type", List.of("application/json")), gzipped);
+
+        Response response = new FeignTransportConfig.DecompressingClient(delegate).execute(request, new Request.Options());
+
+        assertEquals(CATALOG, Util.toString(response.body().asReader(StandardCharsets.UTF_8)));
+        assertFalse(response.headers().containsKey("content-encoding"));
+        assertFalse(response.headers().containsKey("content-length"));
+        assertEquals(List.of("application/json"), List.copyOf(response.headers().get("content-type")));
+    }
+
+    @Test
+    void leavesUncompressedResponsesUntouched() throws IOException {
+        Response plain = response(Map.of("content-type", List.of("application/json")), CATALOG.getBytes(StandardCharsets.UTF_8));
+
+        Response response = new FeignTransportConfig.DecompressingClient((req, options) -> plain).execute(request, new Request.Options());
+
+        assertSame(plain, response);
+    }
+
+    private Response response(Map<String, Collection<String>> headers, byte[] body) {
+        return Response.builder()
+                .status(200)
+                .request(request)
+                .headers(headers)
+                .body(body)
+                .build();
+    }
+
+    private static byte[] gzip(String text) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            gzip.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+}
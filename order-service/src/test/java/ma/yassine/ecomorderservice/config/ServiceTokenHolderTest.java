@@ -0,0 +1,107 @@
+package ma.yassine.ecomorderservice.config;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.keycloak.OAuth2Constants;
+import org.keycloak.admin.client.Keycloak;
+import org.keycloak.admin.client.KeycloakBuilder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the token holder against a local stub of the Keycloak token endpoint.
+ */
+class ServiceTokenHolderTest {
+    private static final int TOKEN_LIFETIME_SECONDS = 2;
+
+    private final AtomicInteger tokenRequests = new AtomicInteger();
+    private HttpServer tokenEndpoint;
+    private Keycloak keycloak;
+    private ServiceTokenHolder tokenHolder;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        tokenEndpoint = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        tokenEndpoint.createContext("/realms/test-realm/protocol/openid-connect/token", exchange -> {
+            int number = tokenRequests.incrementAndGet();
+            byte[] body = ("{\"access_token\":\"token-" + number + "\",\"expires_in\":" + TOKEN_LIFETIME_SECONDS
+                    + ",\"token_type\":\"Bearer\"}").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        tokenEndpoint.start();
+        keycloak = KeycloakBuilder.builder()
+                .serverUrl("http://localhost:" + tokenEndpoint.getAddress().getPort())
+                .realm("test-realm")
+                .clientId("test-client")
+                .clientSecret("secret")
+                .username("user")
+                .password("password")
+                .grantType(OAuth2Constants.PASSWORD)
+                .build();
+        tokenHolder = new ServiceTokenHolder(keycloak);
+    }
+
+    @AfterEach
+    void tearDown() {
+        tokenHolder.shutdown();
+        keycloak.close();
+        tokenEndpoint.stop(0);
+    }
+
+    @Test
+    void tokenIsFetchedOnceForManyConcurrentRequests() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        List<Future<?>> callers = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            callers.add(executor.submit(() -> {
+                for (int request = 0; request < 1_000; request++) {
+                    assertEquals("token-1", tokenHolder.getAccessToken());
+                }
+            }));
+        }
+        for (Future<?> caller : callers) {
+            caller.get();
+        }
+        executor.shutdown();
+
+        assertEquals(1, tokenRequests.get());
+    }
+
+    @Test
+    void tokenIsRefreshedInTheBackgroundOncePerLifetime() throws InterruptedException {
+        assertEquals("token-1", tokenHolder.getAccessToken());
+        int requests = 0;
+        long end = System.currentTimeMillis() + 3 * TOKEN_LIFETIME_SECONDS * 1_000L;
+        String lastToken = null;
+        while (System.currentTimeMillis() < end) {
+            long start = System.nanoTime();
+            lastToken = tokenHolder.getAccessToken();
+            // Callers never wait for the token endpoint once a token is cached.
+            assertTrue(System.nanoTime() - start < 50_000_000L);
+            requests++;
+            Thread.sleep(5);
+        }
+
+        // One fetch on first use, then one background refresh at 75% of each 2 s lifetime.
+        assertTrue(tokenRequests.get() >= 4 && tokenRequests.get() <= 5, "token requests: " + tokenRequests.get());
+        assertTrue(requests > 100 * tokenRequests.get());
+        assertNotEquals("token-1", lastToken);
+    }
+}
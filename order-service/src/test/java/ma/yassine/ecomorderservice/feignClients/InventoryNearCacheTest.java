@@ -0,0 +1,86 @@
+package ma.yassine.ecomorderservice.feignClients;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import ma.yassine.ecomorderservice.models.Product;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.ResponseEntity;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.*;
+
+class InventoryNearCacheTest {
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final InventoryClient inventoryClient = mock(InventoryClient.class);
+    private final CircuitBreakerRegistry circuitBreakerRegistry = CircuitBreakerRegistry.ofDefaults();
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void concurrentCatalogReadsShareOneUpstreamCall() {
+        when(inventoryClient.getAllProducts()).thenAnswer(invocation -> {
+            Thread.sleep(200);
+            return ResponseEntity.ok(List.of(product(UUID.randomUUID(), 5.0)));
+        });
+        InventoryNearCache nearCache = nearCache(Duration.ofMinutes(1));
+
+        List<CompletableFuture<ResponseEntity<List<Product>>>> callers = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            callers.add(CompletableFuture.supplyAsync(nearCache::getAllProducts, executor));
+        }
+        callers.forEach(caller -> assertEquals(200, caller.join().getStatusCode().value()));
+
+        verify(inventoryClient, times(1)).getAllProducts();
+    }
+
+    @Test
+    void expiredEntryIsReloadedWhileTheCircuitIsClosed() throws InterruptedException {
+        UUID id = UUID.randomUUID();
+        when(inventoryClient.getProductById(id))
+                .thenReturn(ResponseEntity.ok(product(id, 5.0)))
+                .thenReturn(ResponseEntity.ok(product(id, 7.0)));
+        InventoryNearCache nearCache = nearCache(Duration.ofMillis(50));
+
+        assertEquals(5.0, nearCache.getProductById(id).getBody().getPrice());
+        Thread.sleep(100);
+        assertEquals(7.0, nearCache.getProductById(id).getBody().getPrice());
+    }
+
+    @Test
+    void staleEntryIsServedWhileTheCircuitIsOpen() throws InterruptedException {
+        UUID id = UUID.randomUUID();
+        when(inventoryClient.getProductById(id))
+                .thenReturn(ResponseEntity.ok(product(id, 5.0)))
+                .thenReturn(ResponseEntity.notFound().build());
+        InventoryNearCache nearCache = nearCache(Duration.ofMillis(50));
+
+        nearCache.getProductById(id);
+        Thread.sleep(100);
+        circuitBreakerRegistry.circuitBreaker("inventory-service").transitionToOpenState();
+
+        ResponseEntity<Product> response = nearCache.getProductById(id);
+        assertEquals(200, response.getStatusCode().value());
+        assertEquals(5.0, response.getBody().getPrice());
+    }
+
+    private InventoryNearCache nearCache(Duration ttl) {
+        return new InventoryNearCache(inventoryClient, circuitBreakerRegistry, new SimpleMeterRegistry(), executor,
+                ttl, Duration.ofMinutes(5), Duration.ofMinutes(10), 100);
+    }
+
+    private Product product(UUID id, double price) {
+        return new Product(id, "Product", "Description", price, 10);
+    }
+}
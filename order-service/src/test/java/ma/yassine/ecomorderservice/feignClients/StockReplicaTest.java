@@ -0,0 +1,91 @@
+package ma.yassine.ecomorderservice.feignClients;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import ma.yassine.ecomorderservice.models.Product;
+import ma.yassine.ecomorderservice.models.StockChange;
+import ma.yassine.ecomorderservice.models.StockChangePage;
+import ma.yassine.ecomorderservice.models.StockLine;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.ResponseEntity;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
+
+class StockReplicaTest {
+    private final InventoryClient inventoryClient = mock(InventoryClient.class);
+    private final UUID epoch = UUID.randomUUID();
+    private final UUID productId = UUID.randomUUID();
+
+    @Test
+    void loadsTheCatalogThenFollowsTheFeed() {
+        StockReplica replica = replica(Duration.ofMinutes(1));
+        assertTrue(replica.canFill(List.of(new StockLine(productId, 1_000))), "Accepts everything until the catalog is loaded");
+
+        replica.sync();
+        assertEquals(3, replica.get(productId).quantity());
+        assertTrue(replica.canFill(List.of(new StockLine(productId, 2))));
+        assertFalse(replica.canFill(List.of(new StockLine(productId, 2), new StockLine(productId, 2))));
+        assertTrue(replica.canFill(List.of(new StockLine(UUID.randomUUID(), 2))), "Leaves unknown products to inventory");
+
+        when(inventoryClient.getStockChanges(eq(epoch), eq(5L), any(), anyInt())).thenReturn(ResponseEntity.ok(new StockChangePage(epoch, 7, false, List.of(
+                new StockChange(6, StockChange.Type.QUANTITY_CHANGED, productId, null, 10, 9L),
+                // Committed before the change above, but added to the feed after it.
+                new StockChange(7, StockChange.Type.QUANTITY_CHANGED, productId, null, 1, 8L)))));
+        replica.sync();
+        assertEquals(new StockReplica.Stock(9.99, 10, 9L), replica.get(productId));
+
+        when(inventoryClient.getStockChanges(eq(epoch), eq(7L), any(), anyInt())).thenReturn(ResponseEntity.ok(new StockChangePage(epoch, 8, false, List.of(
+                new StockChange(8, StockChange.Type.DELETED, productId, null, null, null)))));
+        replica.sync();
+        assertFalse(replica.canFill(List.of(new StockLine(productId, 1))));
+    }
+
+    @Test
+    void acceptsEverythingOnceItStopsHearingFromTheFeed() throws InterruptedException {
+        StockReplica replica = replica(Duration.ofMillis(50));
+        replica.sync();
+        assertFalse(replica.canFill(List.of(new StockLine(productId, 4))));
+
+        Thread.sleep(100);
+        assertFalse(replica.isFresh());
+        assertTrue(replica.canFill(List.of(new StockLine(productId, 4))));
+    }
+
+    @Test
+    void loadsTheCatalogAgainWhenTheEpochOfTheFeedChanged() {
+        StockReplica replica = replica(Duration.ofMinutes(1));
+        replica.sync();
+        verify(inventoryClient, times(1)).getAllProducts();
+
+        // The feed was created again: its versions cannot be compared with the ones the replica holds.
+        UUID newEpoch = UUID.randomUUID();
+        when(inventoryClient.getStockChanges(eq(epoch), eq(5L), any(), anyInt())).thenReturn(ResponseEntity.ok(new StockChangePage(newEpoch, 2, false, List.of(
+                new StockChange(2, StockChange.Type.QUANTITY_CHANGED, productId, null, 1, 1L)))));
+        when(inventoryClient.getAllProducts()).thenReturn(ResponseEntity.ok(List.of(new Product(productId, "replicated", null, 9.99, 7))));
+        replica.sync();
+
+        verify(inventoryClient, times(2)).getAllProducts();
+        assertEquals(7, replica.get(productId).quantity());
+
+        // Then it follows the feed of the new epoch.
+        when(inventoryClient.getStockChanges(eq(newEpoch), eq(2L), any(), anyInt())).thenReturn(ResponseEntity.ok(new StockChangePage(newEpoch, 3, false, List.of(
+                new StockChange(3, StockChange.Type.QUANTITY_CHANGED, productId, null, 6, 2L)))));
+        replica.sync();
+        verify(inventoryClient, times(2)).getAllProducts();
+        assertEquals(6, replica.get(productId).quantity());
+    }
+
+    private StockReplica replica(Duration maxStaleness) {
+        when(inventoryClient.getStockChanges(isNull(), eq(0L), any(), anyInt())).thenReturn(ResponseEntity.ok(new StockChangePage(epoch, 5, true, List.of())));
+        when(inventoryClient.getAllProducts()).thenReturn(ResponseEntity.ok(List.of(new Product(productId, "replicated", null, 9.99, 3))));
+        return new StockReplica(inventoryClient, new SimpleMeterRegistry(), Duration.ofSeconds(2), 1000, Duration.ofSeconds(1), maxStaleness);
+    }
+}
@@ -0,0 +1,52 @@
+package ma.yassine.ecomorderservice.services;
+
+import ma.yassine.ecomorderservice.enums.ReservationStatus;
+import ma.yassine.ecomorderservice.feignClients.InventoryClient;
+import ma.yassine.ecomorderservice.models.StockLine;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+class InventoryReservationServiceTest {
+    private final InventoryClient inventoryClient = mock(InventoryClient.class);
+    private final InventoryReservationService service = new InventoryReservationService(inventoryClient);
+
+    @Test
+    void reservesTheWholeOrderInOneCall() {
+        List<StockLine> lines = lines(120);
+        when(inventoryClient.reserveProductQuantities(anyList())).thenReturn(ResponseEntity.ok(Map.of()));
+
+        assertEquals(ReservationStatus.RESERVED, service.reserve(lines));
+        verify(inventoryClient, times(1)).reserveProductQuantities(lines);
+    }
+
+    @Test
+    void aRefusedOrAbortedCallLeavesNothingToGiveBack() {
+        when(inventoryClient.reserveProductQuantities(anyList()))
+                .thenReturn(ResponseEntity.badRequest().build())
+                .thenReturn(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build());
+
+        assertEquals(ReservationStatus.REJECTED, service.reserve(lines(4)));
+        assertEquals(ReservationStatus.UNAVAILABLE, service.reserve(lines(4)));
+        verify(inventoryClient, never()).incrementProductQuantity(any(), anyInt());
+    }
+
+    private List<StockLine> lines(int count) {
+        List<StockLine> lines = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            lines.add(new StockLine(UUID.randomUUID(), 1));
+        }
+        return lines;
+    }
+}
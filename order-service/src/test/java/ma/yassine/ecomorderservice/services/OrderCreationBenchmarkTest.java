@@ -0,0 +1,102 @@
+package ma.yassine.ecomorderservice.services;
+
+import jakarta.persistence.EntityManagerFactory;
+import ma.yassine.ecomorderservice.enums.ReservationStatus;
+import ma.yassine.ecomorderservice.feignClients.StockReplica;
+import ma.yassine.ecomorderservice.models.Product;
+import ma.yassine.ecomorderservice.repositories.OrderRepository;
+import ma.yassine.ecomorderservice.repositories.ProductItemsRepository;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Measures {@link OrderServiceImpl#createNewOrder} with 1, 10 and 100 lines against a copy of the bundled
+ * {@code h2-databases/order-service-h2-db}, with inventory stubbed out. Run with
+ * {@code mvn test -Dtest=OrderCreationBenchmarkTest -Dbenchmark=true}.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+@DataJpaTest(properties = {
+        "spring.cloud.config.enabled=false",
+        "spring.jpa.hibernate.ddl-auto=update",
+        "spring.jpa.properties.hibernate.generate_statistics=true",
+        "logging.level.org.hibernate.engine.internal.StatisticalLoggingSessionEventListener=warn"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class OrderCreationBenchmarkTest {
+    private static final int WARMUP_ORDERS = Integer.getInteger("benchmark.warmup-orders", 200);
+    private static final int MEASURED_ORDERS = Integer.getInteger("benchmark.orders", 500);
+
+    @Autowired
+    private OrderRepository orderRepository;
+    @Autowired
+    private ProductItemsRepository productItemsRepository;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @DynamicPropertySource
+    static void bundledDatabaseCopy(DynamicPropertyRegistry registry) throws IOException {
+        Path directory = Files.createTempDirectory("order-benchmark");
+        Files.copy(Path.of("../h2-databases/order-service-h2-db.mv.db"), directory.resolve("order-service-h2-db.mv.db"),
+                StandardCopyOption.REPLACE_EXISTING);
+        registry.add("spring.datasource.url", () -> "jdbc:h2:file:" + directory.resolve("order-service-h2-db").toAbsolutePath());
+        registry.add("spring.datasource.username", () -> "sa");
+        registry.add("spring.datasource.password", () -> "");
+    }
+
+    @Test
+    void createOrdersWith1And10And100Lines() {
+        InventoryReservationService reservations = mock(InventoryReservationService.class);
+        when(reservations.reserve(anyList())).thenReturn(ReservationStatus.RESERVED);
+        when(reservations.withCatalogPrices(anyList())).thenAnswer(invocation -> invocation.getArgument(0));
+        OrderServiceImpl orderService = new OrderServiceImpl(orderRepository, productItemsRepository, reservations, null,
+                new TransactionTemplate(transactionManager), null, new StaticListableBeanFactory().getBeanProvider(OutboxRelay.class), new StaticListableBeanFactory().getBeanProvider(StockReplica.class));
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+        for (int lines : new int[]{1, 10, 100}) {
+            List<Product> products = IntStream.range(0, lines)
+                    .mapToObj(i -> new Product(UUID.randomUUID(), "product-" + i, null, 9.99, 1 + i % 3))
+                    .toList();
+            for (int i = 0; i < WARMUP_ORDERS; i++) {
+                orderService.createNewOrder(products);
+            }
+            statistics.clear();
+            long start = System.nanoTime();
+            for (int i = 0; i < MEASURED_ORDERS; i++) {
+                orderService.createNewOrder(products);
+            }
+            long elapsed = System.nanoTime() - start;
+            // With JDBC batching one prepared statement carries many rows, so statements/order drops below rows/order.
+            System.out.printf("%3d line(s): %8.3f ms/order, %7.1f orders/s, %6.1f rows/order, %6.2f statements/order%n",
+                    lines, elapsed / 1e6 / MEASURED_ORDERS, MEASURED_ORDERS / (elapsed / 1e9),
+                    (double) statistics.getEntityInsertCount() / MEASURED_ORDERS,
+                    (double) statistics.getPrepareStatementCount() / MEASURED_ORDERS);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package ma.yassine.ecomorderservice.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import ma.yassine.ecomorderservice.entities.Order;
+import ma.yassine.ecomorderservice.entities.OutboxCommand;
+import ma.yassine.ecomorderservice.enums.OrderState;
+import ma.yassine.ecomorderservice.feignClients.InventoryClient;
+import ma.yassine.ecomorderservice.models.Product;
+import ma.yassine.ecomorderservice.models.StockCommand;
+import ma.yassine.ecomorderservice.models.StockCommandResult;
+import ma.yassine.ecomorderservice.repositories.OrderRepository;
+import ma.yassine.ecomorderservice.repositories.OutboxCommandRepository;
+import ma.yassine.ecomorderservice.repositories.ProductItemsRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+@DataJpaTest(properties = "spring.cloud.config.enabled=false")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class OrderIntakePipelineTest {
+    private final UUID outOfStock = UUID.randomUUID();
+    private final InventoryClient inventoryClient = mock(InventoryClient.class);
+
+    @Autowired
+    private OrderRepository orderRepository;
+    @Autowired
+    private ProductItemsRepository productItemsRepository;
+    @Autowired
+    private OutboxCommandRepository outboxCommandRepository;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private OutboxRelay relay;
+    private OrderIntakePipeline pipeline;
+
+    @BeforeEach
+    void setUp() {
+        // Inventory refuses any reservation that includes the out-of-stock product.
+        when(inventoryClient.applyStockCommands(anyList())).thenAnswer(invocation -> ResponseEntity.ok(invocation.<List<StockCommand>>getArgument(0).stream()
+                .map(command -> new StockCommandResult(command.idempotencyKey(),
+                        command.lines().stream().anyMatch(line -> line.getProductId().equals(outOfStock))
+                                ? StockCommandResult.Outcome.REJECTED : StockCommandResult.Outcome.APPLIED))
+                .toList()));
+        outboxCommandRepository.deleteAll();
+        start(2);
+    }
+
+    private void start(int queueCapacity) {
+        if (relay != null) {
+            relay.destroy();
+        }
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        relay = spy(new OutboxRelay(outboxCommandRepository, orderRepository, inventoryClient, transactionTemplate, new SimpleMeterRegistry(), false,
+                200, Duration.ofSeconds(1), Duration.ofSeconds(30), Duration.ZERO, Duration.ofSeconds(5), 20, Duration.ofDays(7), Duration.ZERO));
+        // The tests run the relay themselves.
+        doNothing().when(relay).wakeUp();
+        pipeline = new OrderIntakePipeline(orderRepository, productItemsRepository, relay, transactionTemplate, queueCapacity);
+    }
+
+    @AfterEach
+    void tearDown() {
+        relay.destroy();
+    }
+
+    @Test
+    void reservesTheOrdersTakenTogetherInOneRequest() throws Exception {
+        start(1000);
+        List<Order> orders = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            orders.add(pipeline.submit(List.of(product(UUID.randomUUID(), 2), product(UUID.randomUUID(), 1))));
+        }
+        assertEquals(OrderState.PENDING, orders.get(0).getOrderState());
+        verify(relay, times(100)).wakeUp();
+        var waiting = pipeline.outcome(orders.get(0).getId(), Duration.ofSeconds(5));
+
+        relay.relay();
+
+        verify(inventoryClient, times(1)).applyStockCommands(argThat(commands -> commands.size() == 100));
+        for (Order order : orders) {
+            assertEquals(OrderState.NEW, orderRepository.findStateById(order.getId()).orElseThrow());
+        }
+        assertEquals(OrderState.NEW, waiting.get());
+    }
+
+    @Test
+    void rejectsOnlyTheOrdersThatCannotBeServed() throws Exception {
+        UUID productId = UUID.randomUUID();
+        Long served = pipeline.submit(List.of(product(productId, 1))).getId();
+        Long refused = pipeline.submit(List.of(product(outOfStock, 1))).getId();
+        var waiting = pipeline.outcome(refused, Duration.ofSeconds(5));
+
+        relay.relay();
+
+        assertEquals(OrderState.NEW, orderRepository.findStateById(served).orElseThrow());
+        assertEquals(OrderState.REJECTED, orderRepository.findStateById(refused).orElseThrow());
+        assertEquals(OrderState.REJECTED, waiting.get());
+    }
+
+    @Test
+    void retriesAnOrderWithTheKeyOfItsReservation() {
+        when(inventoryClient.applyStockCommands(anyList()))
+                .thenReturn(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build())
+                .thenAnswer(invocation -> ResponseEntity.ok(invocation.<List<StockCommand>>getArgument(0).stream()
+                        .map(command -> new StockCommandResult(command.idempotencyKey(), StockCommandResult.Outcome.APPLIED))
+                        .toList()));
+        Long orderId = pipeline.submit(List.of(product(UUID.randomUUID(), 1))).getId();
+
+        relay.relay();
+        assertEquals(OrderState.PENDING, orderRepository.findStateById(orderId).orElseThrow());
+        // Another node, e.g. after this one restarted, takes the order over with the same key.
+        start(2);
+        relay.relay();
+
+        assertEquals(OrderState.NEW, orderRepository.findStateById(orderId).orElseThrow());
+        String key = outboxCommandRepository.findAll().stream()
+                .filter(command -> command.getOrderId().equals(orderId)).map(OutboxCommand::getIdempotencyKey).findFirst().orElseThrow();
+        verify(inventoryClient, times(2)).applyStockCommands(argThat(commands -> commands.size() == 1 && commands.get(0).idempotencyKey().equals(key)));
+    }
+
+    @Test
+    void rejectsOrdersWhileTooManyReservationsWait() {
+        when(inventoryClient.applyStockCommands(anyList())).thenReturn(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build());
+        pipeline.submit(List.of(product(UUID.randomUUID(), 1)));
+        pipeline.submit(List.of(product(UUID.randomUUID(), 1)));
+        relay.relay();
+
+        long orders = orderRepository.count();
+        long items = productItemsRepository.count();
+
+        assertNull(pipeline.submit(List.of(product(UUID.randomUUID(), 1))));
+
+        assertEquals(orders, orderRepository.count());
+        assertEquals(items, productItemsRepository.count());
+        assertEquals(2, outboxCommandRepository.count());
+    }
+
+    private static Product product(UUID id, int quantity) {
+        return new Product(id, null, null, 9.99, quantity);
+    }
+}
@@ -0,0 +1,152 @@
+package ma.yassine.ecomorderservice.services;
+
+import ma.yassine.ecomorderservice.entities.Order;
+import ma.yassine.ecomorderservice.entities.ProductItem;
+import ma.yassine.ecomorderservice.enums.OrderState;
+import ma.yassine.ecomorderservice.feignClients.InventoryClient;
+import ma.yassine.ecomorderservice.feignClients.StockReplica;
+import ma.yassine.ecomorderservice.models.Product;
+import ma.yassine.ecomorderservice.repositories.OrderRepository;
+import ma.yassine.ecomorderservice.repositories.ProductItemsRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+@DataJpaTest(properties = "spring.cloud.config.enabled=false")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class OrderPricingTest {
+    private static final double CATALOG_PRICE = 12.5;
+
+    private final InventoryClient inventoryClient = mock(InventoryClient.class);
+    private final OrderIntakePipeline orderIntakePipeline = mock(OrderIntakePipeline.class);
+
+    @Autowired
+    private OrderRepository orderRepository;
+    @Autowired
+    private ProductItemsRepository productItemsRepository;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private OrderServiceImpl orderService;
+
+    @BeforeEach
+    void setUp() {
+        when(inventoryClient.getProductsByIds(anyList())).thenAnswer(invocation -> ResponseEntity.ok(invocation.<List<UUID>>getArgument(0).stream()
+                .map(id -> new Product(id, "catalog", null, CATALOG_PRICE, 100))
+                .toList()));
+        when(inventoryClient.reserveProductQuantities(anyList())).thenReturn(ResponseEntity.ok(Map.of()));
+        when(orderIntakePipeline.submit(anyList())).thenReturn(Order.builder().id(1L).orderState(OrderState.PENDING).build());
+        StaticListableBeanFactory beans = new StaticListableBeanFactory();
+        orderService = new OrderServiceImpl(orderRepository, productItemsRepository, new InventoryReservationService(inventoryClient), null,
+                new TransactionTemplate(transactionManager), orderIntakePipeline, beans.getBeanProvider(OutboxRelay.class), beans.getBeanProvider(StockReplica.class));
+    }
+
+    @Test
+    void pricesTheItemsFromInventoryInOneLookup() {
+        Product product = product();
+
+        Long orderId = orderService.createNewOrder(List.of(product, product(), product)).getBody().getId();
+
+        List<ProductItem> items = productItemsRepository.findAll().stream()
+                .filter(item -> item.getOrder().getId().equals(orderId)).toList();
+        assertEquals(3, items.size());
+        assertTrue(items.stream().allMatch(item -> item.getPrice() == CATALOG_PRICE), "The price sent by the client is ignored");
+        // The repeated product is looked up once.
+        verify(inventoryClient, times(1)).getProductsByIds(argThat(ids -> ids.size() == 2));
+    }
+
+    @Test
+    void pricesTheItemsOfAnOrderTakenInAsynchronously() {
+        ResponseEntity<Order> response = orderService.createNewOrderAsync(List.of(product(), product()));
+
+        assertEquals(HttpStatus.ACCEPTED, response.getStatusCode());
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<Product>> submitted = ArgumentCaptor.forClass(List.class);
+        verify(orderIntakePipeline).submit(submitted.capture());
+        assertEquals(2, submitted.getValue().size());
+        assertTrue(submitted.getValue().stream().allMatch(product -> product.getPrice() == CATALOG_PRICE));
+    }
+
+    @Test
+    void looksUpTheProductsOfALargeOrderInBatchesOfAThousand() {
+        List<Product> products = IntStream.range(0, 1_500).mapToObj(i -> product()).toList();
+
+        assertEquals(HttpStatus.ACCEPTED, orderService.createNewOrderAsync(products).getStatusCode());
+
+        verify(inventoryClient).getProductsByIds(argThat(ids -> ids.size() == 1_000));
+        verify(inventoryClient).getProductsByIds(argThat(ids -> ids.size() == 500));
+    }
+
+    @Test
+    void answersServiceUnavailableWhenThePricesCannotBeRead() {
+        when(inventoryClient.getProductsByIds(anyList())).thenReturn(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build());
+        long orders = orderRepository.count();
+
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, orderService.createNewOrderAsync(List.of(product())).getStatusCode());
+        RuntimeException error = assertThrows(RuntimeException.class, () -> orderService.createNewOrder(List.of(product())));
+
+        assertEquals("Error: Could not read the prices of the products from inventory.", error.getMessage());
+        verify(orderIntakePipeline, never()).submit(anyList());
+        assertEquals(orders, orderRepository.count());
+    }
+
+    @Test
+    void rejectsAnOrderForAnUnknownProductBeforeSavingIt() {
+        UUID unknown = UUID.randomUUID();
+        when(inventoryClient.getProductsByIds(List.of(unknown))).thenReturn(ResponseEntity.ok(List.of()));
+        long orders = orderRepository.count();
+
+        RuntimeException error = assertThrows(RuntimeException.class,
+                () -> orderService.createNewOrder(List.of(new Product(unknown, "unknown", null, 0.01, 1))));
+
+        assertEquals("Error: One or more products do not exist.", error.getMessage());
+        assertEquals(orders, orderRepository.count());
+        verify(inventoryClient, never()).reserveProductQuantities(anyList());
+    }
+
+    @Test
+    void savesNothingWhenTheStockCannotBeReserved() {
+        when(inventoryClient.reserveProductQuantities(anyList())).thenReturn(ResponseEntity.badRequest().build());
+        long orders = orderRepository.count();
+        long items = productItemsRepository.count();
+
+        assertThrows(RuntimeException.class, () -> orderService.createNewOrder(List.of(product())));
+
+        assertEquals(orders, orderRepository.count());
+        assertEquals(items, productItemsRepository.count());
+    }
+
+    @Test
+    void rejectsAnOrderForAProductWithoutAPrice() {
+        UUID unpriced = UUID.randomUUID();
+        when(inventoryClient.getProductsByIds(List.of(unpriced))).thenReturn(ResponseEntity.ok(List.of(new Product(unpriced, "unpriced", null, null, 5))));
+
+        RuntimeException error = assertThrows(RuntimeException.class,
+                () -> orderService.createNewOrderAsync(List.of(new Product(unpriced, "unpriced", null, 0.01, 1))));
+
+        assertEquals("Error: One or more products have no price.", error.getMessage());
+        verify(orderIntakePipeline, never()).submit(anyList());
+    }
+
+    private static Product product() {
+        return new Product(UUID.randomUUID(), "priced", null, 0.01, 2);
+    }
+}
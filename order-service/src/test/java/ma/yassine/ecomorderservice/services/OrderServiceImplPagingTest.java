@@ -0,0 +1,89 @@
+package ma.yassine.ecomorderservice.services;
+
+import jakarta.persistence.EntityManagerFactory;
+import ma.yassine.ecomorderservice.entities.Order;
+import ma.yassine.ecomorderservice.entities.ProductItem;
+import ma.yassine.ecomorderservice.models.OrderPage;
+import ma.yassine.ecomorderservice.repositories.OrderRepository;
+import ma.yassine.ecomorderservice.repositories.ProductItemsRepository;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DataJpaTest(properties = {
+        "spring.cloud.config.enabled=false",
+        "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class OrderServiceImplPagingTest {
+    @Autowired
+    private OrderRepository orderRepository;
+    @Autowired
+    private ProductItemsRepository productItemsRepository;
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private OrderServiceImpl orderService;
+    private final List<Long> orderIds = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        productItemsRepository.deleteAll();
+        orderRepository.deleteAll();
+        orderIds.clear();
+        for (int i = 0; i < 7; i++) {
+            Order order = orderRepository.save(new Order());
+            productItemsRepository.saveAll(List.of(
+                    ProductItem.builder().order(order).productId(UUID.randomUUID()).quantity(1).price(10).build(),
+                    ProductItem.builder().order(order).productId(UUID.randomUUID()).quantity(2).price(20).build()));
+            orderIds.add(order.getId());
+        }
+        orderService = new OrderServiceImpl(orderRepository, productItemsRepository, null, null, null, null, null, null);
+    }
+
+    @Test
+    void walksAllOrdersNewestFirstWithTwoQueriesPerPage() {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        List<Long> seen = new ArrayList<>();
+        Long cursor = null;
+        int pages = 0;
+        do {
+            statistics.clear();
+            ResponseEntity<OrderPage> response = orderService.getOrdersPage(cursor, 3);
+            OrderPage page = response.getBody();
+            assertNotNull(page);
+            assertEquals(2, statistics.getPrepareStatementCount(), "one ID query and one fetch query per page");
+            page.getOrders().forEach(order -> {
+                assertEquals(2, order.getProductItem().size());
+                seen.add(order.getId());
+            });
+            cursor = page.getNextCursor();
+            pages++;
+        } while (cursor != null);
+
+        assertEquals(3, pages);
+        assertEquals(orderIds.reversed(), seen);
+    }
+
+    @Test
+    void capsThePageSizeAndRejectsEmptyPages() {
+        OrderPage page = orderService.getOrdersPage(null, 10_000).getBody();
+        assertNotNull(page);
+        assertEquals(7, page.getOrders().size());
+        assertNull(page.getNextCursor());
+
+        assertTrue(orderService.getOrdersPage(null, 0).getStatusCode().is4xxClientError());
+    }
+}
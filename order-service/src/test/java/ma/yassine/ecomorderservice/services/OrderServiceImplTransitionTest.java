@@ -0,0 +1,101 @@
+package ma.yassine.ecomorderservice.services;
+
+import ma.yassine.ecomorderservice.entities.Order;
+import ma.yassine.ecomorderservice.enums.OrderState;
+import ma.yassine.ecomorderservice.enums.OrderTransition;
+import ma.yassine.ecomorderservice.enums.TransitionOutcome;
+import ma.yassine.ecomorderservice.models.OrderTransitionResult;
+import ma.yassine.ecomorderservice.repositories.OrderRepository;
+import ma.yassine.ecomorderservice.repositories.ProductItemsRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DataJpaTest(properties = "spring.cloud.config.enabled=false")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class OrderServiceImplTransitionTest {
+    @Autowired
+    private OrderRepository orderRepository;
+    @Autowired
+    private ProductItemsRepository productItemsRepository;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private OrderServiceImpl orderService;
+
+    @BeforeEach
+    void setUp() {
+        productItemsRepository.deleteAll();
+        orderRepository.deleteAll();
+        orderService = new OrderServiceImpl(orderRepository, productItemsRepository, null, null,
+                new TransactionTemplate(transactionManager), null, null, null);
+    }
+
+    @Test
+    void singleTransitionsOnlyApplyFromTheAllowedStates() {
+        Long id = orderRepository.save(new Order()).getId();
+
+        assertTrue(orderService.deliverOrder(id).getStatusCode().is4xxClientError());
+        assertTrue(orderService.confirmOrder(id).getStatusCode().is2xxSuccessful());
+        assertTrue(orderService.confirmOrder(id).getStatusCode().is4xxClientError());
+        assertTrue(orderService.deliverOrder(id).getStatusCode().is2xxSuccessful());
+        assertEquals("Order with id '" + id + "' was already delivered.", orderService.deliverOrder(id).getBody());
+        assertTrue(orderService.cancelOrder(id).getStatusCode().is4xxClientError());
+        assertTrue(orderService.confirmOrder(-1L).getStatusCode().is4xxClientError());
+        assertEquals(OrderState.DELIVERED, orderRepository.findStateById(id).orElseThrow());
+    }
+
+    @Test
+    void bulkTransitionReportsEveryIdInRequestOrder() {
+        Long fresh = orderRepository.save(new Order()).getId();
+        Long cancelled = orderRepository.save(Order.builder().orderState(OrderState.CANCELLED).build()).getId();
+
+        List<OrderTransitionResult> results = orderService
+                .transitionOrders(OrderTransition.CONFIRM, List.of(cancelled, -1L, fresh, cancelled))
+                .getBody();
+
+        assertNotNull(results);
+        assertEquals(3, results.size());
+        assertEquals(cancelled, results.get(0).getOrderId());
+        assertEquals(TransitionOutcome.INVALID_STATE, results.get(0).getOutcome());
+        assertEquals(OrderState.CANCELLED, results.get(0).getOrderState());
+        assertEquals(TransitionOutcome.NOT_FOUND, results.get(1).getOutcome());
+        assertEquals(TransitionOutcome.TRANSITIONED, results.get(2).getOutcome());
+        assertEquals(OrderState.PROCESSING, orderRepository.findStateById(fresh).orElseThrow());
+        assertTrue(orderService.transitionOrders(OrderTransition.CONFIRM, List.of()).getStatusCode().is4xxClientError());
+    }
+
+    @Test
+    void concurrentBulkTransitionsNeverBothWinTheSameOrder() {
+        List<Long> ids = new ArrayList<>();
+        LongStream.range(0, 2_500).forEach(i ->
+                ids.add(orderRepository.save(Order.builder().orderState(OrderState.PROCESSING).build()).getId()));
+
+        CompletableFuture<List<OrderTransitionResult>> deliver = CompletableFuture.supplyAsync(() ->
+                orderService.transitionOrders(OrderTransition.DELIVER, ids).getBody());
+        CompletableFuture<List<OrderTransitionResult>> cancel = CompletableFuture.supplyAsync(() ->
+                orderService.transitionOrders(OrderTransition.CANCEL, ids).getBody());
+        List<OrderTransitionResult> delivered = deliver.join();
+        List<OrderTransitionResult> cancelled = cancel.join();
+
+        for (int i = 0; i < ids.size(); i++) {
+            boolean deliveredWon = delivered.get(i).getOutcome() == TransitionOutcome.TRANSITIONED;
+            boolean cancelledWon = cancelled.get(i).getOutcome() == TransitionOutcome.TRANSITIONED;
+            assertNotEquals(deliveredWon, cancelledWon, "exactly one transition wins order " + ids.get(i));
+            OrderState expected = deliveredWon ? OrderState.DELIVERED : OrderState.CANCELLED;
+            assertEquals(expected, orderRepository.findStateById(ids.get(i)).orElseThrow());
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package ma.yassine.ecomorderservice.services;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import ma.yassine.ecomorderservice.entities.Order;
+import ma.yassine.ecomorderservice.entities.OutboxCommand;
+import ma.yassine.ecomorderservice.enums.OrderState;
+import ma.yassine.ecomorderservice.feignClients.InventoryClient;
+import ma.yassine.ecomorderservice.feignClients.StockReplica;
+import ma.yassine.ecomorderservice.models.Product;
+import ma.yassine.ecomorderservice.models.StockCommand;
+import ma.yassine.ecomorderservice.models.StockCommandResult;
+import ma.yassine.ecomorderservice.models.StockLine;
+import ma.yassine.ecomorderservice.repositories.OrderRepository;
+import ma.yassine.ecomorderservice.repositories.OutboxCommandRepository;
+import ma.yassine.ecomorderservice.repositories.ProductItemsRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.stubbing.Answer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.*;
+
+@DataJpaTest(properties = "spring.cloud.config.enabled=false")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class OutboxRelayTest {
+    private static final double CATALOG_PRICE = 12.5;
+
+    private final InventoryClient inventoryClient = mock(InventoryClient.class);
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Autowired
+    private OrderRepository orderRepository;
+    @Autowired
+    private ProductItemsRepository productItemsRepository;
+    @Autowired
+    private OutboxCommandRepository outboxCommandRepository;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private OutboxRelay relay;
+    private OrderServiceImpl orderService;
+
+    @BeforeEach
+    void setUp() {
+        when(inventoryClient.getProductsByIds(anyList())).thenAnswer(invocation -> ResponseEntity.ok(invocation.<List<UUID>>getArgument(0).stream()
+                .map(id -> new Product(id, "catalog", null, CATALOG_PRICE, 100))
+                .toList()));
+        start(Duration.ofMillis(50), Duration.ofSeconds(2), 20);
+    }
+
+    private void start(Duration initialBackoff, Duration syncWait, int maxAttempts) {
+        if (relay != null) {
+            relay.destroy();
+        }
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        relay = new OutboxRelay(outboxCommandRepository, orderRepository, inventoryClient, transactionTemplate, meterRegistry, true,
+                50, Duration.ofSeconds(1), Duration.ofSeconds(30), initialBackoff, Duration.ofSeconds(5), maxAttempts,
+                Duration.ofDays(7), syncWait);
+        StaticListableBeanFactory beans = new StaticListableBeanFactory(Map.of("outboxRelay", relay));
+        orderService = new OrderServiceImpl(orderRepository, productItemsRepository, new InventoryReservationService(inventoryClient), null,
+                transactionTemplate, null, beans.getBeanProvider(OutboxRelay.class), beans.getBeanProvider(StockReplica.class));
+    }
+
+    @AfterEach
+    void tearDown() {
+        relay.destroy();
+    }
+
+    @Test
+    void sendsTheReservationSavedWithTheOrder() {
+        when(inventoryClient.applyStockCommands(anyList())).thenAnswer(answer(StockCommandResult.Outcome.APPLIED));
+
+        ResponseEntity<Order> response = orderService.createNewOrder(List.of(product()));
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        Long orderId = response.getBody().getId();
+        assertEquals(OrderState.NEW, orderRepository.findStateById(orderId).orElseThrow());
+        OutboxCommand command = outboxCommandRepository.findAll().stream()
+                .filter(c -> c.getOrderId().equals(orderId)).findFirst().orElseThrow();
+        assertEquals(OutboxCommand.Status.DISPATCHED, command.getStatus());
+        verify(inventoryClient).applyStockCommands(List.of(
+                new StockCommand(command.getIdempotencyKey(), StockCommand.Type.RESERVE, null, command.getLines())));
+        assertEquals(1, meterRegistry.counter("order.outbox.commands", "outcome", "dispatched").count());
+    }
+
+    @Test
+    void sendsTheDueCommandsInOneRequest() {
+        List<Long> orderIds = new TransactionTemplate(transactionManager).execute(status -> List.of(pendingOrder(), pendingOrder(), pendingOrder()));
+        when(inventoryClient.applyStockCommands(anyList())).thenAnswer(answer(StockCommandResult.Outcome.APPLIED));
+
+        relay.relay();
+
+        verify(inventoryClient, times(1)).applyStockCommands(argThat(commands -> commands.size() == 3));
+        orderIds.forEach(orderId -> assertEquals(OrderState.NEW, orderRepository.findStateById(orderId).orElseThrow()));
+    }
+
+    @Test
+    void retriesWithTheSameKeyAfterABackoff() throws InterruptedException {
+        start(Duration.ofSeconds(1), Duration.ofMillis(200), 20);
+        when(inventoryClient.applyStockCommands(anyList()))
+                .thenReturn(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build())
+                .then(answer(StockCommandResult.Outcome.APPLIED));
+
+        ResponseEntity<Order> response = orderService.createNewOrder(List.of(product()));
+
+        assertEquals(HttpStatus.ACCEPTED, response.getStatusCode());
+        Long orderId = response.getBody().getId();
+        assertEquals(OrderState.PENDING, orderRepository.findStateById(orderId).orElseThrow());
+        relay.relay();
+        // Not due yet.
+        verify(inventoryClient, times(1)).applyStockCommands(anyList());
+
+        // Past the backoff.
+        Thread.sleep(1300);
+        relay.relay();
+
+        assertEquals(OrderState.NEW, orderRepository.findStateById(orderId).orElseThrow());
+        String key = outboxCommandRepository.findAll().stream()
+                .filter(c -> c.getOrderId().equals(orderId)).findFirst().orElseThrow().getIdempotencyKey();
+        verify(inventoryClient, times(2)).applyStockCommands(argThat(commands -> commands.get(0).idempotencyKey().equals(key)));
+        assertEquals(1, meterRegistry.counter("order.outbox.commands", "outcome", "retried").count());
+    }
+
+    @Test
+    void retriesACommandThatInventoryIsStillApplying() {
+        start(Duration.ZERO, Duration.ofMillis(200), 20);
+        Long orderId = new TransactionTemplate(transactionManager).execute(status -> pendingOrder());
+        when(inventoryClient.applyStockCommands(anyList()))
+                .then(answer(StockCommandResult.Outcome.RETRY))
+                .then(answer(StockCommandResult.Outcome.APPLIED));
+
+        relay.relay();
+        assertEquals(OrderState.PENDING, orderRepository.findStateById(orderId).orElseThrow());
+        relay.relay();
+
+        assertEquals(OrderState.NEW, orderRepository.findStateById(orderId).orElseThrow());
+    }
+
+    @Test
+    void rejectsTheOrderWhenInventoryRefusesTheReservation() {
+        when(inventoryClient.applyStockCommands(anyList())).thenAnswer(answer(StockCommandResult.Outcome.REJECTED));
+
+        assertThrows(RuntimeException.class, () -> orderService.createNewOrder(List.of(product())));
+
+        Order order = orderRepository.findAll().stream().max((a, b) -> Long.compare(a.getId(), b.getId())).orElseThrow();
+        assertEquals(OrderState.REJECTED, order.getOrderState());
+        assertEquals(1, meterRegistry.counter("order.outbox.commands", "outcome", "rejected").count());
+    }
+
+    @Test
+    void releasesADeadReservationAndRejectsItsOrder() {
+        start(Duration.ZERO, Duration.ofMillis(200), 1);
+        Long orderId = new TransactionTemplate(transactionManager).execute(status -> pendingOrder());
+        when(inventoryClient.applyStockCommands(anyList())).thenAnswer(answer(StockCommandResult.Outcome.RETRY));
+
+        relay.relay();
+
+        assertEquals(OrderState.REJECTED, orderRepository.findStateById(orderId).orElseThrow());
+        OutboxCommand reservation = command(orderId, OutboxCommand.Type.RESERVE);
+        assertEquals(OutboxCommand.Status.DEAD, reservation.getStatus());
+        OutboxCommand release = command(orderId, OutboxCommand.Type.RELEASE);
+        assertEquals(reservation.getIdempotencyKey(), release.getReservationKey());
+        assertEquals(reservation.getLines(), release.getLines());
+
+        when(inventoryClient.applyStockCommands(anyList())).thenAnswer(answer(StockCommandResult.Outcome.APPLIED));
+        relay.relay();
+
+        verify(inventoryClient).applyStockCommands(List.of(new StockCommand(release.getIdempotencyKey(), StockCommand.Type.RELEASE,
+                reservation.getIdempotencyKey(), reservation.getLines())));
+        assertEquals(OutboxCommand.Status.DISPATCHED, command(orderId, OutboxCommand.Type.RELEASE).getStatus());
+        assertEquals(OrderState.REJECTED, orderRepository.findStateById(orderId).orElseThrow());
+    }
+
+    @Test
+    void givesStockBackWithItsOwnKeyUntilInventoryAppliesIt() {
+        start(Duration.ZERO, Duration.ofMillis(200), 20);
+        Long orderId = orderRepository.save(Order.builder().orderState(OrderState.NEW).build()).getId();
+        List<StockLine> lines = List.of(new StockLine(UUID.randomUUID(), 3));
+        when(inventoryClient.applyStockCommands(anyList()))
+                .thenReturn(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build())
+                .then(answer(StockCommandResult.Outcome.APPLIED));
+
+        relay.release(orderId, lines);
+        relay.relay();
+        relay.relay();
+
+        OutboxCommand release = command(orderId, OutboxCommand.Type.RELEASE);
+        assertEquals(OutboxCommand.Status.DISPATCHED, release.getStatus());
+        verify(inventoryClient, times(2)).applyStockCommands(List.of(
+                new StockCommand(release.getIdempotencyKey(), StockCommand.Type.RELEASE, null, lines)));
+        assertEquals(OrderState.NEW, orderRepository.findStateById(orderId).orElseThrow());
+    }
+
+    @Test
+    void givesTheStockOfADeletedOrderBack() {
+        when(inventoryClient.applyStockCommands(anyList())).thenAnswer(answer(StockCommandResult.Outcome.APPLIED));
+        Product product = product();
+        Long orderId = orderService.createNewOrder(List.of(product)).getBody().getId();
+        assertEquals(OrderState.NEW, orderRepository.findStateById(orderId).orElseThrow());
+
+        orderService.deleteOrder(orderId);
+
+        assertTrue(orderRepository.findById(orderId).isEmpty());
+        OutboxCommand release = command(orderId, OutboxCommand.Type.RELEASE);
+        assertEquals(List.of(new StockLine(product.getId(), product.getQuantity())), release.getLines());
+        assertNull(release.getReservationKey());
+    }
+
+    @Test
+    void forgetsTheOutcomeOfAnOrderThatWasRolledBack() {
+        Long orderId = new TransactionTemplate(transactionManager).execute(status -> {
+            Long id = pendingOrder();
+            status.setRollbackOnly();
+            return id;
+        });
+
+        assertNull(relay.outcome(orderId, Duration.ZERO).join());
+    }
+
+    private Long pendingOrder() {
+        Long orderId = orderRepository.save(Order.builder().orderState(OrderState.PENDING).build()).getId();
+        relay.enqueue(orderId, List.of(new StockLine(UUID.randomUUID(), 1)));
+        return orderId;
+    }
+
+    private OutboxCommand command(Long orderId, OutboxCommand.Type type) {
+        return outboxCommandRepository.findAll().stream()
+                .filter(c -> c.getOrderId().equals(orderId) && c.getType() == type).findFirst().orElseThrow();
+    }
+
+    /**
+     * Answers every command of a batch with the given outcome.
+     */
+    private static Answer<ResponseEntity<List<StockCommandResult>>> answer(StockCommandResult.Outcome outcome) {
+        return invocation -> ResponseEntity.ok(invocation.<List<StockCommand>>getArgument(0).stream()
+                .map(command -> new StockCommandResult(command.idempotencyKey(), outcome))
+                .toList());
+    }
+
+    private static Product product() {
+        return new Product(UUID.randomUUID(), "outboxed", null, 9.99, 2);
+    }
+}